@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.codice.imaging.nitf.core.image.ImageCompression;
+import org.codice.imaging.nitf.core.image.ImageMode;
+import org.codice.imaging.nitf.core.image.ImageRepresentation;
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
+import org.codice.imaging.nitf.core.image.PixelJustification;
+import org.codice.imaging.nitf.core.image.PixelValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Renders uncompressed (optionally masked) monochrome and RGB image segments at reduced
+ * resolution. The image data is read once, in storage order, and every output image takes every
+ * n-th row and column of the input. Rows that no output needs are skipped instead of read and
+ * blocks that the block mask table marks as not recorded are never visited, so the memory needed
+ * is bounded by the size of the outputs plus one row of a block.
+ */
+class DecimatedImageRenderer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecimatedImageRenderer.class);
+
+    private static final long BLOCK_NOT_RECORDED = 0xFFFFFFFFL;
+
+    private static final int MONOCHROME_BANDS = 1;
+
+    private static final int RGB_BANDS = 3;
+
+    private final NitfImageSegmentHeader header;
+
+    private final int rows;
+
+    private final int columns;
+
+    private final int blocksPerRow;
+
+    private final int blockCount;
+
+    private final int blockWidth;
+
+    private final int blockHeight;
+
+    private final int bands;
+
+    private final int bytesPerSample;
+
+    private final int sampleShift;
+
+    /**
+     * @param header must be supported, see {@link #isSupported(NitfImageSegmentHeader)}
+     */
+    DecimatedImageRenderer(NitfImageSegmentHeader header) {
+        this.header = header;
+        this.rows = Math.toIntExact(header.getNumberOfRows());
+        this.columns = Math.toIntExact(header.getNumberOfColumns());
+        this.blocksPerRow = header.getNumberOfBlocksPerRow();
+        this.blockCount = blocksPerRow * header.getNumberOfBlocksPerColumn();
+        this.blockWidth = header.getNumberOfPixelsPerBlockHorizontal();
+        this.blockHeight = header.getNumberOfPixelsPerBlockVertical();
+        this.bands = header.getNumBands();
+        this.bytesPerSample = header.getNumberOfBitsPerPixelPerBand() / Byte.SIZE;
+        this.sampleShift = Math.max(0, header.getActualBitsPerPixelPerBand() - Byte.SIZE);
+    }
+
+    /**
+     * @return true if the image segment is uncompressed, 8 or 16 bit (right justified) unsigned
+     * integer, and monochrome or RGB without lookup tables (the samples are drawn as they are)
+     */
+    static boolean isSupported(NitfImageSegmentHeader header) {
+        boolean uncompressed = header.getImageCompression() == ImageCompression.NOTCOMPRESSED
+                || header.getImageCompression() == ImageCompression.NOTCOMPRESSEDMASK;
+        boolean integer = header.getPixelValueType() == PixelValueType.INTEGER
+                && (header.getNumberOfBitsPerPixelPerBand() == Byte.SIZE || (
+                header.getNumberOfBitsPerPixelPerBand() == Short.SIZE
+                        && header.getPixelJustification() == PixelJustification.RIGHT));
+        boolean displayable = (header.getImageRepresentation() == ImageRepresentation.MONOCHROME
+                && header.getNumBands() == MONOCHROME_BANDS) || (
+                header.getImageRepresentation() == ImageRepresentation.RGBTRUECOLOUR
+                        && header.getNumBands() == RGB_BANDS);
+        boolean interleaved = header.getImageMode() == ImageMode.BLOCKINTERLEVE
+                || header.getImageMode() == ImageMode.PIXELINTERLEVE
+                || header.getImageMode() == ImageMode.ROWINTERLEVE
+                || header.getImageMode() == ImageMode.BANDSEQUENTIAL;
+
+        return uncompressed && integer && displayable && interleaved && !hasLookupTables(header)
+                && header.getNumberOfRows() <= Integer.MAX_VALUE
+                && header.getNumberOfColumns() <= Integer.MAX_VALUE;
+    }
+
+    private static boolean hasLookupTables(NitfImageSegmentHeader header) {
+        return IntStream.range(0, header.getNumBands())
+                .anyMatch(band -> header.getImageBandZeroBase(band)
+                        .getNumLUTs() > 0);
+    }
+
+    /**
+     * Render the image once for each maximum size. Each output keeps the aspect ratio of the
+     * image and is decimated by the smallest whole factor that makes it fit.
+     *
+     * @param imageData    the image segment data
+     * @param maximumSizes the maximum size of each output
+     * @return the outputs, in the order of {@code maximumSizes}
+     * @throws IOException if the image data could not be read
+     */
+    List<BufferedImage> render(InputStream imageData, List<Dimension> maximumSizes)
+            throws IOException {
+        List<Integer> steps = new ArrayList<>(maximumSizes.size());
+        for (Dimension maximumSize : maximumSizes) {
+            steps.add(getStep(columns, rows, maximumSize));
+        }
+        return renderDecimated(imageData, steps);
+    }
+
+    /**
+     * Render the image once for each step, taking every {@code step}-th row and column.
+     *
+     * @param imageData the image segment data
+     * @param steps     the decimation step of each output, at least 1
+     * @return the outputs, in the order of {@code steps}
+     * @throws IOException if the image data could not be read
+     */
+    List<BufferedImage> renderDecimated(InputStream imageData, List<Integer> steps)
+            throws IOException {
+        List<Output> outputs = new ArrayList<>(steps.size());
+        for (int step : steps) {
+            outputs.add(new Output(step));
+        }
+
+        CountingInputStream input = new CountingInputStream(imageData);
+        List<Block> blocks = readBlocks(input);
+
+        byte[] row = new byte[blockWidth * bytesPerSample * (isPixelInterleaved() ? bands : 1)];
+
+        for (Block block : blocks) {
+            if (block.offset < input.getCount()) {
+                LOGGER.debug("skipping image block {} that overlaps the previous block",
+                        block.index);
+                continue;
+            }
+            ByteStreams.skipFully(input, block.offset - input.getCount());
+            renderBlock(input, block, row, outputs);
+        }
+
+        List<BufferedImage> images = new ArrayList<>(outputs.size());
+        outputs.forEach(output -> images.add(output.image));
+        return images;
+    }
+
+    /**
+     * @return the smallest whole decimation step that makes an image of the given size fit into
+     * the maximum size
+     */
+    static int getStep(long width, long height, Dimension maximumSize) {
+        return Math.max(1,
+                Math.max(divideRoundingUp(width, maximumSize.width),
+                        divideRoundingUp(height, maximumSize.height)));
+    }
+
+    private boolean isPixelInterleaved() {
+        return header.getImageMode() == ImageMode.PIXELINTERLEVE;
+    }
+
+    private boolean isBandSequential() {
+        return header.getImageMode() == ImageMode.BANDSEQUENTIAL;
+    }
+
+    private long getBlockLength() {
+        return (long) blockWidth * blockHeight * bytesPerSample * (isBandSequential() ? 1 : bands);
+    }
+
+    /**
+     * Read the block mask table (if any) and return the recorded blocks in storage order. The
+     * stream is left at the end of the mask table.
+     */
+    private List<Block> readBlocks(CountingInputStream input) throws IOException {
+        int blockBands = isBandSequential() ? bands : 1;
+        long[] offsets = new long[blockCount * blockBands];
+        long dataOffset = 0;
+        boolean masked = false;
+
+        if (header.getImageCompression() == ImageCompression.NOTCOMPRESSEDMASK) {
+            DataInputStream mask = new DataInputStream(input);
+            dataOffset = Integer.toUnsignedLong(mask.readInt());
+            int blockMaskRecordLength = mask.readUnsignedShort();
+            mask.readUnsignedShort();
+            int padPixelCodeLength = mask.readUnsignedShort();
+            if (padPixelCodeLength > 0) {
+                ByteStreams.skipFully(mask, (padPixelCodeLength + Byte.SIZE - 1) / Byte.SIZE);
+            }
+            if (blockMaskRecordLength > 0) {
+                masked = true;
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = Integer.toUnsignedLong(mask.readInt());
+                }
+            }
+        }
+
+        List<Block> blocks = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            long offset = masked ? offsets[i] : i * getBlockLength();
+            if (offset != BLOCK_NOT_RECORDED) {
+                blocks.add(new Block(i % blockCount, i / blockCount, dataOffset + offset));
+            }
+        }
+        blocks.sort(Comparator.comparingLong(block -> block.offset));
+        return blocks;
+    }
+
+    private void renderBlock(InputStream input, Block block, byte[] row, List<Output> outputs)
+            throws IOException {
+        int originRow = (block.index / blocksPerRow) * blockHeight;
+        int originColumn = (block.index % blocksPerRow) * blockWidth;
+        int rowLength = blockWidth * bytesPerSample;
+
+        switch (header.getImageMode()) {
+        case PIXELINTERLEVE:
+            for (int r = 0; r < blockHeight; r++) {
+                renderRow(input, row, rowLength * bands, originRow + r, originColumn, -1, outputs);
+            }
+            break;
+        case BLOCKINTERLEVE:
+            for (int band = 0; band < bands; band++) {
+                for (int r = 0; r < blockHeight; r++) {
+                    renderRow(input, row, rowLength, originRow + r, originColumn, band, outputs);
+                }
+            }
+            break;
+        case ROWINTERLEVE:
+            for (int r = 0; r < blockHeight; r++) {
+                for (int band = 0; band < bands; band++) {
+                    renderRow(input, row, rowLength, originRow + r, originColumn, band, outputs);
+                }
+            }
+            break;
+        default:
+            for (int r = 0; r < blockHeight; r++) {
+                renderRow(input,
+                        row,
+                        rowLength,
+                        originRow + r,
+                        originColumn,
+                        block.band,
+                        outputs);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Read one row of a block into the outputs that sample it, or skip it if none does.
+     *
+     * @param band the band of the row, or -1 if the row is pixel interleaved
+     */
+    private void renderRow(InputStream input, byte[] row, int length, int imageRow,
+            int originColumn, int band, List<Output> outputs) throws IOException {
+        boolean sampled = false;
+        if (imageRow < rows) {
+            for (Output output : outputs) {
+                sampled |= imageRow % output.step == 0;
+            }
+        }
+
+        if (!sampled) {
+            ByteStreams.skipFully(input, length);
+            return;
+        }
+
+        ByteStreams.readFully(input, row, 0, length);
+
+        for (Output output : outputs) {
+            if (imageRow % output.step != 0) {
+                continue;
+            }
+            int y = imageRow / output.step;
+            int first = Math.floorMod(-originColumn, output.step);
+            for (int c = first; c < blockWidth && originColumn + c < columns; c += output.step) {
+                int x = (originColumn + c) / output.step;
+                if (band < 0) {
+                    for (int b = 0; b < bands; b++) {
+                        output.raster.setSample(x, y, b, readSample(row, c * bands + b));
+                    }
+                } else {
+                    output.raster.setSample(x, y, band, readSample(row, c));
+                }
+            }
+        }
+    }
+
+    private int readSample(byte[] row, int index) {
+        if (bytesPerSample == 1) {
+            return row[index] & 0xFF;
+        }
+        int position = index * bytesPerSample;
+        int sample = ((row[position] & 0xFF) << Byte.SIZE) | (row[position + 1] & 0xFF);
+        return Math.min(0xFF, sample >> sampleShift);
+    }
+
+    static int divideRoundingUp(long dividend, long divisor) {
+        return Math.toIntExact((dividend + divisor - 1) / divisor);
+    }
+
+    private class Output {
+
+        private final int step;
+
+        private final BufferedImage image;
+
+        private final WritableRaster raster;
+
+        Output(int step) {
+            this.step = step;
+            image = new BufferedImage(divideRoundingUp(columns, step),
+                    divideRoundingUp(rows, step),
+                    bands == RGB_BANDS ?
+                            BufferedImage.TYPE_INT_RGB :
+                            BufferedImage.TYPE_BYTE_GRAY);
+            raster = image.getRaster();
+        }
+    }
+
+    private static class Block {
+
+        private final int index;
+
+        private final int band;
+
+        private final long offset;
+
+        Block(int index, int band, long offset) {
+            this.index = index;
+            this.band = band;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a copy of the leading bytes that are read through this stream. Recording stops at the
+ * first skip, because the bytes after it are no longer contiguous with the start of the stream.
+ */
+class HeaderRecordingInputStream extends FilterInputStream {
+
+    private final byte[] header;
+
+    private int length;
+
+    private boolean recording = true;
+
+    /**
+     * @param in            the stream to read
+     * @param maximumLength the maximum number of bytes to record
+     */
+    HeaderRecordingInputStream(InputStream in, int maximumLength) {
+        super(in);
+        this.header = new byte[maximumLength];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1 && recording && length < header.length) {
+            header[length++] = (byte) value;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0 && recording) {
+            int recorded = Math.min(count, header.length - length);
+            System.arraycopy(b, off, header, length, recorded);
+            length += recorded;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        recording = false;
+        return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return the recorded bytes, of which the first {@link #getLength()} are valid
+     */
+    byte[] getHeader() {
+        return header;
+    }
+
+    int getLength() {
+        return length;
+    }
+}
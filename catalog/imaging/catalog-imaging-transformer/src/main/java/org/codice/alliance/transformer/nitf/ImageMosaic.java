@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Places image segments in the common coordinate system of the file. A segment's image location
+ * (ILOC) is relative to the segment it is attached to (IALVL refers to that segment's display
+ * level, 0 is the origin of the file). Renderings of the segments are composed in display level
+ * (IDLVL) order, so segments with a higher display level are drawn on top. Segments that are
+ * attached to a display level that is not an image segment (eg. a graphic) cannot be placed, so
+ * they are left out.
+ */
+class ImageMosaic {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageMosaic.class);
+
+    private final List<NitfImageSegmentHeader> headers;
+
+    /**
+     * The placement of each segment, null if it cannot be placed.
+     */
+    private final List<Rectangle> placements;
+
+    private final Rectangle bounds;
+
+    /**
+     * @param headers the image segment headers of the file
+     * @param count   the number of segments (from the start of {@code headers}) to place
+     */
+    ImageMosaic(List<NitfImageSegmentHeader> headers, int count) {
+        this.headers = headers;
+        this.placements = new ArrayList<>(count);
+
+        Rectangle union = null;
+        for (int i = 0; i < count; i++) {
+            NitfImageSegmentHeader header = headers.get(i);
+            Point location = locate(i, 0);
+            if (location == null) {
+                LOGGER.info("skipping image segment {}, its attachment level {} is not the display"
+                        + " level of an image segment", i, header.getAttachmentLevel());
+                placements.add(null);
+                continue;
+            }
+            Rectangle placement = new Rectangle(location.x,
+                    location.y,
+                    Math.toIntExact(header.getNumberOfColumns()),
+                    Math.toIntExact(header.getNumberOfRows()));
+            placements.add(placement);
+            union = union == null ? new Rectangle(placement) : union.union(placement);
+        }
+        this.bounds = union == null ? new Rectangle() : union;
+    }
+
+    /**
+     * @return true if the segment at {@code index} can be placed in the mosaic
+     */
+    boolean isPlaced(int index) {
+        return placements.get(index) != null;
+    }
+
+    /**
+     * @return the smallest whole decimation step that makes the mosaic fit into the maximum size
+     */
+    int getStep(Dimension maximumSize) {
+        return DecimatedImageRenderer.getStep(bounds.width, bounds.height, maximumSize);
+    }
+
+    /**
+     * Draw the renderings of the segments, each decimated by {@code step}, into one image. If only
+     * one segment was rendered, then its rendering is returned as is.
+     *
+     * @param images the rendering of each segment, null if it was not rendered
+     * @param step   the decimation step of the renderings
+     * @return the mosaic or null if no segment was rendered
+     */
+    BufferedImage compose(List<BufferedImage> images, int step) {
+        List<Integer> rendered = IntStream.range(0, images.size())
+                .filter(i -> images.get(i) != null && isPlaced(i))
+                .boxed()
+                .sorted(Comparator.comparingInt(i -> headers.get(i)
+                        .getImageDisplayLevel()))
+                .collect(Collectors.toList());
+
+        if (rendered.isEmpty()) {
+            return null;
+        }
+
+        if (rendered.size() == 1) {
+            return images.get(rendered.get(0));
+        }
+
+        BufferedImage mosaic = new BufferedImage(
+                DecimatedImageRenderer.divideRoundingUp(bounds.width, step),
+                DecimatedImageRenderer.divideRoundingUp(bounds.height, step),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = mosaic.createGraphics();
+        try {
+            for (int i : rendered) {
+                Rectangle placement = placements.get(i);
+                graphics.drawImage(images.get(i),
+                        (placement.x - bounds.x) / step,
+                        (placement.y - bounds.y) / step,
+                        null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return mosaic;
+    }
+
+    /**
+     * Resolve the location of a segment by adding the locations of the segments it is attached
+     * to. The depth guards against attachment cycles.
+     *
+     * @return the location or null if the segment is (indirectly) attached to a display level
+     * that is not an image segment, or to a cycle
+     */
+    private Point locate(int index, int depth) {
+        NitfImageSegmentHeader header = headers.get(index);
+        Point location = new Point(header.getImageLocationColumn(),
+                header.getImageLocationRow());
+
+        int attachmentLevel = header.getAttachmentLevel();
+        if (attachmentLevel == 0) {
+            return location;
+        }
+        if (depth >= headers.size()) {
+            return null;
+        }
+
+        for (int i = 0; i < headers.size(); i++) {
+            if (i != index && headers.get(i)
+                    .getImageDisplayLevel() == attachmentLevel) {
+                Point attachment = locate(i, depth + 1);
+                if (attachment == null) {
+                    return null;
+                }
+                location.translate(attachment.x, attachment.y);
+                return location;
+            }
+        }
+        return null;
+    }
+}
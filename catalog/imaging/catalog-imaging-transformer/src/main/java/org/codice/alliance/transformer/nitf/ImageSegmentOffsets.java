@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The offsets and lengths of the image segment data, computed from the image segment table of a
+ * NITF 2.0/2.1 (or NSIF) file header. The offsets are relative to the start of the file, so the
+ * data of a segment can be read from the original content without parsing the file again.
+ */
+final class ImageSegmentOffsets {
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int VERSION_LENGTH = 5;
+
+    private static final String NITF_20_VERSION = "02.00";
+
+    /**
+     * NITF 2.0 only: when FSDWNG has this value the header carries the 40 byte FSDEVT field.
+     */
+    private static final int NITF_20_DOWNGRADE_OFFSET = 280;
+
+    private static final int NITF_20_DOWNGRADE_LENGTH = 6;
+
+    private static final String NITF_20_DOWNGRADE_EVENT = "999998";
+
+    private static final int NITF_20_DOWNGRADE_EVENT_LENGTH = 40;
+
+    private static final int FILE_LENGTH_LENGTH = 12;
+
+    /**
+     * NITF 2.1 only: the file length (FL) of a file whose length was not known when it was
+     * written.
+     */
+    private static final long UNKNOWN_FILE_LENGTH = 999999999999L;
+
+    private static final int HEADER_LENGTH_OFFSET = 354;
+
+    private static final int HEADER_LENGTH_LENGTH = 6;
+
+    private static final int IMAGE_COUNT_LENGTH = 3;
+
+    private static final int SUBHEADER_LENGTH_LENGTH = 6;
+
+    private static final int DATA_LENGTH_LENGTH = 10;
+
+    private static final int MAX_IMAGE_COUNT = 999;
+
+    /**
+     * The number of leading bytes of a file that always contain the image segment table.
+     */
+    static final int MAX_TABLE_END = HEADER_LENGTH_OFFSET + NITF_20_DOWNGRADE_EVENT_LENGTH
+            + HEADER_LENGTH_LENGTH + IMAGE_COUNT_LENGTH
+            + MAX_IMAGE_COUNT * (SUBHEADER_LENGTH_LENGTH + DATA_LENGTH_LENGTH);
+
+    private static final HashFunction TABLE_HASH_FUNCTION = Hashing.sha256();
+
+    private final long[] offsets;
+
+    private final long[] lengths;
+
+    private final long fileLength;
+
+    private final int tableEnd;
+
+    private final HashCode tableHash;
+
+    private ImageSegmentOffsets(long[] offsets, long[] lengths, long fileLength, int tableEnd,
+            HashCode tableHash) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.fileLength = fileLength;
+        this.tableEnd = tableEnd;
+        this.tableHash = tableHash;
+    }
+
+    /**
+     * @param header the leading bytes of the file
+     * @param length the number of valid bytes in {@code header}
+     * @return the offsets or empty if the header is truncated or malformed
+     */
+    static Optional<ImageSegmentOffsets> read(byte[] header, int length) {
+        try {
+            int position = HEADER_LENGTH_OFFSET;
+
+            if (NITF_20_VERSION.equals(readString(header,
+                    length,
+                    VERSION_OFFSET,
+                    VERSION_LENGTH)) && NITF_20_DOWNGRADE_EVENT.equals(readString(header,
+                    length,
+                    NITF_20_DOWNGRADE_OFFSET,
+                    NITF_20_DOWNGRADE_LENGTH))) {
+                position += NITF_20_DOWNGRADE_EVENT_LENGTH;
+            }
+
+            long fileLength = readFileLength(header, length, position - FILE_LENGTH_LENGTH);
+
+            long headerLength = readNumber(header, length, position, HEADER_LENGTH_LENGTH);
+            position += HEADER_LENGTH_LENGTH;
+
+            int imageCount = (int) readNumber(header, length, position, IMAGE_COUNT_LENGTH);
+            position += IMAGE_COUNT_LENGTH;
+
+            if (imageCount < 0 || imageCount > MAX_IMAGE_COUNT) {
+                return Optional.empty();
+            }
+
+            long[] offsets = new long[imageCount];
+            long[] lengths = new long[imageCount];
+            long segmentStart = headerLength;
+
+            for (int i = 0; i < imageCount; i++) {
+                long subheaderLength = readNumber(header,
+                        length,
+                        position,
+                        SUBHEADER_LENGTH_LENGTH);
+                position += SUBHEADER_LENGTH_LENGTH;
+
+                lengths[i] = readNumber(header, length, position, DATA_LENGTH_LENGTH);
+                position += DATA_LENGTH_LENGTH;
+
+                offsets[i] = segmentStart + subheaderLength;
+                segmentStart = offsets[i] + lengths[i];
+            }
+
+            return Optional.of(new ImageSegmentOffsets(offsets,
+                    lengths,
+                    fileLength,
+                    position,
+                    TABLE_HASH_FUNCTION.hashBytes(header, 0, position)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the file length, or -1 if it is unknown
+     */
+    private static long readFileLength(byte[] header, int length, int offset) {
+        try {
+            long fileLength = readNumber(header, length, offset, FILE_LENGTH_LENGTH);
+            return fileLength == UNKNOWN_FILE_LENGTH ? -1 : fileLength;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readString(byte[] header, int length, int offset, int fieldLength) {
+        if (offset + fieldLength > length) {
+            throw new IllegalArgumentException("the header is truncated");
+        }
+        return new String(header, offset, fieldLength, StandardCharsets.US_ASCII);
+    }
+
+    private static long readNumber(byte[] header, int length, int offset, int fieldLength) {
+        return Long.parseLong(readString(header, length, offset, fieldLength).trim());
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Check that the offsets were read from the given content: the leading bytes up to the end
+     * of the image segment table must be the same, and the size of the content must be the file
+     * length (FL) of the header if both are known.
+     *
+     * @param size    the size of the content, or a value less than 1 if it is unknown
+     * @param content the content, which is read up to the end of the image segment table
+     * @return true if the content matches
+     * @throws IOException if the content could not be read
+     */
+    boolean matches(long size, InputStream content) throws IOException {
+        if (size > 0 && fileLength >= 0 && size != fileLength) {
+            return false;
+        }
+        byte[] table = new byte[tableEnd];
+        return ByteStreams.read(content, table, 0, tableEnd) == tableEnd
+                && TABLE_HASH_FUNCTION.hashBytes(table)
+                .equals(tableHash);
+    }
+
+    /**
+     * @param index the index of the image segment
+     * @return the offset of the image data from the start of the file
+     */
+    long getDataOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @param index the index of the image segment
+     * @return the length of the image data
+     */
+    long getDataLength(int index) {
+        return lengths[index];
+    }
+}
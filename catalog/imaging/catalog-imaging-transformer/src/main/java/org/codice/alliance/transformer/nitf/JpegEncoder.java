@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes images as JPEG directly to an output stream. Image writers are kept in a pool and reused
+ * instead of being looked up and created for every image.
+ */
+class JpegEncoder {
+
+    private static final String JPEG = "jpeg";
+
+    private final Queue<ImageWriter> idleWriters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param image        the image to encode
+     * @param quality      the compression quality, between 0 and 1
+     * @param outputStream the stream to write to, it is not closed
+     * @throws IOException if the image could not be encoded or written
+     */
+    void encode(RenderedImage image, float quality, OutputStream outputStream)
+            throws IOException {
+        ImageWriter writer = idleWriters.poll();
+        if (writer == null) {
+            writer = createWriter();
+        }
+
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionQuality(quality);
+
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            writer.reset();
+            idleWriters.offer(writer);
+        }
+    }
+
+    private ImageWriter createWriter() throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(JPEG);
+        if (!writers.hasNext()) {
+            throw new IOException("no JPEG image writer is available");
+        }
+        return writers.next();
+    }
+}
@@ -20,24 +20,26 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.activation.MimeType;
 import javax.activation.MimeTypeParseException;
 
-import org.codice.imaging.nitf.core.AllDataExtractionParseStrategy;
+import org.codice.alliance.libs.cache.ContentDigests;
+import org.codice.alliance.libs.cache.TransformationCache;
+import org.codice.imaging.nitf.core.HeaderOnlyNitfParseStrategy;
 import org.codice.imaging.nitf.core.NitfFileHeader;
-import org.codice.imaging.nitf.core.NitfFileParser;
 import org.codice.imaging.nitf.core.common.CommonNitfSegment;
-import org.codice.imaging.nitf.core.common.NitfInputStreamReader;
-import org.codice.imaging.nitf.core.common.NitfReader;
 import org.codice.imaging.nitf.core.image.ImageCoordinates;
 import org.codice.imaging.nitf.core.image.ImageCoordinatesRepresentation;
 import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.HashCode;
+import com.google.common.io.FileBackedOutputStream;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LinearRing;
@@ -68,6 +70,14 @@ public class NitfInputTransformer implements InputTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NitfInputTransformer.class);
 
+    private static final int FILE_THRESHOLD = 1000000;
+
+    /**
+     * The key of cached transformations. Increment the version when a change to this transformer
+     * changes the metacards that it creates.
+     */
+    private static final String CACHE_NAMESPACE = "nitf-1";
+
     private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(
             PrecisionModel.FLOATING), 4326);
 
@@ -84,6 +94,10 @@ public class NitfInputTransformer implements InputTransformer {
 
     private MetacardType metacardType;
 
+    private TransformationCache transformationCache;
+
+    private NitfParseArtifacts parseArtifacts;
+
     /**
      * Transforms NITF images into a {@link Metacard}
      */
@@ -97,26 +111,73 @@ public class NitfInputTransformer implements InputTransformer {
             throw new CatalogTransformerException("Cannot transform null input.");
         }
 
+        if (transformationCache != null && transformationCache.isEnabled()) {
+            return transformCached(input, id);
+        }
+
+        return transformNitf(input, id);
+    }
+
+    private MetacardImpl transformNitf(InputStream input, String id)
+            throws CatalogTransformerException {
         final MetacardImpl metacard = new MetacardImpl(metacardType);
 
-        parseNitf(input, metacard);
+        Optional<NitfParseArtifact> artifact = parseNitf(input, metacard);
+        if (artifact.isPresent() && parseArtifacts != null && id != null) {
+            parseArtifacts.put(id, artifact.get());
+        }
         metacard.setAttribute(Metacard.ID, id);
         metacard.setAttribute(Metacard.CONTENT_TYPE, MIME_TYPE.toString());
 
         return metacard;
     }
 
-    private void parseNitf(InputStream input, MetacardImpl metacard)
+    /**
+     * Copy the input to a file backed stream while its digest is computed, and return the cached
+     * transformation of the input or transform the copy and cache the result.
+     */
+    private Metacard transformCached(InputStream input, String id)
+            throws IOException, CatalogTransformerException {
+        try (FileBackedOutputStream fileBackedOutputStream = new FileBackedOutputStream(
+                FILE_THRESHOLD)) {
+
+            HashCode digest = ContentDigests.copy(input, fileBackedOutputStream);
+            String key = ContentDigests.createKey(digest, CACHE_NAMESPACE);
+
+            Optional<MetacardImpl> cached = transformationCache.get(key, metacardType);
+            if (cached.isPresent()) {
+                LOGGER.debug("using the cached transformation of id = {}", id);
+                cached.get()
+                        .setAttribute(Metacard.ID, id);
+                return cached.get();
+            }
+
+            MetacardImpl metacard;
+            try (InputStream inputStream = fileBackedOutputStream.asByteSource()
+                    .openStream()) {
+                metacard = transformNitf(inputStream, id);
+            }
+
+            transformationCache.put(key, metacard);
+
+            return metacard;
+        }
+    }
+
+    /**
+     * Parse the headers of the NITF into the metacard.
+     *
+     * @return the parsed headers and the image segment offsets, or empty if the offsets could not
+     * be read
+     */
+    private Optional<NitfParseArtifact> parseNitf(InputStream input, MetacardImpl metacard)
             throws CatalogTransformerException {
         List<Polygon> polygonList = new ArrayList<>();
 
         try {
-            // TODO: implement and use flow API (available in imaging-nitf 0.3)
-
-            AllDataExtractionParseStrategy parsingStrategy = new AllDataExtractionParseStrategy();
-            NitfReader reader = new NitfInputStreamReader(input);
-
-            NitfFileParser.parse(reader, parsingStrategy);
+            HeaderOnlyNitfParseStrategy parsingStrategy = new HeaderOnlyNitfParseStrategy();
+            Optional<NitfParseArtifact> artifact = NitfParseArtifact.parse(input,
+                    parsingStrategy);
 
             handleNitfHeader(metacard, parsingStrategy.getNitfHeader());
 
@@ -150,6 +211,8 @@ public class NitfInputTransformer implements InputTransformer {
                 MultiPolygon multiPolygon = GEOMETRY_FACTORY.createMultiPolygon(polyAry);
                 metacard.setAttribute(Metacard.GEOGRAPHY, multiPolygon.toText());
             }
+
+            return artifact;
         } catch (ParseException e) {
             throw new CatalogTransformerException(e);
         }
@@ -246,4 +309,20 @@ public class NitfInputTransformer implements InputTransformer {
         LOGGER.info("NitfInputTransformer setNitfMetacardType()");
         this.metacardType = nitfMetacardType;
     }
+
+    /**
+     * @param transformationCache if enabled, transformation results are cached by the digest of
+     *                            the input
+     */
+    public void setTransformationCache(TransformationCache transformationCache) {
+        this.transformationCache = transformationCache;
+    }
+
+    /**
+     * @param parseArtifacts if set, the parsed headers are handed to {@link NitfPreStoragePlugin}
+     *                       by metacard id
+     */
+    public void setParseArtifacts(NitfParseArtifacts parseArtifacts) {
+        this.parseArtifacts = parseArtifacts;
+    }
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.codice.imaging.nitf.core.HeaderOnlyNitfParseStrategy;
+import org.codice.imaging.nitf.core.NitfFileHeader;
+import org.codice.imaging.nitf.core.NitfFileParser;
+import org.codice.imaging.nitf.core.common.NitfInputStreamReader;
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
+
+/**
+ * The result of parsing the headers of a NITF file: the file header, the image segment headers
+ * and the location of each image segment's data within the file.
+ */
+public final class NitfParseArtifact {
+
+    private final NitfFileHeader nitfHeader;
+
+    private final List<NitfImageSegmentHeader> imageSegmentHeaders;
+
+    private final ImageSegmentOffsets imageSegmentOffsets;
+
+    NitfParseArtifact(NitfFileHeader nitfHeader, List<NitfImageSegmentHeader> imageSegmentHeaders,
+            ImageSegmentOffsets imageSegmentOffsets) {
+        this.nitfHeader = nitfHeader;
+        this.imageSegmentHeaders = Collections.unmodifiableList(imageSegmentHeaders);
+        this.imageSegmentOffsets = imageSegmentOffsets;
+    }
+
+    /**
+     * Parse the headers of a NITF file into the parse strategy. Only the headers are read, the
+     * segment data is skipped (which seeks if the input is a file).
+     *
+     * @param input           the NITF file
+     * @param parsingStrategy receives the parsed headers
+     * @return the parse artifact, or empty if the image segment offsets could not be read
+     * @throws ParseException if the headers could not be parsed
+     */
+    static Optional<NitfParseArtifact> parse(InputStream input,
+            HeaderOnlyNitfParseStrategy parsingStrategy) throws ParseException {
+        HeaderRecordingInputStream recordingInput = new HeaderRecordingInputStream(input,
+                ImageSegmentOffsets.MAX_TABLE_END);
+        NitfFileParser.parse(new NitfInputStreamReader(recordingInput), parsingStrategy);
+
+        return ImageSegmentOffsets.read(recordingInput.getHeader(), recordingInput.getLength())
+                .filter(offsets -> offsets.size() == parsingStrategy.getImageSegmentHeaders()
+                        .size())
+                .map(offsets -> new NitfParseArtifact(parsingStrategy.getNitfHeader(),
+                        parsingStrategy.getImageSegmentHeaders(),
+                        offsets));
+    }
+
+    public NitfFileHeader getNitfHeader() {
+        return nitfHeader;
+    }
+
+    public List<NitfImageSegmentHeader> getImageSegmentHeaders() {
+        return imageSegmentHeaders;
+    }
+
+    /**
+     * Check that the artifact was parsed from the given content, so that it is not used for other
+     * content that happens to be ingested with the same metacard id. The leading bytes of the
+     * content up to the end of the image segment table must be the same, and the size of the
+     * content must be the file length (FL) of the header if both are known.
+     *
+     * @param size    the size of the content, or a value less than 1 if it is unknown
+     * @param content the content, which is read up to the end of the image segment table
+     * @return true if the content matches
+     * @throws IOException if the content could not be read
+     */
+    public boolean matches(long size, InputStream content) throws IOException {
+        return imageSegmentOffsets.matches(size, content);
+    }
+
+    /**
+     * @param index the index of the image segment
+     * @return the offset of the image data from the start of the file
+     */
+    public long getImageSegmentDataOffset(int index) {
+        return imageSegmentOffsets.getDataOffset(index);
+    }
+
+    /**
+     * @param index the index of the image segment
+     * @return the length of the image data
+     */
+    public long getImageSegmentDataLength(int index) {
+        return imageSegmentOffsets.getDataLength(index);
+    }
+}
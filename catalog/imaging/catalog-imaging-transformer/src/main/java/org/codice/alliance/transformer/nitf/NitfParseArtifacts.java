@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Hands the parse results of {@link NitfInputTransformer} to {@link NitfPreStoragePlugin} within
+ * the same ingest, keyed by metacard id, so the plugin does not have to parse the file again.
+ * Results that are never taken (e.g. the transformer was called outside of an ingest) are
+ * dropped once the registry is full or after a few minutes.
+ */
+public class NitfParseArtifacts {
+
+    private static final int MAXIMUM_SIZE = 100;
+
+    private static final long EXPIRE_AFTER_WRITE_MINUTES = 10;
+
+    private final Cache<String, NitfParseArtifact> artifacts = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * @param id       must be non-null
+     * @param artifact must be non-null
+     */
+    public void put(String id, NitfParseArtifact artifact) {
+        checkNotNull(id, "id must be non-null");
+        checkNotNull(artifact, "artifact must be non-null");
+        artifacts.put(id, artifact);
+    }
+
+    /**
+     * Remove and return the parse result of an ingest.
+     *
+     * @param id the metacard id, may be null
+     * @return the parse result or empty if it is not available
+     */
+    public Optional<NitfParseArtifact> remove(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(artifacts.asMap()
+                .remove(id));
+    }
+}
@@ -13,36 +13,62 @@
  */
 package org.codice.alliance.transformer.nitf;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.activation.MimeTypeParseException;
-import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.apache.commons.io.FilenameUtils;
-import org.codice.imaging.nitf.core.AllDataExtractionParseStrategy;
-import org.codice.imaging.nitf.core.NitfFileParser;
-import org.codice.imaging.nitf.core.common.NitfInputStreamReader;
-import org.codice.imaging.nitf.core.common.NitfReader;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.codice.imaging.nitf.core.HeaderOnlyNitfParseStrategy;
 import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
 import org.codice.imaging.nitf.render.NitfRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.FileBackedOutputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import ddf.catalog.content.data.ContentItem;
 import ddf.catalog.content.data.impl.ContentItemImpl;
 import ddf.catalog.content.operation.CreateStorageRequest;
+import ddf.catalog.content.operation.CreateStorageResponse;
 import ddf.catalog.content.operation.UpdateStorageRequest;
+import ddf.catalog.content.operation.UpdateStorageResponse;
+import ddf.catalog.content.plugin.PostCreateStoragePlugin;
+import ddf.catalog.content.plugin.PostUpdateStoragePlugin;
 import ddf.catalog.content.plugin.PreCreateStoragePlugin;
 import ddf.catalog.content.plugin.PreUpdateStoragePlugin;
 import ddf.catalog.data.Metacard;
@@ -52,9 +78,12 @@ import net.coobird.thumbnailator.Thumbnails;
 
 /**
  * This pre-storage plugin creates and stores the NITF thumbnail and NITF overview images.  The
- * thumbnail is stored with the Metacard while the overview is stored in the content store.
+ * thumbnail is stored with the Metacard while the overview is stored in the content store. As a
+ * post-storage plugin, it releases the encoded overviews once they have been stored.
  */
-public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateStoragePlugin {
+public class NitfPreStoragePlugin
+        implements PreCreateStoragePlugin, PreUpdateStoragePlugin, PostCreateStoragePlugin,
+        PostUpdateStoragePlugin {
 
     private static final String IMAGE_JPEG = "image/jpeg";
 
@@ -70,6 +99,164 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
 
     private static final String OVERVIEW_FILENAME_PATTERN = "%s-%s.%s";
 
+    /**
+     * The thumbnail is decimated to at most twice its final size while it is rendered, the final
+     * (smoothed) scaling is left to the thumbnail encoder.
+     */
+    private static final Dimension THUMBNAIL_RENDER_SIZE = new Dimension(2 * THUMBNAIL_WIDTH,
+            2 * THUMBNAIL_HEIGHT);
+
+    private static final Dimension FULL_SIZE = new Dimension(Integer.MAX_VALUE,
+            Integer.MAX_VALUE);
+
+    private static final int DEFAULT_MAX_OVERVIEW_SIZE = 2048;
+
+    private static final float DEFAULT_OVERVIEW_QUALITY = 0.75f;
+
+    private static final float THUMBNAIL_QUALITY = 0.75f;
+
+    /**
+     * Overviews larger than this are written to a temporary file instead of memory.
+     */
+    private static final int OVERVIEW_FILE_THRESHOLD = 1000000;
+
+    /**
+     * Content that has to be parsed by the plugin and is not a file is copied to a temporary file
+     * if it is larger than this.
+     */
+    private static final int CONTENT_FILE_THRESHOLD = 1000000;
+
+    /**
+     * Overviews that are not released by a post-storage request (eg. because the storage failed)
+     * are released after this time.
+     */
+    private static final long OVERVIEW_EXPIRY_MINUTES = 60;
+
+    private static final int DEFAULT_RENDER_THREADS = 2;
+
+    /**
+     * Segments that cannot be decimated while they are read are decoded at full resolution. The
+     * estimated size of the decoded images (in megabytes) that the render threads may hold at the
+     * same time is limited to this, so large compressed segments are decoded one at a time.
+     */
+    private static final int FULL_DECODE_BUDGET_MEGABYTES = 256;
+
+    /**
+     * The NITF renderer decodes to an image with an int per pixel.
+     */
+    private static final int BYTES_PER_DECODED_PIXEL = 4;
+
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private static final long RENDER_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final JpegEncoder jpegEncoder = new JpegEncoder();
+
+    /**
+     * One permit per megabyte of {@link #FULL_DECODE_BUDGET_MEGABYTES}.
+     */
+    private final Semaphore fullDecodePermits = new Semaphore(FULL_DECODE_BUDGET_MEGABYTES, true);
+
+    /**
+     * The encoded overview of each overview content item that has not been stored yet. The items
+     * are compared by identity.
+     */
+    private final Cache<ContentItem, FileBackedOutputStream> overviewOutputStreams =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .expireAfterWrite(OVERVIEW_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                    .removalListener((RemovalNotification<ContentItem, FileBackedOutputStream>
+                            notification) -> resetQuietly(notification.getValue()))
+                    .build();
+
+    /**
+     * Renders the image segments. Idle threads are released, so the pool costs nothing between
+     * ingests.
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_RENDER_THREADS,
+            DEFAULT_RENDER_THREADS,
+            RENDER_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("nitf-renderer-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private NitfParseArtifacts parseArtifacts;
+
+    private volatile int maxOverviewSize = DEFAULT_MAX_OVERVIEW_SIZE;
+
+    private volatile float overviewQuality = DEFAULT_OVERVIEW_QUALITY;
+
+    private volatile int maxImageSegments;
+
+    public NitfPreStoragePlugin() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param parseArtifacts if set, the headers parsed by {@link NitfInputTransformer} are used
+     *                       instead of parsing the content again
+     */
+    public void setParseArtifacts(NitfParseArtifacts parseArtifacts) {
+        this.parseArtifacts = parseArtifacts;
+    }
+
+    /**
+     * @param maxOverviewSize the maximum width and height of the overview in pixels, 0 to keep
+     *                        the size of the image (must be non-null and non-negative)
+     */
+    public void setMaxOverviewSize(Integer maxOverviewSize) {
+        checkNotNull(maxOverviewSize, "maxOverviewSize must be non-null");
+        checkArgument(maxOverviewSize >= 0, "maxOverviewSize must be non-negative");
+        this.maxOverviewSize = maxOverviewSize;
+    }
+
+    /**
+     * @param overviewQuality the JPEG compression quality of the overview, between 0 and 1 (must
+     *                        be non-null)
+     */
+    public void setOverviewQuality(Float overviewQuality) {
+        checkNotNull(overviewQuality, "overviewQuality must be non-null");
+        checkArgument(overviewQuality >= 0 && overviewQuality <= 1,
+                "overviewQuality must be between 0 and 1");
+        this.overviewQuality = overviewQuality;
+    }
+
+    /**
+     * @param maxImageSegments the number of image segments rendered into the thumbnail and the
+     *                         overview, 0 to render all of them (must be non-null and
+     *                         non-negative)
+     */
+    public void setMaxImageSegments(Integer maxImageSegments) {
+        checkNotNull(maxImageSegments, "maxImageSegments must be non-null");
+        checkArgument(maxImageSegments >= 0, "maxImageSegments must be non-negative");
+        this.maxImageSegments = maxImageSegments;
+    }
+
+    /**
+     * @param renderThreads the number of image segments rendered at the same time (must be
+     *                      non-null and positive)
+     */
+    public synchronized void setRenderThreads(Integer renderThreads) {
+        checkNotNull(renderThreads, "renderThreads must be non-null");
+        checkArgument(renderThreads > 0, "renderThreads must be positive");
+        if (renderThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(renderThreads);
+            executor.setCorePoolSize(renderThreads);
+        } else {
+            executor.setCorePoolSize(renderThreads);
+            executor.setMaximumPoolSize(renderThreads);
+        }
+    }
+
+    /**
+     * Stop the render threads. Renderings that are in progress are interrupted.
+     */
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
     @Override
     public CreateStorageRequest process(CreateStorageRequest createStorageRequest)
             throws PluginExecutionException {
@@ -94,6 +281,39 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
         return updateStorageRequest;
     }
 
+    @Override
+    public CreateStorageResponse process(CreateStorageResponse createStorageResponse)
+            throws PluginExecutionException {
+        if (createStorageResponse == null) {
+            throw new PluginExecutionException(
+                    "process(): argument 'createStorageResponse' may not be null.");
+        }
+
+        releaseOverviews(createStorageResponse.getRequest()
+                .getContentItems());
+        return createStorageResponse;
+    }
+
+    @Override
+    public UpdateStorageResponse process(UpdateStorageResponse updateStorageResponse)
+            throws PluginExecutionException {
+        if (updateStorageResponse == null) {
+            throw new PluginExecutionException(
+                    "process(): argument 'updateStorageResponse' may not be null.");
+        }
+
+        releaseOverviews(updateStorageResponse.getRequest()
+                .getContentItems());
+        return updateStorageResponse;
+    }
+
+    /**
+     * Delete the temporary files of the overviews, which have been stored.
+     */
+    private void releaseOverviews(List<ContentItem> contentItems) {
+        overviewOutputStreams.invalidateAll(contentItems);
+    }
+
     private boolean isNitfMimeType(String rawMimeType) {
         try {
             return NitfInputTransformer.MIME_TYPE.match(rawMimeType);
@@ -122,12 +342,12 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
         }
 
         try {
-            BufferedImage renderedImage = renderImage(contentItem);
+            RenderedImages renderedImages = renderImages(contentItem, metacard);
 
-            if (renderedImage != null) {
-                addThumbnailToMetacard(metacard, renderedImage);
+            if (renderedImages != null) {
+                addThumbnailToMetacard(metacard, renderedImages.thumbnail);
                 ContentItem overviewContentItem = createOverview(contentItem.getId(),
-                        renderedImage,
+                        renderedImages.overview,
                         metacard);
 
                 return Optional.ofNullable(overviewContentItem);
@@ -139,25 +359,261 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
         return Optional.empty();
     }
 
-    private BufferedImage renderImage(ContentItem contentItem) throws IOException, ParseException {
-        NitfReader reader = new NitfInputStreamReader(contentItem.getInputStream());
-        AllDataExtractionParseStrategy parsingStrategy = new AllDataExtractionParseStrategy();
-        NitfFileParser.parse(reader, parsingStrategy);
+    private RenderedImages renderImages(ContentItem contentItem, Metacard metacard)
+            throws IOException, ParseException {
+        Optional<NitfParseArtifact> artifact = Optional.empty();
+        if (parseArtifacts != null && metacard != null) {
+            artifact = parseArtifacts.remove(metacard.getId());
+        }
+
+        if (artifact.isPresent()) {
+            try (InputStream content = contentItem.getInputStream()) {
+                CountingInputStream countingContent = new CountingInputStream(content);
+                if (artifact.get()
+                        .matches(contentItem.getSize(), countingContent)) {
+                    LOGGER.debug("rendering with the parse result of the transformer: id = {}",
+                            metacard.getId());
+                    return renderImages(contentItem,
+                            artifact.get(),
+                            countingContent,
+                            content instanceof FileInputStream);
+                }
+            }
+            LOGGER.debug("the parse result of the transformer does not match the content: id = {}",
+                    metacard.getId());
+        }
+
+        return parseAndRenderImages(contentItem);
+    }
+
+    /**
+     * Parse the headers of the content and render the image segments at the offsets of the
+     * result, in parallel. Content that is not a file is copied to a file backed stream first, so
+     * that the data of each segment can be opened by itself.
+     */
+    private RenderedImages parseAndRenderImages(ContentItem contentItem)
+            throws IOException, ParseException {
+        try (InputStream content = contentItem.getInputStream()) {
+            if (content instanceof FileInputStream) {
+                Optional<NitfParseArtifact> artifact = parseArtifact(contentItem, content);
+                if (!artifact.isPresent()) {
+                    return null;
+                }
+                NitfParseArtifact parsed = artifact.get();
+                return renderImages(parsed.getImageSegmentHeaders(),
+                        index -> openImageData(contentItem, parsed, index),
+                        true);
+            }
+
+            FileBackedOutputStream contentCopy = new FileBackedOutputStream(
+                    CONTENT_FILE_THRESHOLD,
+                    true);
+            try {
+                ByteStreams.copy(content, contentCopy);
+                ByteSource contentSource = contentCopy.asByteSource();
+
+                Optional<NitfParseArtifact> artifact;
+                try (InputStream copiedContent = contentSource.openStream()) {
+                    artifact = parseArtifact(contentItem, copiedContent);
+                }
+                if (!artifact.isPresent()) {
+                    return null;
+                }
+                NitfParseArtifact parsed = artifact.get();
+                return renderImages(parsed.getImageSegmentHeaders(),
+                        index -> contentSource.slice(parsed.getImageSegmentDataOffset(index),
+                                parsed.getImageSegmentDataLength(index))
+                                .openStream(),
+                        true);
+            } finally {
+                resetQuietly(contentCopy);
+            }
+        }
+    }
+
+    private Optional<NitfParseArtifact> parseArtifact(ContentItem contentItem, InputStream content)
+            throws ParseException {
+        Optional<NitfParseArtifact> artifact = NitfParseArtifact.parse(content,
+                new HeaderOnlyNitfParseStrategy());
+        if (!artifact.isPresent()) {
+            LOGGER.warn("unable to read the image segment offsets: id = {}", contentItem.getId());
+        }
+        return artifact;
+    }
+
+    /**
+     * Render the image segments at the offsets of the parse artifact. If the content is a file,
+     * then the data of each segment is opened by seeking to it and the segments are rendered in
+     * parallel. Otherwise the content is read once, and the segments are rendered one after the
+     * other in the order of their data.
+     *
+     * @param content the opened content, which is read further if it is not a file
+     * @param file    true if the content is a file
+     */
+    private RenderedImages renderImages(ContentItem contentItem, NitfParseArtifact artifact,
+            CountingInputStream content, boolean file) throws IOException {
+        if (file) {
+            return renderImages(artifact.getImageSegmentHeaders(),
+                    index -> openImageData(contentItem, artifact, index),
+                    true);
+        }
+
+        return renderImages(artifact.getImageSegmentHeaders(), index -> {
+            ByteStreams.skipFully(content,
+                    artifact.getImageSegmentDataOffset(index) - content.getCount());
+            return ByteStreams.limit(new CloseShieldInputStream(content),
+                    artifact.getImageSegmentDataLength(index));
+        }, false);
+    }
+
+    /**
+     * Open the data of an image segment by skipping to it in the content, which seeks if the
+     * content is a file.
+     */
+    private InputStream openImageData(ContentItem contentItem, NitfParseArtifact artifact,
+            int index) throws IOException {
+        InputStream contentStream = contentItem.getInputStream();
+        try {
+            ByteStreams.skipFully(contentStream, artifact.getImageSegmentDataOffset(index));
+        } catch (IOException e) {
+            contentStream.close();
+            throw e;
+        }
+        return ByteStreams.limit(contentStream, artifact.getImageSegmentDataLength(index));
+    }
+
+    /**
+     * Render the image segments (up to the configured maximum), decimated by the thumbnail and
+     * overview steps of their mosaic, and compose the thumbnail and the overview. Segments that
+     * cannot be rendered are left out of the mosaic.
+     *
+     * @param parallel true to render the segments in parallel, false to render them on the
+     *                 calling thread in the order of their index
+     */
+    private RenderedImages renderImages(List<NitfImageSegmentHeader> headers,
+            ImageDataSource imageDataSource, boolean parallel) throws IOException {
+        int segmentLimit = maxImageSegments;
+        int count = segmentLimit > 0 ? Math.min(segmentLimit, headers.size()) : headers.size();
+
+        if (count == 0) {
+            return null;
+        }
+
+        int overviewSize = maxOverviewSize;
+        Dimension overviewDimension =
+                overviewSize > 0 ? new Dimension(overviewSize, overviewSize) : FULL_SIZE;
+
+        ImageMosaic mosaic = new ImageMosaic(headers, count);
+        int thumbnailStep = mosaic.getStep(THUMBNAIL_RENDER_SIZE);
+        int overviewStep = mosaic.getStep(overviewDimension);
+
+        ExecutorService renderExecutor =
+                parallel ? executor : MoreExecutors.newDirectExecutorService();
+        List<Future<List<BufferedImage>>> renderings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            if (!mosaic.isPlaced(index)) {
+                renderings.add(Futures.immediateFuture(null));
+                continue;
+            }
+            try {
+                renderings.add(renderExecutor.submit(() -> renderSegment(headers.get(index),
+                        imageDataSource.open(index),
+                        thumbnailStep,
+                        overviewStep)));
+            } catch (RejectedExecutionException e) {
+                renderings.forEach(rendering -> rendering.cancel(true));
+                throw new IOException("the render threads have been stopped", e);
+            }
+        }
+
+        List<BufferedImage> thumbnails = new ArrayList<>(count);
+        List<BufferedImage> overviews = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<BufferedImage> images = getRendering(renderings, i);
+            thumbnails.add(images == null ? null : images.get(0));
+            overviews.add(images == null ? null : images.get(1));
+        }
+
+        BufferedImage thumbnail = mosaic.compose(thumbnails, thumbnailStep);
+        if (thumbnail == null) {
+            return null;
+        }
+        return new RenderedImages(thumbnail, mosaic.compose(overviews, overviewStep));
+    }
 
-        if (parsingStrategy.getImageSegmentData()
-                .size() == 0) {
+    private List<BufferedImage> getRendering(List<Future<List<BufferedImage>>> renderings,
+            int index) throws IOException {
+        try {
+            return renderings.get(index)
+                    .get();
+        } catch (ExecutionException e) {
+            LOGGER.warn("unable to render image segment {}", index, e.getCause());
             return null;
+        } catch (InterruptedException e) {
+            renderings.forEach(rendering -> rendering.cancel(true));
+            Thread.currentThread()
+                    .interrupt();
+            throw new InterruptedIOException("interrupted while rendering the image segments");
+        }
+    }
+
+    /**
+     * Uncompressed segments are decimated while they are read, anything else is rendered at full
+     * resolution by the NITF renderer and then scaled down. The full resolution renderings wait
+     * for their estimated size to fit in the decode budget.
+     */
+    private List<BufferedImage> renderSegment(NitfImageSegmentHeader header,
+            InputStream imageDataStream, int thumbnailStep, int overviewStep)
+            throws IOException, ParseException {
+        try (InputStream imageData = imageDataStream) {
+            if (DecimatedImageRenderer.isSupported(header)) {
+                return new DecimatedImageRenderer(header).renderDecimated(imageData,
+                        Arrays.asList(thumbnailStep, overviewStep));
+            }
+
+            int permits = getFullDecodePermits(header);
+            try {
+                fullDecodePermits.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                        .interrupt();
+                throw new InterruptedIOException(
+                        "interrupted while waiting to decode the image segment");
+            }
+            try {
+                NitfRenderer renderer = new NitfRenderer();
+                ImageInputStream inputStream = new MemoryCacheImageInputStream(imageData);
+                BufferedImage image = renderer.render(header, inputStream);
+                return Arrays.asList(scaleDown(image, thumbnailStep),
+                        scaleDown(image, overviewStep));
+            } finally {
+                fullDecodePermits.release(permits);
+            }
         }
+    }
 
-        NitfImageSegmentHeader header = parsingStrategy.getImageSegmentHeaders()
-                .get(0);
-        byte[] image = parsingStrategy.getImageSegmentData()
-                .get(0);
+    /**
+     * @return the estimated size of the decoded segment in megabytes, at least one and at most
+     * the whole budget
+     */
+    private int getFullDecodePermits(NitfImageSegmentHeader header) {
+        long bytes = header.getNumberOfRows() * header.getNumberOfColumns()
+                * BYTES_PER_DECODED_PIXEL;
+        long megabytes = (bytes + BYTES_PER_MEGABYTE - 1) / BYTES_PER_MEGABYTE;
+        return (int) Math.max(1, Math.min(FULL_DECODE_BUDGET_MEGABYTES, megabytes));
+    }
 
-        NitfRenderer renderer = new NitfRenderer();
-        ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(
-                image));
-        return renderer.render(header, inputStream);
+    private BufferedImage scaleDown(BufferedImage image, int step) throws IOException {
+        if (step == 1 && !image.getColorModel()
+                .hasAlpha()) {
+            return image;
+        }
+        return Thumbnails.of(image)
+                .forceSize(DecimatedImageRenderer.divideRoundingUp(image.getWidth(), step),
+                        DecimatedImageRenderer.divideRoundingUp(image.getHeight(), step))
+                .imageType(BufferedImage.TYPE_INT_RGB)
+                .asBufferedImage();
     }
 
     private void addThumbnailToMetacard(Metacard metacard, BufferedImage bufferedImage) {
@@ -172,29 +628,52 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
         }
     }
 
+    /**
+     * Encode the overview to a file backed stream, which is reset (deleting its temporary file, if
+     * any) once the content item has been stored.
+     */
     private ContentItem createOverview(String id, BufferedImage image, Metacard metacard) {
+        FileBackedOutputStream overviewOutputStream = new FileBackedOutputStream(
+                OVERVIEW_FILE_THRESHOLD);
+        boolean pending = false;
         try {
-            byte[] overviewBytes = scaleImage(image, image.getWidth(), image.getHeight());
-            ByteSource source = ByteSource.wrap(overviewBytes);
+            jpegEncoder.encode(image, overviewQuality, overviewOutputStream);
+            overviewOutputStream.close();
+
+            ByteSource source = overviewOutputStream.asByteSource();
             ContentItem contentItem = new ContentItemImpl(id,
                     OVERVIEW,
                     source,
                     IMAGE_JPEG,
                     buildOverviewTitle(metacard.getTitle()),
-                    overviewBytes.length,
+                    source.size(),
                     metacard);
 
             metacard.setAttribute(new AttributeImpl(Metacard.DERIVED_RESOURCE_URI,
                     contentItem.getUri()));
 
+            overviewOutputStreams.put(contentItem, overviewOutputStream);
+            pending = true;
             return contentItem;
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+        } finally {
+            if (!pending) {
+                resetQuietly(overviewOutputStream);
+            }
         }
 
         return null;
     }
 
+    private void resetQuietly(FileBackedOutputStream fileBackedOutputStream) {
+        try {
+            fileBackedOutputStream.reset();
+        } catch (IOException e) {
+            LOGGER.debug("unable to delete the temporary file", e);
+        }
+    }
+
     private String buildOverviewTitle(String title) {
         String rootFileName = FilenameUtils.getBaseName(title);
         return String.format(OVERVIEW_FILENAME_PATTERN, OVERVIEW, rootFileName, JPG);
@@ -209,10 +688,26 @@ public class NitfPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateSt
                 .asBufferedImage();
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ImageIO.write(thumbnail, JPG, outputStream);
-        outputStream.flush();
-        byte[] thumbnailBytes = outputStream.toByteArray();
-        outputStream.close();
-        return thumbnailBytes;
+        jpegEncoder.encode(thumbnail, THUMBNAIL_QUALITY, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Opens the data of an image segment.
+     */
+    private interface ImageDataSource {
+        InputStream open(int index) throws IOException;
+    }
+
+    private static class RenderedImages {
+
+        private final BufferedImage thumbnail;
+
+        private final BufferedImage overview;
+
+        RenderedImages(BufferedImage thumbnail, BufferedImage overview) {
+            this.thumbnail = thumbnail;
+            this.overview = overview;
+        }
     }
 }
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.codice.imaging.nitf.core.image.ImageBand;
+import org.codice.imaging.nitf.core.image.ImageCompression;
+import org.codice.imaging.nitf.core.image.ImageMode;
+import org.codice.imaging.nitf.core.image.ImageRepresentation;
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
+import org.codice.imaging.nitf.core.image.PixelJustification;
+import org.codice.imaging.nitf.core.image.PixelValueType;
+
+/**
+ * Image segment headers and generated image data for rendering tests.
+ */
+final class SyntheticImages {
+
+    static final int LARGE_BLOCK_SIZE = 1024;
+
+    /**
+     * The length of the file header created by {@link #fileHeader(long...)} for one segment.
+     */
+    static final int FILE_HEADER_LENGTH = 379;
+
+    /**
+     * The length of the image segment table entry of each segment.
+     */
+    private static final int IMAGE_SEGMENT_ENTRY_LENGTH = 16;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * @return the value of a sample of the test pattern
+     */
+    static int sample(int row, int column, int band) {
+        return (row * 7 + column * 13 + band * 50) & 0xFF;
+    }
+
+    static NitfImageSegmentHeader mockHeader(ImageMode mode, ImageCompression compression,
+            int bands, int bitsPerPixel, int rows, int columns, int blockSize) {
+        NitfImageSegmentHeader header = mock(NitfImageSegmentHeader.class);
+        when(header.getImageMode()).thenReturn(mode);
+        when(header.getImageCompression()).thenReturn(compression);
+        when(header.getImageRepresentation()).thenReturn(bands == 3 ?
+                ImageRepresentation.RGBTRUECOLOUR :
+                ImageRepresentation.MONOCHROME);
+        when(header.getPixelValueType()).thenReturn(PixelValueType.INTEGER);
+        when(header.getPixelJustification()).thenReturn(PixelJustification.RIGHT);
+        when(header.getNumBands()).thenReturn(bands);
+        when(header.getNumberOfBitsPerPixelPerBand()).thenReturn(bitsPerPixel);
+        when(header.getActualBitsPerPixelPerBand()).thenReturn(bitsPerPixel);
+        when(header.getNumberOfRows()).thenReturn((long) rows);
+        when(header.getNumberOfColumns()).thenReturn((long) columns);
+        when(header.getNumberOfBlocksPerRow()).thenReturn((columns + blockSize - 1) / blockSize);
+        when(header.getNumberOfBlocksPerColumn()).thenReturn((rows + blockSize - 1) / blockSize);
+        when(header.getNumberOfPixelsPerBlockHorizontal()).thenReturn(blockSize);
+        when(header.getNumberOfPixelsPerBlockVertical()).thenReturn(blockSize);
+        when(header.getImageBandZeroBase(anyInt())).thenReturn(mock(ImageBand.class));
+        return header;
+    }
+
+    /**
+     * @return the leading bytes of a NITF 2.1 file header, up to and including an image segment
+     * table with one segment per data length, each with an empty subheader and that many bytes of
+     * data
+     */
+    static byte[] fileHeader(long... dataLengths) {
+        int headerLength = FILE_HEADER_LENGTH
+                + (dataLengths.length - 1) * IMAGE_SEGMENT_ENTRY_LENGTH;
+        StringBuilder table = new StringBuilder(String.format("%06d%03d",
+                headerLength,
+                dataLengths.length));
+        for (long dataLength : dataLengths) {
+            table.append(String.format("%06d%010d", 0, dataLength));
+        }
+
+        byte[] header = new byte[headerLength];
+        Arrays.fill(header, (byte) ' ');
+        byte[] tableBytes = table.toString()
+                .getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(tableBytes,
+                0,
+                header,
+                headerLength - tableBytes.length,
+                tableBytes.length);
+        return header;
+    }
+
+    /**
+     * The data of a square, 8 bit monochrome image with 1024x1024 blocks that is generated as it
+     * is read, so images of several gigabytes can be rendered without storing them. The data can
+     * be preceded by a file header.
+     */
+    static class SyntheticImageData extends InputStream {
+
+        private final int blocksPerRow;
+
+        private final byte[] header;
+
+        private final long length;
+
+        private long position;
+
+        private long bytesRead;
+
+        /**
+         * @param size   the width and height of the image, a multiple of the block size
+         * @param header the bytes before the image data
+         */
+        SyntheticImageData(int size, byte[] header) {
+            this.blocksPerRow = size / LARGE_BLOCK_SIZE;
+            this.header = header;
+            this.length = header.length + (long) size * size;
+        }
+
+        /**
+         * @return the number of bytes that were read, excluding the bytes that were skipped
+         */
+        long getBytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            bytesRead++;
+            long dataPosition = position++ - header.length;
+            if (dataPosition < 0) {
+                return header[(int) (dataPosition + header.length)] & 0xFF;
+            }
+            long block = dataPosition / (LARGE_BLOCK_SIZE * LARGE_BLOCK_SIZE);
+            int blockOffset = (int) (dataPosition % (LARGE_BLOCK_SIZE * LARGE_BLOCK_SIZE));
+            int row = (int) (block / blocksPerRow) * LARGE_BLOCK_SIZE
+                    + blockOffset / LARGE_BLOCK_SIZE;
+            int column = (int) (block % blocksPerRow) * LARGE_BLOCK_SIZE
+                    + blockOffset % LARGE_BLOCK_SIZE;
+            return sample(row, column, 0);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - position);
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) read();
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+    }
+}
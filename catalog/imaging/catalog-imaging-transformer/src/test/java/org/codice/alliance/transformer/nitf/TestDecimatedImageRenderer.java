@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.nitf;
+
+import static org.codice.alliance.transformer.nitf.SyntheticImages.LARGE_BLOCK_SIZE;
+import static org.codice.alliance.transformer.nitf.SyntheticImages.mockHeader;
+import static org.codice.alliance.transformer.nitf.SyntheticImages.sample;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codice.alliance.transformer.nitf.SyntheticImages.SyntheticImageData;
+import org.codice.imaging.nitf.core.image.ImageBand;
+import org.codice.imaging.nitf.core.image.ImageCompression;
+import org.codice.imaging.nitf.core.image.ImageMode;
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
+import org.junit.Test;
+
+public class TestDecimatedImageRenderer {
+
+    private static final int ROWS = 50;
+
+    private static final int COLUMNS = 70;
+
+    private static final int BLOCK_SIZE = 32;
+
+    private static final Dimension FULL_SIZE = new Dimension(Integer.MAX_VALUE,
+            Integer.MAX_VALUE);
+
+    private static final Dimension SMALL_SIZE = new Dimension(24, 24);
+
+    private static final int SMALL_STEP = 3;
+
+    private static final Dimension THUMBNAIL_SIZE = new Dimension(400, 400);
+
+    @Test
+    public void testBlockInterleavedMonochrome() throws IOException {
+        assertRendered(ImageMode.BLOCKINTERLEVE, 1);
+    }
+
+    @Test
+    public void testBlockInterleavedRgb() throws IOException {
+        assertRendered(ImageMode.BLOCKINTERLEVE, 3);
+    }
+
+    @Test
+    public void testPixelInterleavedRgb() throws IOException {
+        assertRendered(ImageMode.PIXELINTERLEVE, 3);
+    }
+
+    @Test
+    public void testRowInterleavedRgb() throws IOException {
+        assertRendered(ImageMode.ROWINTERLEVE, 3);
+    }
+
+    @Test
+    public void testBandSequentialRgb() throws IOException {
+        assertRendered(ImageMode.BANDSEQUENTIAL, 3);
+    }
+
+    @Test
+    public void testSixteenBitSamples() throws IOException {
+        NitfImageSegmentHeader header = mockHeader(ImageMode.BLOCKINTERLEVE,
+                ImageCompression.NOTCOMPRESSED,
+                1,
+                16,
+                ROWS,
+                COLUMNS,
+                BLOCK_SIZE);
+        when(header.getActualBitsPerPixelPerBand()).thenReturn(11);
+        byte[] data = encode(ImageMode.BLOCKINTERLEVE, 1, 2, BLOCK_SIZE);
+
+        List<BufferedImage> images = new DecimatedImageRenderer(header).render(
+                new ByteArrayInputStream(data),
+                Arrays.asList(FULL_SIZE));
+
+        assertPixels(images.get(0), 1, 1);
+    }
+
+    @Test
+    public void testLookupTablesAreNotSupported() {
+        NitfImageSegmentHeader header = mockHeader(ImageMode.BLOCKINTERLEVE,
+                ImageCompression.NOTCOMPRESSED,
+                1,
+                8,
+                ROWS,
+                COLUMNS,
+                BLOCK_SIZE);
+        ImageBand band = mock(ImageBand.class);
+        when(band.getNumLUTs()).thenReturn(1);
+        when(header.getImageBandZeroBase(anyInt())).thenReturn(band);
+
+        assertThat(DecimatedImageRenderer.isSupported(header), is(false));
+    }
+
+    @Test
+    public void testMaskedBlocksAreNotRead() throws IOException {
+        NitfImageSegmentHeader header = mockHeader(ImageMode.BLOCKINTERLEVE,
+                ImageCompression.NOTCOMPRESSEDMASK,
+                1,
+                8,
+                ROWS,
+                COLUMNS,
+                BLOCK_SIZE);
+        byte[] blocks = encode(ImageMode.BLOCKINTERLEVE, 1, 1, BLOCK_SIZE);
+        int blockLength = BLOCK_SIZE * BLOCK_SIZE;
+        int blockCount = blocks.length / blockLength;
+
+        // block 1 is not recorded, the blocks after it move up
+        ByteArrayOutputStream masked = new ByteArrayOutputStream();
+        DataOutputStream mask = new DataOutputStream(masked);
+        mask.writeInt(10 + 4 * blockCount);
+        mask.writeShort(4);
+        mask.writeShort(0);
+        mask.writeShort(0);
+        for (int i = 0; i < blockCount; i++) {
+            mask.writeInt(i == 1 ? 0xFFFFFFFF : (i < 1 ? i : i - 1) * blockLength);
+        }
+        masked.write(blocks, 0, blockLength);
+        masked.write(blocks, 2 * blockLength, blocks.length - 2 * blockLength);
+
+        List<BufferedImage> images = new DecimatedImageRenderer(header).render(
+                new ByteArrayInputStream(masked.toByteArray()),
+                Arrays.asList(FULL_SIZE));
+
+        Raster raster = images.get(0)
+                .getRaster();
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS; x++) {
+                boolean notRecorded = y < BLOCK_SIZE && x >= BLOCK_SIZE && x < 2 * BLOCK_SIZE;
+                assertThat(raster.getSample(x, y, 0), is(notRecorded ? 0 : sample(y, x, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeImagesReadOnlyTheSampledRows() throws IOException {
+        for (int size : new int[] {2048, 16384, 65536}) {
+            NitfImageSegmentHeader header = mockHeader(ImageMode.BLOCKINTERLEVE,
+                    ImageCompression.NOTCOMPRESSED,
+                    1,
+                    8,
+                    size,
+                    size,
+                    LARGE_BLOCK_SIZE);
+            SyntheticImageData imageData = new SyntheticImageData(size, new byte[0]);
+
+            List<BufferedImage> images = new DecimatedImageRenderer(header).render(imageData,
+                    Arrays.asList(THUMBNAIL_SIZE));
+
+            BufferedImage image = images.get(0);
+            int step = (size + THUMBNAIL_SIZE.width - 1) / THUMBNAIL_SIZE.width;
+            int sampledRows = (size + step - 1) / step;
+            assertThat(image.getWidth() <= THUMBNAIL_SIZE.width, is(true));
+            assertThat(image.getHeight(), is(sampledRows));
+            assertThat(image.getRaster()
+                    .getSample(image.getWidth() - 1, image.getHeight() - 1, 0), is(sample(
+                    (sampledRows - 1) * step,
+                    (image.getWidth() - 1) * step,
+                    0)));
+            // only the sampled rows of each block are read, everything else is skipped
+            assertThat(imageData.getBytesRead(), is((long) sampledRows * size));
+        }
+    }
+
+    private void assertRendered(ImageMode mode, int bands) throws IOException {
+        NitfImageSegmentHeader header = mockHeader(mode,
+                ImageCompression.NOTCOMPRESSED,
+                bands,
+                8,
+                ROWS,
+                COLUMNS,
+                BLOCK_SIZE);
+        assertThat(DecimatedImageRenderer.isSupported(header), is(true));
+        byte[] data = encode(mode, bands, 1, BLOCK_SIZE);
+
+        List<BufferedImage> images = new DecimatedImageRenderer(header).render(
+                new ByteArrayInputStream(data),
+                Arrays.asList(FULL_SIZE, SMALL_SIZE));
+
+        assertPixels(images.get(0), bands, 1);
+        assertPixels(images.get(1), bands, SMALL_STEP);
+    }
+
+    private void assertPixels(BufferedImage image, int bands, int step) {
+        assertThat(image.getWidth(), is((COLUMNS + step - 1) / step));
+        assertThat(image.getHeight(), is((ROWS + step - 1) / step));
+
+        Raster raster = image.getRaster();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int band = 0; band < bands; band++) {
+                    assertThat(raster.getSample(x, y, band), is(sample(y * step, x * step, band)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode the test pattern in the storage order of the image mode. Samples are written as 11
+     * bit values when they are two bytes long.
+     */
+    private byte[] encode(ImageMode mode, int bands, int bytesPerSample, int blockSize) {
+        int blocksPerRow = (COLUMNS + blockSize - 1) / blockSize;
+        int blocksPerColumn = (ROWS + blockSize - 1) / blockSize;
+        int blockCount = blocksPerRow * blocksPerColumn;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        for (int i = 0; i < blockCount * (mode == ImageMode.BANDSEQUENTIAL ? bands : 1); i++) {
+            int block = i % blockCount;
+            int originRow = (block / blocksPerRow) * blockSize;
+            int originColumn = (block % blocksPerRow) * blockSize;
+            for (int first = 0; first < (mode == ImageMode.BLOCKINTERLEVE ? bands : 1); first++) {
+                for (int r = 0; r < blockSize; r++) {
+                    for (int second = 0; second < (mode == ImageMode.ROWINTERLEVE ? bands : 1);
+                            second++) {
+                        for (int c = 0; c < blockSize; c++) {
+                            for (int third = 0;
+                                    third < (mode == ImageMode.PIXELINTERLEVE ? bands : 1);
+                                    third++) {
+                                int band = first + second + third + (
+                                        mode == ImageMode.BANDSEQUENTIAL ? i / blockCount : 0);
+                                int value = sample(originRow + r, originColumn + c, band);
+                                if (bytesPerSample == 2) {
+                                    outputStream.write(value >> 5);
+                                    outputStream.write(value << 3);
+                                } else {
+                                    outputStream.write(value);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -15,25 +15,39 @@ package org.codice.alliance.transformer.nitf;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.codice.alliance.libs.cache.TransformationCache;
+import org.codice.alliance.libs.cache.TransformationCacheImpl;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.MetacardImpl;
 import ddf.catalog.federation.FederationException;
 import ddf.catalog.source.SourceUnavailableException;
 import ddf.catalog.source.UnsupportedQueryException;
@@ -48,6 +62,9 @@ public class TestNitfInputTransformer {
 
     private static final String GEO_NITF = "/i_3001a.ntf";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private NitfInputTransformer transformer = null;
 
     @Before
@@ -196,6 +213,119 @@ public class TestNitfInputTransformer {
         assertThat(metacard.getAttribute("nitf.image." + ImageAttribute.IMAGE_MAGNIFICATION).getValue(), is("1.0"));
     }
 
+    @Test
+    public void testSegmentDataIsSkipped() throws Exception {
+        AtomicLong bytesRead = new AtomicLong();
+        AtomicLong bytesSkipped = new AtomicLong();
+        InputStream inputStream = new FilterInputStream(getInputStream(GEO_NITF)) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value >= 0) {
+                    bytesRead.incrementAndGet();
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                int count = super.read(bytes, offset, length);
+                if (count > 0) {
+                    bytesRead.addAndGet(count);
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                long skipped = super.skip(count);
+                bytesSkipped.addAndGet(skipped);
+                return skipped;
+            }
+        };
+
+        Metacard metacard = transformer.transform(inputStream);
+
+        // the image segment holds 1 MB of pixel data and the headers are less than 2 KB
+        assertThat(metacard.getTitle(), startsWith("Checks an uncompressed 1024x1024"));
+        assertThat(bytesRead.get() < 64 * 1024, is(true));
+        assertThat(bytesSkipped.get() >= 1024 * 1024, is(true));
+    }
+
+    @Test
+    public void testCachedTransformation() throws Exception {
+        TransformationCacheImpl transformationCache = new TransformationCacheImpl();
+        transformationCache.setEnabled(true);
+        transformationCache.setDirectory(temporaryFolder.getRoot()
+                .getPath());
+        transformer.setTransformationCache(transformationCache);
+
+        Metacard transformed = transformer.transform(getInputStream(GEO_NITF), "first");
+        Metacard cached = transformer.transform(getInputStream(GEO_NITF), "second");
+
+        assertThat(temporaryFolder.getRoot()
+                .list().length, is(1));
+        assertThat(transformed.getId(), is("first"));
+        assertThat(cached.getId(), is("second"));
+        assertThat(cached.getTitle(), is(transformed.getTitle()));
+        assertThat(cached.getLocation(), is(transformed.getLocation()));
+        assertThat(cached.getCreatedDate(), is(transformed.getCreatedDate()));
+        assertThat(cached.getAttribute("nitf." + NitfHeaderAttribute.FILE_VERSION)
+                .getValue(), is("NITF_TWO_ONE"));
+    }
+
+    @Test
+    public void testCacheHitSkipsParse() throws Exception {
+        MetacardImpl cachedMetacard = new MetacardImpl(new NitfMetacardType());
+        cachedMetacard.setTitle("cached");
+        TransformationCache transformationCache = mock(TransformationCache.class);
+        when(transformationCache.isEnabled()).thenReturn(true);
+        when(transformationCache.get(any(), any())).thenReturn(Optional.of(cachedMetacard));
+        transformer.setTransformationCache(transformationCache);
+
+        // the input is not a NITF, so it would fail to parse
+        Metacard metacard = transformer.transform(new ByteArrayInputStream("{key=".getBytes()),
+                "id");
+
+        assertThat(metacard.getTitle(), is("cached"));
+        assertThat(metacard.getId(), is("id"));
+        verify(transformationCache, never()).put(any(), any());
+    }
+
+    @Test
+    public void testParseArtifact() throws Exception {
+        NitfParseArtifacts parseArtifacts = new NitfParseArtifacts();
+        transformer.setParseArtifacts(parseArtifacts);
+
+        transformer.transform(getInputStream(GEO_NITF), "id");
+
+        Optional<NitfParseArtifact> artifact = parseArtifacts.remove("id");
+        assertThat(artifact.isPresent(), is(true));
+        assertThat(artifact.get()
+                .getNitfHeader()
+                .getFileTitle(), startsWith("Checks an uncompressed 1024x1024"));
+        assertThat(artifact.get()
+                .getImageSegmentHeaders()
+                .size(), is(1));
+        // header length 404 + image subheader length 499
+        assertThat(artifact.get()
+                .getImageSegmentDataOffset(0), is(903L));
+        assertThat(artifact.get()
+                .getImageSegmentDataLength(0), is(1048576L));
+        assertThat(parseArtifacts.remove("id")
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testParseArtifactWithoutId() throws Exception {
+        NitfParseArtifacts parseArtifacts = mock(NitfParseArtifacts.class);
+        transformer.setParseArtifacts(parseArtifacts);
+
+        transformer.transform(getInputStream(GEO_NITF));
+
+        verify(parseArtifacts, never()).put(any(), any());
+    }
+
     private void validateDate(Metacard metacard, Date date, String expectedDate) {
         assertNotNull(date);
         SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
@@ -17,35 +17,59 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
 
+import javax.imageio.ImageIO;
+
+import org.codice.alliance.transformer.nitf.SyntheticImages.SyntheticImageData;
+import org.codice.imaging.nitf.core.image.ImageCompression;
+import org.codice.imaging.nitf.core.image.ImageMode;
+import org.codice.imaging.nitf.core.image.NitfImageSegmentHeader;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
 import ddf.catalog.content.data.ContentItem;
 import ddf.catalog.content.operation.CreateStorageRequest;
+import ddf.catalog.content.operation.CreateStorageResponse;
 import ddf.catalog.content.operation.UpdateStorageRequest;
+import ddf.catalog.content.operation.UpdateStorageResponse;
 import ddf.catalog.data.Attribute;
 import ddf.catalog.data.Metacard;
 import ddf.catalog.federation.FederationException;
 import ddf.catalog.plugin.PluginExecutionException;
 import ddf.catalog.source.SourceUnavailableException;
 import ddf.catalog.source.UnsupportedQueryException;
+import ddf.catalog.transform.CatalogTransformerException;
 
 public class TestPreStoragePlugin {
 
     private static final String GEO_NITF = "/i_3001a.ntf";
 
+    private static final int NITF_HEADER_LENGTH = 404;
+
     private NitfPreStoragePlugin nitfPreStoragePlugin = null;
 
     private CreateStorageRequest createStorageRequest = null;
@@ -58,6 +82,8 @@ public class TestPreStoragePlugin {
 
     private ArgumentCaptor<Attribute> attributeArgumentCaptor = null;
 
+    private List<ContentItem> contentItems = null;
+
     @Before
     public void setUp()
             throws UnsupportedQueryException, SourceUnavailableException, FederationException,
@@ -69,7 +95,7 @@ public class TestPreStoragePlugin {
         this.metacard = mock(Metacard.class);
         this.contentItem = mock(ContentItem.class);
         this.attributeArgumentCaptor = ArgumentCaptor.forClass(Attribute.class);
-        List<ContentItem> contentItems = new ArrayList<>();
+        contentItems = new ArrayList<>();
         contentItems.add(contentItem);
 
         when(createStorageRequest.getContentItems()).thenReturn(contentItems);
@@ -103,6 +129,427 @@ public class TestPreStoragePlugin {
         validate();
     }
 
+    @Test
+    public void testOverviewIsReleasedOnceCreated() throws PluginExecutionException, IOException {
+        nitfPreStoragePlugin.process(createStorageRequest);
+        ContentItem overview = contentItems.get(1);
+        assertThat(ByteStreams.toByteArray(overview.getInputStream()).length > 0, is(true));
+
+        CreateStorageResponse createStorageResponse = mock(CreateStorageResponse.class);
+        when(createStorageResponse.getRequest()).thenReturn(createStorageRequest);
+        nitfPreStoragePlugin.process(createStorageResponse);
+
+        assertThat(ByteStreams.toByteArray(overview.getInputStream()).length, is(0));
+    }
+
+    @Test
+    public void testOverviewIsReleasedOnceUpdated() throws PluginExecutionException, IOException {
+        nitfPreStoragePlugin.process(updateStorageRequest);
+        ContentItem overview = contentItems.get(1);
+
+        UpdateStorageResponse updateStorageResponse = mock(UpdateStorageResponse.class);
+        when(updateStorageResponse.getRequest()).thenReturn(updateStorageRequest);
+        nitfPreStoragePlugin.process(updateStorageResponse);
+
+        assertThat(ByteStreams.toByteArray(overview.getInputStream()).length, is(0));
+    }
+
+    @Test
+    public void testParseArtifactIsUsed()
+            throws PluginExecutionException, IOException, CatalogTransformerException {
+        NitfParseArtifacts parseArtifacts = transformWithParseArtifacts();
+
+        // the image subheader is overwritten, so the content can only be rendered without
+        // parsing it
+        useCorruptImageSubheader();
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        assertThat(parseArtifacts.remove("101ABC"), is(Optional.empty()));
+    }
+
+    @Test
+    public void testParseArtifactOfOtherContentIsIgnored()
+            throws PluginExecutionException, IOException {
+        nitfPreStoragePlugin.process(createStorageRequest);
+        Object fullParseThumbnail = captureThumbnail(2);
+
+        useMosaicContent();
+        when(contentItem.getInputStream()).thenAnswer(invocation -> getInputStream(GEO_NITF));
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        assertThat(captureThumbnail(4), is(fullParseThumbnail));
+    }
+
+    @Test
+    public void testParseArtifactOfOtherContentSizeIsIgnored()
+            throws PluginExecutionException, IOException, CatalogTransformerException {
+        transformWithParseArtifacts();
+        byte[] content = useCorruptImageSubheader();
+        when(contentItem.getSize()).thenReturn(content.length + 1L);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        verify(metacard, never()).setAttribute(any());
+        assertThat(contentItems.size(), is(1));
+    }
+
+    /**
+     * @return the content, with the image subheader of the first segment overwritten
+     */
+    private byte[] useCorruptImageSubheader() throws IOException {
+        byte[] content = ByteStreams.toByteArray(getInputStream(GEO_NITF));
+        Arrays.fill(content, NITF_HEADER_LENGTH, NITF_HEADER_LENGTH + 2, (byte) 0);
+        when(contentItem.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(
+                content));
+        return content;
+    }
+
+    @Test
+    public void testParseArtifactMatchesFullParse()
+            throws PluginExecutionException, IOException, CatalogTransformerException {
+        nitfPreStoragePlugin.process(createStorageRequest);
+        Object fullParseThumbnail = captureThumbnail(2);
+
+        transformWithParseArtifacts();
+        when(contentItem.getInputStream()).thenReturn(getInputStream(GEO_NITF));
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        assertThat(captureThumbnail(4), is(fullParseThumbnail));
+    }
+
+    private NitfParseArtifacts transformWithParseArtifacts()
+            throws IOException, CatalogTransformerException {
+        NitfParseArtifacts parseArtifacts = new NitfParseArtifacts();
+        NitfInputTransformer transformer = new NitfInputTransformer();
+        transformer.setNitfMetacardType(new NitfMetacardType());
+        transformer.setParseArtifacts(parseArtifacts);
+        transformer.transform(getInputStream(GEO_NITF), "101ABC");
+
+        when(metacard.getId()).thenReturn("101ABC");
+        nitfPreStoragePlugin.setParseArtifacts(parseArtifacts);
+        return parseArtifacts;
+    }
+
+    /**
+     * @return the thumbnail set by the most recent of {@code setAttributeCalls}
+     */
+    private Object captureThumbnail(int setAttributeCalls) {
+        ArgumentCaptor<Attribute> captor = ArgumentCaptor.forClass(Attribute.class);
+        verify(metacard, times(setAttributeCalls)).setAttribute(captor.capture());
+        Attribute thumbnail = captor.getAllValues()
+                .get(setAttributeCalls - 2);
+        assertThat(thumbnail.getName(), is(Metacard.THUMBNAIL));
+        return thumbnail.getValue();
+    }
+
+    @Test
+    public void testOverviewIsBounded() throws PluginExecutionException, IOException {
+        nitfPreStoragePlugin.setMaxOverviewSize(256);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(256));
+        assertThat(overview.getHeight(), is(256));
+    }
+
+    @Test
+    public void testOverviewQuality() throws PluginExecutionException, IOException {
+        nitfPreStoragePlugin.setOverviewQuality(0.9f);
+        nitfPreStoragePlugin.process(createStorageRequest);
+        long highQualitySize = contentItems.get(1)
+                .getSize();
+
+        contentItems.remove(1);
+        when(contentItem.getInputStream()).thenReturn(getInputStream(GEO_NITF));
+        nitfPreStoragePlugin.setOverviewQuality(0.1f);
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        assertThat(contentItems.get(1)
+                .getSize() < highQualitySize, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOverviewQuality() {
+        nitfPreStoragePlugin.setOverviewQuality(1.5f);
+    }
+
+    /**
+     * Render a 16384x16384 image (256 MB of pixels) that is generated while it is read. Only the
+     * rows of the bounded overview and the thumbnail are read and kept.
+     */
+    @Test
+    public void testLargeImageOverviewIsBounded() throws PluginExecutionException, IOException {
+        int size = 16384;
+        NitfImageSegmentHeader header = SyntheticImages.mockHeader(ImageMode.BLOCKINTERLEVE,
+                ImageCompression.NOTCOMPRESSED,
+                1,
+                8,
+                size,
+                size,
+                SyntheticImages.LARGE_BLOCK_SIZE);
+        byte[] fileHeader = SyntheticImages.fileHeader((long) size * size);
+        NitfParseArtifacts parseArtifacts = new NitfParseArtifacts();
+        parseArtifacts.put("101ABC",
+                new NitfParseArtifact(null,
+                        Collections.singletonList(header),
+                        ImageSegmentOffsets.read(fileHeader, fileHeader.length)
+                                .get()));
+        SyntheticImageData content = new SyntheticImageData(size, fileHeader);
+        when(contentItem.getInputStream()).thenReturn(content);
+        when(metacard.getId()).thenReturn("101ABC");
+        nitfPreStoragePlugin.setParseArtifacts(parseArtifacts);
+        nitfPreStoragePlugin.setMaxOverviewSize(1024);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(1024));
+        assertThat(overview.getHeight(), is(1024));
+        // the file header is read to check the parse artifact, and then every 16th row for the
+        // overview and every 41st row for the thumbnail
+        long sampledRows = IntStream.range(0, size)
+                .filter(row -> row % 16 == 0 || row % 41 == 0)
+                .count();
+        assertThat(content.getBytesRead(),
+                is(SyntheticImages.FILE_HEADER_LENGTH + sampledRows * size));
+    }
+
+    /**
+     * Render three 8 bit monochrome segments of a single value each: a 64x64 segment at the
+     * origin, a 64x64 segment attached to its right and a 32x32 segment attached inside the
+     * second one.
+     */
+    @Test
+    public void testImageSegmentMosaic() throws PluginExecutionException, IOException {
+        useMosaicContent();
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(128));
+        assertThat(overview.getHeight(), is(64));
+        assertSample(overview, 32, 32, 50);
+        assertSample(overview, 110, 56, 100);
+        assertSample(overview, 96, 32, 200);
+    }
+
+    /**
+     * The third segment is attached to a display level that is not an image segment (eg. a
+     * graphic), so it cannot be placed and is left out.
+     */
+    @Test
+    public void testSegmentAttachedToOtherDisplayLevelIsSkipped()
+            throws PluginExecutionException, IOException {
+        useMosaicContent(4);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(128));
+        assertThat(overview.getHeight(), is(64));
+        assertSample(overview, 32, 32, 50);
+        assertSample(overview, 96, 32, 100);
+    }
+
+    @Test
+    public void testMaxImageSegments() throws PluginExecutionException, IOException {
+        useMosaicContent();
+        nitfPreStoragePlugin.setMaxImageSegments(1);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(64));
+        assertThat(overview.getHeight(), is(64));
+        assertSample(overview, 32, 32, 50);
+    }
+
+    @Test
+    public void testSingleRenderThread() throws PluginExecutionException, IOException {
+        useMosaicContent();
+        nitfPreStoragePlugin.setRenderThreads(1);
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        BufferedImage overview = readOverview();
+        assertThat(overview.getWidth(), is(128));
+        assertSample(overview, 96, 32, 200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRenderThreads() {
+        nitfPreStoragePlugin.setRenderThreads(0);
+    }
+
+    /**
+     * Content that is not a file is opened once and the segments are read in one pass.
+     */
+    @Test
+    public void testStreamContentIsReadOnce() throws PluginExecutionException, IOException {
+        useMosaicContent();
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        verify(contentItem, times(1)).getInputStream();
+        assertSample(readOverview(), 96, 32, 200);
+    }
+
+    /**
+     * The segments of a file are each opened by seeking to their data.
+     */
+    @Test
+    public void testFileContentIsOpenedPerSegment() throws PluginExecutionException, IOException {
+        byte[] contentBytes = useMosaicContent();
+        File file = File.createTempFile("nitf-pre-storage", ".ntf");
+        try {
+            Files.write(contentBytes, file);
+            when(contentItem.getInputStream()).thenAnswer(invocation -> new FileInputStream(file));
+
+            nitfPreStoragePlugin.process(createStorageRequest);
+
+            validate();
+            verify(contentItem, times(4)).getInputStream();
+            BufferedImage overview = readOverview();
+            assertSample(overview, 32, 32, 50);
+            assertSample(overview, 110, 56, 100);
+            assertSample(overview, 96, 32, 200);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Without a parse result, content that is not a file is copied once and the segments are
+     * read from the copy.
+     */
+    @Test
+    public void testStreamContentWithoutParseArtifactIsReadOnce()
+            throws PluginExecutionException {
+        when(contentItem.getInputStream()).thenAnswer(invocation -> getInputStream(GEO_NITF));
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        validate();
+        verify(contentItem, times(1)).getInputStream();
+    }
+
+    /**
+     * Without a parse result, the headers of a file are parsed and then its segment is opened by
+     * seeking to the data.
+     */
+    @Test
+    public void testFileContentWithoutParseArtifact() throws PluginExecutionException,
+            IOException {
+        File file = File.createTempFile("nitf-pre-storage", ".ntf");
+        try {
+            Files.write(ByteStreams.toByteArray(getInputStream(GEO_NITF)), file);
+            when(contentItem.getInputStream()).thenAnswer(invocation -> new FileInputStream(file));
+
+            nitfPreStoragePlugin.process(createStorageRequest);
+
+            validate();
+            verify(contentItem, times(2)).getInputStream();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRenderAfterDestroy() throws PluginExecutionException {
+        nitfPreStoragePlugin.destroy();
+
+        nitfPreStoragePlugin.process(createStorageRequest);
+
+        verify(metacard, never()).setAttribute(any());
+        assertThat(contentItems.size(), is(1));
+    }
+
+    /**
+     * @return the content
+     */
+    private byte[] useMosaicContent() throws IOException {
+        return useMosaicContent(2);
+    }
+
+    /**
+     * @param attachmentLevel the attachment level of the third segment
+     * @return the content
+     */
+    private byte[] useMosaicContent(int attachmentLevel) throws IOException {
+        List<NitfImageSegmentHeader> headers = Arrays.asList(mockSegment(64, 0, 0, 1, 0),
+                mockSegment(64, 0, 64, 2, 1),
+                mockSegment(32, 16, 16, 3, attachmentLevel));
+        byte[] fileHeader = SyntheticImages.fileHeader(64 * 64, 64 * 64, 32 * 32);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(fileHeader);
+        content.write(segmentData(64, 50));
+        content.write(segmentData(64, 100));
+        content.write(segmentData(32, 200));
+        byte[] contentBytes = content.toByteArray();
+
+        NitfParseArtifacts parseArtifacts = new NitfParseArtifacts();
+        parseArtifacts.put("101ABC",
+                new NitfParseArtifact(null,
+                        headers,
+                        ImageSegmentOffsets.read(fileHeader, fileHeader.length)
+                                .get()));
+        when(contentItem.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(
+                contentBytes));
+        when(metacard.getId()).thenReturn("101ABC");
+        nitfPreStoragePlugin.setParseArtifacts(parseArtifacts);
+        return contentBytes;
+    }
+
+    private NitfImageSegmentHeader mockSegment(int size, int row, int column, int displayLevel,
+            int attachmentLevel) {
+        NitfImageSegmentHeader header = SyntheticImages.mockHeader(ImageMode.BLOCKINTERLEVE,
+                ImageCompression.NOTCOMPRESSED,
+                1,
+                8,
+                size,
+                size,
+                size);
+        when(header.getImageLocationRow()).thenReturn(row);
+        when(header.getImageLocationColumn()).thenReturn(column);
+        when(header.getImageDisplayLevel()).thenReturn(displayLevel);
+        when(header.getAttachmentLevel()).thenReturn(attachmentLevel);
+        return header;
+    }
+
+    private byte[] segmentData(int size, int value) {
+        byte[] data = new byte[size * size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * The overview is a JPEG, so the samples are only compared approximately.
+     */
+    private void assertSample(BufferedImage image, int x, int y, int expected) {
+        int sample = image.getRaster()
+                .getSample(x, y, 0);
+        assertThat(Math.abs(sample - expected) <= 8, is(true));
+    }
+
+    private BufferedImage readOverview() throws IOException {
+        assertThat(contentItems.size(), is(2));
+        try (InputStream inputStream = contentItems.get(1)
+                .getInputStream()) {
+            return ImageIO.read(inputStream);
+        }
+    }
+
     /**
      * Test that the plugin handles non-nitf content items
      *
@@ -14,10 +14,12 @@
 package org.codice.alliance.video.stream.mpegts;
 
 import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.isTrue;
 import static org.apache.commons.lang3.Validate.notBlank;
 import static org.apache.commons.lang3.Validate.notNull;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.List;
@@ -29,6 +31,7 @@ import org.codice.alliance.libs.klv.KlvHandlerFactory;
 import org.codice.alliance.libs.klv.KlvProcessor;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
 import org.codice.alliance.video.stream.mpegts.filename.FilenameGenerator;
+import org.codice.alliance.video.stream.mpegts.netty.SourceDemultiplexer;
 import org.codice.alliance.video.stream.mpegts.netty.UdpStreamProcessor;
 import org.codice.alliance.video.stream.mpegts.rollover.RolloverCondition;
 import org.slf4j.Logger;
@@ -59,6 +62,9 @@ import io.netty.channel.socket.nio.NioDatagramChannel;
  * <li>{@link #setMetacardTypeList(List)}
  * <li>{@link #setCatalogFramework(CatalogFramework)}
  * </ul>
+ * <p>
+ * If {@link #setSourceShardingEnabled(Boolean)} is enabled, then each sender on the monitored port
+ * is handled by its own copy of the {@link UdpStreamProcessor}. See {@link SourceDemultiplexer}.
  */
 public class UdpStreamMonitor implements StreamMonitor {
 
@@ -74,6 +80,14 @@ public class UdpStreamMonitor implements StreamMonitor {
 
     public static final int SUBSAMPLE_COUNT_MAX = Integer.MAX_VALUE;
 
+    public static final int MAX_SOURCES_MIN = 1;
+
+    public static final int MAX_SOURCES_MAX = 1024;
+
+    public static final long SOURCE_IDLE_TIMEOUT_MIN = 1;
+
+    public static final long SOURCE_IDLE_TIMEOUT_MAX = Long.MAX_VALUE;
+
     static final int MONITORED_PORT_MIN = 1;
 
     static final int MONITORED_PORT_MAX = 65535;
@@ -107,6 +121,42 @@ public class UdpStreamMonitor implements StreamMonitor {
      */
     private static final String METATYPE_FILENAME_TEMPLATE = "filenameTemplate";
 
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_KEYFRAME_THUMBNAIL_ENABLED = "keyframeThumbnailEnabled";
+
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_SOURCE_SHARDING_ENABLED = "sourceShardingEnabled";
+
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_MAX_SOURCES = "maxSources";
+
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_SOURCE_IDLE_TIMEOUT = "sourceIdleTimeout";
+
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_KLV_LOCATION_COVERAGE_MAX_ERROR =
+            "klvLocationCoverageMaxError";
+
+    /**
+     * This is the id string used in metatype.xml.
+     */
+    private static final String METATYPE_KLV_LOCATION_PRECISION_SCALE =
+            "klvLocationPrecisionScale";
+
+    private static final int DEFAULT_MAX_SOURCES = 16;
+
+    private static final long DEFAULT_SOURCE_IDLE_TIMEOUT = 60000;
+
     private UdpStreamProcessor udpStreamProcessor;
 
     private String monitoredAddress;
@@ -121,6 +171,18 @@ public class UdpStreamMonitor implements StreamMonitor {
 
     private String parentTitle;
 
+    private boolean sourceShardingEnabled = false;
+
+    private int maxSources = DEFAULT_MAX_SOURCES;
+
+    private long sourceIdleTimeout = DEFAULT_SOURCE_IDLE_TIMEOUT;
+
+    /**
+     * The sharding mode of the running server, which may differ from the configured mode until
+     * the monitor is re-initialized.
+     */
+    private boolean sourceShardingActive = false;
+
     public UdpStreamMonitor() {
         udpStreamProcessor = new UdpStreamProcessor(this);
     }
@@ -159,6 +221,36 @@ public class UdpStreamMonitor implements StreamMonitor {
         udpStreamProcessor.setKlvLocationSubsampleCount(klvLocationSubsampleCount);
     }
 
+    /**
+     * @param klvLocationPrecisionScale scale of the fixed precision model that the location is
+     *                                  snap-rounded to, 0 to keep full precision (must be non-null
+     *                                  and >=0)
+     */
+    public void setKlvLocationPrecisionScale(Double klvLocationPrecisionScale) {
+        notNull(klvLocationPrecisionScale, "klvLocationPrecisionScale must be non-null");
+        isTrue(klvLocationPrecisionScale >= 0, "klvLocationPrecisionScale must be >=0");
+        udpStreamProcessor.setKlvLocationPrecisionScale(klvLocationPrecisionScale);
+    }
+
+    /**
+     * @param klvLocationCoverageMaxError the cell size in degrees of the coverage grid used
+     *                                    for the location, must be >=0 (0 keeps the union of
+     *                                    the corner polygons)
+     */
+    public void setKlvLocationCoverageMaxError(Double klvLocationCoverageMaxError) {
+        notNull(klvLocationCoverageMaxError, "klvLocationCoverageMaxError must be non-null");
+        isTrue(klvLocationCoverageMaxError >= 0, "klvLocationCoverageMaxError must be >=0");
+        udpStreamProcessor.setKlvLocationCoverageMaxError(klvLocationCoverageMaxError);
+    }
+
+    /**
+     * @param keyframeThumbnailEnabled must be non-null
+     */
+    public void setKeyframeThumbnailEnabled(Boolean keyframeThumbnailEnabled) {
+        notNull(keyframeThumbnailEnabled, "keyframeThumbnailEnabled must be non-null");
+        udpStreamProcessor.setKeyframeThumbnailEnabled(keyframeThumbnailEnabled);
+    }
+
     /**
      * @param defaultKlvHandler must be non-null
      */
@@ -200,6 +292,40 @@ public class UdpStreamMonitor implements StreamMonitor {
         udpStreamProcessor.setRolloverCondition(rolloverCondition);
     }
 
+    /**
+     * @param sourceShardingEnabled must be non-null
+     */
+    public void setSourceShardingEnabled(Boolean sourceShardingEnabled) {
+        notNull(sourceShardingEnabled, "sourceShardingEnabled must be non-null");
+        this.sourceShardingEnabled = sourceShardingEnabled;
+    }
+
+    /**
+     * @param maxSources must be non-null and {@link #MAX_SOURCES_MIN} <= count <= {@link #MAX_SOURCES_MAX}
+     */
+    public void setMaxSources(Integer maxSources) {
+        notNull(maxSources, "maxSources must be non-null");
+        inclusiveBetween(MAX_SOURCES_MIN,
+                MAX_SOURCES_MAX,
+                maxSources,
+                String.format("maxSources must be >=%d and <=%d",
+                        MAX_SOURCES_MIN,
+                        MAX_SOURCES_MAX));
+        this.maxSources = maxSources;
+    }
+
+    /**
+     * @param milliseconds must be non-null and >= {@link #SOURCE_IDLE_TIMEOUT_MIN}
+     */
+    public void setSourceIdleTimeout(Long milliseconds) {
+        notNull(milliseconds, "milliseconds must be non-null");
+        inclusiveBetween(SOURCE_IDLE_TIMEOUT_MIN,
+                SOURCE_IDLE_TIMEOUT_MAX,
+                milliseconds,
+                String.format("milliseconds must be >=%d", SOURCE_IDLE_TIMEOUT_MIN));
+        this.sourceIdleTimeout = milliseconds;
+    }
+
     private boolean isReady() {
         return monitoredAddress != null && monitoredPort != null && udpStreamProcessor.isReady();
     }
@@ -216,12 +342,17 @@ public class UdpStreamMonitor implements StreamMonitor {
         if (isReady()) {
 
             LOGGER.info(
-                    "initializing udp stream monitor: monitoredAddress={}, monitoredPort={}, udpStreamProcessor={}",
+                    "initializing udp stream monitor: monitoredAddress={}, monitoredPort={}, sourceShardingEnabled={}, udpStreamProcessor={}",
                     monitoredAddress,
                     monitoredPort,
+                    sourceShardingEnabled,
                     udpStreamProcessor);
 
-            udpStreamProcessor.init();
+            sourceShardingActive = sourceShardingEnabled;
+
+            if (!sourceShardingActive) {
+                udpStreamProcessor.init();
+            }
 
             serverThread = new Thread(new Server());
             serverThread.start();
@@ -290,7 +421,9 @@ public class UdpStreamMonitor implements StreamMonitor {
 
             serverThread = null;
 
-            udpStreamProcessor.shutdown();
+            if (!sourceShardingActive) {
+                udpStreamProcessor.shutdown();
+            }
         }
     }
 
@@ -339,6 +472,39 @@ public class UdpStreamMonitor implements StreamMonitor {
                     METATYPE_ELAPSED_TIME_ROLLOVER_CONDITION));
             setFilenameTemplate((String) properties.get(METATYPE_FILENAME_TEMPLATE));
 
+            Object keyframeThumbnailEnabled = properties.get(METATYPE_KEYFRAME_THUMBNAIL_ENABLED);
+            if (keyframeThumbnailEnabled instanceof Boolean) {
+                setKeyframeThumbnailEnabled((Boolean) keyframeThumbnailEnabled);
+            }
+
+            Object klvLocationPrecisionScale = properties.get(
+                    METATYPE_KLV_LOCATION_PRECISION_SCALE);
+            if (klvLocationPrecisionScale instanceof Number) {
+                setKlvLocationPrecisionScale(((Number) klvLocationPrecisionScale).doubleValue());
+            }
+
+            Object klvLocationCoverageMaxError = properties.get(
+                    METATYPE_KLV_LOCATION_COVERAGE_MAX_ERROR);
+            if (klvLocationCoverageMaxError instanceof Number) {
+                setKlvLocationCoverageMaxError(((Number) klvLocationCoverageMaxError)
+                        .doubleValue());
+            }
+
+            Object sourceShardingEnabled = properties.get(METATYPE_SOURCE_SHARDING_ENABLED);
+            if (sourceShardingEnabled instanceof Boolean) {
+                setSourceShardingEnabled((Boolean) sourceShardingEnabled);
+            }
+
+            Object maxSources = properties.get(METATYPE_MAX_SOURCES);
+            if (maxSources instanceof Integer) {
+                setMaxSources((Integer) maxSources);
+            }
+
+            Object sourceIdleTimeout = properties.get(METATYPE_SOURCE_IDLE_TIMEOUT);
+            if (sourceIdleTimeout instanceof Long) {
+                setSourceIdleTimeout((Long) sourceIdleTimeout);
+            }
+
             init();
         }
     }
@@ -422,6 +588,42 @@ public class UdpStreamMonitor implements StreamMonitor {
         udpStreamProcessor.setElapsedTimeRolloverCondition(milliseconds);
     }
 
+    /**
+     * Create the processor for one sender when source sharding is enabled.
+     */
+    UdpStreamProcessor createSourceProcessor(InetSocketAddress sender) {
+        return udpStreamProcessor.createSourceProcessor(new SourceStreamMonitor(sender));
+    }
+
+    /**
+     * Identifies the parent metacard of a single sender by adding the sender address to the
+     * stream uri and title.
+     */
+    private class SourceStreamMonitor implements StreamMonitor {
+
+        private final InetSocketAddress sender;
+
+        SourceStreamMonitor(InetSocketAddress sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public Optional<URI> getStreamUri() {
+            return UdpStreamMonitor.this.getStreamUri()
+                    .map(uri -> URI.create(uri + "?source=" + senderString()));
+        }
+
+        @Override
+        public Optional<String> getTitle() {
+            return UdpStreamMonitor.this.getTitle()
+                    .map(title -> title + " (" + senderString() + ")");
+        }
+
+        private String senderString() {
+            return sender.getHostString() + ":" + sender.getPort();
+        }
+    }
+
     private class Server implements Runnable {
 
         @Override
@@ -434,8 +636,16 @@ public class UdpStreamMonitor implements StreamMonitor {
                         @Override
                         protected void initChannel(NioDatagramChannel nioDatagramChannel)
                                 throws Exception {
-                            nioDatagramChannel.pipeline()
-                                    .addLast(udpStreamProcessor.createChannelHandlers());
+                            if (sourceShardingActive) {
+                                nioDatagramChannel.pipeline()
+                                        .addLast(new SourceDemultiplexer(
+                                                UdpStreamMonitor.this::createSourceProcessor,
+                                                maxSources,
+                                                sourceIdleTimeout));
+                            } else {
+                                nioDatagramChannel.pipeline()
+                                        .addLast(udpStreamProcessor.createChannelHandlers());
+                            }
                         }
                     });
             try {
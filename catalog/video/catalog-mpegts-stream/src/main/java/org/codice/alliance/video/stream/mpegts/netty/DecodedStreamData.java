@@ -31,6 +31,8 @@ class DecodedStreamData {
 
     private List<NALUnit> nalUnits = null;
 
+    private byte[] videoPayload = null;
+
     private DecodedKLVMetadataPacket decodedKLVMetadataPacket = null;
 
     /**
@@ -43,6 +45,17 @@ class DecodedStreamData {
         this.packetId = packetId;
     }
 
+    /**
+     * @param nalUnits     must be non-null
+     * @param videoPayload the raw PES payload the NAL units were read from (must be non-null)
+     * @param packetId     the MPEG-TS packet id associated with data
+     */
+    public DecodedStreamData(List<NALUnit> nalUnits, byte[] videoPayload, int packetId) {
+        this(nalUnits, packetId);
+        notNull(videoPayload, "videoPayload must be non-null");
+        this.videoPayload = videoPayload;
+    }
+
     /**
      * @param decodedKLVMetadataPacket must be non-null
      * @param packetId                 the MPEG-TS packet id associated with data
@@ -64,6 +77,15 @@ class DecodedStreamData {
         return Optional.ofNullable(nalUnits);
     }
 
+    /**
+     * The returned array is shared with the pipeline and must not be modified.
+     *
+     * @return non-null value
+     */
+    public Optional<byte[]> getVideoPayload() {
+        return Optional.ofNullable(videoPayload);
+    }
+
     /**
      * @return non-null value
      */
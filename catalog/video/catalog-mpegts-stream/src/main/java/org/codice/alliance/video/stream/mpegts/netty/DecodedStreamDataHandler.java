@@ -17,8 +17,6 @@ import static org.apache.commons.lang3.Validate.notNull;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
 
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
@@ -33,8 +31,9 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 
 /**
  * Netty handler for {@link DecodedStreamData}. If called with video data, then tells the
- * PacketBuffer if the data contains an IDR or NON-IDR frame. If called with metadata, then
- * calls the KlvHandlers.
+ * PacketBuffer if the data contains an IDR or NON-IDR frame. If a {@link KeyframeSampler} is set,
+ * then IDR frames are also offered to the sampler. If called with metadata, then calls the
+ * KlvHandlers.
  */
 class DecodedStreamDataHandler extends ChannelInboundHandlerAdapter {
 
@@ -44,27 +43,32 @@ class DecodedStreamDataHandler extends ChannelInboundHandlerAdapter {
 
     private final Stanag4609Processor stanag4609Processor;
 
-    private final Map<String, KlvHandler> klvHandlerMap;
+    private final DoubleBufferedKlvHandlers klvHandlers;
 
     private final KlvHandler defaultKlvHandler;
 
-    private final Lock klvHandlerMapLock;
+    private KeyframeSampler keyframeSampler;
 
     public DecodedStreamDataHandler(PacketBuffer packetBuffer,
-            Stanag4609Processor stanag4609Processor, Map<String, KlvHandler> klvHandlerMap,
-            KlvHandler defaultKlvHandler, Lock klvHandlerMapLock) {
+            Stanag4609Processor stanag4609Processor, DoubleBufferedKlvHandlers klvHandlers,
+            KlvHandler defaultKlvHandler) {
 
         notNull(packetBuffer, "packetBuffer must be non-null");
         notNull(stanag4609Processor, "stanag4609Processor must be non-null");
-        notNull(klvHandlerMap, "klvHandlerMap must be non-null");
+        notNull(klvHandlers, "klvHandlers must be non-null");
         notNull(defaultKlvHandler, "defaultKlvHandler must be non-null");
-        notNull(klvHandlerMapLock, "klvHandlerMapLocl must be non-null");
 
         this.packetBuffer = packetBuffer;
         this.stanag4609Processor = stanag4609Processor;
-        this.klvHandlerMap = klvHandlerMap;
+        this.klvHandlers = klvHandlers;
         this.defaultKlvHandler = defaultKlvHandler;
-        this.klvHandlerMapLock = klvHandlerMapLock;
+    }
+
+    /**
+     * @param keyframeSampler may be null to disable keyframe sampling
+     */
+    public void setKeyframeSampler(KeyframeSampler keyframeSampler) {
+        this.keyframeSampler = keyframeSampler;
     }
 
     @Override
@@ -79,7 +83,7 @@ class DecodedStreamDataHandler extends ChannelInboundHandlerAdapter {
         DecodedStreamData decodedStreamData = (DecodedStreamData) msg;
 
         decodedStreamData.getNalUnits()
-                .ifPresent(this::handleNALUnits);
+                .ifPresent(nalUnits -> handleNALUnits(nalUnits, decodedStreamData));
 
         decodedStreamData.getDecodedKLVMetadataPacket()
                 .ifPresent(decodedKLVMetadataPacket -> handleDecodedKLVMetadataPacket(
@@ -88,7 +92,7 @@ class DecodedStreamDataHandler extends ChannelInboundHandlerAdapter {
 
     }
 
-    private void handleNALUnits(List<NALUnit> nalUnitList) {
+    private void handleNALUnits(List<NALUnit> nalUnitList, DecodedStreamData decodedStreamData) {
 
         boolean containsIDR = nalUnitList.stream()
                 .anyMatch(nalUnit -> nalUnit.type == NALUnitType.IDR_SLICE);
@@ -97,20 +101,20 @@ class DecodedStreamDataHandler extends ChannelInboundHandlerAdapter {
                 PacketBuffer.FrameType.IDR :
                 PacketBuffer.FrameType.NON_IDR);
 
+        if (containsIDR && keyframeSampler != null) {
+            decodedStreamData.getVideoPayload()
+                    .ifPresent(keyframeSampler::sample);
+        }
+
     }
 
     private void handleDecodedKLVMetadataPacket(DecodedKLVMetadataPacket decodedKLVMetadataPacket,
             int packetId) {
 
-        klvHandlerMapLock.lock();
-        try {
-            stanag4609Processor.handle(klvHandlerMap,
-                    defaultKlvHandler,
-                    Collections.singletonMap(packetId,
-                            Collections.singletonList(decodedKLVMetadataPacket)));
-        } finally {
-            klvHandlerMapLock.unlock();
-        }
+        klvHandlers.write(klvHandlerMap -> stanag4609Processor.handle(klvHandlerMap,
+                defaultKlvHandler,
+                Collections.singletonMap(packetId,
+                        Collections.singletonList(decodedKLVMetadataPacket))));
     }
 
     @Override
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.codice.alliance.libs.klv.KlvHandler;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Two sets of KLV handlers for one stream. The netty event loop feeds KLV into the active set
+ * while the rollover thread builds the metacard from the retired set, so a rollover does not
+ * stall KLV intake.
+ * <p>
+ * {@link #write(Consumer)} must only be called by one thread at a time (the event loop of the
+ * stream). It does not lock: it flags the set it is writing and re-checks that the set is still
+ * active. {@link #rollover(Consumer)} swaps the standby set in and then waits on a latch for a
+ * write that was already in progress on the retired set, which is at most one KLV packet. No lock
+ * is held while the retired set is read. Concurrent rollovers are serialized by the hand-off of
+ * the standby set: a rollover waits until the previous one has returned its reset set.
+ */
+public class DoubleBufferedKlvHandlers {
+
+    private final AtomicReference<HandlerSet> active;
+
+    /**
+     * Holds the standby set, empty while a rollover is reading the retired set.
+     */
+    private final BlockingQueue<HandlerSet> standby = new ArrayBlockingQueue<>(1);
+
+    /**
+     * @param handlers        the initially active handlers, must be non-null
+     * @param standbyHandlers handlers of the same type that do not share state with {@code
+     *                        handlers}, must be non-null
+     */
+    public DoubleBufferedKlvHandlers(Map<String, KlvHandler> handlers,
+            Map<String, KlvHandler> standbyHandlers) {
+        notNull(handlers, "handlers must be non-null");
+        notNull(standbyHandlers, "standbyHandlers must be non-null");
+        isTrue(handlers != standbyHandlers, "handlers and standbyHandlers must be different maps");
+
+        this.active = new AtomicReference<>(new HandlerSet(handlers));
+        this.standby.add(new HandlerSet(standbyHandlers));
+    }
+
+    /**
+     * Pass the active handlers to the writer. Only one thread may call this method at a time.
+     *
+     * @param writer must be non-null
+     */
+    public void write(Consumer<Map<String, KlvHandler>> writer) {
+        notNull(writer, "writer must be non-null");
+
+        HandlerSet handlerSet = enter();
+        try {
+            writer.accept(handlerSet.handlers);
+        } finally {
+            exit(handlerSet);
+        }
+    }
+
+    /**
+     * Make the standby handlers active, wait for a write in progress on the previously active
+     * handlers, pass them to the reader and then reset them so they can be the standby handlers.
+     *
+     * @param reader must be non-null
+     */
+    public void rollover(Consumer<Map<String, KlvHandler>> reader) {
+        notNull(reader, "reader must be non-null");
+
+        HandlerSet next = Uninterruptibles.takeUninterruptibly(standby);
+        HandlerSet retired = active.getAndSet(next);
+
+        CountDownLatch drained = new CountDownLatch(1);
+        retired.drained = drained;
+        if (retired.writing) {
+            Uninterruptibles.awaitUninterruptibly(drained);
+        }
+
+        try {
+            reader.accept(retired.handlers);
+        } finally {
+            retired.handlers.values()
+                    .forEach(KlvHandler::reset);
+            retired.drained = null;
+            standby.add(retired);
+        }
+    }
+
+    /**
+     * @return the handlers that are currently fed by {@link #write(Consumer)}
+     */
+    Map<String, KlvHandler> getActiveHandlers() {
+        return active.get().handlers;
+    }
+
+    /**
+     * The writing flag is set before the active set is read a second time and the rollover sets
+     * the active set before it reads the flag. Both are volatile, so either the writer sees the
+     * swap and moves on to the new set or the rollover sees the flag and waits.
+     */
+    private HandlerSet enter() {
+        while (true) {
+            HandlerSet handlerSet = active.get();
+            handlerSet.writing = true;
+            if (active.get() == handlerSet) {
+                return handlerSet;
+            }
+            exit(handlerSet);
+        }
+    }
+
+    /**
+     * The writing flag is cleared before the latch is read and the rollover sets the latch before
+     * it reads the flag, so either the rollover sees that the write is done or the writer releases
+     * the rollover.
+     */
+    private void exit(HandlerSet handlerSet) {
+        handlerSet.writing = false;
+        CountDownLatch drained = handlerSet.drained;
+        if (drained != null) {
+            drained.countDown();
+        }
+    }
+
+    private static class HandlerSet {
+
+        private final Map<String, KlvHandler> handlers;
+
+        private volatile boolean writing;
+
+        /**
+         * Set by the rollover that retired this set, released once no write is in progress.
+         */
+        private volatile CountDownLatch drained;
+
+        HandlerSet(Map<String, KlvHandler> handlers) {
+            this.handlers = handlers;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.io.model.NALUnit;
+import org.jcodec.codecs.h264.io.model.NALUnitType;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture8Bit;
+import org.jcodec.common.model.Rect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.coobird.thumbnailator.Thumbnails;
+
+/**
+ * Copies one IDR access unit (with the SPS and PPS needed to decode it) per stream segment and
+ * hands it to a single background thread that decodes it, scales it down and encodes it as a
+ * JPEG thumbnail. The netty event loop only pays for scanning and copying the access unit. The
+ * work queue is bounded and samples that do not fit are dropped, in which case the next IDR of the
+ * same segment is tried instead.
+ */
+public class KeyframeSampler {
+
+    public static final int THUMBNAIL_WIDTH = 200;
+
+    public static final int THUMBNAIL_HEIGHT = 200;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyframeSampler.class);
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    /**
+     * Number of access units that may wait for the decoder thread. Anything beyond this is
+     * dropped.
+     */
+    private static final int QUEUE_CAPACITY = 1;
+
+    /**
+     * The largest frame size (in macroblocks) of H.264 level 5.1, 4096x2304. Frames whose SPS
+     * declares a larger size are not decoded.
+     */
+    private static final int MAX_FRAME_MACROBLOCKS = 36864;
+
+    private static final int MACROBLOCK_SIZE = 16;
+
+    private static final String JPG = "jpg";
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            new ThreadFactoryBuilder().setNameFormat("keyframe-sampler-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private final AtomicBoolean sampleNeeded = new AtomicBoolean(true);
+
+    private final AtomicLong segment = new AtomicLong();
+
+    /**
+     * The latest thumbnail together with the segment it was sampled in, so a thumbnail that is
+     * finished after its segment ended is never attached to the next segment.
+     */
+    private final AtomicReference<SegmentThumbnail> thumbnail = new AtomicReference<>();
+
+    private FrameDecoder frameDecoder = new JcodecFrameDecoder();
+
+    private byte[] lastSps;
+
+    private byte[] lastPps;
+
+    /**
+     * @param frameDecoder must be non-null
+     */
+    public void setFrameDecoder(FrameDecoder frameDecoder) {
+        notNull(frameDecoder, "frameDecoder must be non-null");
+        this.frameDecoder = frameDecoder;
+    }
+
+    /**
+     * Called from the event loop with the PES payload of an IDR frame. If the current segment
+     * does not have a thumbnail yet, then the access unit is copied and queued for decoding.
+     * Otherwise only the SPS and PPS are kept, so a later sample can be decoded even if its
+     * payload does not carry them.
+     *
+     * @param pesPayload must be non-null
+     */
+    public void sample(byte[] pesPayload) {
+        notNull(pesPayload, "pesPayload must be non-null");
+
+        if (!sampleNeeded.compareAndSet(true, false)) {
+            updateParameterSets(pesPayload);
+            return;
+        }
+
+        Optional<ByteBuffer> accessUnit = copyAccessUnit(pesPayload);
+
+        if (!accessUnit.isPresent()) {
+            sampleNeeded.set(true);
+            return;
+        }
+
+        long currentSegment = segment.get();
+
+        try {
+            executor.execute(() -> decode(accessUnit.get(), currentSegment));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("keyframe decoder is busy, dropping sample", e);
+            sampleNeeded.set(true);
+        }
+    }
+
+    /**
+     * Return the thumbnail for the segment that just ended (if one was generated) and start
+     * sampling for the next segment.
+     *
+     * @return optional JPEG bytes
+     */
+    public Optional<byte[]> takeThumbnail() {
+        long endedSegment = segment.getAndIncrement();
+        sampleNeeded.set(true);
+        return Optional.ofNullable(thumbnail.getAndSet(null))
+                .filter(segmentThumbnail -> segmentThumbnail.segment == endedSegment)
+                .map(segmentThumbnail -> segmentThumbnail.jpeg);
+    }
+
+    /**
+     * Stop accepting samples. A sample that is already queued is still decoded by the daemon
+     * thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void decode(ByteBuffer accessUnit, long sampleSegment) {
+        try {
+            BufferedImage frame = frameDecoder.decode(accessUnit);
+
+            if (frame == null) {
+                retryIfCurrent(sampleSegment);
+                return;
+            }
+
+            SegmentThumbnail sampled = new SegmentThumbnail(sampleSegment, createThumbnail(frame));
+
+            thumbnail.accumulateAndGet(sampled,
+                    (current, candidate) -> current != null && current.segment > candidate.segment ?
+                            current :
+                            candidate);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("unable to create thumbnail from keyframe", e);
+            retryIfCurrent(sampleSegment);
+        }
+    }
+
+    private void retryIfCurrent(long sampleSegment) {
+        if (segment.get() == sampleSegment) {
+            sampleNeeded.set(true);
+        }
+    }
+
+    /**
+     * Keep the SPS and PPS of the PES payload. The parameter sets precede the slices of an access
+     * unit, so the payload is only scanned up to the first slice.
+     */
+    private void updateParameterSets(byte[] pesPayload) {
+        ByteBuffer payload = ByteBuffer.wrap(pesPayload);
+        ByteBuffer segmentBuffer;
+        while ((segmentBuffer = H264Utils.nextNALUnit(payload)) != null) {
+            if (!segmentBuffer.hasRemaining()) {
+                continue;
+            }
+            NALUnit nalUnit = NALUnit.read(segmentBuffer.duplicate());
+            if (nalUnit.type == NALUnitType.SPS) {
+                lastSps = toArray(segmentBuffer);
+            } else if (nalUnit.type == NALUnitType.PPS) {
+                lastPps = toArray(segmentBuffer);
+            } else if (nalUnit.type == NALUnitType.IDR_SLICE
+                    || nalUnit.type == NALUnitType.NON_IDR_SLICE) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build an Annex B buffer that contains SPS, PPS and the IDR slices found in the PES payload.
+     * The SPS and PPS of a previous sample are reused if this payload does not carry them.
+     */
+    private Optional<ByteBuffer> copyAccessUnit(byte[] pesPayload) {
+        ByteArrayOutputStream idr = new ByteArrayOutputStream();
+
+        ByteBuffer payload = ByteBuffer.wrap(pesPayload);
+        ByteBuffer segmentBuffer;
+        while ((segmentBuffer = H264Utils.nextNALUnit(payload)) != null) {
+            if (!segmentBuffer.hasRemaining()) {
+                continue;
+            }
+            NALUnit nalUnit = NALUnit.read(segmentBuffer.duplicate());
+            if (nalUnit.type == NALUnitType.SPS) {
+                lastSps = toArray(segmentBuffer);
+            } else if (nalUnit.type == NALUnitType.PPS) {
+                lastPps = toArray(segmentBuffer);
+            } else if (nalUnit.type == NALUnitType.IDR_SLICE) {
+                idr.write(START_CODE, 0, START_CODE.length);
+                byte[] bytes = toArray(segmentBuffer);
+                idr.write(bytes, 0, bytes.length);
+            }
+        }
+
+        if (idr.size() == 0 || lastSps == null || lastPps == null) {
+            return Optional.empty();
+        }
+
+        ByteBuffer accessUnit = ByteBuffer.allocate(
+                2 * START_CODE.length + lastSps.length + lastPps.length + idr.size());
+        accessUnit.put(START_CODE)
+                .put(lastSps)
+                .put(START_CODE)
+                .put(lastPps)
+                .put(idr.toByteArray());
+        accessUnit.flip();
+
+        return Optional.of(accessUnit);
+    }
+
+    private byte[] toArray(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate()
+                .get(bytes);
+        return bytes;
+    }
+
+    private byte[] createThumbnail(BufferedImage frame) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Thumbnails.of(frame)
+                .size(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
+                .outputFormat(JPG)
+                .toOutputStream(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static class SegmentThumbnail {
+
+        private final long segment;
+
+        private final byte[] jpeg;
+
+        SegmentThumbnail(long segment, byte[] jpeg) {
+            this.segment = segment;
+            this.jpeg = jpeg;
+        }
+    }
+
+    public interface FrameDecoder {
+        /**
+         * @param accessUnit Annex B formatted SPS, PPS and IDR slices
+         * @return the decoded frame or null if it could not be decoded
+         */
+        BufferedImage decode(ByteBuffer accessUnit);
+    }
+
+    /**
+     * Decodes with the jcodec H.264 decoder. The decode buffer is sized from the SPS of the access
+     * unit. It is kept while the frame size does not change and is only used from the sampler
+     * thread.
+     */
+    private static class JcodecFrameDecoder implements FrameDecoder {
+
+        private byte[][] buffer;
+
+        private int bufferWidth;
+
+        private int bufferHeight;
+
+        @Override
+        public BufferedImage decode(ByteBuffer accessUnit) {
+            SeqParameterSet sps = readSps(accessUnit);
+            if (sps == null) {
+                return null;
+            }
+
+            int widthInMacroblocks = sps.picWidthInMbsMinus1 + 1;
+            int heightInMacroblocks = H264Utils.getPicHeightInMbs(sps);
+            if ((long) widthInMacroblocks * heightInMacroblocks > MAX_FRAME_MACROBLOCKS) {
+                LOGGER.debug("frame of {}x{} macroblocks is too large to sample",
+                        widthInMacroblocks,
+                        heightInMacroblocks);
+                return null;
+            }
+
+            int width = widthInMacroblocks * MACROBLOCK_SIZE;
+            int height = heightInMacroblocks * MACROBLOCK_SIZE;
+            if (buffer == null || width != bufferWidth || height != bufferHeight) {
+                buffer = Picture8Bit.create(width, height, ColorSpace.YUV420J)
+                        .getData();
+                bufferWidth = width;
+                bufferHeight = height;
+            }
+
+            Picture8Bit yuv = new H264Decoder().decodeFrame8Bit(accessUnit, buffer);
+
+            if (yuv == null) {
+                return null;
+            }
+
+            return toBufferedImage(yuv);
+        }
+
+        /**
+         * @return the first SPS of the access unit, or null if it does not have one
+         */
+        private SeqParameterSet readSps(ByteBuffer accessUnit) {
+            ByteBuffer nalUnits = accessUnit.duplicate();
+            ByteBuffer segmentBuffer;
+            while ((segmentBuffer = H264Utils.nextNALUnit(nalUnits)) != null) {
+                if (!segmentBuffer.hasRemaining()) {
+                    continue;
+                }
+                NALUnit nalUnit = NALUnit.read(segmentBuffer);
+                if (nalUnit.type == NALUnitType.SPS) {
+                    return H264Utils.readSPS(segmentBuffer);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Convert the visible (cropped) area of a decoded frame to an RGB image. jcodec stores 8 bit
+     * samples shifted down by 128, so the chroma samples are already centered on 0. The frame is
+     * converted with the full range (JFIF) BT.601 equations and each channel is placed explicitly
+     * in the RGB pixel.
+     *
+     * @return the image or null if the frame is not YUV 4:2:0 with full range samples
+     */
+    static BufferedImage toBufferedImage(Picture8Bit yuv) {
+        if (yuv.getColor() != ColorSpace.YUV420J) {
+            LOGGER.debug("unsupported color space of decoded frame: {}", yuv.getColor());
+            return null;
+        }
+
+        Rect crop = yuv.getCrop();
+        int left = crop == null ? 0 : crop.getX();
+        int top = crop == null ? 0 : crop.getY();
+        int width = crop == null ? yuv.getWidth() : crop.getWidth();
+        int height = crop == null ? yuv.getHeight() : crop.getHeight();
+
+        byte[] luma = yuv.getPlaneData(0);
+        byte[] cb = yuv.getPlaneData(1);
+        byte[] cr = yuv.getPlaneData(2);
+        int lumaStride = yuv.getPlaneWidth(0);
+        int chromaStride = yuv.getPlaneWidth(1);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            int lumaRow = (top + y) * lumaStride;
+            int chromaRow = ((top + y) >> 1) * chromaStride;
+            for (int x = 0; x < width; x++) {
+                int chroma = chromaRow + ((left + x) >> 1);
+                int luminance = luma[lumaRow + left + x] + 128;
+                int blueDifference = cb[chroma];
+                int redDifference = cr[chroma];
+
+                int red = clamp(luminance + 1.402 * redDifference);
+                int green = clamp(luminance - 0.344136 * blueDifference
+                        - 0.714136 * redDifference);
+                int blue = clamp(luminance + 1.772 * blueDifference);
+
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(double sample) {
+        return (int) Math.max(0, Math.min(255, Math.round(sample)));
+    }
+
+}
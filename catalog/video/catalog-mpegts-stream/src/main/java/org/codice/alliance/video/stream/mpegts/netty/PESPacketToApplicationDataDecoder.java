@@ -20,6 +20,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.alliance.libs.stanag4609.KlvPacketValidator;
 import org.codice.alliance.libs.stanag4609.PESUtilities;
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.KlvDecoder;
@@ -49,7 +50,12 @@ class PESPacketToApplicationDataDecoder extends MessageToMessageDecoder<PESPacke
 
     private NALParser nalParser = NALUnit::read;
 
-    private KlvParser klvParser = PESUtilities::handlePESPacketBytes;
+    private final KlvPacketValidator klvPacketValidator = new KlvPacketValidator();
+
+    private KlvParser klvParser = (pesPacketBytes, decoder) -> PESUtilities.handlePESPacketBytes(
+            pesPacketBytes,
+            decoder,
+            klvPacketValidator);
 
     private boolean isKlvEnabled;
 
@@ -120,7 +126,9 @@ class PESPacketToApplicationDataDecoder extends MessageToMessageDecoder<PESPacke
             }
         }
 
-        outputList.add(new DecodedStreamData(nalUnits, pesPacket.getPacketId()));
+        outputList.add(new DecodedStreamData(nalUnits,
+                pesPacket.getPayload(),
+                pesPacket.getPacketId()));
 
     }
 
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.apache.commons.lang3.Validate.isTrue;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Netty handler that splits the datagrams received on one port by sender address. Each sender
+ * gets its own {@link UdpStreamProcessor} (and therefore its own packet buffer, rollover and
+ * parent metacard), which is created when the first datagram from that sender arrives. The
+ * processor's channel handlers run in an {@link EmbeddedChannel} on the event loop thread.
+ * <p>
+ * Senders that have not sent anything for the idle timeout are evicted and their processors are
+ * shut down, which ingests any partial segment. Datagrams from new senders are dropped while the
+ * maximum number of sources is active.
+ * <p>
+ * All of the source bookkeeping happens on the event loop thread, so no locking is needed.
+ */
+public class SourceDemultiplexer extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SourceDemultiplexer.class);
+
+    private final Function<InetSocketAddress, UdpStreamProcessor> processorFactory;
+
+    private final int maxSources;
+
+    private final long idleTimeout;
+
+    private final Map<InetSocketAddress, Source> sources = new HashMap<>();
+
+    private final ExecutorService shutdownExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("source-shutdown-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private ScheduledFuture<?> evictionFuture;
+
+    /**
+     * @param processorFactory creates and configures a processor for a new sender, must be
+     *                         non-null
+     * @param maxSources       maximum number of concurrent senders, must be positive
+     * @param idleTimeout      milliseconds without data before a sender is evicted, must be
+     *                         positive
+     */
+    public SourceDemultiplexer(Function<InetSocketAddress, UdpStreamProcessor> processorFactory,
+            int maxSources, long idleTimeout) {
+        notNull(processorFactory, "processorFactory must be non-null");
+        isTrue(maxSources > 0, "maxSources must be positive");
+        isTrue(idleTimeout > 0, "idleTimeout must be positive");
+
+        this.processorFactory = processorFactory;
+        this.maxSources = maxSources;
+        this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        evictionFuture = ctx.executor()
+                .scheduleAtFixedRate(() -> evictIdleSources(System.currentTimeMillis()),
+                        idleTimeout,
+                        idleTimeout,
+                        TimeUnit.MILLISECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (evictionFuture != null) {
+            evictionFuture.cancel(false);
+        }
+
+        sources.values()
+                .forEach(this::shutdown);
+        sources.clear();
+
+        shutdownExecutor.shutdown();
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+
+        if (!(msg instanceof DatagramPacket)) {
+            LOGGER.error("handler passed incorrect data type, must be DatagramPacket, but was {}",
+                    msg.getClass());
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        DatagramPacket datagramPacket = (DatagramPacket) msg;
+
+        InetSocketAddress sender = datagramPacket.sender();
+
+        Source source = sources.get(sender);
+
+        if (source != null && !source.isOpen()) {
+            LOGGER.debug("the pipeline for the source was closed, creating a new one: sender={}",
+                    sender);
+            sources.remove(sender);
+            shutdown(source);
+            source = null;
+        }
+
+        if (source == null) {
+            if (sources.size() >= maxSources) {
+                LOGGER.debug("dropping datagram, maximum number of sources reached: sender={}",
+                        sender);
+                datagramPacket.release();
+                return;
+            }
+            source = new Source(processorFactory.apply(sender));
+            sources.put(sender, source);
+            LOGGER.info("created stream processor for new source: sender={}, sourceCount={}",
+                    sender,
+                    sources.size());
+        }
+
+        source.write(datagramPacket);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        LOGGER.error("error: ", cause);
+    }
+
+    /**
+     * Remove the sources that have been idle for at least the idle timeout. The processors are
+     * shut down off the event loop because shutting down ingests the final segment.
+     *
+     * @param now current time in milliseconds
+     */
+    void evictIdleSources(long now) {
+        List<Source> evicted = new ArrayList<>();
+
+        Iterator<Map.Entry<InetSocketAddress, Source>> iterator = sources.entrySet()
+                .iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<InetSocketAddress, Source> entry = iterator.next();
+            if (now - entry.getValue().lastSeen >= idleTimeout) {
+                LOGGER.info("evicting idle source: sender={}", entry.getKey());
+                iterator.remove();
+                evicted.add(entry.getValue());
+            }
+        }
+
+        evicted.forEach(this::shutdown);
+    }
+
+    /**
+     * Close the source's channel and shut its processor down off the event loop, because shutting
+     * down ingests the final segment.
+     */
+    private void shutdown(Source source) {
+        source.close();
+        shutdownExecutor.execute(source.processor::shutdown);
+    }
+
+    int getSourceCount() {
+        return sources.size();
+    }
+
+    private static class Source {
+
+        private final UdpStreamProcessor processor;
+
+        private final EmbeddedChannel channel;
+
+        private long lastSeen;
+
+        Source(UdpStreamProcessor processor) {
+            this.processor = processor;
+            processor.init();
+            this.channel = new EmbeddedChannel(processor.createChannelHandlers());
+        }
+
+        void write(DatagramPacket datagramPacket) {
+            lastSeen = System.currentTimeMillis();
+            channel.writeInbound(datagramPacket);
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        void close() {
+            channel.close();
+        }
+    }
+
+}
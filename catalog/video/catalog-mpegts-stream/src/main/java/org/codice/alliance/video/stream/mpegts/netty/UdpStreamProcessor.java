@@ -19,16 +19,15 @@ import static org.apache.commons.lang3.Validate.notNull;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 
 import org.apache.commons.lang3.Validate;
@@ -36,6 +35,7 @@ import org.apache.commons.lang3.Validate;
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvHandlerFactory;
 import org.codice.alliance.libs.klv.KlvProcessor;
+import org.codice.alliance.libs.klv.LocationKlvProcessor;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
 import org.codice.alliance.video.stream.mpegts.StreamMonitor;
 import org.codice.alliance.video.stream.mpegts.UdpStreamMonitor;
@@ -50,10 +50,13 @@ import org.codice.alliance.video.stream.mpegts.rollover.ListRolloverAction;
 import org.codice.alliance.video.stream.mpegts.rollover.RolloverAction;
 import org.codice.alliance.video.stream.mpegts.rollover.RolloverActionException;
 import org.codice.alliance.video.stream.mpegts.rollover.RolloverCondition;
+import org.codice.alliance.video.stream.mpegts.rollover.ThumbnailRolloverAction;
 import org.codice.ddf.security.common.Security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import ddf.catalog.CatalogFramework;
 import ddf.catalog.data.MetacardType;
 import io.netty.channel.ChannelHandler;
@@ -70,49 +73,49 @@ public class UdpStreamProcessor implements StreamProcessor {
     private static final long ONE_SECOND = TimeUnit.SECONDS.toMillis(1);
 
     /**
-     * Number of milliseconds between rollover checks. See {@link Timer#scheduleAtFixedRate(TimerTask, long, long)}.
+     * Number of milliseconds between rollover checks. See
+     * {@link ScheduledThreadPoolExecutor#scheduleAtFixedRate(Runnable, long, long, TimeUnit)}.
      */
     private static final long ROLLOVER_CHECK_PERIOD = ONE_SECOND;
 
     /**
-     * Number of milliseconds to wait until first rollover check. See {@link Timer#scheduleAtFixedRate(TimerTask, long, long)}.
+     * Number of milliseconds to wait until first rollover check. See
+     * {@link ScheduledThreadPoolExecutor#scheduleAtFixedRate(Runnable, long, long, TimeUnit)}.
      */
     private static final long ROLLOVER_CHECK_DELAY = ONE_SECOND;
 
-    private PacketBuffer packetBuffer = new PacketBuffer();
-
-    private Stanag4609Processor stanag4609Processor;
-
-    private Map<String, KlvHandler> klvHandlerMap;
-
-    private KlvHandler defaultKlvHandler;
-
-    private RolloverCondition rolloverCondition;
-
-    private String filenameTemplate;
+    /**
+     * Number of threads that run the rollover checks of a processor and of all the source
+     * processors created from it.
+     */
+    private static final int ROLLOVER_THREADS = 4;
 
-    private KlvHandlerFactory klvHandlerFactory;
+    /**
+     * Number of milliseconds an idle rollover thread is kept.
+     */
+    private static final long ROLLOVER_THREAD_KEEP_ALIVE = TimeUnit.MINUTES.toMillis(1);
 
-    private FilenameGenerator filenameGenerator;
+    private final Configuration configuration;
 
-    private KlvProcessor klvProcessor;
+    private PacketBuffer packetBuffer = new PacketBuffer();
 
-    private Timer timer = new Timer();
+    private DoubleBufferedKlvHandlers klvHandlers;
 
-    private List<MetacardType> metacardTypeList;
+    private ScheduledFuture<?> rolloverCheck;
 
     private RolloverAction rolloverAction;
 
-    private Integer klvLocationSubsampleCount;
-
-    private CatalogFramework catalogFramework;
-
-    private Lock klvHandlerMapLock = new ReentrantLock();
-
     private StreamMonitor streamMonitor;
 
+    private KeyframeSampler keyframeSampler;
+
     public UdpStreamProcessor(StreamMonitor streamMonitor) {
+        this(streamMonitor, new Configuration());
+    }
+
+    private UdpStreamProcessor(StreamMonitor streamMonitor, Configuration configuration) {
         this.streamMonitor = streamMonitor;
+        this.configuration = configuration;
     }
 
     @Override
@@ -134,7 +137,30 @@ public class UdpStreamProcessor implements StreamProcessor {
                 UdpStreamMonitor.SUBSAMPLE_COUNT_MAX,
                 klvLocationSubsampleCount,
                 "klvLocationSubsampleCount must be >0");
-        this.klvLocationSubsampleCount = klvLocationSubsampleCount;
+        configuration.klvLocationSubsampleCount = klvLocationSubsampleCount;
+    }
+
+    /**
+     * @param klvLocationPrecisionScale scale of the fixed precision model that the location is
+     *                                  snap-rounded to, 0 to keep full precision (must be non-null
+     *                                  and >=0)
+     */
+    public void setKlvLocationPrecisionScale(Double klvLocationPrecisionScale) {
+        notNull(klvLocationPrecisionScale, "klvLocationPrecisionScale must be non-null");
+        Validate.isTrue(klvLocationPrecisionScale >= 0, "klvLocationPrecisionScale must be >=0");
+        configuration.klvLocationPrecisionScale = klvLocationPrecisionScale;
+    }
+
+    /**
+     * @param klvLocationCoverageMaxError the cell size in degrees of the coverage grid used
+     *                                    for the location, must be >=0 (0 keeps the union of
+     *                                    the corner polygons)
+     */
+    public void setKlvLocationCoverageMaxError(Double klvLocationCoverageMaxError) {
+        notNull(klvLocationCoverageMaxError, "klvLocationCoverageMaxError must be non-null");
+        Validate.isTrue(klvLocationCoverageMaxError >= 0,
+                "klvLocationCoverageMaxError must be >=0");
+        configuration.klvLocationCoverageMaxError = klvLocationCoverageMaxError;
     }
 
     /**
@@ -142,21 +168,46 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setCatalogFramework(CatalogFramework catalogFramework) {
         notNull(catalogFramework, "catalogFramework must be non-null");
-        this.catalogFramework = catalogFramework;
+        configuration.catalogFramework = catalogFramework;
+    }
+
+    /**
+     * Enable or disable thumbnail generation from a sampled keyframe of each segment. Takes
+     * effect the next time {@link #init()} is called.
+     *
+     * @param keyframeThumbnailEnabled must be non-null
+     */
+    public void setKeyframeThumbnailEnabled(Boolean keyframeThumbnailEnabled) {
+        notNull(keyframeThumbnailEnabled, "keyframeThumbnailEnabled must be non-null");
+        configuration.keyframeThumbnailEnabled = keyframeThumbnailEnabled;
+    }
+
+    /**
+     * Create a new processor with a copy of the configuration of this one. The new processor has
+     * its own packet buffer, KLV handlers and rollover actions, and must be initialized
+     * separately. Its rollover checks run on the threads of this processor.
+     *
+     * @param streamMonitor stream monitor for the new processor, must be non-null
+     * @return new processor
+     */
+    public UdpStreamProcessor createSourceProcessor(StreamMonitor streamMonitor) {
+        notNull(streamMonitor, "streamMonitor must be non-null");
+        return new UdpStreamProcessor(streamMonitor, new Configuration(configuration));
     }
 
     @Override
     public String toString() {
         return "UdpStreamProcessor{" +
-                "defaultKlvHandler=" + defaultKlvHandler +
-                ", filenameGenerator=" + filenameGenerator +
-                ", filenameTemplate='" + filenameTemplate + '\'' +
-                ", klvHandlerFactory=" + klvHandlerFactory +
-                ", klvProcessor=" + klvProcessor +
-                ", metacardTypeList=" + metacardTypeList +
+                "defaultKlvHandler=" + configuration.defaultKlvHandler +
+                ", filenameGenerator=" + configuration.filenameGenerator +
+                ", filenameTemplate='" + configuration.filenameTemplate + '\'' +
+                ", keyframeThumbnailEnabled=" + configuration.keyframeThumbnailEnabled +
+                ", klvHandlerFactory=" + configuration.klvHandlerFactory +
+                ", klvProcessor=" + configuration.klvProcessor +
+                ", metacardTypeList=" + configuration.metacardTypeList +
                 ", packetBuffer=" + packetBuffer +
-                ", rolloverCondition=" + rolloverCondition +
-                ", stanag4609Processor=" + stanag4609Processor +
+                ", rolloverCondition=" + configuration.rolloverCondition +
+                ", stanag4609Processor=" + configuration.stanag4609Processor +
                 '}';
     }
 
@@ -169,7 +220,7 @@ public class UdpStreamProcessor implements StreamProcessor {
                 UdpStreamMonitor.BYTE_COUNT_MAX,
                 count,
                 "count must be >0");
-        rolloverCondition.accept(new RolloverCondition.Visitor() {
+        configuration.rolloverCondition.accept(new RolloverCondition.Visitor() {
             @Override
             public void visit(BooleanOrRolloverCondition condition) {
             }
@@ -194,7 +245,7 @@ public class UdpStreamProcessor implements StreamProcessor {
                 UdpStreamMonitor.ELAPSED_TIME_MAX,
                 milliseconds,
                 "milliseconds must be >0");
-        rolloverCondition.accept(new RolloverCondition.Visitor() {
+        configuration.rolloverCondition.accept(new RolloverCondition.Visitor() {
             @Override
             public void visit(BooleanOrRolloverCondition condition) {
             }
@@ -216,7 +267,10 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void shutdown() {
 
-        timer.cancel();
+        if (rolloverCheck != null) {
+            rolloverCheck.cancel(false);
+            rolloverCheck = null;
+        }
 
         try {
             packetBuffer.flushAndRotate()
@@ -226,11 +280,16 @@ public class UdpStreamProcessor implements StreamProcessor {
         }
 
         packetBuffer.reset();
-        klvHandlerMap = null;
+        klvHandlers = null;
+
+        if (keyframeSampler != null) {
+            keyframeSampler.shutdown();
+            keyframeSampler = null;
+        }
     }
 
     private void checkForRollover() {
-        packetBuffer.rotate(rolloverCondition)
+        packetBuffer.rotate(configuration.rolloverCondition)
                 .ifPresent(this::doRollover);
     }
 
@@ -251,16 +310,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setMetacardTypeList(List<MetacardType> metacardTypeList) {
         notNull(metacardTypeList, "metacardTypeList must be non-null");
-        this.metacardTypeList = metacardTypeList;
-    }
-
-    private TimerTask createTimerTask() {
-        return new TimerTask() {
-            @Override
-            public void run() {
-                checkForRollover();
-            }
-        };
+        configuration.metacardTypeList = metacardTypeList;
     }
 
     private boolean areNonNull(List<Object> listofObjects) {
@@ -274,15 +324,15 @@ public class UdpStreamProcessor implements StreamProcessor {
      * @return ready status
      */
     public boolean isReady() {
-        return areNonNull(Arrays.asList(stanag4609Processor,
-                defaultKlvHandler,
-                rolloverCondition,
-                filenameTemplate,
-                klvHandlerFactory,
-                filenameGenerator,
-                klvProcessor,
-                metacardTypeList,
-                catalogFramework));
+        return areNonNull(Arrays.asList(configuration.stanag4609Processor,
+                configuration.defaultKlvHandler,
+                configuration.rolloverCondition,
+                configuration.filenameTemplate,
+                configuration.klvHandlerFactory,
+                configuration.filenameGenerator,
+                configuration.klvProcessor,
+                configuration.metacardTypeList,
+                configuration.catalogFramework));
     }
 
     /**
@@ -291,22 +341,45 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void init() {
 
-        klvHandlerMap = klvHandlerFactory.createStanag4609Handlers();
-
-        rolloverAction = new ListRolloverAction(Arrays.asList(new CreateMetacardRolloverAction(
-                        metacardTypeList),
-                new KlvRolloverAction(klvHandlerMap,
-                        klvHandlerMapLock,
-                        klvLocationSubsampleCount,
-                        klvProcessor),
-                new CatalogRolloverAction(filenameGenerator,
-                        filenameTemplate,
-                        this,
-                        catalogFramework,
-                        Security.getInstance(),
-                        metacardTypeList)));
-
-        timer.scheduleAtFixedRate(createTimerTask(), ROLLOVER_CHECK_DELAY, ROLLOVER_CHECK_PERIOD);
+        klvHandlers = new DoubleBufferedKlvHandlers(createKlvHandlers(), createKlvHandlers());
+
+        List<RolloverAction> rolloverActions = new ArrayList<>();
+        rolloverActions.add(new CreateMetacardRolloverAction(configuration.metacardTypeList));
+        KlvRolloverAction klvRolloverAction = new KlvRolloverAction(klvHandlers,
+                configuration.klvLocationSubsampleCount,
+                configuration.klvProcessor);
+        klvRolloverAction.setKlvLocationPrecisionScale(configuration.klvLocationPrecisionScale);
+        klvRolloverAction.setKlvLocationCoverageMaxError(configuration.klvLocationCoverageMaxError);
+        rolloverActions.add(klvRolloverAction);
+
+        if (configuration.keyframeThumbnailEnabled) {
+            keyframeSampler = new KeyframeSampler();
+            rolloverActions.add(new ThumbnailRolloverAction(keyframeSampler));
+        }
+
+        rolloverActions.add(new CatalogRolloverAction(configuration.filenameGenerator,
+                configuration.filenameTemplate,
+                this,
+                configuration.catalogFramework,
+                Security.getInstance(),
+                configuration.metacardTypeList));
+
+        rolloverAction = new ListRolloverAction(rolloverActions);
+
+        rolloverCheck = configuration.rolloverScheduler.scheduleAtFixedRate(this::checkForRollover,
+                ROLLOVER_CHECK_DELAY,
+                ROLLOVER_CHECK_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, KlvHandler> createKlvHandlers() {
+        Map<String, KlvHandler> handlers =
+                configuration.klvHandlerFactory.createStanag4609Handlers();
+        if (configuration.klvLocationCoverageMaxError > 0) {
+            LocationKlvProcessor.enableCoverage(handlers,
+                    configuration.klvLocationCoverageMaxError);
+        }
+        return handlers;
     }
 
     /**
@@ -314,7 +387,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setKlvHandlerFactory(KlvHandlerFactory klvHandlerFactory) {
         notNull(klvHandlerFactory, "klvHandlerFactory must be non-null");
-        this.klvHandlerFactory = klvHandlerFactory;
+        configuration.klvHandlerFactory = klvHandlerFactory;
     }
 
     /**
@@ -322,7 +395,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setKlvProcessor(KlvProcessor klvProcessor) {
         notNull(klvProcessor, "klvProcessor must be non-null");
-        this.klvProcessor = klvProcessor;
+        configuration.klvProcessor = klvProcessor;
     }
 
     /**
@@ -330,7 +403,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setFilenameGenerator(FilenameGenerator filenameGenerator) {
         notNull(filenameGenerator, "filenameGenerator must be non-null");
-        this.filenameGenerator = filenameGenerator;
+        configuration.filenameGenerator = filenameGenerator;
     }
 
     /**
@@ -338,7 +411,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setFilenameTemplate(String filenameTemplate) {
         notNull(filenameTemplate, "filenameTemplate must be non-null");
-        this.filenameTemplate = filenameTemplate;
+        configuration.filenameTemplate = filenameTemplate;
     }
 
     /**
@@ -346,7 +419,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setRolloverCondition(RolloverCondition rolloverCondition) {
         notNull(rolloverCondition, "rolloverCondition must be non-null");
-        this.rolloverCondition = rolloverCondition;
+        configuration.rolloverCondition = rolloverCondition;
     }
 
     /**
@@ -354,7 +427,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setDefaultKlvHandler(KlvHandler defaultKlvHandler) {
         notNull(defaultKlvHandler, "defaultKlvHandler must be non-null");
-        this.defaultKlvHandler = defaultKlvHandler;
+        configuration.defaultKlvHandler = defaultKlvHandler;
     }
 
     /**
@@ -362,7 +435,7 @@ public class UdpStreamProcessor implements StreamProcessor {
      */
     public void setStanag4609Processor(Stanag4609Processor stanag4609Processor) {
         notNull(stanag4609Processor, "stanage4609Processor must be non-null");
-        this.stanag4609Processor = stanag4609Processor;
+        configuration.stanag4609Processor = stanag4609Processor;
     }
 
     /**
@@ -371,13 +444,78 @@ public class UdpStreamProcessor implements StreamProcessor {
      * @return non-null array of channel handlers
      */
     public ChannelHandler[] createChannelHandlers() {
+        DecodedStreamDataHandler decodedStreamDataHandler = new DecodedStreamDataHandler(
+                packetBuffer,
+                configuration.stanag4609Processor,
+                klvHandlers,
+                configuration.defaultKlvHandler);
+        decodedStreamDataHandler.setKeyframeSampler(keyframeSampler);
+
         return new ChannelHandler[] {new RawUdpDataToMTSPacketDecoder(packetBuffer),
                 new MTSPacketToPESPacketDecoder(), new PESPacketToApplicationDataDecoder(
-                IS_KLV_PARSING_ENABLED), new DecodedStreamDataHandler(packetBuffer,
-                stanag4609Processor,
-                klvHandlerMap,
-                defaultKlvHandler,
-                klvHandlerMapLock)};
+                IS_KLV_PARSING_ENABLED), decodedStreamDataHandler};
+    }
+
+    /**
+     * The configuration of a processor. A source processor gets a copy, so that the settings of
+     * one processor never change another, but all of them share the rollover scheduler.
+     */
+    private static class Configuration {
+
+        private final ScheduledThreadPoolExecutor rolloverScheduler;
+
+        private Stanag4609Processor stanag4609Processor;
+
+        private KlvHandler defaultKlvHandler;
+
+        private RolloverCondition rolloverCondition;
+
+        private String filenameTemplate;
+
+        private KlvHandlerFactory klvHandlerFactory;
+
+        private FilenameGenerator filenameGenerator;
+
+        private KlvProcessor klvProcessor;
+
+        private List<MetacardType> metacardTypeList;
+
+        private Integer klvLocationSubsampleCount;
+
+        private Double klvLocationCoverageMaxError = 0.0;
+
+        private Double klvLocationPrecisionScale = 0.0;
+
+        private CatalogFramework catalogFramework;
+
+        private boolean keyframeThumbnailEnabled = false;
+
+        Configuration() {
+            rolloverScheduler = new ScheduledThreadPoolExecutor(ROLLOVER_THREADS,
+                    new ThreadFactoryBuilder().setNameFormat("stream-rollover-%d")
+                            .setDaemon(true)
+                            .build());
+            rolloverScheduler.setKeepAliveTime(ROLLOVER_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+            rolloverScheduler.allowCoreThreadTimeOut(true);
+            rolloverScheduler.setRemoveOnCancelPolicy(true);
+        }
+
+        Configuration(Configuration configuration) {
+            rolloverScheduler = configuration.rolloverScheduler;
+            stanag4609Processor = configuration.stanag4609Processor;
+            defaultKlvHandler = configuration.defaultKlvHandler;
+            rolloverCondition = configuration.rolloverCondition;
+            filenameTemplate = configuration.filenameTemplate;
+            klvHandlerFactory = configuration.klvHandlerFactory;
+            filenameGenerator = configuration.filenameGenerator;
+            klvProcessor = configuration.klvProcessor;
+            metacardTypeList = configuration.metacardTypeList;
+            klvLocationSubsampleCount = configuration.klvLocationSubsampleCount;
+            klvLocationCoverageMaxError = configuration.klvLocationCoverageMaxError;
+            klvLocationPrecisionScale = configuration.klvLocationPrecisionScale;
+            catalogFramework = configuration.catalogFramework;
+            keyframeThumbnailEnabled = configuration.keyframeThumbnailEnabled;
+        }
     }
 
 }
@@ -14,11 +14,9 @@
 package org.codice.alliance.video.stream.mpegts.rollover;
 
 import java.io.File;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
 
-import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvProcessor;
+import org.codice.alliance.video.stream.mpegts.netty.DoubleBufferedKlvHandlers;
 
 import ddf.catalog.data.impl.MetacardImpl;
 
@@ -26,36 +24,53 @@ public class KlvRolloverAction extends BaseRolloverAction {
 
     private Integer klvLocationSubsampleCount;
 
-    private Lock klvHandlerMapLock;
-
     private KlvProcessor klvProcessor;
 
-    private Map<String, KlvHandler> klvHandlerMap;
+    private Double klvLocationCoverageMaxError = 0.0;
+
+    private Double klvLocationPrecisionScale = 0.0;
 
-    public KlvRolloverAction(Map<String, KlvHandler> klvHandlerMap, Lock klvHandlerMapLock,
+    private DoubleBufferedKlvHandlers klvHandlers;
+
+    public KlvRolloverAction(DoubleBufferedKlvHandlers klvHandlers,
             Integer klvLocationSubsampleCount, KlvProcessor klvProcessor) {
-        this.klvHandlerMap = klvHandlerMap;
-        this.klvHandlerMapLock = klvHandlerMapLock;
+        this.klvHandlers = klvHandlers;
         this.klvLocationSubsampleCount = klvLocationSubsampleCount;
         this.klvProcessor = klvProcessor;
     }
 
+    /**
+     * @param klvLocationPrecisionScale scale of the fixed precision model that the location is
+     *                                  snap-rounded to, 0 to keep full precision (must be non-null
+     *                                  and >=0)
+     */
+    public void setKlvLocationPrecisionScale(Double klvLocationPrecisionScale) {
+        this.klvLocationPrecisionScale = klvLocationPrecisionScale;
+    }
+
+    /**
+     * @param klvLocationCoverageMaxError the cell size in degrees of the coverage grid used
+     *                                    for the location, must be >=0 (0 keeps the union of
+     *                                    the corner polygons)
+     */
+    public void setKlvLocationCoverageMaxError(Double klvLocationCoverageMaxError) {
+        this.klvLocationCoverageMaxError = klvLocationCoverageMaxError;
+    }
+
     @Override
     public MetacardImpl doAction(MetacardImpl metacard, File tempFile)
             throws RolloverActionException {
         KlvProcessor.Configuration klvProcessConfiguration = new KlvProcessor.Configuration();
         klvProcessConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT,
                 klvLocationSubsampleCount);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR,
+                klvLocationCoverageMaxError);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.LOCATION_PRECISION_SCALE,
+                klvLocationPrecisionScale);
 
-        klvHandlerMapLock.lock();
-        try {
-            klvProcessor.process(klvHandlerMap, metacard, klvProcessConfiguration);
-
-            klvHandlerMap.values()
-                    .forEach(KlvHandler::reset);
-        } finally {
-            klvHandlerMapLock.unlock();
-        }
+        klvHandlers.rollover(klvHandlerMap -> klvProcessor.process(klvHandlerMap,
+                metacard,
+                klvProcessConfiguration));
 
         return metacard;
     }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.rollover;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+
+import org.codice.alliance.video.stream.mpegts.netty.KeyframeSampler;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.AttributeImpl;
+import ddf.catalog.data.impl.MetacardImpl;
+
+/**
+ * Sets the thumbnail of the segment metacard from the keyframe sampled during the segment (if
+ * any) and re-arms the sampler for the next segment.
+ */
+public class ThumbnailRolloverAction extends BaseRolloverAction {
+
+    private final KeyframeSampler keyframeSampler;
+
+    /**
+     * @param keyframeSampler must be non-null
+     */
+    public ThumbnailRolloverAction(KeyframeSampler keyframeSampler) {
+        notNull(keyframeSampler, "keyframeSampler must be non-null");
+        this.keyframeSampler = keyframeSampler;
+    }
+
+    @Override
+    public MetacardImpl doAction(MetacardImpl metacard, File tempFile)
+            throws RolloverActionException {
+
+        keyframeSampler.takeThumbnail()
+                .ifPresent(thumbnail -> metacard.setAttribute(new AttributeImpl(Metacard.THUMBNAIL,
+                        thumbnail)));
+
+        return metacard;
+    }
+
+    @Override
+    public String toString() {
+        return "ThumbnailRolloverAction{" +
+                "keyframeSampler=" + keyframeSampler +
+                '}';
+    }
+}
@@ -18,6 +18,7 @@ import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,6 +31,7 @@ import org.codice.alliance.video.stream.mpegts.netty.UdpStreamProcessor;
 import org.codice.alliance.video.stream.mpegts.rollover.RolloverCondition;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import ddf.catalog.CatalogFramework;
 import ddf.catalog.data.MetacardType;
@@ -240,6 +242,38 @@ public class TestUdpStreamMonitor {
         verify(udpStreamProcessor).setKlvLocationSubsampleCount(UdpStreamMonitor.SUBSAMPLE_COUNT_MIN);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void testSetKlvLocationPrecisionScaleNullArg() {
+        udpStreamMonitor.setKlvLocationPrecisionScale(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetKlvLocationPrecisionScaleNegativeArg() {
+        udpStreamMonitor.setKlvLocationPrecisionScale(-1.0);
+    }
+
+    @Test
+    public void testSetKlvLocationPrecisionScale() {
+        udpStreamMonitor.setKlvLocationPrecisionScale(1000000.0);
+        verify(udpStreamProcessor).setKlvLocationPrecisionScale(1000000.0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSetKlvLocationCoverageMaxErrorNullArg() {
+        udpStreamMonitor.setKlvLocationCoverageMaxError(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetKlvLocationCoverageMaxErrorNegativeArg() {
+        udpStreamMonitor.setKlvLocationCoverageMaxError(-1.0);
+    }
+
+    @Test
+    public void testSetKlvLocationCoverageMaxError() {
+        udpStreamMonitor.setKlvLocationCoverageMaxError(0.001);
+        verify(udpStreamProcessor).setKlvLocationCoverageMaxError(0.001);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testSetKlvProcessorNullArg() {
         udpStreamMonitor.setKlvProcessor(null);
@@ -264,4 +298,59 @@ public class TestUdpStreamMonitor {
         verify(udpStreamProcessor).setKlvHandlerFactory(klvHandlerFactory);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void testSetMaxSourcesNullArg() {
+        udpStreamMonitor.setMaxSources(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMaxSourcesBelowRangeArg() {
+        udpStreamMonitor.setMaxSources(UdpStreamMonitor.MAX_SOURCES_MIN - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMaxSourcesAboveRangeArg() {
+        udpStreamMonitor.setMaxSources(UdpStreamMonitor.MAX_SOURCES_MAX + 1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSetSourceIdleTimeoutNullArg() {
+        udpStreamMonitor.setSourceIdleTimeout(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetSourceIdleTimeoutBelowRangeArg() {
+        udpStreamMonitor.setSourceIdleTimeout(UdpStreamMonitor.SOURCE_IDLE_TIMEOUT_MIN - 1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSetSourceShardingEnabledNullArg() {
+        udpStreamMonitor.setSourceShardingEnabled(null);
+    }
+
+    @Test
+    public void testCreateSourceProcessor() {
+        String addr = "127.0.0.1";
+        int port = 1000;
+        udpStreamMonitor.setMonitoredAddress(addr);
+        udpStreamMonitor.setMonitoredPort(port);
+        udpStreamMonitor.setParentTitle("title");
+
+        InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 2000);
+
+        udpStreamMonitor.createSourceProcessor(sender);
+
+        ArgumentCaptor<StreamMonitor> argumentCaptor = ArgumentCaptor.forClass(StreamMonitor.class);
+
+        verify(udpStreamProcessor).createSourceProcessor(argumentCaptor.capture());
+
+        assertThat(argumentCaptor.getValue()
+                .getStreamUri()
+                .get()
+                .toString(), is("udp://127.0.0.1:1000?source=127.0.0.1:2000"));
+        assertThat(argumentCaptor.getValue()
+                .getTitle()
+                .get(), is("title (127.0.0.1:2000)"));
+    }
+
 }
@@ -25,7 +25,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.locks.Lock;
 
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
@@ -45,14 +44,14 @@ public class TestDecodedStreamDataHandler {
 
     private KlvHandler defaultKlvHandler;
 
-    private Lock lock;
+    private DoubleBufferedKlvHandlers klvHandlers;
 
     @Before
     public void setup() {
         packetBuffer = mock(PacketBuffer.class);
         stanag4609Processor = mock(Stanag4609Processor.class);
         defaultKlvHandler = mock(KlvHandler.class);
-        lock = mock(Lock.class);
+        klvHandlers = new DoubleBufferedKlvHandlers(new HashMap<>(), new HashMap<>());
     }
 
     @Test
@@ -60,9 +59,8 @@ public class TestDecodedStreamDataHandler {
 
         EmbeddedChannel channel = new EmbeddedChannel(new DecodedStreamDataHandler(packetBuffer,
                 stanag4609Processor,
-                Collections.emptyMap(),
-                defaultKlvHandler,
-                lock));
+                klvHandlers,
+                defaultKlvHandler));
 
         channel.writeInbound("not a DecodedStreamData.class");
 
@@ -84,9 +82,8 @@ public class TestDecodedStreamDataHandler {
 
         EmbeddedChannel channel = new EmbeddedChannel(new DecodedStreamDataHandler(packetBuffer,
                 stanag4609Processor,
-                Collections.emptyMap(),
-                defaultKlvHandler,
-                lock));
+                klvHandlers,
+                defaultKlvHandler));
 
         channel.writeInbound(decodedStreamData);
 
@@ -94,14 +91,71 @@ public class TestDecodedStreamDataHandler {
 
     }
 
+    @Test
+    public void testKeyframeSampledOnIDR() throws Exception {
+
+        List<NALUnit> nalUnitList = new LinkedList<>();
+        nalUnitList.add(new NALUnit(NALUnitType.IDR_SLICE, 0));
+
+        byte[] payload = new byte[] {0, 0, 0, 1, 0x65};
+
+        DecodedStreamData decodedStreamData = mock(DecodedStreamData.class);
+        when(decodedStreamData.getNalUnits()).thenReturn(Optional.of(nalUnitList));
+        when(decodedStreamData.getVideoPayload()).thenReturn(Optional.of(payload));
+        when(decodedStreamData.getDecodedKLVMetadataPacket()).thenReturn(Optional.empty());
+
+        KeyframeSampler keyframeSampler = mock(KeyframeSampler.class);
+
+        DecodedStreamDataHandler decodedStreamDataHandler = new DecodedStreamDataHandler(
+                packetBuffer,
+                stanag4609Processor,
+                klvHandlers,
+                defaultKlvHandler);
+        decodedStreamDataHandler.setKeyframeSampler(keyframeSampler);
+
+        EmbeddedChannel channel = new EmbeddedChannel(decodedStreamDataHandler);
+
+        channel.writeInbound(decodedStreamData);
+
+        verify(keyframeSampler).sample(payload);
+
+    }
+
+    @Test
+    public void testKeyframeNotSampledOnNonIDR() throws Exception {
+
+        List<NALUnit> nalUnitList = new LinkedList<>();
+        nalUnitList.add(new NALUnit(NALUnitType.NON_IDR_SLICE, 0));
+
+        DecodedStreamData decodedStreamData = mock(DecodedStreamData.class);
+        when(decodedStreamData.getNalUnits()).thenReturn(Optional.of(nalUnitList));
+        when(decodedStreamData.getVideoPayload()).thenReturn(Optional.of(new byte[] {0}));
+        when(decodedStreamData.getDecodedKLVMetadataPacket()).thenReturn(Optional.empty());
+
+        KeyframeSampler keyframeSampler = mock(KeyframeSampler.class);
+
+        DecodedStreamDataHandler decodedStreamDataHandler = new DecodedStreamDataHandler(
+                packetBuffer,
+                stanag4609Processor,
+                klvHandlers,
+                defaultKlvHandler);
+        decodedStreamDataHandler.setKeyframeSampler(keyframeSampler);
+
+        EmbeddedChannel channel = new EmbeddedChannel(decodedStreamDataHandler);
+
+        channel.writeInbound(decodedStreamData);
+
+        verify(keyframeSampler, never()).sample(any());
+
+    }
+
     @Test
     public void testDetectNonIDR() throws Exception {
 
         EmbeddedChannel channel = new EmbeddedChannel(new DecodedStreamDataHandler(packetBuffer,
                 stanag4609Processor,
-                Collections.emptyMap(),
-                defaultKlvHandler,
-                lock));
+                klvHandlers,
+                defaultKlvHandler));
 
         List<NALUnit> nalUnitList = new LinkedList<>();
         NALUnit nalUnit = new NALUnit(NALUnitType.NON_IDR_SLICE, 0);
@@ -120,13 +174,12 @@ public class TestDecodedStreamDataHandler {
     @Test
     public void testKlvCalled() throws Exception {
 
-        Map<String, KlvHandler> klvHandlerMap = new HashMap<>();
+        Map<String, KlvHandler> klvHandlerMap = klvHandlers.getActiveHandlers();
 
         EmbeddedChannel channel = new EmbeddedChannel(new DecodedStreamDataHandler(packetBuffer,
                 stanag4609Processor,
-                klvHandlerMap,
-                defaultKlvHandler,
-                lock));
+                klvHandlers,
+                defaultKlvHandler));
 
         DecodedKLVMetadataPacket decodedKLVMetadataPacket = mock(DecodedKLVMetadataPacket.class);
 
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codice.alliance.libs.klv.KlvHandler;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.junit.Test;
+
+import ddf.catalog.data.Attribute;
+
+public class TestDoubleBufferedKlvHandlers {
+
+    private static final String FIELD = "field";
+
+    private static final int PACKET_COUNT = 1_000_000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameMapTwice() {
+        Map<String, KlvHandler> handlers = new HashMap<>();
+        new DoubleBufferedKlvHandlers(handlers, handlers);
+    }
+
+    @Test
+    public void testRolloverSwapsAndResets() {
+        KlvHandler first = mock(KlvHandler.class);
+        KlvHandler second = mock(KlvHandler.class);
+        Map<String, KlvHandler> firstMap = Collections.singletonMap(FIELD, first);
+        Map<String, KlvHandler> secondMap = Collections.singletonMap(FIELD, second);
+
+        DoubleBufferedKlvHandlers klvHandlers = new DoubleBufferedKlvHandlers(firstMap, secondMap);
+
+        AtomicReference<Map<String, KlvHandler>> retired = new AtomicReference<>();
+        klvHandlers.rollover(retired::set);
+
+        assertThat(retired.get(), is(sameInstance(firstMap)));
+        assertThat(klvHandlers.getActiveHandlers(), is(sameInstance(secondMap)));
+        verify(first).reset();
+
+        klvHandlers.rollover(retired::set);
+
+        assertThat(retired.get(), is(sameInstance(secondMap)));
+        assertThat(klvHandlers.getActiveHandlers(), is(sameInstance(firstMap)));
+        verify(second).reset();
+    }
+
+    /**
+     * One thread writes packets as fast as it can while another thread keeps rolling over. Every
+     * packet must be counted by exactly one rollover and no packet may be written to handlers
+     * while a rollover reads them.
+     */
+    @Test
+    public void testConcurrentWritesAndRollovers() throws Exception {
+        CountingKlvHandler first = new CountingKlvHandler();
+        CountingKlvHandler second = new CountingKlvHandler();
+
+        DoubleBufferedKlvHandlers klvHandlers = new DoubleBufferedKlvHandlers(
+                Collections.singletonMap(FIELD, first),
+                Collections.singletonMap(FIELD, second));
+
+        AtomicLong rolledOver = new AtomicLong();
+        AtomicBoolean writerDone = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executorService.submit(() -> {
+                started.countDown();
+                for (int i = 0; i < PACKET_COUNT; i++) {
+                    klvHandlers.write(handlers -> handlers.get(FIELD)
+                            .accept(null));
+                }
+                writerDone.set(true);
+            });
+
+            Future<?> rollover = executorService.submit(() -> {
+                awaitQuietly(started);
+                while (!writerDone.get()) {
+                    klvHandlers.rollover(handlers -> rolledOver.addAndGet(read(handlers)));
+                }
+            });
+
+            writer.get(1, TimeUnit.MINUTES);
+            rollover.get(1, TimeUnit.MINUTES);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        klvHandlers.rollover(handlers -> rolledOver.addAndGet(read(handlers)));
+
+        assertThat(rolledOver.get(), is((long) PACKET_COUNT));
+        assertThat(first.overlapped.get() || second.overlapped.get(), is(false));
+    }
+
+    /**
+     * A rollover that is still reading its retired set does not block writes, and a second
+     * rollover waits for the first one to hand back its set.
+     */
+    @Test
+    public void testRolloverWaitsForPreviousRollover() throws Exception {
+        CountingKlvHandler first = new CountingKlvHandler();
+        CountingKlvHandler second = new CountingKlvHandler();
+
+        DoubleBufferedKlvHandlers klvHandlers = new DoubleBufferedKlvHandlers(
+                Collections.singletonMap(FIELD, first),
+                Collections.singletonMap(FIELD, second));
+
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicLong rolledOver = new AtomicLong();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            klvHandlers.write(handlers -> handlers.get(FIELD)
+                    .accept(null));
+
+            Future<?> firstRollover = executorService.submit(() -> klvHandlers.rollover(
+                    handlers -> {
+                        reading.countDown();
+                        awaitQuietly(release);
+                        rolledOver.addAndGet(read(handlers));
+                    }));
+            assertThat(reading.await(1, TimeUnit.MINUTES), is(true));
+
+            klvHandlers.write(handlers -> handlers.get(FIELD)
+                    .accept(null));
+
+            Future<?> secondRollover = executorService.submit(() -> klvHandlers.rollover(
+                    handlers -> rolledOver.addAndGet(read(handlers))));
+            Thread.sleep(100);
+            assertThat(secondRollover.isDone(), is(false));
+
+            release.countDown();
+            firstRollover.get(1, TimeUnit.MINUTES);
+            secondRollover.get(1, TimeUnit.MINUTES);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertThat(rolledOver.get(), is(2L));
+        assertThat(klvHandlers.getActiveHandlers()
+                .get(FIELD), is(sameInstance(first)));
+    }
+
+    private static long read(Map<String, KlvHandler> handlers) {
+        CountingKlvHandler handler = (CountingKlvHandler) handlers.get(FIELD);
+        handler.reading = true;
+        try {
+            // give a misbehaving writer a chance to touch the handler while it is being read
+            Thread.yield();
+            return handler.count;
+        } finally {
+            handler.reading = false;
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    /**
+     * Not thread-safe on purpose: the count is only correct if the writer and the rollover never
+     * use the handler at the same time.
+     */
+    private static class CountingKlvHandler implements KlvHandler {
+
+        private final AtomicBoolean overlapped = new AtomicBoolean();
+
+        private volatile boolean reading;
+
+        private long count;
+
+        @Override
+        public String getAttributeName() {
+            return FIELD;
+        }
+
+        @Override
+        public Optional<Attribute> asAttribute() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void accept(KlvDataElement klvDataElement) {
+            if (reading) {
+                overlapped.set(true);
+            }
+            count++;
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+    }
+}
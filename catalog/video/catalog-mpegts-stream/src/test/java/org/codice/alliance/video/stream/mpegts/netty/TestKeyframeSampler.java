@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture8Bit;
+import org.jcodec.common.model.Rect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKeyframeSampler {
+
+    private static final byte[] SPS_PPS_IDR =
+            {0, 0, 0, 1, 0x67, 1, 2, 3, 0, 0, 0, 1, 0x68, 4, 5, 0, 0, 0, 1, 0x65, 6, 7, 8, 9};
+
+    private static final byte[] SPS_2_PPS_2_IDR = {0, 0, 0, 1, 0x67, 11, 12, 13, 0, 0, 0, 1,
+            0x68, 14, 15, 0, 0, 0, 1, 0x65, 6, 7, 8, 9};
+
+    private static final byte[] IDR_ONLY = {0, 0, 0, 1, 0x65, 6, 7, 8, 9};
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private KeyframeSampler keyframeSampler;
+
+    private AtomicInteger decodeCount;
+
+    private List<Thread> decodeThreads;
+
+    @Before
+    public void setup() {
+        keyframeSampler = new KeyframeSampler();
+        decodeCount = new AtomicInteger();
+        decodeThreads = new CopyOnWriteArrayList<>();
+        keyframeSampler.setFrameDecoder(accessUnit -> {
+            decodeCount.incrementAndGet();
+            decodeThreads.add(Thread.currentThread());
+            return new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        });
+    }
+
+    @After
+    public void teardown() {
+        keyframeSampler.shutdown();
+    }
+
+    @Test
+    public void testThumbnailIsScaledJpeg() throws InterruptedException, IOException {
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        awaitDecoder();
+
+        Optional<byte[]> thumbnail = keyframeSampler.takeThumbnail();
+
+        assertThat(thumbnail.isPresent(), is(true));
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail.get()));
+        assertThat(image.getWidth(), is(KeyframeSampler.THUMBNAIL_WIDTH));
+        assertThat(image.getHeight(), is(150));
+    }
+
+    @Test
+    public void testDecodeOffCallerThread() throws InterruptedException {
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        awaitDecoder();
+
+        assertThat(decodeThreads.size(), is(1));
+        assertThat(decodeThreads.get(0), not(Thread.currentThread()));
+    }
+
+    @Test
+    public void testOneSamplePerSegment() throws InterruptedException {
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        keyframeSampler.sample(SPS_PPS_IDR);
+        keyframeSampler.sample(IDR_ONLY);
+        awaitDecoder();
+
+        assertThat(decodeCount.get(), is(1));
+    }
+
+    @Test
+    public void testTakeThumbnailRearmsSampling() throws InterruptedException {
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        keyframeSampler.takeThumbnail();
+        keyframeSampler.sample(IDR_ONLY);
+        awaitDecoder();
+
+        assertThat(decodeCount.get(), is(2));
+    }
+
+    @Test
+    public void testNoParameterSetsIsNotSampled() throws InterruptedException {
+
+        keyframeSampler.sample(IDR_ONLY);
+        awaitDecoder();
+
+        assertThat(decodeCount.get(), is(0));
+        assertThat(keyframeSampler.takeThumbnail()
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testParameterSetsAreKeptWhileNotSampling() throws InterruptedException {
+
+        List<ByteBuffer> accessUnits = new CopyOnWriteArrayList<>();
+        keyframeSampler.setFrameDecoder(accessUnit -> {
+            accessUnits.add(accessUnit);
+            return new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        });
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        keyframeSampler.sample(SPS_2_PPS_2_IDR);
+        keyframeSampler.takeThumbnail();
+        keyframeSampler.sample(IDR_ONLY);
+        awaitDecoder();
+
+        // the first byte of the SPS payload follows the start code and the NAL unit header
+        assertThat(accessUnits.size(), is(2));
+        assertThat(accessUnits.get(0)
+                .get(5), is((byte) 1));
+        assertThat(accessUnits.get(1)
+                .get(5), is((byte) 11));
+    }
+
+    @Test
+    public void testStaleThumbnailIsDiscarded() throws InterruptedException {
+
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        keyframeSampler.setFrameDecoder(accessUnit -> {
+            decoding.countDown();
+            await(release);
+            return new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        });
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        assertThat(decoding.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+
+        assertThat(keyframeSampler.takeThumbnail()
+                .isPresent(), is(false));
+
+        release.countDown();
+        awaitDecoder();
+
+        assertThat(keyframeSampler.takeThumbnail()
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testSamplesDroppedWhenDecoderBusy() throws InterruptedException {
+
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        keyframeSampler.setFrameDecoder(accessUnit -> {
+            decodeCount.incrementAndGet();
+            decoding.countDown();
+            await(release);
+            return null;
+        });
+
+        keyframeSampler.sample(SPS_PPS_IDR);
+        assertThat(decoding.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+
+        keyframeSampler.takeThumbnail();
+        keyframeSampler.sample(IDR_ONLY);
+        keyframeSampler.takeThumbnail();
+        keyframeSampler.sample(IDR_ONLY);
+
+        release.countDown();
+        awaitDecoder();
+
+        assertThat(decodeCount.get(), is(2));
+    }
+
+    @Test
+    public void testFrameIsCroppedAndConvertedToRgb() {
+        Picture8Bit yuv = Picture8Bit.createCropped(16,
+                16,
+                ColorSpace.YUV420J,
+                new Rect(2, 2, 8, 6));
+        // pure red in full range YCbCr, shifted down by 128 the way jcodec stores samples
+        Arrays.fill(yuv.getPlaneData(0), (byte) (76 - 128));
+        Arrays.fill(yuv.getPlaneData(1), (byte) (85 - 128));
+        Arrays.fill(yuv.getPlaneData(2), (byte) (255 - 128));
+
+        BufferedImage image = KeyframeSampler.toBufferedImage(yuv);
+
+        assertThat(image.getWidth(), is(8));
+        assertThat(image.getHeight(), is(6));
+        int rgb = image.getRGB(3, 3);
+        assertThat((rgb >> 16 & 0xFF) > 240, is(true));
+        assertThat((rgb >> 8 & 0xFF) < 16, is(true));
+        assertThat((rgb & 0xFF) < 16, is(true));
+    }
+
+    private void awaitDecoder() throws InterruptedException {
+        keyframeSampler.shutdown();
+        assertThat(keyframeSampler.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.netty;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+public class TestSourceDemultiplexer {
+
+    private static final InetSocketAddress RECIPIENT = new InetSocketAddress("127.0.0.1", 50000);
+
+    private static final InetSocketAddress SENDER_A = new InetSocketAddress("127.0.0.1", 40001);
+
+    private static final InetSocketAddress SENDER_B = new InetSocketAddress("127.0.0.1", 40002);
+
+    private static final InetSocketAddress SENDER_C = new InetSocketAddress("127.0.0.1", 40003);
+
+    private static final long IDLE_TIMEOUT = 60000;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private Map<InetSocketAddress, UdpStreamProcessor> processors;
+
+    private Map<InetSocketAddress, List<Byte>> received;
+
+    private CountDownLatch latch;
+
+    @Before
+    public void setup() {
+        processors = new ConcurrentHashMap<>();
+        received = new ConcurrentHashMap<>();
+        latch = new CountDownLatch(0);
+    }
+
+    @Test
+    public void testDatagramsRoutedBySender() {
+
+        EmbeddedChannel channel = new EmbeddedChannel(new SourceDemultiplexer(this::createProcessor,
+                10,
+                IDLE_TIMEOUT));
+
+        channel.writeInbound(datagram(SENDER_A, 1));
+        channel.writeInbound(datagram(SENDER_B, 2));
+        channel.writeInbound(datagram(SENDER_A, 3));
+        channel.writeInbound(datagram(SENDER_C, 4));
+        channel.writeInbound(datagram(SENDER_B, 5));
+
+        assertThat(processors.size(), is(3));
+        assertThat(received.get(SENDER_A), contains((byte) 1, (byte) 3));
+        assertThat(received.get(SENDER_B), contains((byte) 2, (byte) 5));
+        assertThat(received.get(SENDER_C), contains((byte) 4));
+
+        processors.values()
+                .forEach(processor -> verify(processor).init());
+    }
+
+    @Test
+    public void testMaxSources() {
+
+        EmbeddedChannel channel = new EmbeddedChannel(new SourceDemultiplexer(this::createProcessor,
+                2,
+                IDLE_TIMEOUT));
+
+        DatagramPacket dropped = datagram(SENDER_C, 3);
+
+        channel.writeInbound(datagram(SENDER_A, 1));
+        channel.writeInbound(datagram(SENDER_B, 2));
+        channel.writeInbound(dropped);
+
+        assertThat(processors.size(), is(2));
+        assertThat(received.containsKey(SENDER_C), is(false));
+        assertThat(dropped.refCnt(), is(0));
+    }
+
+    @Test
+    public void testIdleSourcesEvicted() {
+
+        SourceDemultiplexer sourceDemultiplexer = new SourceDemultiplexer(this::createProcessor,
+                10,
+                IDLE_TIMEOUT);
+
+        EmbeddedChannel channel = new EmbeddedChannel(sourceDemultiplexer);
+
+        channel.writeInbound(datagram(SENDER_A, 1));
+        channel.writeInbound(datagram(SENDER_B, 2));
+
+        long now = System.currentTimeMillis();
+
+        sourceDemultiplexer.evictIdleSources(now);
+
+        assertThat(sourceDemultiplexer.getSourceCount(), is(2));
+
+        sourceDemultiplexer.evictIdleSources(now + IDLE_TIMEOUT);
+
+        assertThat(sourceDemultiplexer.getSourceCount(), is(0));
+
+        verify(processors.get(SENDER_A), timeout(TIMEOUT_MILLIS)).shutdown();
+        verify(processors.get(SENDER_B), timeout(TIMEOUT_MILLIS)).shutdown();
+    }
+
+    @Test
+    public void testEvictedSourceIsRecreated() {
+
+        SourceDemultiplexer sourceDemultiplexer = new SourceDemultiplexer(this::createProcessor,
+                10,
+                IDLE_TIMEOUT);
+
+        EmbeddedChannel channel = new EmbeddedChannel(sourceDemultiplexer);
+
+        channel.writeInbound(datagram(SENDER_A, 1));
+
+        UdpStreamProcessor first = processors.get(SENDER_A);
+
+        sourceDemultiplexer.evictIdleSources(System.currentTimeMillis() + IDLE_TIMEOUT);
+
+        channel.writeInbound(datagram(SENDER_A, 2));
+
+        assertThat(sourceDemultiplexer.getSourceCount(), is(1));
+        assertThat(processors.get(SENDER_A) == first, is(false));
+    }
+
+    @Test
+    public void testChannelCloseShutsDownSources() {
+
+        EmbeddedChannel channel = new EmbeddedChannel(new SourceDemultiplexer(this::createProcessor,
+                10,
+                IDLE_TIMEOUT));
+
+        channel.writeInbound(datagram(SENDER_A, 1));
+
+        verify(processors.get(SENDER_A), never()).shutdown();
+
+        Thread eventLoopThread = Thread.currentThread();
+        List<Thread> shutdownThreads = new CopyOnWriteArrayList<>();
+        UdpStreamProcessor processor = processors.get(SENDER_A);
+        doAnswer(invocation -> shutdownThreads.add(Thread.currentThread())).when(processor)
+                .shutdown();
+
+        channel.close();
+
+        verify(processor, timeout(TIMEOUT_MILLIS)).shutdown();
+        assertThat(shutdownThreads.size(), is(1));
+        assertThat(shutdownThreads.get(0) == eventLoopThread, is(false));
+    }
+
+    @Test
+    public void testWrongArgumentType() {
+
+        EmbeddedChannel channel = new EmbeddedChannel(new SourceDemultiplexer(this::createProcessor,
+                10,
+                IDLE_TIMEOUT));
+
+        channel.writeInbound("not a DatagramPacket");
+
+        assertThat(processors.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLocalSendersOnOnePort() throws Exception {
+
+        int senderCount = 3;
+        int datagramsPerSender = 20;
+
+        latch = new CountDownLatch(senderCount * datagramsPerSender);
+
+        EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        try {
+            Channel serverChannel = new Bootstrap().group(eventLoopGroup)
+                    .channel(NioDatagramChannel.class)
+                    .handler(new SourceDemultiplexer(this::createProcessor,
+                            senderCount,
+                            IDLE_TIMEOUT))
+                    .bind(InetAddress.getLoopbackAddress(), 0)
+                    .sync()
+                    .channel();
+
+            InetSocketAddress serverAddress = (InetSocketAddress) serverChannel.localAddress();
+
+            DatagramSocket[] sockets = new DatagramSocket[senderCount];
+            try {
+                for (int i = 0; i < senderCount; i++) {
+                    sockets[i] = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+                }
+
+                for (int n = 0; n < datagramsPerSender; n++) {
+                    for (int i = 0; i < senderCount; i++) {
+                        byte[] data = new byte[] {(byte) i};
+                        sockets[i].send(new java.net.DatagramPacket(data,
+                                data.length,
+                                serverAddress));
+                    }
+                }
+
+                assertThat(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), is(true));
+
+                assertThat(processors.size(), is(senderCount));
+
+                for (int i = 0; i < senderCount; i++) {
+                    List<Byte> bytes = received.get(sockets[i].getLocalSocketAddress());
+                    assertThat(bytes.size(), is(datagramsPerSender));
+                    byte expected = (byte) i;
+                    assertThat(bytes.stream()
+                            .allMatch(b -> b == expected), is(true));
+                }
+            } finally {
+                for (DatagramSocket socket : sockets) {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                }
+                serverChannel.close()
+                        .sync();
+            }
+        } finally {
+            eventLoopGroup.shutdownGracefully()
+                    .sync();
+        }
+
+        processors.values()
+                .forEach(processor -> verify(processor, timeout(TIMEOUT_MILLIS)).shutdown());
+    }
+
+    private UdpStreamProcessor createProcessor(InetSocketAddress sender) {
+        UdpStreamProcessor processor = mock(UdpStreamProcessor.class);
+        when(processor.createChannelHandlers()).thenReturn(new ChannelHandler[] {
+                new Recorder(sender)});
+        processors.put(sender, processor);
+        return processor;
+    }
+
+    private DatagramPacket datagram(InetSocketAddress sender, int value) {
+        return new DatagramPacket(Unpooled.wrappedBuffer(new byte[] {(byte) value}),
+                RECIPIENT,
+                sender);
+    }
+
+    private class Recorder extends ChannelInboundHandlerAdapter {
+
+        private final InetSocketAddress sender;
+
+        Recorder(InetSocketAddress sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            DatagramPacket datagramPacket = (DatagramPacket) msg;
+            try {
+                assertThat(datagramPacket.sender(), is(sender));
+                received.computeIfAbsent(sender, key -> new CopyOnWriteArrayList<>())
+                        .add(datagramPacket.content()
+                                .getByte(0));
+                latch.countDown();
+            } finally {
+                datagramPacket.release();
+            }
+        }
+    }
+
+}
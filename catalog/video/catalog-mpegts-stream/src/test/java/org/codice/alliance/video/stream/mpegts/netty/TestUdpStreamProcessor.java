@@ -13,6 +13,7 @@
  */
 package org.codice.alliance.video.stream.mpegts.netty;
 
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
@@ -20,6 +21,7 @@ import static org.mockito.Mockito.when;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvHandlerFactory;
@@ -67,4 +69,58 @@ public class TestUdpStreamProcessor {
         }
     }
 
+    @Test
+    public void testCreateSourceProcessor() {
+        StreamMonitor streamMonitor = mock(StreamMonitor.class);
+        StreamMonitor sourceStreamMonitor = mock(StreamMonitor.class);
+        when(sourceStreamMonitor.getTitle()).thenReturn(Optional.of("source"));
+        UdpStreamProcessor udpStreamProcessor = new UdpStreamProcessor(streamMonitor);
+        udpStreamProcessor.setStanag4609Processor(mock(Stanag4609Processor.class));
+        udpStreamProcessor.setKlvHandlerFactory(mock(KlvHandlerFactory.class));
+        udpStreamProcessor.setDefaultKlvHandler(mock(KlvHandler.class));
+        udpStreamProcessor.setRolloverCondition(mock(RolloverCondition.class));
+        udpStreamProcessor.setFilenameTemplate("template");
+        udpStreamProcessor.setFilenameGenerator(mock(FilenameGenerator.class));
+        udpStreamProcessor.setKlvProcessor(mock(KlvProcessor.class));
+        udpStreamProcessor.setMetacardTypeList(mock(List.class));
+        udpStreamProcessor.setCatalogFramework(mock(CatalogFramework.class));
+
+        UdpStreamProcessor sourceProcessor =
+                udpStreamProcessor.createSourceProcessor(sourceStreamMonitor);
+
+        assertThat(sourceProcessor.isReady(), is(true));
+        assertThat(sourceProcessor.getTitle()
+                .get(), is("source"));
+    }
+
+    @Test
+    public void testSourceProcessorCanBeInitializedAfterShutdown() {
+        KlvHandlerFactory klvHandlerFactory = mock(KlvHandlerFactory.class);
+        when(klvHandlerFactory.createStanag4609Handlers()).thenReturn(Collections.emptyMap());
+        UdpStreamProcessor udpStreamProcessor = new UdpStreamProcessor(mock(StreamMonitor.class));
+        udpStreamProcessor.setStanag4609Processor(mock(Stanag4609Processor.class));
+        udpStreamProcessor.setKlvHandlerFactory(klvHandlerFactory);
+        udpStreamProcessor.setDefaultKlvHandler(mock(KlvHandler.class));
+        udpStreamProcessor.setRolloverCondition(mock(RolloverCondition.class));
+        udpStreamProcessor.setFilenameTemplate("template");
+        udpStreamProcessor.setFilenameGenerator(mock(FilenameGenerator.class));
+        udpStreamProcessor.setKlvProcessor(mock(KlvProcessor.class));
+        udpStreamProcessor.setMetacardTypeList(mock(List.class));
+        udpStreamProcessor.setCatalogFramework(mock(CatalogFramework.class));
+
+        UdpStreamProcessor sourceProcessor =
+                udpStreamProcessor.createSourceProcessor(mock(StreamMonitor.class));
+
+        udpStreamProcessor.init();
+        sourceProcessor.init();
+        sourceProcessor.shutdown();
+        sourceProcessor.init();
+        try {
+            assertThat(sourceProcessor.createChannelHandlers(), notNullValue());
+        } finally {
+            sourceProcessor.shutdown();
+            udpStreamProcessor.shutdown();
+        }
+    }
+
 }
@@ -14,6 +14,7 @@
 package org.codice.alliance.video.stream.mpegts.rollover;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -22,11 +23,11 @@ import static org.mockito.Mockito.verify;
 import java.io.File;
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvProcessor;
-
+import org.codice.alliance.video.stream.mpegts.netty.DoubleBufferedKlvHandlers;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -39,7 +40,9 @@ public class TestKlvRolloverAction {
 
     private Map<String, KlvHandler> klvHandlerMap;
 
-    private Lock klvHandlerMapLock;
+    private Map<String, KlvHandler> standbyKlvHandlerMap;
+
+    private DoubleBufferedKlvHandlers klvHandlers;
 
     private Integer klvLocationSubsampleCount;
 
@@ -55,26 +58,28 @@ public class TestKlvRolloverAction {
     public void setup() {
         klvHandler = mock(KlvHandler.class);
         klvHandlerMap = Collections.singletonMap("klvFieldName", klvHandler);
-        klvHandlerMapLock = mock(Lock.class);
+        standbyKlvHandlerMap = Collections.singletonMap("klvFieldName", mock(KlvHandler.class));
+        klvHandlers = new DoubleBufferedKlvHandlers(klvHandlerMap, standbyKlvHandlerMap);
         klvLocationSubsampleCount = 10;
         klvProcessor = mock(KlvProcessor.class);
 
         metacard = mock(MetacardImpl.class);
         tempFile = new File("a");
 
-        klvRolloverAction = new KlvRolloverAction(klvHandlerMap,
-                klvHandlerMapLock,
+        klvRolloverAction = new KlvRolloverAction(klvHandlers,
                 klvLocationSubsampleCount,
                 klvProcessor);
     }
 
     @Test
-    public void testLock() throws RolloverActionException {
+    public void testStandbyHandlersBecomeActive() throws RolloverActionException {
 
         klvRolloverAction.doAction(metacard, tempFile);
 
-        verify(klvHandlerMapLock).lock();
-        verify(klvHandlerMapLock).unlock();
+        AtomicReference<Map<String, KlvHandler>> activeHandlers = new AtomicReference<>();
+        klvHandlers.write(activeHandlers::set);
+
+        assertThat(activeHandlers.get(), is(sameInstance(standbyKlvHandlerMap)));
 
     }
 
@@ -93,6 +98,16 @@ public class TestKlvRolloverAction {
 
     }
 
+    @Test
+    public void testLocationPrecisionScale() throws RolloverActionException {
+
+        klvRolloverAction.setKlvLocationPrecisionScale(1000000.0);
+        klvRolloverAction.doAction(metacard, tempFile);
+
+        assertThat(captureConfiguration().get(KlvProcessor.Configuration.LOCATION_PRECISION_SCALE),
+                is(1000000.0));
+    }
+
     @Test
     public void testHanlderResetCalled() throws RolloverActionException {
 
@@ -101,4 +116,23 @@ public class TestKlvRolloverAction {
         verify(klvHandler).reset();
     }
 
+    @Test
+    public void testLocationCoverageMaxError() throws RolloverActionException {
+
+        klvRolloverAction.setKlvLocationCoverageMaxError(0.001);
+        klvRolloverAction.doAction(metacard, tempFile);
+
+        assertThat(captureConfiguration().get(
+                KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR), is(0.001));
+    }
+
+    private KlvProcessor.Configuration captureConfiguration() {
+        ArgumentCaptor<KlvProcessor.Configuration> argumentCaptor = ArgumentCaptor.forClass(
+                KlvProcessor.Configuration.class);
+
+        verify(klvProcessor).process(eq(klvHandlerMap), eq(metacard), argumentCaptor.capture());
+
+        return argumentCaptor.getValue();
+    }
+
 }
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.video.stream.mpegts.rollover;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Optional;
+
+import org.codice.alliance.video.stream.mpegts.netty.KeyframeSampler;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import ddf.catalog.data.Attribute;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.MetacardImpl;
+
+public class TestThumbnailRolloverAction {
+
+    private KeyframeSampler keyframeSampler;
+
+    private MetacardImpl metacard;
+
+    private File tempFile;
+
+    private ThumbnailRolloverAction thumbnailRolloverAction;
+
+    @Before
+    public void setup() {
+        keyframeSampler = mock(KeyframeSampler.class);
+        metacard = mock(MetacardImpl.class);
+        tempFile = new File("a");
+        thumbnailRolloverAction = new ThumbnailRolloverAction(keyframeSampler);
+    }
+
+    @Test
+    public void testThumbnailSet() throws RolloverActionException {
+
+        byte[] thumbnail = new byte[] {1, 2, 3};
+
+        when(keyframeSampler.takeThumbnail()).thenReturn(Optional.of(thumbnail));
+
+        thumbnailRolloverAction.doAction(metacard, tempFile);
+
+        ArgumentCaptor<Attribute> argumentCaptor = ArgumentCaptor.forClass(Attribute.class);
+
+        verify(metacard).setAttribute(argumentCaptor.capture());
+
+        assertThat(argumentCaptor.getValue()
+                .getName(), is(Metacard.THUMBNAIL));
+        assertThat(argumentCaptor.getValue()
+                .getValue(), is(thumbnail));
+    }
+
+    @Test
+    public void testNoThumbnail() throws RolloverActionException {
+
+        when(keyframeSampler.takeThumbnail()).thenReturn(Optional.empty());
+
+        thumbnailRolloverAction.doAction(metacard, tempFile);
+
+        verify(metacard, never()).setAttribute(any(Attribute.class));
+    }
+
+}
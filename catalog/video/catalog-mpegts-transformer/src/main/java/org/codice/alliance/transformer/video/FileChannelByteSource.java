@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * Reads the bytes of a file channel from its current position to its end. Each stream uses
+ * positional reads, so several streams can be read at the same time and the position of the
+ * channel is not changed. The channel is not closed by the streams.
+ */
+class FileChannelByteSource extends ByteSource {
+
+    private final FileChannel fileChannel;
+
+    private final long start;
+
+    FileChannelByteSource(FileChannel fileChannel) throws IOException {
+        this.fileChannel = fileChannel;
+        this.start = fileChannel.position();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return Math.max(0, fileChannel.size() - start);
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new InputStream() {
+
+            private long position = start;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int count = read(single, 0, 1);
+                return count < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                int count = fileChannel.read(ByteBuffer.wrap(bytes, offset, length), position);
+                if (count > 0) {
+                    position += count;
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long byteCount) throws IOException {
+                long skipped = Math.max(0, Math.min(byteCount, fileChannel.size() - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(0, fileChannel.size() - position));
+            }
+        };
+    }
+}
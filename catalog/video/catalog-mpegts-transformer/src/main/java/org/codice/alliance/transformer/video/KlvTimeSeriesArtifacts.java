@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.codice.alliance.libs.klv.KlvTimeSeriesWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Hands the KLV time series recorded by {@link MpegTsInputTransformer} while it parses the
+ * STANAG 4609 metadata to {@link MpegTsPreStoragePlugin} within the same ingest, keyed by
+ * metacard id, so the plugin does not have to parse the transport stream again. Time series that
+ * are never taken (e.g. the transformer was called outside of an ingest) are closed once the
+ * registry is full or after a few minutes.
+ */
+public class KlvTimeSeriesArtifacts {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KlvTimeSeriesArtifacts.class);
+
+    private static final int MAXIMUM_SIZE = 100;
+
+    private static final long EXPIRE_AFTER_WRITE_MINUTES = 10;
+
+    private final Cache<String, KlvTimeSeriesWriter> timeSeries = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_WRITE_MINUTES, TimeUnit.MINUTES)
+            .removalListener(KlvTimeSeriesArtifacts::closeUntaken)
+            .build();
+
+    /**
+     * @param id     must be non-null
+     * @param writer must be non-null
+     */
+    public void put(String id, KlvTimeSeriesWriter writer) {
+        notNull(id, "id must be non-null");
+        notNull(writer, "writer must be non-null");
+        timeSeries.put(id, writer);
+    }
+
+    /**
+     * Remove and return the time series of an ingest. The caller must close it.
+     *
+     * @param id the metacard id, may be null
+     * @return the time series or empty if it is not available
+     */
+    public Optional<KlvTimeSeriesWriter> remove(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(timeSeries.asMap()
+                .remove(id));
+    }
+
+    /**
+     * Close the time series that were evicted or replaced, but not the ones that were taken.
+     */
+    private static void closeUntaken(
+            RemovalNotification<String, KlvTimeSeriesWriter> notification) {
+        if (notification.getCause() == RemovalCause.EXPLICIT
+                || notification.getValue() == null) {
+            return;
+        }
+        try {
+            notification.getValue()
+                    .close();
+        } catch (IOException e) {
+            LOGGER.debug("unable to close the klv time series of id = {}",
+                    notification.getKey(),
+                    e);
+        }
+    }
+}
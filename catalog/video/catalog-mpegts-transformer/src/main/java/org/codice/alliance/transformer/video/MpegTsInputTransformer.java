@@ -15,29 +15,52 @@ package org.codice.alliance.transformer.video;
 
 import static org.apache.commons.lang3.Validate.notNull;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
 
+import org.codice.alliance.libs.cache.ContentDigests;
+import org.codice.alliance.libs.cache.TransformationCache;
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvHandlerFactory;
 import org.codice.alliance.libs.klv.KlvProcessor;
+import org.codice.alliance.libs.klv.KlvTimeSeriesWriter;
+import org.codice.alliance.libs.klv.LocationKlvProcessor;
 import org.codice.alliance.libs.klv.Stanag4609ParseException;
 import org.codice.alliance.libs.klv.Stanag4609Parser;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
 import org.codice.alliance.libs.klv.StanagParserFactory;
-import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
 import com.google.common.io.FileBackedOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import ddf.catalog.data.Attribute;
 import ddf.catalog.data.Metacard;
 import ddf.catalog.data.MetacardType;
+import ddf.catalog.data.impl.AttributeImpl;
 import ddf.catalog.data.impl.MetacardImpl;
 import ddf.catalog.transform.CatalogTransformerException;
 import ddf.catalog.transform.InputTransformer;
@@ -46,12 +69,78 @@ public class MpegTsInputTransformer implements InputTransformer {
 
     public static final String CONTENT_TYPE = "video/mp2t";
 
+    public static final String MEDIA_CODEC = "media-codec";
+
+    public static final String MEDIA_WIDTH = "media-width-pixels";
+
+    public static final String MEDIA_HEIGHT = "media-height-pixels";
+
+    public static final String MEDIA_FRAME_RATE = "media-frame-rate";
+
+    public static final String MEDIA_DURATION = "media-duration-seconds";
+
+    public static final String MEDIA_BIT_RATE = "media-bit-rate";
+
+    public static final String MEDIA_PROGRAM_LAYOUT = "media-program-layout";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(MpegTsInputTransformer.class);
 
     private static final int FILE_THRESHOLD = 1000000;
 
     private static final Integer DEFAULT_SUBSAMPLE_COUNT = 50;
 
+    private static final int TEE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of chunks buffered for each reader of the tee, so at most 1 MB is buffered
+     * per reader.
+     */
+    private static final int TEE_MAX_BUFFERED_CHUNKS = 16;
+
+    /**
+     * Part of the key of cached transformations. Increment the version when a change to this
+     * transformer changes the metacards that it creates.
+     */
+    private static final String CACHE_NAMESPACE = "mpegts-2";
+
+    private static final int INNER_TRANSFORMER_BRANCH = 0;
+
+    private static final int STANAG_PARSER_BRANCH = 1;
+
+    /**
+     * Maximum number of tasks run next to the inner transformers. Each transform runs the STANAG
+     * 4609 parser and, for single-pass transforms, the copy of the input to the tee.
+     */
+    private static final int MAX_TASKS = 8;
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * A transform takes a permit for each of its tasks before submitting them, and each permit is
+     * returned once its task has been run (or skipped because it was cancelled). The tasks of a
+     * single-pass transform wait on each other, so they must never be queued behind the tasks of
+     * other transforms.
+     */
+    private final Semaphore taskPermits = new Semaphore(MAX_TASKS);
+
+    /**
+     * Runs the tasks of the transforms. Idle threads are released, so the pool costs nothing
+     * between ingests.
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_TASKS,
+            MAX_TASKS,
+            THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("mpegts-transformer-%d")
+                    .setDaemon(true)
+                    .build()) {
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            taskPermits.release();
+        }
+    };
+
     private final InputTransformer innerTransformer;
 
     private final List<MetacardType> metacardTypes;
@@ -73,6 +162,30 @@ public class MpegTsInputTransformer implements InputTransformer {
 
     private Integer subsampleCount = DEFAULT_SUBSAMPLE_COUNT;
 
+    private Boolean streamingSubsampleEnabled = false;
+
+    private Integer compactionMaxValues = 0;
+
+    private Double compactionGeometryTolerance = 0.0;
+
+    private Boolean compactionNumericRangesEnabled = false;
+
+    private Double locationPrecisionScale = 0.0;
+
+    private Double locationCoverageMaxError = 0.0;
+
+    private Integer samplingIntervalSeconds = 0;
+
+    private Boolean singlePassEnabled = true;
+
+    private Boolean nativeProbeEnabled = false;
+
+    private final TransportStreamProbe transportStreamProbe = new TransportStreamProbe();
+
+    private TransformationCache transformationCache;
+
+    private KlvTimeSeriesArtifacts klvTimeSeriesArtifacts;
+
     /**
      * @param inputTransformer    inner input transformer (must be non-null)
      * @param metacardTypes       list of usable metacard types (must be non-null)
@@ -102,12 +215,135 @@ public class MpegTsInputTransformer implements InputTransformer {
         this.stanagParserFactory = stanagParserFactory;
         this.defaultKlvHandler = defaultKlvHandler;
         this.klvProcessor = klvProcessor;
+
+        executor.allowCoreThreadTimeOut(true);
     }
 
     public void setSubsampleCount(Integer subsampleCount) {
         this.subsampleCount = subsampleCount;
     }
 
+    /**
+     * If enabled, then the location and frame center handlers only keep a bounded, evenly strided
+     * sample of the KLV packets while they are handled, instead of every packet.
+     *
+     * @param streamingSubsampleEnabled must be non-null
+     */
+    public void setStreamingSubsampleEnabled(Boolean streamingSubsampleEnabled) {
+        notNull(streamingSubsampleEnabled, "streamingSubsampleEnabled must be non-null");
+        this.streamingSubsampleEnabled = streamingSubsampleEnabled;
+    }
+
+    /**
+     * @param compactionMaxValues maximum number of values kept per multi-valued klv attribute, 0
+     *                            to keep every value (must be non-null)
+     */
+    public void setCompactionMaxValues(Integer compactionMaxValues) {
+        notNull(compactionMaxValues, "compactionMaxValues must be non-null");
+        this.compactionMaxValues = compactionMaxValues;
+    }
+
+    /**
+     * @param compactionGeometryTolerance tolerance in degrees that klv geometry attributes are
+     *                                    merged and simplified to, 0 to keep them unchanged (must
+     *                                    be non-null)
+     */
+    public void setCompactionGeometryTolerance(Double compactionGeometryTolerance) {
+        notNull(compactionGeometryTolerance, "compactionGeometryTolerance must be non-null");
+        this.compactionGeometryTolerance = compactionGeometryTolerance;
+    }
+
+    /**
+     * @param compactionNumericRangesEnabled if true, numeric klv attributes are reduced to their
+     *                                       minimum and maximum (must be non-null)
+     */
+    public void setCompactionNumericRangesEnabled(Boolean compactionNumericRangesEnabled) {
+        notNull(compactionNumericRangesEnabled, "compactionNumericRangesEnabled must be non-null");
+        this.compactionNumericRangesEnabled = compactionNumericRangesEnabled;
+    }
+
+    /**
+     * @param locationPrecisionScale scale of the fixed precision model that the klv location
+     *                               is snap-rounded to, 0 to keep full precision (must be
+     *                               non-null)
+     */
+    public void setLocationPrecisionScale(Double locationPrecisionScale) {
+        notNull(locationPrecisionScale, "locationPrecisionScale must be non-null");
+        this.locationPrecisionScale = locationPrecisionScale;
+    }
+
+    /**
+     * @param locationCoverageMaxError cell size in degrees of the coverage grid that each klv
+     *                                 packet is added to as it is parsed, 0 to use the union of
+     *                                 the subsampled corner polygons (must be non-null)
+     */
+    public void setLocationCoverageMaxError(Double locationCoverageMaxError) {
+        notNull(locationCoverageMaxError, "locationCoverageMaxError must be non-null");
+        this.locationCoverageMaxError = locationCoverageMaxError;
+    }
+
+    /**
+     * @param samplingIntervalSeconds only the first klv packet of each interval of this many
+     *                                seconds is decoded, 0 to decode every packet (must be
+     *                                non-null)
+     */
+    public void setSamplingIntervalSeconds(Integer samplingIntervalSeconds) {
+        notNull(samplingIntervalSeconds, "samplingIntervalSeconds must be non-null");
+        this.samplingIntervalSeconds = samplingIntervalSeconds;
+    }
+
+    /**
+     * If true, the input is read once and copied to the inner transformer and to the STANAG 4609
+     * parser while they run concurrently. Otherwise the input is first copied to a file backed
+     * stream, which is then read by the inner transformer and by the parser one after the other.
+     * The input is only copied concurrently if the parsers of the {@link StanagParserFactory}
+     * read their input in a single pass (see {@link StanagParserFactory#isSinglePass()}), since
+     * each branch of the copy can only be read once.
+     *
+     * @param singlePassEnabled must be non-null
+     */
+    public void setSinglePassEnabled(Boolean singlePassEnabled) {
+        notNull(singlePassEnabled, "singlePassEnabled must be non-null");
+        this.singlePassEnabled = singlePassEnabled;
+    }
+
+    /**
+     * If true, the video properties (codecs, picture size, frame rate, duration, bit rate and
+     * program layout) are read by a transport stream probe instead of calling the inner
+     * transformer. The probe only reads the start and the end of file backed input.
+     *
+     * @param nativeProbeEnabled must be non-null
+     */
+    public void setNativeProbeEnabled(Boolean nativeProbeEnabled) {
+        notNull(nativeProbeEnabled, "nativeProbeEnabled must be non-null");
+        this.nativeProbeEnabled = nativeProbeEnabled;
+    }
+
+    /**
+     * @param transformationCache if enabled, the klv attributes are cached by the digest of the
+     *                            input, and the input is then not teed
+     */
+    public void setTransformationCache(TransformationCache transformationCache) {
+        this.transformationCache = transformationCache;
+    }
+
+    /**
+     * @param klvTimeSeriesArtifacts if set, the decoded klv packets are also recorded as a time
+     *                               series, which is handed to {@link MpegTsPreStoragePlugin}.
+     *                               The time series holds the same packets and elements as the
+     *                               klv handlers (see {@link #setSamplingIntervalSeconds}).
+     */
+    public void setKlvTimeSeriesArtifacts(KlvTimeSeriesArtifacts klvTimeSeriesArtifacts) {
+        this.klvTimeSeriesArtifacts = klvTimeSeriesArtifacts;
+    }
+
+    /**
+     * Stop the threads of the transforms. Transforms that are in progress are interrupted.
+     */
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
     @Override
     public Metacard transform(InputStream inputStream)
             throws IOException, CatalogTransformerException {
@@ -120,52 +356,281 @@ public class MpegTsInputTransformer implements InputTransformer {
 
         LOGGER.info("processing video input for id = {}", id);
 
+        if (inputStream instanceof FileInputStream) {
+            ByteSource byteSource =
+                    new FileChannelByteSource(((FileInputStream) inputStream).getChannel());
+            if (isCacheEnabled()) {
+                return transformCached(id,
+                        ContentDigests.digest(byteSource),
+                        byteSource,
+                        klvAttributes -> transformConcurrently(id,
+                                byteSource,
+                                byteSource,
+                                null,
+                                klvAttributes));
+            }
+            return transformConcurrently(id, byteSource, byteSource, null, null);
+        }
+
+        // the digest of teed input is only known once it has been parsed
+        if (singlePassEnabled && !isCacheEnabled() && stanagParserFactory.isSinglePass()) {
+            StreamTee streamTee = new StreamTee(2, TEE_CHUNK_SIZE, TEE_MAX_BUFFERED_CHUNKS);
+            return transformConcurrently(id,
+                    streamTee.getBranch(INNER_TRANSFORMER_BRANCH),
+                    streamTee.getBranch(STANAG_PARSER_BRANCH),
+                    new TeeInput(streamTee, inputStream),
+                    null);
+        }
+
         try (FileBackedOutputStream fileBackedOutputStream = new FileBackedOutputStream(
                 FILE_THRESHOLD)) {
 
-            populateFileBackedOutputStream(inputStream, fileBackedOutputStream);
+            HashCode digest = populateFileBackedOutputStream(inputStream, fileBackedOutputStream);
+
+            ByteSource byteSource = fileBackedOutputStream.asByteSource();
+
+            if (digest != null) {
+                return transformCached(id,
+                        digest,
+                        byteSource,
+                        klvAttributes -> transformTwoPass(id, byteSource, klvAttributes));
+            }
 
-            MetacardImpl metacard = extractInnerTransformerMetadata(id, fileBackedOutputStream);
+            return transformTwoPass(id, byteSource, null);
+        }
+
+    }
 
-            extractStanag4609Metadata(metacard, fileBackedOutputStream);
+    /**
+     * @param klvAttributes if non-null, receives the attributes set by the klv processors
+     */
+    private MetacardImpl transformTwoPass(String id, ByteSource byteSource,
+            MetacardImpl klvAttributes) throws IOException, CatalogTransformerException {
+
+        MetacardImpl metacard = extractMetadata(id, byteSource, true);
+
+        processStanag4609Metadata(metacard,
+                parseStanag4609Metadata(id, byteSource),
+                klvAttributes);
+
+        return metacard;
+    }
 
+    /**
+     * Only the attributes set by the klv processors are cached, since the STANAG 4609 parse is
+     * the expensive part of the transformation. The inner transformer (or the probe) is run for
+     * every transformation, so that its attributes (eg. the title and the dates) are derived
+     * again instead of being replayed from an earlier ingest. The cached klv attributes are then
+     * set on its metacard.
+     *
+     * @param byteSource the content, which is read by the inner transformer on a cache hit
+     */
+    private Metacard transformCached(String id, HashCode digest, ByteSource byteSource,
+            Transformation transformation) throws IOException, CatalogTransformerException {
+
+        String key = ContentDigests.createKey(digest, getCacheConfiguration());
+        MetacardType metacardType = getMetacardType(id);
+
+        Optional<MetacardImpl> cached = transformationCache.get(key, metacardType);
+        if (cached.isPresent()) {
+            LOGGER.debug("using the cached klv attributes of id = {}", id);
+            MetacardImpl metacard = extractMetadata(id, byteSource, true);
+            copyAttributes(cached.get(), metacard);
             return metacard;
         }
 
+        MetacardImpl klvAttributes = new MetacardImpl(metacardType);
+        MetacardImpl metacard = transformation.transform(klvAttributes);
+
+        transformationCache.put(key, klvAttributes);
+
+        return metacard;
     }
 
-    private void populateFileBackedOutputStream(InputStream inputStream,
+    private void copyAttributes(Metacard source, MetacardImpl target) {
+        source.getMetacardType()
+                .getAttributeDescriptors()
+                .stream()
+                .map(descriptor -> source.getAttribute(descriptor.getName()))
+                .filter(attribute -> attribute != null && !Metacard.ID.equals(attribute.getName()))
+                .forEach(target::setAttribute);
+    }
+
+    private boolean isCacheEnabled() {
+        return transformationCache != null && transformationCache.isEnabled();
+    }
+
+    /**
+     * The klv components describe their configuration with {@link Object#toString()}. The
+     * attributes of the inner transformer are not cached, so it is only identified by its class.
+     *
+     * @return every setting and component that changes the klv attributes created by this
+     * transformer
+     */
+    private String getCacheConfiguration() {
+        return Arrays.asList(CACHE_NAMESPACE,
+                innerTransformer.getClass()
+                        .getName(),
+                stanag4609Processor,
+                klvHandlerFactory,
+                stanagParserFactory,
+                klvProcessor,
+                subsampleCount,
+                streamingSubsampleEnabled,
+                compactionMaxValues,
+                compactionGeometryTolerance,
+                compactionNumericRangesEnabled,
+                locationPrecisionScale,
+                locationCoverageMaxError,
+                samplingIntervalSeconds,
+                nativeProbeEnabled)
+                .toString();
+    }
+
+    /**
+     * Run the inner transformer (or the probe) on the calling thread while the STANAG 4609 metadata
+     * is parsed on another thread. If the input is teed, then it is copied to the tee on a third
+     * thread.
+     *
+     * @param klvAttributes if non-null, receives the attributes set by the klv processors
+     */
+    private MetacardImpl transformConcurrently(String id, ByteSource innerTransformerSource,
+            ByteSource stanagParserSource, TeeInput teeInput, MetacardImpl klvAttributes)
+            throws IOException, CatalogTransformerException {
+
+        int taskCount = teeInput == null ? 1 : 2;
+        acquireTaskPermits(taskCount);
+
+        Future<Map<String, KlvHandler>> handlers = null;
+        Future<Long> copied = null;
+        try {
+            handlers = executor.submit(() -> {
+                try {
+                    return parseStanag4609Metadata(id, stanagParserSource);
+                } finally {
+                    if (teeInput != null) {
+                        teeInput.streamTee.closeBranch(STANAG_PARSER_BRANCH);
+                    }
+                }
+            });
+
+            if (teeInput != null) {
+                copied = executor.submit(teeInput);
+            }
+        } catch (RejectedExecutionException e) {
+            // the permits of the tasks that were not accepted are not returned by the executor
+            taskPermits.release(handlers == null ? taskCount : taskCount - 1);
+            if (handlers != null) {
+                handlers.cancel(true);
+                teeInput.streamTee.abort(e);
+            }
+            throw new CatalogTransformerException("the video transformer has been stopped", e);
+        }
+
+        MetacardImpl metacard;
+        try {
+            metacard = extractMetadata(id, innerTransformerSource, teeInput == null);
+        } catch (IOException | CatalogTransformerException | RuntimeException e) {
+            handlers.cancel(true);
+            if (copied != null) {
+                // a failure to read the input is reported instead of its effect on the reader
+                teeInput.streamTee.abort(e);
+                get(copied);
+            }
+            throw e;
+        } finally {
+            if (teeInput != null) {
+                teeInput.streamTee.closeBranch(INNER_TRANSFORMER_BRANCH);
+            }
+        }
+
+        if (copied != null) {
+            LOGGER.debug("copied {} bytes from input stream to the stream tee", get(copied));
+        }
+
+        processStanag4609Metadata(metacard, get(handlers), klvAttributes);
+
+        return metacard;
+    }
+
+    private void acquireTaskPermits(int count) throws CatalogTransformerException {
+        try {
+            taskPermits.acquire(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new CatalogTransformerException("interrupted while transforming the video", e);
+        }
+    }
+
+    /**
+     * Wait for a task and rethrow its failure.
+     */
+    private <T> T get(Future<T> future) throws IOException, CatalogTransformerException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new CatalogTransformerException("interrupted while transforming the video", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CatalogTransformerException) {
+                throw (CatalogTransformerException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new CatalogTransformerException("failed to transform the video", cause);
+        }
+    }
+
+    /**
+     * @return the digest of the input if the cache is enabled, otherwise null
+     */
+    private HashCode populateFileBackedOutputStream(InputStream inputStream,
             FileBackedOutputStream fbos) throws CatalogTransformerException {
         try {
+            if (isCacheEnabled()) {
+                return ContentDigests.copy(inputStream, fbos);
+            }
             int c = IOUtils.copy(inputStream, fbos);
             LOGGER.debug("copied {} bytes from input stream to file backed output stream", c);
+            return null;
         } catch (IOException e) {
             throw new CatalogTransformerException("Could not copy bytes of content message.", e);
         }
     }
 
+    /**
+     * @param sizeKnown true if the size of the byte source is known and the probe can skip to the
+     *                  end of the input
+     */
+    private MetacardImpl extractMetadata(String id, ByteSource byteSource, boolean sizeKnown)
+            throws IOException, CatalogTransformerException {
+        if (!nativeProbeEnabled) {
+            return extractInnerTransformerMetadata(id, byteSource);
+        }
+        return probeMetadata(id, byteSource, sizeKnown ? byteSource.size() : -1);
+    }
+
     /**
      * Call the inner transformer with the content data and return a metacard based on
      * {@link #metacardTypes} that is populated by the inner transformer and with the
      * content type set to {@link #CONTENT_TYPE}.
      *
      * @param id
-     * @param fileBackedOutputStream
+     * @param byteSource
      * @return metacard
      * @throws IOException
      * @throws CatalogTransformerException
      */
-    private MetacardImpl extractInnerTransformerMetadata(String id,
-            FileBackedOutputStream fileBackedOutputStream)
+    private MetacardImpl extractInnerTransformerMetadata(String id, ByteSource byteSource)
             throws IOException, CatalogTransformerException {
 
-        try (InputStream inputStream = fileBackedOutputStream.asByteSource()
-                .openStream()) {
+        try (InputStream inputStream = byteSource.openStream()) {
 
-            MetacardType metacardType = metacardTypes.stream()
-                    .findFirst()
-                    .orElseThrow(() -> new CatalogTransformerException(
-                            "no matching metacard type found! id = " + id));
+            MetacardType metacardType = getMetacardType(id);
 
             Metacard innerMetacard = innerTransformer.transform(inputStream, id);
 
@@ -177,27 +642,217 @@ public class MpegTsInputTransformer implements InputTransformer {
         }
     }
 
-    private void extractStanag4609Metadata(MetacardImpl metacard, FileBackedOutputStream fbos)
+    /**
+     * Probe the transport stream and return a metacard based on {@link #metacardTypes} with the
+     * video properties and the content type set to {@link #CONTENT_TYPE}.
+     *
+     * @param size the size of the input, or -1 if it is unknown
+     */
+    private MetacardImpl probeMetadata(String id, ByteSource byteSource, long size)
+            throws IOException, CatalogTransformerException {
+
+        MetacardImpl metacard = new MetacardImpl(getMetacardType(id));
+
+        if (id != null) {
+            metacard.setId(id);
+        }
+
+        metacard.setContentTypeName(CONTENT_TYPE);
+
+        TransportStreamProbe.Result result = transportStreamProbe.probe(byteSource, size);
+
+        List<Serializable> codecs = result.getPrograms()
+                .stream()
+                .flatMap(program -> program.getStreams()
+                        .stream())
+                .map(TransportStreamProbe.ElementaryStream::getCodec)
+                .distinct()
+                .collect(Collectors.toList());
+        if (!codecs.isEmpty()) {
+            metacard.setAttribute(new AttributeImpl(MEDIA_CODEC, codecs));
+        }
+
+        List<Serializable> programLayout = result.getPrograms()
+                .stream()
+                .map(TransportStreamProbe.Program::toString)
+                .collect(Collectors.toList());
+        if (!programLayout.isEmpty()) {
+            metacard.setAttribute(new AttributeImpl(MEDIA_PROGRAM_LAYOUT, programLayout));
+        }
+
+        TransportStreamProbe.ElementaryStream videoStream = result.getVideoStream();
+        if (videoStream != null) {
+            metacard.setAttribute(MEDIA_WIDTH,
+                    videoStream.getFormat()
+                            .getWidth());
+            metacard.setAttribute(MEDIA_HEIGHT,
+                    videoStream.getFormat()
+                            .getHeight());
+            if (videoStream.getFormat()
+                    .getFrameRate() > 0) {
+                metacard.setAttribute(MEDIA_FRAME_RATE,
+                        (float) videoStream.getFormat()
+                                .getFrameRate());
+            }
+        }
+
+        if (result.getDuration() > 0) {
+            metacard.setAttribute(MEDIA_DURATION, result.getDuration());
+            metacard.setAttribute(MEDIA_BIT_RATE, result.getBitRate());
+        }
+
+        LOGGER.debug("probed video input for id = {}: {}", id, result.getPrograms());
+
+        return metacard;
+    }
+
+    private MetacardType getMetacardType(String id) throws CatalogTransformerException {
+        return metacardTypes.stream()
+                .findFirst()
+                .orElseThrow(() -> new CatalogTransformerException(
+                        "no matching metacard type found! id = " + id));
+    }
+
+    /**
+     * Parse the STANAG 4609 metadata and pass each packet to the klv handlers as it is decoded.
+     * If {@link #klvTimeSeriesArtifacts} is set, then each packet is also added to a time series,
+     * which is registered under the id once the whole stream has been parsed.
+     *
+     * @return the klv handlers
+     */
+    private Map<String, KlvHandler> parseStanag4609Metadata(String id, ByteSource byteSource)
             throws CatalogTransformerException {
 
-        Stanag4609Parser stanag4609Parser = stanagParserFactory.createParser(fbos.asByteSource());
+        Map<String, KlvHandler> handlers = streamingSubsampleEnabled ?
+                klvHandlerFactory.createStanag4609Handlers(subsampleCount) :
+                klvHandlerFactory.createStanag4609Handlers();
+
+        if (locationCoverageMaxError > 0) {
+            LocationKlvProcessor.enableCoverage(handlers, locationCoverageMaxError);
+        }
+
+        Stanag4609Parser stanag4609Parser = samplingIntervalSeconds > 0 ?
+                stanagParserFactory.createParser(byteSource,
+                        stanag4609Processor.getElementNames(handlers),
+                        TimeUnit.SECONDS.toMillis(samplingIntervalSeconds)) :
+                stanagParserFactory.createParser(byteSource,
+                        stanag4609Processor.getElementNames(handlers));
+
+        KlvTimeSeriesWriter timeSeries = klvTimeSeriesArtifacts != null && id != null ?
+                new KlvTimeSeriesWriter() :
+                null;
 
-        Map<Integer, List<DecodedKLVMetadataPacket>> decodedMetadata;
+        boolean parsed = false;
         try {
-            decodedMetadata = stanag4609Parser.parse();
+            stanag4609Parser.parse((klvStreamPid, packet) -> {
+                stanag4609Processor.handle(handlers, defaultKlvHandler, packet);
+                if (timeSeries != null) {
+                    timeSeries.add(klvStreamPid, packet);
+                }
+            });
+            parsed = true;
         } catch (Stanag4609ParseException e) {
             throw new CatalogTransformerException("failed to extract STANAG 4609 metadata", e);
+        } finally {
+            if (timeSeries != null && !parsed) {
+                closeQuietly(timeSeries);
+            }
         }
 
-        Map<String, KlvHandler> handlers = klvHandlerFactory.createStanag4609Handlers();
+        if (timeSeries != null) {
+            klvTimeSeriesArtifacts.put(id, timeSeries);
+        }
 
-        stanag4609Processor.handle(handlers, defaultKlvHandler, decodedMetadata);
+        return handlers;
+    }
+
+    private void closeQuietly(KlvTimeSeriesWriter timeSeries) {
+        try {
+            timeSeries.close();
+        } catch (IOException e) {
+            LOGGER.debug("unable to close the klv time series", e);
+        }
+    }
+
+    /**
+     * @param klvAttributes if non-null, receives the attributes that the klv processors set or
+     *                      changed
+     */
+    private void processStanag4609Metadata(MetacardImpl metacard,
+            Map<String, KlvHandler> handlers, MetacardImpl klvAttributes) {
 
         KlvProcessor.Configuration klvProcessConfiguration = new KlvProcessor.Configuration();
         klvProcessConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, subsampleCount);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES,
+                compactionMaxValues);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.COMPACTION_GEOMETRY_TOLERANCE,
+                compactionGeometryTolerance);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.COMPACTION_NUMERIC_RANGES,
+                compactionNumericRangesEnabled);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.LOCATION_PRECISION_SCALE,
+                locationPrecisionScale);
+        klvProcessConfiguration.set(KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR,
+                locationCoverageMaxError);
+
+        if (klvAttributes == null) {
+            klvProcessor.process(handlers, metacard, klvProcessConfiguration);
+            return;
+        }
 
+        Map<String, List<Serializable>> before = getAttributeValues(metacard);
         klvProcessor.process(handlers, metacard, klvProcessConfiguration);
+        getAttributeValues(metacard).forEach((name, values) -> {
+            if (!values.equals(before.get(name))) {
+                klvAttributes.setAttribute(new AttributeImpl(name, values));
+            }
+        });
+    }
+
+    private Map<String, List<Serializable>> getAttributeValues(Metacard metacard) {
+        Map<String, List<Serializable>> values = new HashMap<>();
+        metacard.getMetacardType()
+                .getAttributeDescriptors()
+                .forEach(descriptor -> {
+                    Attribute attribute = metacard.getAttribute(descriptor.getName());
+                    if (attribute != null && attribute.getValues() != null) {
+                        values.put(descriptor.getName(), new ArrayList<>(attribute.getValues()));
+                    }
+                });
+        return values;
+    }
 
+    private interface Transformation {
+        /**
+         * @param klvAttributes receives the attributes set by the klv processors
+         */
+        MetacardImpl transform(MetacardImpl klvAttributes)
+                throws IOException, CatalogTransformerException;
+    }
+
+    /**
+     * Copies the input to the stream tee. A failure to read the input is reported the same way as
+     * a failure to copy the input to a file backed stream.
+     */
+    private static class TeeInput implements Callable<Long> {
+
+        private final StreamTee streamTee;
+
+        private final InputStream inputStream;
+
+        TeeInput(StreamTee streamTee, InputStream inputStream) {
+            this.streamTee = streamTee;
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public Long call() throws CatalogTransformerException, InterruptedException {
+            try {
+                return streamTee.pump(inputStream);
+            } catch (IOException e) {
+                throw new CatalogTransformerException("Could not copy bytes of content message.",
+                        e);
+            }
+        }
     }
 
 }
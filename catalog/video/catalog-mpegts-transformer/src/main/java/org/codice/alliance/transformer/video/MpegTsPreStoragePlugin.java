@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+
+import javax.activation.MimeType;
+import javax.activation.MimeTypeParseException;
+
+import org.apache.commons.io.FilenameUtils;
+import org.codice.alliance.libs.klv.AttributeNameConstants;
+import org.codice.alliance.libs.klv.KlvTimeSeriesWriter;
+import org.codice.alliance.libs.klv.Stanag4609ParseException;
+import org.codice.alliance.libs.klv.StanagParserFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.FileBackedOutputStream;
+
+import ddf.catalog.content.data.ContentItem;
+import ddf.catalog.content.data.impl.ContentItemImpl;
+import ddf.catalog.content.operation.CreateStorageRequest;
+import ddf.catalog.content.operation.UpdateStorageRequest;
+import ddf.catalog.content.plugin.PreCreateStoragePlugin;
+import ddf.catalog.content.plugin.PreUpdateStoragePlugin;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.AttributeImpl;
+import ddf.catalog.plugin.PluginExecutionException;
+
+/**
+ * This pre-storage plugin stores the KLV of an MPEG-TS product as a compact time series (see
+ * {@link KlvTimeSeriesWriter}) in the content store, next to the video. Consumers that need the
+ * KLV for a time range of the video can read the time series instead of parsing the transport
+ * stream again. Once the time series is stored, the metacard only keeps the summary attributes:
+ * the attributes in {@link #PER_PACKET_ATTRIBUTES} are removed.
+ * <p>
+ * The time series recorded by {@link MpegTsInputTransformer} is used if it is available (see
+ * {@link #setKlvTimeSeriesArtifacts(KlvTimeSeriesArtifacts)}); otherwise the transport stream is
+ * parsed.
+ */
+public class MpegTsPreStoragePlugin implements PreCreateStoragePlugin, PreUpdateStoragePlugin {
+
+    public static final String KLV_TIME_SERIES = "klv-timeseries";
+
+    /**
+     * Metacard attributes with a value for each (subsampled) klv packet, which the time series
+     * replaces.
+     */
+    static final List<String> PER_PACKET_ATTRIBUTES =
+            Collections.singletonList(AttributeNameConstants.FRAME_CENTER);
+
+    private static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
+
+    private static final String KLV_TIME_SERIES_EXTENSION = "klvts";
+
+    private static final String KLV_TIME_SERIES_FILENAME_PATTERN = "%s-%s.%s";
+
+    private static final int KLV_TIME_SERIES_FILE_THRESHOLD = 1000000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MpegTsPreStoragePlugin.class);
+
+    private final StanagParserFactory stanagParserFactory;
+
+    private KlvTimeSeriesArtifacts klvTimeSeriesArtifacts;
+
+    /**
+     * @param stanagParserFactory must be non-null
+     */
+    public MpegTsPreStoragePlugin(StanagParserFactory stanagParserFactory) {
+        notNull(stanagParserFactory, "stanagParserFactory must be non-null");
+        this.stanagParserFactory = stanagParserFactory;
+    }
+
+    /**
+     * @param klvTimeSeriesArtifacts if set, the time series recorded by
+     *                               {@link MpegTsInputTransformer} are used
+     */
+    public void setKlvTimeSeriesArtifacts(KlvTimeSeriesArtifacts klvTimeSeriesArtifacts) {
+        this.klvTimeSeriesArtifacts = klvTimeSeriesArtifacts;
+    }
+
+    @Override
+    public CreateStorageRequest process(CreateStorageRequest createStorageRequest)
+            throws PluginExecutionException {
+        if (createStorageRequest == null) {
+            throw new PluginExecutionException(
+                    "process(): argument 'createStorageRequest' may not be null.");
+        }
+
+        process(createStorageRequest.getContentItems());
+        return createStorageRequest;
+    }
+
+    @Override
+    public UpdateStorageRequest process(UpdateStorageRequest updateStorageRequest)
+            throws PluginExecutionException {
+        if (updateStorageRequest == null) {
+            throw new PluginExecutionException(
+                    "process(): argument 'updateStorageRequest' may not be null.");
+        }
+
+        process(updateStorageRequest.getContentItems());
+        return updateStorageRequest;
+    }
+
+    private boolean isMpegTsMimeType(String rawMimeType) {
+        if (rawMimeType == null) {
+            return false;
+        }
+        try {
+            return new MimeType(MpegTsInputTransformer.CONTENT_TYPE).match(rawMimeType);
+        } catch (MimeTypeParseException e) {
+            LOGGER.warn("unable to compare mime types: {} vs {}",
+                    MpegTsInputTransformer.CONTENT_TYPE,
+                    rawMimeType);
+        }
+        return false;
+    }
+
+    private void process(List<ContentItem> contentItems) {
+        List<ContentItem> newContentItems = new LinkedList<>();
+        contentItems.forEach(contentItem -> process(contentItem).ifPresent(newContentItems::add));
+        contentItems.addAll(newContentItems);
+    }
+
+    private Optional<ContentItem> process(ContentItem contentItem) {
+        if (!isMpegTsMimeType(contentItem.getMimeTypeRawData())
+                || contentItem.getQualifier() != null) {
+            LOGGER.debug("skipping content item: filename={} mimeType={}",
+                    contentItem.getFilename(),
+                    contentItem.getMimeTypeRawData());
+            return Optional.empty();
+        }
+
+        Optional<KlvTimeSeriesWriter> recorded = getRecordedTimeSeries(contentItem);
+
+        try (KlvTimeSeriesWriter writer = recorded.orElseGet(KlvTimeSeriesWriter::new)) {
+            if (!recorded.isPresent()) {
+                createTimeSeries(contentItem, writer);
+            }
+
+            if (writer.getRowCount() > 0) {
+                ContentItem timeSeriesContentItem = createTimeSeriesContentItem(contentItem,
+                        writer);
+                removePerPacketAttributes(contentItem.getMetacard());
+                return Optional.of(timeSeriesContentItem);
+            }
+        } catch (Stanag4609ParseException | IOException | RuntimeException e) {
+            LOGGER.debug("unable to create the klv time series: filename={}",
+                    contentItem.getFilename(),
+                    e);
+        }
+
+        return Optional.empty();
+    }
+
+    private Optional<KlvTimeSeriesWriter> getRecordedTimeSeries(ContentItem contentItem) {
+        Metacard metacard = contentItem.getMetacard();
+        if (klvTimeSeriesArtifacts == null || metacard == null) {
+            return Optional.empty();
+        }
+        Optional<KlvTimeSeriesWriter> recorded = klvTimeSeriesArtifacts.remove(metacard.getId());
+        LOGGER.debug("using the klv time series recorded by the transformer: {}",
+                recorded.isPresent());
+        return recorded;
+    }
+
+    private void removePerPacketAttributes(Metacard metacard) {
+        PER_PACKET_ATTRIBUTES.forEach(name -> metacard.setAttribute(new AttributeImpl(name,
+                (Serializable) null)));
+    }
+
+    /**
+     * Add each packet to the time series as it is decoded, so the decoded packets are not kept.
+     */
+    private void createTimeSeries(ContentItem contentItem, KlvTimeSeriesWriter writer)
+            throws Stanag4609ParseException {
+        ByteSource byteSource = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return contentItem.getInputStream();
+            }
+        };
+
+        stanagParserFactory.createParser(byteSource)
+                .parse(writer::add);
+    }
+
+    /**
+     * Write the time series to a file backed stream, which deletes its temporary file (if any)
+     * once the content item is no longer referenced.
+     */
+    private ContentItem createTimeSeriesContentItem(ContentItem contentItem,
+            KlvTimeSeriesWriter writer) throws IOException {
+        Metacard metacard = contentItem.getMetacard();
+
+        FileBackedOutputStream timeSeriesOutputStream = new FileBackedOutputStream(
+                KLV_TIME_SERIES_FILE_THRESHOLD,
+                true);
+        ByteSource timeSeries = timeSeriesOutputStream.asByteSource();
+        try {
+            writer.writeTo(timeSeriesOutputStream);
+            timeSeriesOutputStream.close();
+        } catch (IOException e) {
+            timeSeriesOutputStream.reset();
+            throw e;
+        }
+
+        ContentItem timeSeriesContentItem = new ContentItemImpl(contentItem.getId(),
+                KLV_TIME_SERIES,
+                timeSeries,
+                APPLICATION_OCTET_STREAM,
+                buildTimeSeriesTitle(metacard.getTitle()),
+                timeSeries.size(),
+                metacard);
+
+        metacard.setAttribute(new AttributeImpl(Metacard.DERIVED_RESOURCE_URI,
+                timeSeriesContentItem.getUri()));
+
+        return timeSeriesContentItem;
+    }
+
+    private String buildTimeSeriesTitle(String title) {
+        String rootFileName = FilenameUtils.getBaseName(title);
+        return String.format(KLV_TIME_SERIES_FILENAME_PATTERN,
+                KLV_TIME_SERIES,
+                rootFileName,
+                KLV_TIME_SERIES_EXTENSION);
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * Copies one input stream to several branches that are read concurrently (eg. by the inner
+ * transformer and by the STANAG 4609 parser), so the input is read once and is not spilled to
+ * disk. Each chunk that is read from the input is shared by all branches, and each branch buffers
+ * at most a fixed number of chunks, so a slow branch holds back the input instead of letting the
+ * buffers grow. A branch that is closed before the end of the input (eg. a reader that only needs
+ * the beginning of the stream) stops receiving chunks and no longer holds back the others.
+ */
+class StreamTee {
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final int chunkSize;
+
+    private final List<Branch> branches;
+
+    private volatile boolean aborted;
+
+    /**
+     * @param branchCount       number of branches
+     * @param chunkSize         number of bytes read from the input at a time
+     * @param maxBufferedChunks maximum number of chunks buffered by each branch
+     */
+    StreamTee(int branchCount, int chunkSize, int maxBufferedChunks) {
+        this.chunkSize = chunkSize;
+        List<Branch> branchList = new ArrayList<>(branchCount);
+        for (int i = 0; i < branchCount; i++) {
+            branchList.add(new Branch(maxBufferedChunks));
+        }
+        this.branches = Collections.unmodifiableList(branchList);
+    }
+
+    /**
+     * Each branch can be opened once.
+     *
+     * @param index index of the branch
+     * @return byte source of the branch
+     */
+    ByteSource getBranch(int index) {
+        Branch branch = branches.get(index);
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                return branch.open();
+            }
+        };
+    }
+
+    /**
+     * Stop copying to a branch, whether or not it was opened. This must be called once the reader
+     * of a branch is done with it, so that a branch that was never read does not hold back the
+     * input.
+     *
+     * @param index index of the branch
+     */
+    void closeBranch(int index) {
+        branches.get(index)
+                .close();
+    }
+
+    /**
+     * Read the input to the end and copy it to the branches. If the input cannot be read, then
+     * the branches fail with the same exception. Reading stops early if the tee is aborted or if
+     * every branch is closed.
+     *
+     * @param inputStream the input
+     * @return number of bytes copied
+     * @throws IOException          if the input cannot be read
+     * @throws InterruptedException if interrupted while waiting for a branch
+     */
+    long pump(InputStream inputStream) throws IOException, InterruptedException {
+        long count = 0;
+        try {
+            while (!aborted && !isEveryBranchClosed()) {
+                byte[] bytes = new byte[chunkSize];
+                int length = inputStream.read(bytes);
+                if (length < 0) {
+                    break;
+                }
+                if (length > 0) {
+                    Chunk chunk = new Chunk(bytes, length, null);
+                    for (Branch branch : branches) {
+                        branch.offer(chunk);
+                    }
+                    count += length;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            throw e;
+        }
+
+        if (!aborted) {
+            for (Branch branch : branches) {
+                branch.offer(Chunk.END);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stop every branch: readers of the branches get an {@link IOException} and {@link #pump}
+     * stops offering chunks.
+     *
+     * @param cause the reason
+     */
+    void abort(Exception cause) {
+        aborted = true;
+        Chunk error = new Chunk(new byte[0], -1, cause);
+        for (Branch branch : branches) {
+            branch.abort(error);
+        }
+    }
+
+    private boolean isEveryBranchClosed() {
+        return branches.stream()
+                .allMatch(branch -> branch.closed);
+    }
+
+    private static class Chunk {
+
+        private static final Chunk END = new Chunk(new byte[0], -1, null);
+
+        private final byte[] bytes;
+
+        private final int length;
+
+        private final Exception error;
+
+        Chunk(byte[] bytes, int length, Exception error) {
+            this.bytes = bytes;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    private static class Branch extends InputStream {
+
+        private final BlockingQueue<Chunk> chunks;
+
+        private volatile boolean opened;
+
+        private volatile boolean closed;
+
+        private volatile Chunk failure;
+
+        private Chunk current;
+
+        private int position;
+
+        Branch(int maxBufferedChunks) {
+            this.chunks = new ArrayBlockingQueue<>(maxBufferedChunks);
+        }
+
+        synchronized InputStream open() throws IOException {
+            if (opened) {
+                throw new IOException("the branch of the stream tee has already been opened");
+            }
+            opened = true;
+            return this;
+        }
+
+        void offer(Chunk chunk) throws InterruptedException {
+            while (!closed && failure == null) {
+                if (chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        void abort(Chunk error) {
+            failure = error;
+            chunks.clear();
+            chunks.offer(error);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current.bytes, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+        }
+
+        /**
+         * @return false at the end of the stream
+         */
+        private boolean nextChunk() throws IOException {
+            while (current == null || (current != Chunk.END && position == current.length)) {
+                if (closed) {
+                    throw new IOException("the branch of the stream tee is closed");
+                }
+                if (failure != null) {
+                    current = failure;
+                } else {
+                    try {
+                        current = chunks.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread()
+                                .interrupt();
+                        throw new IOException("interrupted while reading the stream tee", e);
+                    }
+                }
+                position = 0;
+                if (current.error != null) {
+                    throw new IOException("unable to read the input of the stream tee",
+                            current.error);
+                }
+            }
+            return current != Chunk.END;
+        }
+    }
+}
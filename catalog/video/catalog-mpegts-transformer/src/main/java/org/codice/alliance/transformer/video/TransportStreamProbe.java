@@ -0,0 +1,554 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Derives the basic properties of an MPEG-2 transport stream (codecs, picture size, frame rate,
+ * duration, bit rate and program layout) without decoding it. Only the PAT and PMTs, the first
+ * video parameter set of each video stream and the PCR and PTS values near the start and the end
+ * of the stream are read. If the size of the stream is known, then the start and the end of the
+ * stream are read and everything in between is skipped. Otherwise the packet headers of the whole
+ * stream are scanned.
+ */
+class TransportStreamProbe {
+
+    private static final int TS_PACKET_SIZE = 188;
+
+    private static final int SYNC_BYTE = 0x47;
+
+    private static final int PAT_PID = 0;
+
+    private static final int NULL_PID = 0x1FFF;
+
+    private static final long DEFAULT_HEAD_SIZE = 16 * 1024 * 1024;
+
+    private static final long DEFAULT_TAIL_SIZE = 4 * 1024 * 1024;
+
+    private static final int BUFFER_PACKETS = 1024;
+
+    /**
+     * Maximum number of bytes of a video stream that are searched for its parameter set.
+     */
+    private static final int MAX_PARAMETER_SET_SEARCH = 8 * 1024;
+
+    private static final double PCR_CLOCK_RATE = 27000000.0;
+
+    private static final double PTS_CLOCK_RATE = 90000.0;
+
+    private static final long PTS_WRAP = 1L << 33;
+
+    private static final long PCR_WRAP = PTS_WRAP * 300;
+
+    private static final Map<Integer, String> CODECS;
+
+    static {
+        Map<Integer, String> codecs = new LinkedHashMap<>();
+        codecs.put(0x01, "MPEG-1 Video");
+        codecs.put(0x02, "MPEG-2 Video");
+        codecs.put(0x03, "MPEG-1 Audio");
+        codecs.put(0x04, "MPEG-2 Audio");
+        codecs.put(0x06, "Private Data");
+        codecs.put(0x0F, "AAC");
+        codecs.put(0x10, "MPEG-4 Visual");
+        codecs.put(0x11, "AAC LATM");
+        codecs.put(0x15, "KLV Metadata");
+        codecs.put(0x1B, "H.264");
+        codecs.put(0x24, "H.265");
+        codecs.put(0x81, "AC-3");
+        CODECS = Collections.unmodifiableMap(codecs);
+    }
+
+    private long headSize = DEFAULT_HEAD_SIZE;
+
+    private long tailSize = DEFAULT_TAIL_SIZE;
+
+    /**
+     * @param headSize maximum number of bytes read from the start of the stream
+     * @param tailSize number of bytes read from the end of the stream
+     */
+    void setWindowSizes(long headSize, long tailSize) {
+        this.headSize = headSize;
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * @param byteSource the transport stream
+     * @param size       the size of the stream, or -1 if it is unknown and the stream can only be
+     *                   read from start to end
+     */
+    Result probe(ByteSource byteSource, long size) throws IOException {
+        Scan scan = new Scan();
+
+        if (size < 0) {
+            try (InputStream inputStream = byteSource.openStream()) {
+                return scan.result(scan.read(inputStream, false));
+            }
+        }
+
+        long headEnd;
+        try (InputStream inputStream = byteSource.slice(0, headSize)
+                .openStream()) {
+            headEnd = scan.read(inputStream, true);
+        }
+
+        long tailStart = Math.max(headEnd, size - tailSize);
+        if (tailStart < size) {
+            scan.resync();
+            try (InputStream inputStream = byteSource.slice(tailStart, size - tailStart)
+                    .openStream()) {
+                scan.read(inputStream, false);
+            }
+        }
+
+        return scan.result(size);
+    }
+
+    private static int getPid(byte[] bytes, int offset) {
+        return ((bytes[offset + 1] & 0x1F) << 8) | (bytes[offset + 2] & 0xFF);
+    }
+
+    private static boolean isPayloadUnitStart(byte[] bytes, int offset) {
+        return (bytes[offset + 1] & 0x40) != 0;
+    }
+
+    /**
+     * @return the offset of the payload, or -1 if the packet does not have a payload
+     */
+    private static int getPayloadOffset(byte[] bytes, int offset) {
+        int adaptationFieldControl = (bytes[offset + 3] >> 4) & 0x3;
+        if ((adaptationFieldControl & 0x1) == 0) {
+            return -1;
+        }
+        int payloadOffset = offset + 4;
+        if ((adaptationFieldControl & 0x2) != 0) {
+            payloadOffset += 1 + (bytes[offset + 4] & 0xFF);
+        }
+        return payloadOffset < offset + TS_PACKET_SIZE ? payloadOffset : -1;
+    }
+
+    /**
+     * @return the PCR in 27 MHz ticks, or -1 if the packet does not carry one
+     */
+    private static long getPcr(byte[] bytes, int offset) {
+        int adaptationFieldControl = (bytes[offset + 3] >> 4) & 0x3;
+        if ((adaptationFieldControl & 0x2) == 0 || (bytes[offset + 4] & 0xFF) < 7
+                || (bytes[offset + 5] & 0x10) == 0) {
+            return -1;
+        }
+        long base = ((bytes[offset + 6] & 0xFFL) << 25) | ((bytes[offset + 7] & 0xFFL) << 17) | (
+                (bytes[offset + 8] & 0xFFL) << 9) | ((bytes[offset + 9] & 0xFFL) << 1) | (
+                (bytes[offset + 10] & 0xFFL) >> 7);
+        long extension = ((bytes[offset + 10] & 0x1L) << 8) | (bytes[offset + 11] & 0xFFL);
+        return base * 300 + extension;
+    }
+
+    /**
+     * @param offset the offset of a PES packet header
+     * @return the PTS in 90 kHz ticks, or -1 if the header does not carry one
+     */
+    private static long getPts(byte[] bytes, int offset, int end) {
+        if (offset + 14 > end || bytes[offset] != 0 || bytes[offset + 1] != 0
+                || bytes[offset + 2] != 1 || (bytes[offset + 7] & 0x80) == 0) {
+            return -1;
+        }
+        return ((bytes[offset + 9] & 0x0EL) << 29) | ((bytes[offset + 10] & 0xFFL) << 22) | (
+                (bytes[offset + 11] & 0xFEL) << 14) | ((bytes[offset + 12] & 0xFFL) << 7) | (
+                (bytes[offset + 13] & 0xFEL) >> 1);
+    }
+
+    private static boolean isVideo(int streamType) {
+        return streamType == 0x01 || streamType == 0x02 || streamType == 0x1B;
+    }
+
+    /**
+     * The state of one probe. The PCR values are taken from the PCR PID of the first program and
+     * the PTS values from its first video stream (or its first stream if it has no video).
+     */
+    private static class Scan {
+
+        private final Map<Integer, Integer> programs = new LinkedHashMap<>();
+
+        private final Map<Integer, Program> programsByPmtPid = new LinkedHashMap<>();
+
+        private final Map<Integer, ElementaryStream> streams = new LinkedHashMap<>();
+
+        private boolean inSync;
+
+        private long firstPcr = -1;
+
+        private long lastPcr = -1;
+
+        private long firstPts = -1;
+
+        private long lastPts = -1;
+
+        private int pcrPid = -1;
+
+        private int ptsPid = -1;
+
+        /**
+         * @param stopWhenComplete stop once everything that is read from the start of a stream
+         *                         has been found
+         * @return the number of bytes read
+         */
+        long read(InputStream inputStream, boolean stopWhenComplete) throws IOException {
+            byte[] buffer = new byte[BUFFER_PACKETS * TS_PACKET_SIZE];
+            long position = 0;
+            int end = 0;
+            int count;
+            while ((count = ByteStreams.read(inputStream, buffer, end, buffer.length - end)) > 0) {
+                end += count;
+                position += count;
+                int offset = 0;
+                while (offset + TS_PACKET_SIZE <= end) {
+                    if (!isSynchronized(buffer, offset, end)) {
+                        offset++;
+                        continue;
+                    }
+                    inSync = true;
+                    process(buffer, offset);
+                    offset += TS_PACKET_SIZE;
+                    if (stopWhenComplete && isHeadComplete()) {
+                        return position - end + offset;
+                    }
+                }
+                System.arraycopy(buffer, offset, buffer, 0, end - offset);
+                end -= offset;
+            }
+            return position;
+        }
+
+        /**
+         * Called before reading a part of the stream that does not follow the bytes read so far.
+         */
+        void resync() {
+            inSync = false;
+        }
+
+        /**
+         * Until the scan is locked onto the packet boundaries, the sync byte of the next packet
+         * has to be present as well, so that a stray sync byte is not taken for a packet start.
+         */
+        private boolean isSynchronized(byte[] buffer, int offset, int end) {
+            if (buffer[offset] != SYNC_BYTE) {
+                inSync = false;
+                return false;
+            }
+            return inSync || (offset + 2 * TS_PACKET_SIZE <= end
+                    && buffer[offset + TS_PACKET_SIZE] == SYNC_BYTE);
+        }
+
+        private boolean isHeadComplete() {
+            if (programs.isEmpty() || programsByPmtPid.size() < programs.size()) {
+                return false;
+            }
+            for (ElementaryStream stream : streams.values()) {
+                if (stream.isSearching()) {
+                    return false;
+                }
+            }
+            return firstPcr >= 0 && (firstPts >= 0 || ptsPid < 0);
+        }
+
+        private void process(byte[] bytes, int offset) {
+            int pid = getPid(bytes, offset);
+            if (pid == NULL_PID) {
+                return;
+            }
+
+            if (pid == pcrPid) {
+                long pcr = getPcr(bytes, offset);
+                if (pcr >= 0) {
+                    firstPcr = firstPcr < 0 ? pcr : firstPcr;
+                    lastPcr = pcr;
+                }
+            }
+
+            int payloadOffset = getPayloadOffset(bytes, offset);
+            if (payloadOffset < 0) {
+                return;
+            }
+            int end = offset + TS_PACKET_SIZE;
+            boolean payloadUnitStart = isPayloadUnitStart(bytes, offset);
+
+            if (pid == PAT_PID && payloadUnitStart && programs.isEmpty()) {
+                readPat(bytes, payloadOffset, end);
+            } else if (programs.containsValue(pid) && payloadUnitStart
+                    && !programsByPmtPid.containsKey(pid)) {
+                readPmt(pid, bytes, payloadOffset, end);
+            } else {
+                ElementaryStream stream = streams.get(pid);
+                if (stream == null) {
+                    return;
+                }
+                if (payloadUnitStart && pid == ptsPid) {
+                    long pts = getPts(bytes, payloadOffset, end);
+                    if (pts >= 0) {
+                        firstPts = firstPts < 0 ? pts : firstPts;
+                        lastPts = pts;
+                    }
+                }
+                if (stream.isSearching()) {
+                    stream.search(bytes, payloadOffset, end, payloadUnitStart);
+                }
+            }
+        }
+
+        private void readPat(byte[] bytes, int payloadOffset, int end) {
+            int section = payloadOffset + 1 + (bytes[payloadOffset] & 0xFF);
+            if (section + 8 > end || bytes[section] != 0) {
+                return;
+            }
+            int sectionEnd = Math.min(end, section + 3 + getSectionLength(bytes, section) - 4);
+            for (int i = section + 8; i + 4 <= sectionEnd; i += 4) {
+                int programNumber = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+                int pmtPid = ((bytes[i + 2] & 0x1F) << 8) | (bytes[i + 3] & 0xFF);
+                if (programNumber != 0) {
+                    programs.put(programNumber, pmtPid);
+                }
+            }
+        }
+
+        private void readPmt(int pmtPid, byte[] bytes, int payloadOffset, int end) {
+            int section = payloadOffset + 1 + (bytes[payloadOffset] & 0xFF);
+            if (section + 12 > end || bytes[section] != 2) {
+                return;
+            }
+            int sectionEnd = Math.min(end, section + 3 + getSectionLength(bytes, section) - 4);
+            int programNumber = ((bytes[section + 3] & 0xFF) << 8) | (bytes[section + 4] & 0xFF);
+            int programPcrPid = ((bytes[section + 8] & 0x1F) << 8) | (bytes[section + 9] & 0xFF);
+            int programInfoLength =
+                    ((bytes[section + 10] & 0x0F) << 8) | (bytes[section + 11] & 0xFF);
+
+            Program program = new Program(programNumber, pmtPid, programPcrPid);
+            for (int i = section + 12 + programInfoLength; i + 5 <= sectionEnd; ) {
+                int streamType = bytes[i] & 0xFF;
+                int pid = ((bytes[i + 1] & 0x1F) << 8) | (bytes[i + 2] & 0xFF);
+                int infoLength = ((bytes[i + 3] & 0x0F) << 8) | (bytes[i + 4] & 0xFF);
+                ElementaryStream stream = new ElementaryStream(pid, streamType);
+                program.streams.add(stream);
+                streams.putIfAbsent(pid, stream);
+                i += 5 + infoLength;
+            }
+            programsByPmtPid.put(pmtPid, program);
+
+            if (pcrPid < 0) {
+                pcrPid = programPcrPid;
+                ptsPid = program.streams.stream()
+                        .filter(stream -> isVideo(stream.streamType))
+                        .findFirst()
+                        .map(ElementaryStream::getPid)
+                        .orElse(program.streams.isEmpty() ? -1 : program.streams.get(0).pid);
+            }
+        }
+
+        private static int getSectionLength(byte[] bytes, int section) {
+            return ((bytes[section + 1] & 0x0F) << 8) | (bytes[section + 2] & 0xFF);
+        }
+
+        Result result(long size) {
+            double duration = -1;
+            if (firstPcr >= 0 && lastPcr != firstPcr) {
+                duration = Math.floorMod(lastPcr - firstPcr, PCR_WRAP) / PCR_CLOCK_RATE;
+            } else if (firstPts >= 0 && lastPts != firstPts) {
+                duration = Math.floorMod(lastPts - firstPts, PTS_WRAP) / PTS_CLOCK_RATE;
+            }
+            return new Result(new ArrayList<>(programsByPmtPid.values()), duration, size);
+        }
+    }
+
+    static class Result {
+
+        private final List<Program> programs;
+
+        private final double duration;
+
+        private final long size;
+
+        Result(List<Program> programs, double duration, long size) {
+            this.programs = Collections.unmodifiableList(programs);
+            this.duration = duration;
+            this.size = size;
+        }
+
+        List<Program> getPrograms() {
+            return programs;
+        }
+
+        /**
+         * @return the duration in seconds, or -1 if it is unknown
+         */
+        double getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the average bit rate in bits per second, or -1 if it is unknown
+         */
+        double getBitRate() {
+            return duration > 0 ? size * 8 / duration : -1;
+        }
+
+        /**
+         * @return the first video stream with a known format, or null
+         */
+        ElementaryStream getVideoStream() {
+            return programs.stream()
+                    .flatMap(program -> program.getStreams()
+                            .stream())
+                    .filter(stream -> stream.getFormat() != null)
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    static class Program {
+
+        private final int programNumber;
+
+        private final int pmtPid;
+
+        private final int pcrPid;
+
+        private final List<ElementaryStream> streams = new ArrayList<>();
+
+        Program(int programNumber, int pmtPid, int pcrPid) {
+            this.programNumber = programNumber;
+            this.pmtPid = pmtPid;
+            this.pcrPid = pcrPid;
+        }
+
+        int getProgramNumber() {
+            return programNumber;
+        }
+
+        int getPmtPid() {
+            return pmtPid;
+        }
+
+        int getPcrPid() {
+            return pcrPid;
+        }
+
+        List<ElementaryStream> getStreams() {
+            return Collections.unmodifiableList(streams);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(
+                    "program %d (pmt pid 0x%x, pcr pid 0x%x):",
+                    programNumber,
+                    pmtPid,
+                    pcrPid));
+            streams.forEach(stream -> builder.append(' ')
+                    .append(stream));
+            return builder.toString();
+        }
+    }
+
+    static class ElementaryStream {
+
+        private final int pid;
+
+        private final int streamType;
+
+        private VideoParameterSets.VideoFormat format;
+
+        private byte[] searchBuffer;
+
+        private int searchLength;
+
+        ElementaryStream(int pid, int streamType) {
+            this.pid = pid;
+            this.streamType = streamType;
+            if (isVideo(streamType)) {
+                searchBuffer = new byte[MAX_PARAMETER_SET_SEARCH];
+            }
+        }
+
+        int getPid() {
+            return pid;
+        }
+
+        int getStreamType() {
+            return streamType;
+        }
+
+        String getCodec() {
+            return CODECS.getOrDefault(streamType, String.format("0x%02x", streamType));
+        }
+
+        /**
+         * @return the video format, or null if this is not a video stream or the parameter set
+         * was not found
+         */
+        VideoParameterSets.VideoFormat getFormat() {
+            return format;
+        }
+
+        private boolean isSearching() {
+            return searchBuffer != null;
+        }
+
+        /**
+         * Append the elementary stream bytes of a packet to the search buffer, starting with the
+         * first PES packet, and look for the parameter set. The search ends once the parameter set
+         * is found or the buffer is full.
+         */
+        private void search(byte[] bytes, int payloadOffset, int end, boolean payloadUnitStart) {
+            int start = payloadOffset;
+            if (payloadUnitStart) {
+                if (payloadOffset + 9 > end) {
+                    return;
+                }
+                start = payloadOffset + 9 + (bytes[payloadOffset + 8] & 0xFF);
+            } else if (searchLength == 0) {
+                return;
+            }
+
+            int length = Math.min(end - start, searchBuffer.length - searchLength);
+            if (length <= 0) {
+                searchBuffer = null;
+                return;
+            }
+            System.arraycopy(bytes, start, searchBuffer, searchLength, length);
+            searchLength += length;
+
+            format = streamType == 0x1B ?
+                    VideoParameterSets.findH264Format(searchBuffer, searchLength) :
+                    VideoParameterSets.findMpeg2Format(searchBuffer, searchLength);
+
+            if (format != null || searchLength == searchBuffer.length) {
+                searchBuffer = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("0x%x %s", pid, getCodec());
+        }
+    }
+}
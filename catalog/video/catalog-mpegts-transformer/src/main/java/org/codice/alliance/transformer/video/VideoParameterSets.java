@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+/**
+ * Reads the picture size and frame rate from the parameter sets of a video elementary stream: the
+ * sequence parameter set of H.264 (ITU-T H.264 7.3.2.1.1 and E.1.1) and the sequence header of
+ * MPEG-1 and MPEG-2 video (ISO/IEC 13818-2 6.2.2.1). Only the fields that are needed are read.
+ */
+final class VideoParameterSets {
+
+    private static final int H264_SPS_NAL_TYPE = 7;
+
+    private static final int MPEG2_SEQUENCE_HEADER_CODE = 0xB3;
+
+    private static final int EXTENDED_SAR = 255;
+
+    private static final double[] MPEG2_FRAME_RATES =
+            {0, 24000.0 / 1001, 24, 25, 30000.0 / 1001, 30, 50, 60000.0 / 1001, 60};
+
+    private VideoParameterSets() {
+    }
+
+    /**
+     * Find and read the first H.264 sequence parameter set in Annex B formatted bytes.
+     *
+     * @return the video format, or null if the bytes do not contain a complete SPS that is
+     * followed by another NAL unit
+     */
+    static VideoFormat findH264Format(byte[] bytes, int length) {
+        int start = findStartCode(bytes, 0, length);
+        while (start >= 0) {
+            int end = findStartCode(bytes, start, length);
+            if ((bytes[start] & 0x1F) == H264_SPS_NAL_TYPE) {
+                // the SPS is complete once the start code of the next NAL unit is found
+                return end < 0 ? null : readH264Sps(bytes, start + 1, end - 3);
+            }
+            start = end;
+        }
+        return null;
+    }
+
+    /**
+     * Find and read the first MPEG-1/MPEG-2 sequence header.
+     *
+     * @return the video format, or null if the bytes do not contain a sequence header
+     */
+    static VideoFormat findMpeg2Format(byte[] bytes, int length) {
+        int start = findStartCode(bytes, 0, length);
+        while (start >= 0) {
+            if ((bytes[start] & 0xFF) == MPEG2_SEQUENCE_HEADER_CODE && start + 5 <= length) {
+                int width = ((bytes[start + 1] & 0xFF) << 4) | ((bytes[start + 2] & 0xF0) >> 4);
+                int height = ((bytes[start + 2] & 0x0F) << 8) | (bytes[start + 3] & 0xFF);
+                int frameRateCode = bytes[start + 4] & 0x0F;
+                double frameRate =
+                        frameRateCode < MPEG2_FRAME_RATES.length ? MPEG2_FRAME_RATES[frameRateCode]
+                                : 0;
+                return new VideoFormat(width, height, frameRate);
+            }
+            start = findStartCode(bytes, start, length);
+        }
+        return null;
+    }
+
+    /**
+     * @return the offset of the byte after the next 00 00 01 start code at or after offset, or -1
+     */
+    private static int findStartCode(byte[] bytes, int offset, int length) {
+        for (int i = offset; i + 3 <= length; i++) {
+            if (bytes[i] == 0 && bytes[i + 1] == 0 && bytes[i + 2] == 1) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param offset the offset of the first byte after the NAL unit header
+     * @param end    the offset after the last byte of the NAL unit
+     */
+    private static VideoFormat readH264Sps(byte[] bytes, int offset, int end) {
+        BitReader reader = new BitReader(bytes, offset, end);
+        try {
+            int profileIdc = reader.readBits(8);
+            reader.readBits(16);
+            reader.readUnsignedExpGolomb();
+
+            int chromaFormatIdc = 1;
+            if (isHighProfile(profileIdc)) {
+                chromaFormatIdc = reader.readUnsignedExpGolomb();
+                if (chromaFormatIdc == 3) {
+                    reader.readBits(1);
+                }
+                reader.readUnsignedExpGolomb();
+                reader.readUnsignedExpGolomb();
+                reader.readBits(1);
+                if (reader.readBits(1) == 1) {
+                    skipScalingLists(reader, chromaFormatIdc != 3 ? 8 : 12);
+                }
+            }
+
+            reader.readUnsignedExpGolomb();
+            int picOrderCntType = reader.readUnsignedExpGolomb();
+            if (picOrderCntType == 0) {
+                reader.readUnsignedExpGolomb();
+            } else if (picOrderCntType == 1) {
+                reader.readBits(1);
+                reader.readSignedExpGolomb();
+                reader.readSignedExpGolomb();
+                int cycleLength = reader.readUnsignedExpGolomb();
+                for (int i = 0; i < cycleLength; i++) {
+                    reader.readSignedExpGolomb();
+                }
+            }
+
+            reader.readUnsignedExpGolomb();
+            reader.readBits(1);
+            int widthInMbs = reader.readUnsignedExpGolomb() + 1;
+            int heightInMapUnits = reader.readUnsignedExpGolomb() + 1;
+            int frameMbsOnly = reader.readBits(1);
+            if (frameMbsOnly == 0) {
+                reader.readBits(1);
+            }
+            reader.readBits(1);
+
+            int cropLeft = 0;
+            int cropRight = 0;
+            int cropTop = 0;
+            int cropBottom = 0;
+            if (reader.readBits(1) == 1) {
+                cropLeft = reader.readUnsignedExpGolomb();
+                cropRight = reader.readUnsignedExpGolomb();
+                cropTop = reader.readUnsignedExpGolomb();
+                cropBottom = reader.readUnsignedExpGolomb();
+            }
+
+            int cropUnitX = chromaFormatIdc == 0 || chromaFormatIdc == 3 ? 1 : 2;
+            int cropUnitY = (chromaFormatIdc == 1 ? 2 : 1) * (2 - frameMbsOnly);
+            int width = widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+            int height = (2 - frameMbsOnly) * heightInMapUnits * 16 - cropUnitY * (cropTop
+                    + cropBottom);
+
+            return new VideoFormat(width, height, readFrameRate(reader));
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the frame rate from the VUI timing information, or 0 if it is not present
+     */
+    private static double readFrameRate(BitReader reader) {
+        if (!reader.hasMoreBits() || reader.readBits(1) == 0) {
+            return 0;
+        }
+        if (reader.readBits(1) == 1 && reader.readBits(8) == EXTENDED_SAR) {
+            reader.readBits(16);
+            reader.readBits(16);
+        }
+        if (reader.readBits(1) == 1) {
+            reader.readBits(1);
+        }
+        if (reader.readBits(1) == 1) {
+            reader.readBits(4);
+            if (reader.readBits(1) == 1) {
+                reader.readBits(24);
+            }
+        }
+        if (reader.readBits(1) == 1) {
+            reader.readUnsignedExpGolomb();
+            reader.readUnsignedExpGolomb();
+        }
+        if (reader.readBits(1) == 0) {
+            return 0;
+        }
+        long numUnitsInTick = reader.readLongBits(32);
+        long timeScale = reader.readLongBits(32);
+        return numUnitsInTick == 0 ? 0 : timeScale / (2.0 * numUnitsInTick);
+    }
+
+    private static void skipScalingLists(BitReader reader, int count) {
+        for (int i = 0; i < count; i++) {
+            if (reader.readBits(1) == 1) {
+                int size = i < 6 ? 16 : 64;
+                int lastScale = 8;
+                int nextScale = 8;
+                for (int j = 0; j < size && nextScale != 0; j++) {
+                    nextScale = (lastScale + reader.readSignedExpGolomb() + 256) % 256;
+                    lastScale = nextScale == 0 ? lastScale : nextScale;
+                }
+            }
+        }
+    }
+
+    private static boolean isHighProfile(int profileIdc) {
+        switch (profileIdc) {
+        case 100:
+        case 110:
+        case 122:
+        case 244:
+        case 44:
+        case 83:
+        case 86:
+        case 118:
+        case 128:
+        case 138:
+        case 139:
+        case 134:
+        case 135:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    static class VideoFormat {
+
+        private final int width;
+
+        private final int height;
+
+        private final double frameRate;
+
+        VideoFormat(int width, int height, double frameRate) {
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return frames per second, or 0 if unknown
+         */
+        double getFrameRate() {
+            return frameRate;
+        }
+    }
+
+    /**
+     * Reads the bits of an RBSP, skipping the emulation prevention bytes (00 00 03).
+     */
+    private static class BitReader {
+
+        private final byte[] bytes;
+
+        private final int end;
+
+        private int offset;
+
+        private int bit;
+
+        private int zeroCount;
+
+        private int current;
+
+        BitReader(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        boolean hasMoreBits() {
+            return bit > 0 || offset < end;
+        }
+
+        int readBits(int count) {
+            return (int) readLongBits(count);
+        }
+
+        long readLongBits(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | readBit();
+            }
+            return value;
+        }
+
+        int readUnsignedExpGolomb() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("invalid exp-golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + readLongBits(leadingZeros));
+        }
+
+        int readSignedExpGolomb() {
+            int codeNum = readUnsignedExpGolomb();
+            return (codeNum & 1) == 1 ? (codeNum + 1) / 2 : -(codeNum / 2);
+        }
+
+        private int readBit() {
+            if (bit == 0) {
+                nextByte();
+            }
+            bit--;
+            return (current >> bit) & 1;
+        }
+
+        private void nextByte() {
+            if (offset >= end) {
+                throw new IndexOutOfBoundsException("end of the parameter set");
+            }
+            int value = bytes[offset++] & 0xFF;
+            if (zeroCount >= 2 && value == 3) {
+                zeroCount = 0;
+                nextByte();
+                return;
+            }
+            zeroCount = value == 0 ? zeroCount + 1 : 0;
+            current = value;
+            bit = 8;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Generates a small MPEG-2 transport stream with one program that carries an H.264 video stream
+ * (which is also the PCR PID) and a KLV metadata stream. The first access unit carries an SPS that
+ * is written with the requested picture size and frame rate. Each frame is a PES packet that
+ * spans a fixed number of transport stream packets, and the first packet of each frame carries a
+ * PCR and a PTS.
+ */
+class SyntheticVideoStream {
+
+    static final int PMT_PID = 0x1000;
+
+    static final int VIDEO_PID = 0x100;
+
+    static final int KLV_PID = 0x1F1;
+
+    static final int PACKETS_PER_FRAME = 10;
+
+    private static final int TS_PACKET_SIZE = 188;
+
+    /**
+     * The PCR and PTS of the first frame, close to the 33 bit wrap of the PTS.
+     */
+    private static final long FIRST_PTS = (1L << 33) - 90000;
+
+    private int width = 1280;
+
+    private int height = 720;
+
+    private boolean highProfile;
+
+    private long numUnitsInTick = 1001;
+
+    private long timeScale = 60000;
+
+    private int frameCount = 100;
+
+    private final int[] continuityCounters = new int[0x2000];
+
+    SyntheticVideoStream setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    SyntheticVideoStream setHighProfile(boolean highProfile) {
+        this.highProfile = highProfile;
+        return this;
+    }
+
+    /**
+     * @return frames per second of the stream
+     */
+    double getFrameRate() {
+        return timeScale / (2.0 * numUnitsInTick);
+    }
+
+    SyntheticVideoStream setFrameCount(int frameCount) {
+        this.frameCount = frameCount;
+        return this;
+    }
+
+    /**
+     * @return the number of seconds between the first and the last frame
+     */
+    double getDuration() {
+        return (frameCount - 1) / getFrameRate();
+    }
+
+    byte[] create() {
+        Arrays.fill(continuityCounters, 0);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        writePacket(outputStream, 0, true, -1, createPat());
+        writePacket(outputStream, PMT_PID, true, -1, createPmt());
+
+        double ticksPerFrame = 90000 / getFrameRate();
+        for (int frame = 0; frame < frameCount; frame++) {
+            long pts = (FIRST_PTS + Math.round(frame * ticksPerFrame)) % (1L << 33);
+            byte[] firstPayload = frame == 0 ? concat(createPesHeader(pts), createAccessUnit()) :
+                    createPesHeader(pts);
+            writePacket(outputStream, VIDEO_PID, true, pts * 300, firstPayload);
+            for (int i = 1; i < PACKETS_PER_FRAME; i++) {
+                writePacket(outputStream, VIDEO_PID, false, -1, new byte[0]);
+            }
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private byte[] createPat() {
+        return psi(0, 1, new byte[] {0, 1, (byte) (0xE0 | PMT_PID >> 8), (byte) PMT_PID});
+    }
+
+    private byte[] createPmt() {
+        return psi(2,
+                1,
+                new byte[] {(byte) (0xE0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xF0, 0, 0x1B,
+                        (byte) (0xE0 | VIDEO_PID >> 8), (byte) VIDEO_PID, (byte) 0xF0, 0, 0x15,
+                        (byte) (0xE0 | KLV_PID >> 8), (byte) KLV_PID, (byte) 0xF0, 0});
+    }
+
+    /**
+     * @return a PSI section with a pointer field and a dummy CRC
+     */
+    private byte[] psi(int tableId, int tableIdExtension, byte[] body) {
+        int sectionLength = 5 + body.length + 4;
+        byte[] header = {0, (byte) tableId, (byte) (0xB0 | sectionLength >> 8),
+                (byte) sectionLength, (byte) (tableIdExtension >> 8), (byte) tableIdExtension,
+                (byte) 0xC1, 0, 0};
+        return concat(header, body, new byte[4]);
+    }
+
+    private byte[] createPesHeader(long pts) {
+        return new byte[] {0, 0, 1, (byte) 0xE0, 0, 0, (byte) 0x80, (byte) 0x80, 5,
+                (byte) (0x21 | (pts >> 29) & 0x0E), (byte) (pts >> 22),
+                (byte) (0x01 | (pts >> 14) & 0xFE), (byte) (pts >> 7), (byte) (0x01 | pts << 1)};
+    }
+
+    /**
+     * @return an access unit delimiter, the SPS, a PPS and the start of a slice
+     */
+    private byte[] createAccessUnit() {
+        byte[] startCode = {0, 0, 0, 1};
+        return concat(startCode,
+                new byte[] {0x09, (byte) 0xF0},
+                startCode,
+                createSps(),
+                startCode,
+                new byte[] {0x68, (byte) 0xCE, 0x38, (byte) 0x80},
+                startCode,
+                new byte[] {0x65, (byte) 0x88, (byte) 0x84});
+    }
+
+    /**
+     * @return an SPS NAL unit with emulation prevention bytes
+     */
+    byte[] createSps() {
+        BitWriter writer = new BitWriter();
+        writer.writeBits(highProfile ? 100 : 66, 8);
+        writer.writeBits(0, 8);
+        writer.writeBits(31, 8);
+        writer.writeUnsignedExpGolomb(0);
+        if (highProfile) {
+            writer.writeUnsignedExpGolomb(1);
+            writer.writeUnsignedExpGolomb(0);
+            writer.writeUnsignedExpGolomb(0);
+            writer.writeBits(0, 1);
+            writer.writeBits(0, 1);
+        }
+        writer.writeUnsignedExpGolomb(0);
+        writer.writeUnsignedExpGolomb(2);
+        writer.writeUnsignedExpGolomb(1);
+        writer.writeBits(0, 1);
+
+        int widthInMbs = (width + 15) / 16;
+        int heightInMbs = (height + 15) / 16;
+        writer.writeUnsignedExpGolomb(widthInMbs - 1);
+        writer.writeUnsignedExpGolomb(heightInMbs - 1);
+        writer.writeBits(1, 1);
+        writer.writeBits(1, 1);
+
+        int cropRight = (widthInMbs * 16 - width) / 2;
+        int cropBottom = (heightInMbs * 16 - height) / 2;
+        if (cropRight > 0 || cropBottom > 0) {
+            writer.writeBits(1, 1);
+            writer.writeUnsignedExpGolomb(0);
+            writer.writeUnsignedExpGolomb(cropRight);
+            writer.writeUnsignedExpGolomb(0);
+            writer.writeUnsignedExpGolomb(cropBottom);
+        } else {
+            writer.writeBits(0, 1);
+        }
+
+        writer.writeBits(1, 1);
+        writer.writeBits(0, 1);
+        writer.writeBits(0, 1);
+        writer.writeBits(0, 1);
+        writer.writeBits(0, 1);
+        writer.writeBits(1, 1);
+        writer.writeBits(numUnitsInTick, 32);
+        writer.writeBits(timeScale, 32);
+        writer.writeBits(1, 1);
+        writer.writeBits(0, 5);
+        writer.writeBits(1, 1);
+
+        return concat(new byte[] {0x67}, writer.toEscapedBytes());
+    }
+
+    private void writePacket(ByteArrayOutputStream outputStream, int pid, boolean payloadUnitStart,
+            long pcr, byte[] payload) {
+        byte[] packet = new byte[TS_PACKET_SIZE];
+        packet[0] = 0x47;
+        packet[1] = (byte) ((payloadUnitStart ? 0x40 : 0) | pid >> 8);
+        packet[2] = (byte) pid;
+
+        int adaptationFieldLength = TS_PACKET_SIZE - 4 - 1 - payload.length;
+        if (pcr < 0 && adaptationFieldLength < 0) {
+            throw new IllegalArgumentException("payload is too large");
+        }
+        packet[3] = (byte) (0x30 | continuityCounters[pid]);
+        continuityCounters[pid] = (continuityCounters[pid] + 1) & 0xF;
+        packet[4] = (byte) adaptationFieldLength;
+        Arrays.fill(packet, 5, 5 + adaptationFieldLength, (byte) 0xFF);
+        if (adaptationFieldLength > 0) {
+            packet[5] = 0;
+        }
+        if (pcr >= 0) {
+            long base = pcr / 300;
+            long extension = pcr % 300;
+            packet[5] = 0x10;
+            packet[6] = (byte) (base >> 25);
+            packet[7] = (byte) (base >> 17);
+            packet[8] = (byte) (base >> 9);
+            packet[9] = (byte) (base >> 1);
+            packet[10] = (byte) ((base & 1) << 7 | 0x7E | extension >> 8);
+            packet[11] = (byte) extension;
+        }
+        System.arraycopy(payload, 0, packet, TS_PACKET_SIZE - payload.length, payload.length);
+        outputStream.write(packet, 0, packet.length);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            outputStream.write(array, 0, array.length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        private int current;
+
+        private int bitCount;
+
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >> i) & 1);
+                if (++bitCount == 8) {
+                    outputStream.write(current);
+                    current = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        void writeUnsignedExpGolomb(int value) {
+            int bits = 32 - Integer.numberOfLeadingZeros(value + 1);
+            writeBits(0, bits - 1);
+            writeBits(value + 1, bits);
+        }
+
+        byte[] toEscapedBytes() {
+            while (bitCount != 0) {
+                writeBits(0, 1);
+            }
+            ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+            int zeroCount = 0;
+            for (byte b : outputStream.toByteArray()) {
+                if (zeroCount >= 2 && (b & 0xFF) <= 3) {
+                    escaped.write(3);
+                    zeroCount = 0;
+                }
+                escaped.write(b);
+                zeroCount = b == 0 ? zeroCount + 1 : 0;
+            }
+            return escaped.toByteArray();
+        }
+    }
+}
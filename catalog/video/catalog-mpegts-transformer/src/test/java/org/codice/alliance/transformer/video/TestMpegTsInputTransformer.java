@@ -13,31 +13,62 @@
  */
 package org.codice.alliance.transformer.video;
 
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
+import org.codice.alliance.libs.cache.TransformationCacheImpl;
 import org.codice.alliance.libs.klv.KlvHandler;
 import org.codice.alliance.libs.klv.KlvHandlerFactory;
 import org.codice.alliance.libs.klv.KlvProcessor;
+import org.codice.alliance.libs.klv.KlvTimeSeriesReader;
+import org.codice.alliance.libs.klv.KlvTimeSeriesWriter;
 import org.codice.alliance.libs.klv.Stanag4609ParseException;
+import org.codice.alliance.libs.klv.Stanag4609Parser;
 import org.codice.alliance.libs.klv.Stanag4609Processor;
 import org.codice.alliance.libs.klv.StanagParserFactory;
+import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.Klv;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
 import ddf.catalog.data.Metacard;
 import ddf.catalog.data.MetacardType;
 import ddf.catalog.data.impl.BasicTypes;
@@ -49,6 +80,9 @@ public class TestMpegTsInputTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TestMpegTsInputTransformer.class);
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private List<MetacardType> metacardTypes;
 
     private Stanag4609Processor stanag4609Processor;
@@ -79,15 +113,16 @@ public class TestMpegTsInputTransformer {
         stanagParserFactory = mock(StanagParserFactory.class);
         klvProcessor = mock(KlvProcessor.class);
         when(inputTransformer.transform(any(), any())).thenReturn(metacard);
-        when(stanagParserFactory.createParser(any())).thenReturn(() -> {
-                    try {
-                        return streamParser.parse();
-                    } catch (Exception e) {
-                        throw new Stanag4609ParseException(e);
-                    }
-                }
-
-        );
+        Stanag4609Parser stanag4609Parser = () -> {
+            try {
+                return streamParser.parse();
+            } catch (Exception e) {
+                throw new Stanag4609ParseException(e);
+            }
+        };
+        when(stanagParserFactory.createParser(any())).thenReturn(stanag4609Parser);
+        when(stanagParserFactory.createParser(any(), any())).thenReturn(stanag4609Parser);
+        when(stanagParserFactory.isSinglePass()).thenReturn(true);
     }
 
     @Test
@@ -117,6 +152,458 @@ public class TestMpegTsInputTransformer {
 
     }
 
+    @Test
+    public void testStreamingSubsample() throws Exception {
+
+        when(streamParser.parse()).thenReturn(Collections.emptyMap());
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+
+        t.setSubsampleCount(20);
+        t.setStreamingSubsampleEnabled(true);
+
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream);
+        }
+
+        verify(klvHandlerFactory).createStanag4609Handlers(20);
+
+    }
+
+    @Test
+    public void testParserOnlyDecodesProcessedElements() throws Exception {
+
+        when(streamParser.parse()).thenReturn(Collections.emptyMap());
+
+        Set<String> elementNames = Collections.singleton("frame center latitude");
+        when(stanag4609Processor.getElementNames(any())).thenReturn(elementNames);
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream);
+        }
+
+        verify(stanagParserFactory).createParser(any(), eq(elementNames));
+
+    }
+
+    @Test
+    public void testSamplingInterval() throws Exception {
+
+        when(stanagParserFactory.createParser(any(), any(), anyLong())).thenReturn(mock(
+                Stanag4609Parser.class));
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setSamplingIntervalSeconds(10);
+
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream);
+        }
+
+        verify(stanagParserFactory).createParser(any(), any(), eq(10000L));
+        verify(stanagParserFactory, never()).createParser(any(), any());
+
+    }
+
+    @Test
+    public void testLocationPrecisionScale() throws Exception {
+
+        when(streamParser.parse()).thenReturn(Collections.emptyMap());
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setLocationPrecisionScale(1000000.0);
+
+        KlvProcessor.Configuration configuration = captureKlvProcessorConfiguration(t);
+
+        assertThat(configuration.get(KlvProcessor.Configuration.LOCATION_PRECISION_SCALE),
+                is(1000000.0));
+    }
+
+    @Test
+    public void testPacketsAreHandledAsTheyAreParsed() throws Exception {
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        Stanag4609Parser stanag4609Parser = mock(Stanag4609Parser.class);
+        doAnswer(invocation -> {
+            BiConsumer<Integer, DecodedKLVMetadataPacket> callback =
+                    (BiConsumer<Integer, DecodedKLVMetadataPacket>) invocation.getArguments()[0];
+            callback.accept(1, packet);
+            return null;
+        }).when(stanag4609Parser)
+                .parse(any(BiConsumer.class));
+        when(stanagParserFactory.createParser(any(), any())).thenReturn(stanag4609Parser);
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream);
+        }
+
+        verify(stanag4609Processor).handle(any(), eq(defaultKlvHandler), eq(packet));
+        verify(stanag4609Parser, never()).parse();
+
+    }
+
+    @Test
+    public void testKlvTimeSeriesIsRecorded() throws Exception {
+
+        KlvDataElement klvDataElement = mock(KlvDataElement.class);
+        when(klvDataElement.getName()).thenReturn("latitude");
+        when(klvDataElement.getKey()).thenReturn(new byte[] {13});
+        when(klvDataElement.getValue()).thenReturn(43.5);
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getPresentationTimestamp()).thenReturn(9000L);
+        when(packet.getDecodedKLV()).thenReturn(new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                Collections.singleton(klvDataElement)));
+
+        Stanag4609Parser stanag4609Parser = mock(Stanag4609Parser.class);
+        doAnswer(invocation -> {
+            BiConsumer<Integer, DecodedKLVMetadataPacket> callback =
+                    (BiConsumer<Integer, DecodedKLVMetadataPacket>) invocation.getArguments()[0];
+            callback.accept(1, packet);
+            return null;
+        }).when(stanag4609Parser)
+                .parse(any(BiConsumer.class));
+        when(stanagParserFactory.createParser(any(), any())).thenReturn(stanag4609Parser);
+
+        KlvTimeSeriesArtifacts klvTimeSeriesArtifacts = new KlvTimeSeriesArtifacts();
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setKlvTimeSeriesArtifacts(klvTimeSeriesArtifacts);
+
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream, "id");
+        }
+
+        try (KlvTimeSeriesWriter timeSeries = klvTimeSeriesArtifacts.remove("id")
+                .get()) {
+            assertThat(new KlvTimeSeriesReader(timeSeries.toByteArray()).read(0, 10000)
+                    .getValues("latitude"), is(new double[] {43.5}));
+        }
+        assertThat(klvTimeSeriesArtifacts.remove("id")
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testSinglePassReadsInputOnce() throws Exception {
+        verifyInputIsReadByBothReaders(true);
+    }
+
+    @Test
+    public void testTwoPassWhenSinglePassIsDisabled() throws Exception {
+        verifyInputIsReadByBothReaders(false);
+    }
+
+    /**
+     * Each branch of the stream tee can only be opened once, so a parser that opens its input
+     * more than once gets the file backed copy.
+     */
+    @Test
+    public void testTwoPassWhenParserIsNotSinglePass() throws Exception {
+
+        when(stanagParserFactory.isSinglePass()).thenReturn(false);
+
+        byte[] input = createInput();
+
+        AtomicReference<byte[]> firstPass = new AtomicReference<>();
+        AtomicReference<byte[]> secondPass = new AtomicReference<>();
+        when(stanagParserFactory.createParser(any(), any())).thenAnswer(invocation -> {
+            ByteSource byteSource = (ByteSource) invocation.getArguments()[0];
+            return (Stanag4609Parser) () -> {
+                readQuietly(byteSource, firstPass);
+                readQuietly(byteSource, secondPass);
+                return Collections.emptyMap();
+            };
+        });
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+
+        t.transform(new ByteArrayInputStream(input));
+
+        assertThat(firstPass.get(), is(input));
+        assertThat(secondPass.get(), is(input));
+
+    }
+
+    @Test(expected = CatalogTransformerException.class)
+    public void testTransformAfterDestroy() throws Exception {
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.destroy();
+
+        t.transform(new ByteArrayInputStream(createInput()));
+
+    }
+
+    @Test
+    public void testFileInputIsReadInPlace() throws Exception {
+
+        byte[] input = createInput();
+        File file = File.createTempFile("mpegts-transformer", ".ts");
+        try {
+            Files.write(input, file);
+
+            AtomicReference<byte[]> parsed = new AtomicReference<>();
+            when(stanagParserFactory.createParser(any(), any())).thenAnswer(invocation -> {
+                ByteSource byteSource = (ByteSource) invocation.getArguments()[0];
+                assertThat(byteSource, instanceOf(FileChannelByteSource.class));
+                return (Stanag4609Parser) () -> {
+                    readQuietly(byteSource, parsed);
+                    return Collections.emptyMap();
+                };
+            });
+
+            MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                    metacardTypes,
+                    stanag4609Processor,
+                    klvHandlerFactory,
+                    defaultKlvHandler,
+                    stanagParserFactory,
+                    klvProcessor);
+
+            try (InputStream inputStream = new FileInputStream(file)) {
+                t.transform(inputStream);
+            }
+
+            assertThat(parsed.get(), is(input));
+        } finally {
+            file.delete();
+        }
+
+    }
+
+    @Test
+    public void testNativeProbeOfFileInput() throws Exception {
+
+        SyntheticVideoStream videoStream = new SyntheticVideoStream();
+        File file = File.createTempFile("mpegts-transformer", ".ts");
+        try {
+            Files.write(videoStream.create(), file);
+
+            try (InputStream inputStream = new FileInputStream(file)) {
+                verifyProbedMetacard(videoStream,
+                        createProbingTransformer().transform(inputStream));
+            }
+        } finally {
+            file.delete();
+        }
+
+    }
+
+    @Test
+    public void testNativeProbeOfStreamInput() throws Exception {
+
+        SyntheticVideoStream videoStream = new SyntheticVideoStream();
+
+        Metacard probed = createProbingTransformer().transform(new ByteArrayInputStream(
+                videoStream.create()));
+
+        verifyProbedMetacard(videoStream, probed);
+
+    }
+
+    @Test
+    public void testCachedTransformation() throws Exception {
+
+        metacard.setTitle("the title");
+
+        TransformationCacheImpl transformationCache = new TransformationCacheImpl();
+        transformationCache.setEnabled(true);
+        transformationCache.setDirectory(temporaryFolder.getRoot()
+                .getPath());
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                Collections.singletonList(BasicTypes.BASIC_METACARD),
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setTransformationCache(transformationCache);
+
+        byte[] input = createInput();
+
+        String location = "POINT (1 2)";
+        doAnswer(invocation -> {
+            ((MetacardImpl) invocation.getArguments()[1]).setLocation(location);
+            return null;
+        }).when(klvProcessor)
+                .process(any(), any(), any());
+
+        Metacard transformed = t.transform(new ByteArrayInputStream(input), "first");
+
+        metacard.setTitle("another title");
+        Metacard cached = t.transform(new ByteArrayInputStream(input), "second");
+
+        // the inner transformer is run again, only the klv attributes are replayed
+        verify(inputTransformer, times(2)).transform(any(), any());
+        verify(stanagParserFactory, times(1)).createParser(any(), any());
+        verify(klvProcessor, times(1)).process(any(), any(), any());
+        assertThat(transformed.getTitle(), is("the title"));
+        assertThat(transformed.getLocation(), is(location));
+        assertThat(cached.getTitle(), is("another title"));
+        assertThat(cached.getLocation(), is(location));
+        assertThat(cached.getId(), is("second"));
+        assertThat(cached.getContentTypeName(), is(MpegTsInputTransformer.CONTENT_TYPE));
+
+        // a configuration change invalidates the cached transformation
+        t.setSubsampleCount(10);
+        t.transform(new ByteArrayInputStream(input), "third");
+
+        verify(stanagParserFactory, times(2)).createParser(any(), any());
+
+        // so does a different klv processor
+        MpegTsInputTransformer other = new MpegTsInputTransformer(inputTransformer,
+                Collections.singletonList(BasicTypes.BASIC_METACARD),
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                mock(KlvProcessor.class));
+        other.setTransformationCache(transformationCache);
+        other.setSubsampleCount(10);
+        other.transform(new ByteArrayInputStream(input), "fourth");
+
+        verify(stanagParserFactory, times(3)).createParser(any(), any());
+    }
+
+    private MpegTsInputTransformer createProbingTransformer() {
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setNativeProbeEnabled(true);
+        return t;
+    }
+
+    private void verifyProbedMetacard(SyntheticVideoStream videoStream, Metacard probed)
+            throws Exception {
+
+        verify(inputTransformer, never()).transform(any(), any());
+
+        assertThat(probed.getContentTypeName(), is(MpegTsInputTransformer.CONTENT_TYPE));
+        assertThat(probed.getAttribute(MpegTsInputTransformer.MEDIA_CODEC)
+                .getValues(), contains((Serializable) "H.264", "KLV Metadata"));
+        assertThat(probed.getAttribute(MpegTsInputTransformer.MEDIA_WIDTH)
+                .getValue(), is(1280));
+        assertThat(probed.getAttribute(MpegTsInputTransformer.MEDIA_HEIGHT)
+                .getValue(), is(720));
+        assertThat((double) (Float) probed.getAttribute(MpegTsInputTransformer.MEDIA_FRAME_RATE)
+                .getValue(), closeTo(videoStream.getFrameRate(), 0.001));
+        assertThat((Double) probed.getAttribute(MpegTsInputTransformer.MEDIA_DURATION)
+                .getValue(), closeTo(videoStream.getDuration(), 0.001));
+        assertThat(probed.getAttribute(MpegTsInputTransformer.MEDIA_PROGRAM_LAYOUT)
+                .getValues()
+                .size(), is(1));
+    }
+
+    private void verifyInputIsReadByBothReaders(boolean singlePassEnabled) throws Exception {
+
+        byte[] input = createInput();
+
+        AtomicReference<byte[]> transformed = new AtomicReference<>();
+        when(inputTransformer.transform(any(), any())).thenAnswer(invocation -> {
+            transformed.set(ByteStreams.toByteArray((InputStream) invocation.getArguments()[0]));
+            return metacard;
+        });
+
+        AtomicReference<byte[]> parsed = new AtomicReference<>();
+        when(stanagParserFactory.createParser(any(), any())).thenAnswer(invocation -> {
+            ByteSource byteSource = (ByteSource) invocation.getArguments()[0];
+            return (Stanag4609Parser) () -> {
+                readQuietly(byteSource, parsed);
+                return Collections.emptyMap();
+            };
+        });
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setSinglePassEnabled(singlePassEnabled);
+
+        try (InputStream inputStream = new ByteArrayInputStream(input)) {
+            t.transform(inputStream);
+        }
+
+        assertThat(transformed.get(), is(input));
+        assertThat(parsed.get(), is(input));
+        verify(klvProcessor).process(any(), eq(metacard), any());
+
+    }
+
+    private byte[] createInput() {
+        byte[] input = new byte[3 * 1024 * 1024 + 5];
+        new Random(1).nextBytes(input);
+        return input;
+    }
+
+    private void readQuietly(ByteSource byteSource, AtomicReference<byte[]> bytes)
+            throws Stanag4609ParseException {
+        try {
+            bytes.set(byteSource.read());
+        } catch (IOException e) {
+            throw new Stanag4609ParseException(e);
+        }
+    }
+
     @Test(expected = CatalogTransformerException.class)
     public void testStanagParseError() throws Exception {
 
@@ -153,4 +640,36 @@ public class TestMpegTsInputTransformer {
         t.transform(inputStream);
 
     }
-}
\ No newline at end of file
+    @Test
+    public void testLocationCoverageMaxError() throws Exception {
+
+        when(streamParser.parse()).thenReturn(Collections.emptyMap());
+
+        MpegTsInputTransformer t = new MpegTsInputTransformer(inputTransformer,
+                metacardTypes,
+                stanag4609Processor,
+                klvHandlerFactory,
+                defaultKlvHandler,
+                stanagParserFactory,
+                klvProcessor);
+        t.setLocationCoverageMaxError(0.001);
+
+        KlvProcessor.Configuration configuration = captureKlvProcessorConfiguration(t);
+
+        assertThat(configuration.get(KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR),
+                is(0.001));
+    }
+
+
+    private KlvProcessor.Configuration captureKlvProcessorConfiguration(MpegTsInputTransformer t)
+            throws Exception {
+        try (InputStream inputStream = new ByteArrayInputStream(new byte[] {})) {
+            t.transform(inputStream);
+        }
+
+        ArgumentCaptor<KlvProcessor.Configuration> configuration = ArgumentCaptor.forClass(
+                KlvProcessor.Configuration.class);
+        verify(klvProcessor).process(any(), any(), configuration.capture());
+        return configuration.getValue();
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.codice.alliance.libs.klv.AttributeNameConstants;
+import org.codice.alliance.libs.klv.KlvTimeSeriesReader;
+import org.codice.alliance.libs.klv.KlvTimeSeriesWriter;
+import org.codice.alliance.libs.klv.Stanag4609ParseException;
+import org.codice.alliance.libs.klv.Stanag4609Parser;
+import org.codice.alliance.libs.klv.StanagParserFactory;
+import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.Klv;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import ddf.catalog.content.data.ContentItem;
+import ddf.catalog.content.operation.CreateStorageRequest;
+import ddf.catalog.content.operation.UpdateStorageRequest;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.MetacardImpl;
+import ddf.catalog.plugin.PluginExecutionException;
+
+public class TestMpegTsPreStoragePlugin {
+
+    private static final String ID = "id";
+
+    private static final String LATITUDE = "latitude";
+
+    private StanagParserFactory stanagParserFactory;
+
+    private Stanag4609Parser stanag4609Parser;
+
+    private MpegTsPreStoragePlugin plugin;
+
+    private ContentItem contentItem;
+
+    private MetacardImpl metacard;
+
+    private List<ContentItem> contentItems;
+
+    @Before
+    public void setup() throws Stanag4609ParseException, IOException {
+        stanag4609Parser = mock(Stanag4609Parser.class);
+        stubPackets(packet(9000, 43.5));
+
+        stanagParserFactory = mock(StanagParserFactory.class);
+        when(stanagParserFactory.createParser(any())).thenReturn(stanag4609Parser);
+
+        plugin = new MpegTsPreStoragePlugin(stanagParserFactory);
+
+        metacard = new MetacardImpl();
+        metacard.setId(ID);
+        metacard.setTitle("flight.ts");
+        metacard.setAttribute(AttributeNameConstants.FRAME_CENTER, "LINESTRING (1 2, 3 4)");
+        metacard.setAttribute(AttributeNameConstants.MISSION_ID, "mission");
+
+        contentItem = mock(ContentItem.class);
+        when(contentItem.getId()).thenReturn(ID);
+        when(contentItem.getMimeTypeRawData()).thenReturn(MpegTsInputTransformer.CONTENT_TYPE);
+        when(contentItem.getMetacard()).thenReturn(metacard);
+        when(contentItem.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        contentItems = new ArrayList<>();
+        contentItems.add(contentItem);
+    }
+
+    @Test
+    public void testCreateAddsTimeSeries() throws PluginExecutionException, IOException {
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(2));
+
+        ContentItem timeSeries = contentItems.get(1);
+        assertThat(timeSeries.getId(), is(ID));
+        assertThat(timeSeries.getQualifier(), is(MpegTsPreStoragePlugin.KLV_TIME_SERIES));
+        assertThat(timeSeries.getFilename(), is("klv-timeseries-flight.klvts"));
+        assertThat(metacard.getAttribute(Metacard.DERIVED_RESOURCE_URI)
+                .getValue(), is(timeSeries.getUri()));
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(ByteStreams.toByteArray(
+                timeSeries.getInputStream()));
+        assertThat(reader.read(0, 10000)
+                .getValues(LATITUDE), is(new double[] {43.5}));
+    }
+
+    @Test
+    public void testPerPacketAttributesAreRemoved() throws PluginExecutionException {
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(metacard.getAttribute(AttributeNameConstants.FRAME_CENTER), is((Object) null));
+        assertThat(metacard.getAttribute(AttributeNameConstants.MISSION_ID)
+                .getValue(), is("mission"));
+    }
+
+    @Test
+    public void testUsesTimeSeriesRecordedByTransformer() throws Exception {
+        KlvTimeSeriesWriter recorded = new KlvTimeSeriesWriter();
+        recorded.add(1, packet(2000, 12.5));
+        KlvTimeSeriesArtifacts klvTimeSeriesArtifacts = new KlvTimeSeriesArtifacts();
+        klvTimeSeriesArtifacts.put(ID, recorded);
+        plugin.setKlvTimeSeriesArtifacts(klvTimeSeriesArtifacts);
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        verify(stanagParserFactory, never()).createParser(any());
+        assertThat(klvTimeSeriesArtifacts.remove(ID)
+                .isPresent(), is(false));
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(ByteStreams.toByteArray(contentItems
+                .get(1)
+                .getInputStream()));
+        assertThat(reader.read(0, 10000)
+                .getValues(LATITUDE), is(new double[] {12.5}));
+    }
+
+    @Test
+    public void testParsesWhenNoTimeSeriesWasRecorded() throws PluginExecutionException {
+        plugin.setKlvTimeSeriesArtifacts(new KlvTimeSeriesArtifacts());
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        verify(stanagParserFactory).createParser(any());
+        assertThat(contentItems, hasSize(2));
+    }
+
+    @Test
+    public void testUpdateAddsTimeSeries() throws PluginExecutionException {
+        UpdateStorageRequest request = mock(UpdateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(2));
+    }
+
+    @Test
+    public void testSkipsOtherMimeTypes() throws PluginExecutionException {
+        when(contentItem.getMimeTypeRawData()).thenReturn("image/nitf");
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(1));
+        verify(stanagParserFactory, never()).createParser(any());
+    }
+
+    @Test
+    public void testSkipsDerivedContent() throws PluginExecutionException {
+        when(contentItem.getQualifier()).thenReturn("overview");
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(1));
+    }
+
+    @Test
+    public void testNoKlv() throws PluginExecutionException, Stanag4609ParseException {
+        stubPackets();
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(1));
+        assertThat(metacard.getAttribute(Metacard.DERIVED_RESOURCE_URI), is((Object) null));
+        assertThat(metacard.getAttribute(AttributeNameConstants.FRAME_CENTER)
+                .getValue(), is("LINESTRING (1 2, 3 4)"));
+    }
+
+    @Test
+    public void testParseFailureIsNotFatal()
+            throws PluginExecutionException, Stanag4609ParseException {
+        doThrow(new Stanag4609ParseException(new IOException("bad"))).when(stanag4609Parser)
+                .parse(any());
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        assertThat(contentItems, hasSize(1));
+    }
+
+    @Test(expected = PluginExecutionException.class)
+    public void testNullCreateRequest() throws PluginExecutionException {
+        plugin.process((CreateStorageRequest) null);
+    }
+
+    @Test(expected = PluginExecutionException.class)
+    public void testNullUpdateRequest() throws PluginExecutionException {
+        plugin.process((UpdateStorageRequest) null);
+    }
+
+    @Test
+    public void testPacketsAreStreamed() throws PluginExecutionException, Stanag4609ParseException {
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        verify(stanag4609Parser, never()).parse();
+    }
+
+    @Test
+    public void testMissingTimestampUsesSameStream() throws Exception {
+        doAnswer(invocation -> {
+            BiConsumer<Integer, DecodedKLVMetadataPacket> callback =
+                    (BiConsumer<Integer, DecodedKLVMetadataPacket>) invocation.getArguments()[0];
+            callback.accept(1, packet(1000, 1.0));
+            callback.accept(2, packet(5000, 2.0));
+            callback.accept(1, packet(-1, 3.0));
+            return null;
+        }).when(stanag4609Parser)
+                .parse(any());
+        CreateStorageRequest request = mock(CreateStorageRequest.class);
+        when(request.getContentItems()).thenReturn(contentItems);
+
+        plugin.process(request);
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(ByteStreams.toByteArray(contentItems
+                .get(1)
+                .getInputStream()));
+        assertThat(reader.read(0, 2000)
+                .getValues(LATITUDE), is(new double[] {1.0, 3.0}));
+    }
+
+    private void stubPackets(DecodedKLVMetadataPacket... packets)
+            throws Stanag4609ParseException {
+        doAnswer(invocation -> {
+            BiConsumer<Integer, DecodedKLVMetadataPacket> callback =
+                    (BiConsumer<Integer, DecodedKLVMetadataPacket>) invocation.getArguments()[0];
+            for (DecodedKLVMetadataPacket packet : packets) {
+                callback.accept(1, packet);
+            }
+            return null;
+        }).when(stanag4609Parser)
+                .parse(any());
+    }
+
+    private DecodedKLVMetadataPacket packet(long presentationTimestamp, double latitude) {
+        KlvDataElement klvDataElement = mock(KlvDataElement.class);
+        when(klvDataElement.getName()).thenReturn(LATITUDE);
+        when(klvDataElement.getKey()).thenReturn(new byte[] {13});
+        when(klvDataElement.getValue()).thenReturn(latitude);
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getPresentationTimestamp()).thenReturn(presentationTimestamp);
+        when(packet.getDecodedKLV()).thenReturn(new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                Collections.singleton(klvDataElement)));
+        return packet;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class TestStreamTee {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int MAX_BUFFERED_CHUNKS = 2;
+
+    private ExecutorService executor;
+
+    private byte[] input;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        input = new byte[100 * CHUNK_SIZE + 17];
+        new Random(1).nextBytes(input);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBranchesReceiveInput() throws Exception {
+        StreamTee streamTee = new StreamTee(2, CHUNK_SIZE, MAX_BUFFERED_CHUNKS);
+
+        Future<byte[]> first = executor.submit(() -> readBranch(streamTee, 0));
+        Future<byte[]> second = executor.submit(() -> readBranch(streamTee, 1));
+
+        assertThat(streamTee.pump(new ByteArrayInputStream(input)), is((long) input.length));
+        assertThat(first.get(10, TimeUnit.SECONDS), is(input));
+        assertThat(second.get(10, TimeUnit.SECONDS), is(input));
+    }
+
+    /**
+     * A branch that stops reading early (or is never opened) must not hold back the others.
+     */
+    @Test
+    public void testClosedBranchDoesNotHoldBackOthers() throws Exception {
+        StreamTee streamTee = new StreamTee(3, CHUNK_SIZE, MAX_BUFFERED_CHUNKS);
+
+        Future<byte[]> head = executor.submit(() -> {
+            try (InputStream inputStream = streamTee.getBranch(0)
+                    .openStream()) {
+                byte[] bytes = new byte[10];
+                ByteStreams.readFully(inputStream, bytes);
+                return bytes;
+            } finally {
+                streamTee.closeBranch(0);
+            }
+        });
+        Future<byte[]> full = executor.submit(() -> readBranch(streamTee, 1));
+        streamTee.closeBranch(2);
+
+        Future<Long> pumped = executor.submit(() -> streamTee.pump(new ByteArrayInputStream(
+                input)));
+
+        assertThat(head.get(10, TimeUnit.SECONDS)[9], is(input[9]));
+        assertThat(full.get(10, TimeUnit.SECONDS), is(input));
+        assertThat(pumped.get(10, TimeUnit.SECONDS), is((long) input.length));
+    }
+
+    @Test
+    public void testInputErrorIsReportedToBranches() throws Exception {
+        StreamTee streamTee = new StreamTee(1, CHUNK_SIZE, MAX_BUFFERED_CHUNKS);
+
+        Future<byte[]> branch = executor.submit(() -> readBranch(streamTee, 0));
+
+        try {
+            streamTee.pump(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("read error");
+                }
+            });
+            fail("the pump should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("read error"));
+        }
+
+        try {
+            branch.get(10, TimeUnit.SECONDS);
+            fail("the branch should fail");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testBranchCanOnlyBeOpenedOnce() throws IOException {
+        StreamTee streamTee = new StreamTee(1, CHUNK_SIZE, MAX_BUFFERED_CHUNKS);
+
+        streamTee.getBranch(0)
+                .openStream();
+        streamTee.getBranch(0)
+                .openStream();
+    }
+
+    private byte[] readBranch(StreamTee streamTee, int index) throws IOException {
+        try (InputStream inputStream = streamTee.getBranch(index)
+                .openStream()) {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            streamTee.closeBranch(index);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.transformer.video;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteSource;
+
+public class TestTransportStreamProbe {
+
+    private static final long WINDOW_SIZE = 64 * 1024;
+
+    @Test
+    public void testProbeOnlyReadsStartAndEndOfStream() throws IOException {
+
+        SyntheticVideoStream videoStream = new SyntheticVideoStream().setFrameCount(3000);
+        byte[] bytes = videoStream.create();
+        AtomicLong bytesRead = new AtomicLong();
+
+        TransportStreamProbe probe = new TransportStreamProbe();
+        probe.setWindowSizes(WINDOW_SIZE, WINDOW_SIZE);
+        TransportStreamProbe.Result result = probe.probe(countingByteSource(bytes, bytesRead),
+                bytes.length);
+
+        assertThat(bytesRead.get(), lessThanOrEqualTo(2 * WINDOW_SIZE));
+        verifyResult(videoStream, result, 1280, 720);
+        assertThat(result.getBitRate(),
+                closeTo(bytes.length * 8 / videoStream.getDuration(), 1));
+
+    }
+
+    @Test
+    public void testProbeOfStreamWithUnknownSize() throws IOException {
+
+        SyntheticVideoStream videoStream = new SyntheticVideoStream().setFrameCount(3000);
+        byte[] bytes = videoStream.create();
+
+        TransportStreamProbe probe = new TransportStreamProbe();
+        probe.setWindowSizes(WINDOW_SIZE, WINDOW_SIZE);
+        TransportStreamProbe.Result result = probe.probe(ByteSource.wrap(bytes), -1);
+
+        verifyResult(videoStream, result, 1280, 720);
+        assertThat(result.getBitRate(),
+                closeTo(bytes.length * 8 / videoStream.getDuration(), 1));
+
+    }
+
+    @Test
+    public void testHighProfileWithCropping() throws IOException {
+
+        SyntheticVideoStream videoStream = new SyntheticVideoStream().setSize(1920, 1080)
+                .setHighProfile(true);
+        byte[] bytes = videoStream.create();
+
+        TransportStreamProbe.Result result = new TransportStreamProbe().probe(ByteSource.wrap(
+                bytes), bytes.length);
+
+        verifyResult(videoStream, result, 1920, 1080);
+
+    }
+
+    @Test
+    public void testNotATransportStream() throws IOException {
+
+        byte[] bytes = new byte[100000];
+        new Random(1).nextBytes(bytes);
+
+        TransportStreamProbe.Result result = new TransportStreamProbe().probe(ByteSource.wrap(
+                bytes), bytes.length);
+
+        assertThat(result.getPrograms()
+                .isEmpty(), is(true));
+        assertThat(result.getDuration(), is(-1.0));
+        assertThat(result.getBitRate(), is(-1.0));
+
+    }
+
+    /**
+     * The synthetic streams start one second before the 33 bit PTS wrap, so the duration is only
+     * right if the wrap is handled.
+     */
+    private void verifyResult(SyntheticVideoStream videoStream,
+            TransportStreamProbe.Result result, int width, int height) {
+
+        assertThat(result.getPrograms()
+                .size(), is(1));
+
+        TransportStreamProbe.Program program = result.getPrograms()
+                .get(0);
+        assertThat(program.getPmtPid(), is(SyntheticVideoStream.PMT_PID));
+        assertThat(program.getPcrPid(), is(SyntheticVideoStream.VIDEO_PID));
+        assertThat(program.getStreams()
+                .size(), is(2));
+        assertThat(program.getStreams()
+                .get(1)
+                .getCodec(), is("KLV Metadata"));
+
+        TransportStreamProbe.ElementaryStream video = result.getVideoStream();
+        assertThat(video, notNullValue());
+        assertThat(video.getPid(), is(SyntheticVideoStream.VIDEO_PID));
+        assertThat(video.getCodec(), is("H.264"));
+        assertThat(video.getFormat()
+                .getWidth(), is(width));
+        assertThat(video.getFormat()
+                .getHeight(), is(height));
+        assertThat(video.getFormat()
+                .getFrameRate(), closeTo(videoStream.getFrameRate(), 0.001));
+
+        assertThat(result.getDuration(), closeTo(videoStream.getDuration(), 0.001));
+    }
+
+    private ByteSource countingByteSource(byte[] bytes, AtomicLong bytesRead) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+                    @Override
+                    public int read() throws IOException {
+                        int value = super.read();
+                        if (value >= 0) {
+                            bytesRead.incrementAndGet();
+                        }
+                        return value;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int count = super.read(buffer, offset, length);
+                        if (count > 0) {
+                            bytesRead.addAndGet(count);
+                        }
+                        return count;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.io.WKTWriter;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+import ddf.catalog.data.Attribute;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.AttributeImpl;
+
+/**
+ * Shrinks the KLV attributes of a metacard after the {@link KlvProcessor}s have set them, so that
+ * long videos do not produce metacards with thousands of attribute values. The compaction is
+ * controlled by {@link KlvProcessor.Configuration#COMPACTION_MAX_VALUES},
+ * {@link KlvProcessor.Configuration#COMPACTION_GEOMETRY_TOLERANCE} and
+ * {@link KlvProcessor.Configuration#COMPACTION_NUMERIC_RANGES}. If none of them is set, then
+ * nothing is changed. Otherwise each attribute is compacted in this order:
+ * <ol>
+ * <li>null and repeated values are dropped</li>
+ * <li>WKT values are merged into one simplified geometry</li>
+ * <li>numeric values are reduced to the minimum and maximum</li>
+ * <li>the remaining values are subsampled to the maximum count</li>
+ * </ol>
+ */
+public class AttributeCompactor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AttributeCompactor.class);
+
+    private static final int NUMBER_SIZE = 8;
+
+    /**
+     * @param configuration non-null
+     * @return true if any compaction is configured
+     */
+    public static boolean isEnabled(KlvProcessor.Configuration configuration) {
+        return getMaxValues(configuration).isPresent()
+                || getGeometryTolerance(configuration).isPresent()
+                || isNumericRanges(configuration);
+    }
+
+    /**
+     * Compact the named attributes of the metacard. Attributes that are not set are ignored.
+     *
+     * @param metacard       non-null
+     * @param attributeNames non-null
+     * @param configuration  non-null
+     * @return the estimated number of bytes removed from the metacard
+     */
+    public long compact(Metacard metacard, Collection<String> attributeNames,
+            KlvProcessor.Configuration configuration) {
+        if (!isEnabled(configuration)) {
+            return 0;
+        }
+
+        long removed = 0;
+
+        for (String attributeName : new LinkedHashSet<>(attributeNames)) {
+            Attribute attribute = metacard.getAttribute(attributeName);
+            if (attribute == null || attribute.getValues() == null) {
+                continue;
+            }
+
+            List<Serializable> values = attribute.getValues();
+            List<Serializable> compacted = compact(values, configuration);
+
+            if (!compacted.equals(values)) {
+                removed += estimateSize(values) - estimateSize(compacted);
+                metacard.setAttribute(new AttributeImpl(attributeName, compacted));
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Estimate the number of bytes needed to store the values of an attribute. Strings count
+     * their UTF-8 length, numbers and dates count 8 bytes.
+     *
+     * @param values non-null
+     * @return estimated size in bytes
+     */
+    static long estimateSize(List<Serializable> values) {
+        long size = 0;
+        for (Serializable value : values) {
+            if (value instanceof String) {
+                size += ((String) value).getBytes(StandardCharsets.UTF_8).length;
+            } else if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value instanceof Number || value instanceof Date) {
+                size += NUMBER_SIZE;
+            } else if (value != null) {
+                size += value.toString()
+                        .length();
+            }
+        }
+        return size;
+    }
+
+    private List<Serializable> compact(List<Serializable> values,
+            KlvProcessor.Configuration configuration) {
+        List<Serializable> compacted = values.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+
+        Optional<Double> geometryTolerance = getGeometryTolerance(configuration);
+        if (geometryTolerance.isPresent()) {
+            compacted = mergeGeometries(compacted, geometryTolerance.get());
+        }
+
+        if (isNumericRanges(configuration) && compacted.size() > 2 && compacted.stream()
+                .allMatch(Number.class::isInstance)) {
+            compacted = summarizeNumbers(compacted);
+        }
+
+        Optional<Integer> maxValues = getMaxValues(configuration);
+        if (maxValues.isPresent() && compacted.size() > maxValues.get()) {
+            compacted = subsample(compacted, maxValues.get());
+        }
+
+        return compacted;
+    }
+
+    private List<Serializable> mergeGeometries(List<Serializable> values, double tolerance) {
+        if (values.isEmpty() || !values.stream()
+                .allMatch(String.class::isInstance)) {
+            return values;
+        }
+
+        WKTReader wktReader = new WKTReader();
+        List<Geometry> geometries = new ArrayList<>(values.size());
+        for (Serializable value : values) {
+            try {
+                geometries.add(wktReader.read((String) value));
+            } catch (ParseException e) {
+                return values;
+            }
+        }
+
+        try {
+            Geometry union = UnaryUnionOp.union(geometries);
+            if (union.getDimension() == 1) {
+                union = mergeLines(union);
+            }
+            Geometry merged = TopologyPreservingSimplifier.simplify(union, tolerance);
+            return Collections.singletonList(new WKTWriter().write(merged));
+        } catch (RuntimeException e) {
+            LOGGER.debug("unable to merge the geometries, keeping them unchanged", e);
+            return values;
+        }
+    }
+
+    /**
+     * The union of lines is noded at every intersection, so a track made of many segments stays a
+     * multi-line with one part per segment. Sew the parts back into the longest lines possible so
+     * that the simplifier can remove the intermediate vertices.
+     */
+    private Geometry mergeLines(Geometry lines) {
+        LineMerger lineMerger = new LineMerger();
+        lineMerger.add(lines);
+        @SuppressWarnings("unchecked")
+        Collection<Geometry> merged = lineMerger.getMergedLineStrings();
+        return lines.getFactory()
+                .buildGeometry(merged);
+    }
+
+    private List<Serializable> summarizeNumbers(List<Serializable> values) {
+        Comparator<Serializable> comparator = Comparator.comparingDouble(
+                value -> ((Number) value).doubleValue());
+        Serializable min = Collections.min(values, comparator);
+        Serializable max = Collections.max(values, comparator);
+        return Arrays.asList(min, max);
+    }
+
+    /**
+     * Keep an evenly strided sample of the values that includes the first and the last value.
+     */
+    private List<Serializable> subsample(List<Serializable> values, int maxValues) {
+        if (maxValues == 1) {
+            return Collections.singletonList(values.get(0));
+        }
+        List<Serializable> sample = new ArrayList<>(maxValues);
+        double stride = (double) (values.size() - 1) / (maxValues - 1);
+        for (int i = 0; i < maxValues; i++) {
+            sample.add(values.get((int) Math.round(i * stride)));
+        }
+        return sample;
+    }
+
+    private static Optional<Integer> getMaxValues(KlvProcessor.Configuration configuration) {
+        Object value = configuration.get(KlvProcessor.Configuration.COMPACTION_MAX_VALUES);
+        if (value instanceof Number && ((Number) value).intValue() > 0) {
+            return Optional.of(((Number) value).intValue());
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Double> getGeometryTolerance(
+            KlvProcessor.Configuration configuration) {
+        Object value = configuration.get(KlvProcessor.Configuration.COMPACTION_GEOMETRY_TOLERANCE);
+        if (value instanceof Number && ((Number) value).doubleValue() > 0) {
+            return Optional.of(((Number) value).doubleValue());
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isNumericRanges(KlvProcessor.Configuration configuration) {
+        return Boolean.TRUE.equals(configuration.get(
+                KlvProcessor.Configuration.COMPACTION_NUMERIC_RANGES));
+    }
+}
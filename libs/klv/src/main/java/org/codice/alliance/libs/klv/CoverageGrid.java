@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.isTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Accumulates the area covered by a sequence of footprint polygons on a grid of square cells
+ * (in degrees) that is stored as a bitset. Each footprint is scan-converted: a cell is covered if
+ * its center is inside the footprint. The cost of adding a footprint depends only on the number
+ * of cells it covers, and the grid never has more than {@code maxCellsPerSide} cells per side.
+ * If a footprint falls outside of the grid, then the grid grows. If the grid would become too
+ * large, then the cell size is doubled until it fits, so memory stays bounded at the cost of
+ * accuracy.
+ * <p>
+ * {@link #toGeometry(GeometryFactory)} traces the covered cells into a polygon and simplifies it
+ * with a tolerance of one cell.
+ */
+class CoverageGrid {
+
+    static final int DEFAULT_MAX_CELLS_PER_SIDE = 2048;
+
+    private final int maxCellsPerSide;
+
+    private double cellSize;
+
+    private double originX;
+
+    private double originY;
+
+    private int columns = 0;
+
+    private int rows = 0;
+
+    private BitSet cells = new BitSet();
+
+    private final double[] intersections = new double[8];
+
+    /**
+     * @param cellSize        initial size of a cell in degrees, must be positive
+     * @param maxCellsPerSide must be at least 1
+     */
+    CoverageGrid(double cellSize, int maxCellsPerSide) {
+        isTrue(cellSize > 0, "cellSize must be positive");
+        inclusiveBetween(1, Integer.MAX_VALUE, maxCellsPerSide, "maxCellsPerSide must be >=1");
+        this.cellSize = cellSize;
+        this.maxCellsPerSide = maxCellsPerSide;
+    }
+
+    double getCellSize() {
+        return cellSize;
+    }
+
+    int getCoveredCellCount() {
+        return cells.cardinality();
+    }
+
+    /**
+     * Add a footprint. The ring is closed implicitly, so the first vertex does not need to be
+     * repeated. Only the first {@code length} vertices are read.
+     *
+     * @param xs     x (longitude) of each vertex
+     * @param ys     y (latitude) of each vertex
+     * @param length number of vertices, at most 4
+     */
+    void add(double[] xs, double[] ys, int length) {
+        inclusiveBetween(1, intersections.length / 2, length, "length must be between 1 and 4");
+
+        double minX = xs[0];
+        double maxX = xs[0];
+        double minY = ys[0];
+        double maxY = ys[0];
+        for (int i = 1; i < length; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        ensureExtent(minX, minY, maxX, maxY);
+
+        boolean covered = false;
+
+        int firstRow = Math.max(0, cellIndex(minY, originY));
+        int lastRow = Math.min(rows - 1, cellIndex(maxY, originY));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            double y = originY + (row + 0.5) * cellSize;
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                int j = (i + 1) % length;
+                if ((ys[i] <= y && y < ys[j]) || (ys[j] <= y && y < ys[i])) {
+                    intersections[count++] =
+                            xs[i] + (y - ys[i]) * (xs[j] - xs[i]) / (ys[j] - ys[i]);
+                }
+            }
+            Arrays.sort(intersections, 0, count);
+            for (int i = 0; i + 1 < count; i += 2) {
+                int firstColumn = Math.max(0,
+                        (int) Math.ceil((intersections[i] - originX) / cellSize - 0.5));
+                int lastColumn = Math.min(columns - 1,
+                        (int) Math.floor((intersections[i + 1] - originX) / cellSize - 0.5));
+                if (firstColumn <= lastColumn) {
+                    cells.set(row * columns + firstColumn, row * columns + lastColumn + 1);
+                    covered = true;
+                }
+            }
+        }
+
+        if (!covered) {
+            // the footprint is smaller than a cell, so keep the cell that contains its first vertex
+            cells.set(cellIndex(ys[0], originY) * columns + cellIndex(xs[0], originX));
+        }
+    }
+
+    /**
+     * Trace the covered cells into a polygon or multipolygon. Runs of covered cells in a row are
+     * merged with identical runs in the rows above before the union, so the union only sees one
+     * rectangle per distinct run.
+     *
+     * @param geometryFactory non-null
+     * @return optional geometry, empty if no cell is covered
+     */
+    Optional<Geometry> toGeometry(GeometryFactory geometryFactory) {
+        if (cells.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<Polygon> rectangles = new ArrayList<>();
+
+        // maps a run (first column * columns + last column) to the row where it started
+        Map<Long, Integer> openRuns = new HashMap<>();
+
+        for (int row = 0; row <= rows; row++) {
+            Map<Long, Integer> rowRuns = new HashMap<>();
+            if (row < rows) {
+                int offset = row * columns;
+                int column = cells.nextSetBit(offset);
+                while (column >= 0 && column < offset + columns) {
+                    int end = Math.min(cells.nextClearBit(column), offset + columns);
+                    long run = (long) (column - offset) * columns + (end - 1 - offset);
+                    Integer startRow = openRuns.remove(run);
+                    rowRuns.put(run, startRow == null ? row : startRow);
+                    column = cells.nextSetBit(end);
+                }
+            }
+            for (Map.Entry<Long, Integer> closed : openRuns.entrySet()) {
+                rectangles.add(rectangle(geometryFactory, closed.getKey(), closed.getValue(), row));
+            }
+            openRuns = rowRuns;
+        }
+
+        Geometry union = CascadedPolygonUnion.union(rectangles);
+
+        return Optional.of(TopologyPreservingSimplifier.simplify(union, cellSize));
+    }
+
+    private Polygon rectangle(GeometryFactory geometryFactory, long run, int startRow,
+            int endRow) {
+        double x1 = originX + (run / columns) * cellSize;
+        double x2 = originX + (run % columns + 1) * cellSize;
+        double y1 = originY + startRow * cellSize;
+        double y2 = originY + endRow * cellSize;
+        Coordinate[] ring = {new Coordinate(x1, y1), new Coordinate(x2, y1),
+                new Coordinate(x2, y2), new Coordinate(x1, y2), new Coordinate(x1, y1)};
+        return geometryFactory.createPolygon(geometryFactory.createLinearRing(ring), null);
+    }
+
+    private int cellIndex(double value, double origin) {
+        return (int) Math.floor((value - origin) / cellSize);
+    }
+
+    /**
+     * Grow the grid so that it contains the box. The grid grows by half of its new size in each
+     * direction, so a moving sensor does not cause a rebuild on every packet.
+     */
+    private void ensureExtent(double minX, double minY, double maxX, double maxY) {
+        if (columns > 0 && minX >= originX && minY >= originY
+                && maxX < originX + columns * cellSize && maxY < originY + rows * cellSize) {
+            return;
+        }
+
+        double newMinX = minX;
+        double newMinY = minY;
+        double newMaxX = maxX;
+        double newMaxY = maxY;
+
+        if (columns > 0) {
+            newMinX = Math.min(newMinX, originX);
+            newMinY = Math.min(newMinY, originY);
+            newMaxX = Math.max(newMaxX, originX + columns * cellSize);
+            newMaxY = Math.max(newMaxY, originY + rows * cellSize);
+            double padX = (newMaxX - newMinX) / 2;
+            double padY = (newMaxY - newMinY) / 2;
+            newMinX -= minX < originX ? padX : 0;
+            newMaxX += maxX >= originX + columns * cellSize ? padX : 0;
+            newMinY -= minY < originY ? padY : 0;
+            newMaxY += maxY >= originY + rows * cellSize ? padY : 0;
+        }
+
+        double newCellSize = cellSize;
+        double newOriginX;
+        double newOriginY;
+        int newColumns;
+        int newRows;
+
+        while (true) {
+            newOriginX = Math.floor(newMinX / newCellSize) * newCellSize;
+            newOriginY = Math.floor(newMinY / newCellSize) * newCellSize;
+            newColumns = (int) Math.floor((newMaxX - newOriginX) / newCellSize) + 1;
+            newRows = (int) Math.floor((newMaxY - newOriginY) / newCellSize) + 1;
+            if (newColumns <= maxCellsPerSide && newRows <= maxCellsPerSide) {
+                break;
+            }
+            newCellSize *= 2;
+        }
+
+        BitSet newCells = new BitSet();
+        for (int cell = cells.nextSetBit(0); cell >= 0; cell = cells.nextSetBit(cell + 1)) {
+            double x = originX + (cell % columns + 0.5) * cellSize;
+            double y = originY + (cell / columns + 0.5) * cellSize;
+            int column = (int) Math.floor((x - newOriginX) / newCellSize);
+            int row = (int) Math.floor((y - newOriginY) / newCellSize);
+            newCells.set(row * newColumns + column);
+        }
+
+        cells = newCells;
+        cellSize = newCellSize;
+        originX = newOriginX;
+        originY = newOriginY;
+        columns = newColumns;
+        rows = newRows;
+    }
+
+}
@@ -13,6 +13,7 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import ddf.catalog.data.Attribute;
@@ -32,6 +33,18 @@ public class DistinctKlvProcessor extends SingleFieldKlvProcessor {
         this.attributeName = attributeName;
     }
 
+    /**
+     * {@link ListOfBasicKlvDataTypesHandler} can produce the distinct values from its runs, so
+     * the repeated values are never expanded.
+     */
+    @Override
+    protected Optional<Attribute> asAttribute(KlvHandler handler) {
+        if (handler instanceof ListOfBasicKlvDataTypesHandler) {
+            return ((ListOfBasicKlvDataTypesHandler<?>) handler).asDistinctAttribute();
+        }
+        return super.asAttribute(handler);
+    }
+
     @Override
     protected void doProcess(Attribute attribute, Metacard metacard) {
         metacard.setAttribute(new AttributeImpl(attributeName,
@@ -13,9 +13,9 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.apache.commons.lang3.Validate.isTrue;
+
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,15 +25,41 @@ import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
 import ddf.catalog.data.Attribute;
 
 /**
  * This handler expects four latitude-longitude pairs. It generates a WKT polygon for each four-pair set.
+ * The values are stored in {@link PacketAlignedColumns}, one row per KLV packet. Packets that are
+ * missing any of the eight fields do not generate a polygon.
+ * <p>
+ * If {@link #setCoverageMaxError(double)} is called, then each packet is also added to a
+ * {@link CoverageGrid} when it ends, including the packets that are dropped by the streaming
+ * subsample. The rows are kept either way, so the corner attribute is still generated.
  */
 class GeoBoxHandler extends BaseKlvHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GeoBoxHandler.class);
 
+    private static final int LATITUDE_1 = 0;
+
+    private static final int LONGITUDE_1 = 1;
+
+    private static final int LATITUDE_2 = 2;
+
+    private static final int LONGITUDE_2 = 3;
+
+    private static final int LATITUDE_3 = 4;
+
+    private static final int LONGITUDE_3 = 5;
+
+    private static final int LATITUDE_4 = 6;
+
+    private static final int LONGITUDE_4 = 7;
+
     private String latitude1;
 
     private String longitude1;
@@ -50,7 +76,15 @@ class GeoBoxHandler extends BaseKlvHandler {
 
     private String longitude4;
 
-    private Map<String, List<Double>> map = new HashMap<>();
+    private final PacketAlignedColumns columns;
+
+    private final double[] cornerLongitudes = new double[4];
+
+    private final double[] cornerLatitudes = new double[4];
+
+    private double coverageMaxError = 0;
+
+    private CoverageGrid coverageGrid;
 
     /**
      * @param attributeName the name of the metacard attribute being generated
@@ -80,6 +114,14 @@ class GeoBoxHandler extends BaseKlvHandler {
         this.latitude4 = latitude4;
         this.longitude4 = longitude4;
 
+        this.columns = new PacketAlignedColumns(latitude1,
+                longitude1,
+                latitude2,
+                longitude2,
+                latitude3,
+                longitude3,
+                latitude4,
+                longitude4);
     }
 
     public String getLatitude1() {
@@ -114,43 +156,129 @@ class GeoBoxHandler extends BaseKlvHandler {
         return longitude4;
     }
 
+    /**
+     * Get a boxed copy of the stored values. Missing values are {@link PacketAlignedColumns#MISSING}.
+     *
+     * @return map of field names to values
+     */
     public Map<String, List<Double>> getRawGeoData() {
-        return map;
+        return columns.toMap();
+    }
+
+    PacketAlignedColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * Keep a bounded, evenly strided sample of the packets instead of every packet. Between
+     * {@code subsampleCount} and {@code 2 * subsampleCount} packets are kept, so a later subsample
+     * of {@code subsampleCount} packets is still spread over the whole input.
+     *
+     * @param subsampleCount must be at least 1
+     */
+    void setStreamingSubsampleCount(int subsampleCount) {
+        columns.setMaxRows((int) Math.min(Integer.MAX_VALUE, 2L * subsampleCount));
+    }
+
+    /**
+     * Add the corners of each packet to a {@link CoverageGrid} as the packet ends. The coverage
+     * then covers every packet, even if the rows only keep a streaming subsample of the packets
+     * (see {@link #setStreamingSubsampleCount(int)}).
+     *
+     * @param maxError the cell size of the grid in degrees, must be positive
+     */
+    void setCoverageMaxError(double maxError) {
+        isTrue(maxError > 0, "maxError must be positive");
+        this.coverageMaxError = maxError;
+        this.coverageGrid = createCoverageGrid();
+        columns.setRowEndListener(this::addCoverage);
+    }
+
+    /**
+     * @return the coverage of the handled packets, or empty if coverage is not enabled
+     */
+    Optional<CoverageGrid> getCoverageGrid() {
+        return Optional.ofNullable(coverageGrid);
+    }
+
+    /**
+     * Create one polygon per complete packet without going through WKT. The longitudes are used
+     * as x and the latitudes as y.
+     *
+     * @param geometryFactory non-null
+     * @return list of polygons
+     */
+    public List<Polygon> asPolygons(GeometryFactory geometryFactory) {
+
+        int rowCount = columns.getRowCount();
+
+        List<Polygon> polygons = new ArrayList<>(rowCount);
+
+        for (int row = 0; row < rowCount; row++) {
+            if (!columns.isComplete(row)) {
+                continue;
+            }
+            Coordinate[] ring = {coordinate(LONGITUDE_1, LATITUDE_1, row),
+                    coordinate(LONGITUDE_2, LATITUDE_2, row),
+                    coordinate(LONGITUDE_3, LATITUDE_3, row),
+                    coordinate(LONGITUDE_4, LATITUDE_4, row),
+                    coordinate(LONGITUDE_1, LATITUDE_1, row)};
+            polygons.add(geometryFactory.createPolygon(geometryFactory.createLinearRing(ring),
+                    null));
+        }
+
+        return polygons;
+    }
+
+    /**
+     * Copy the four corners of a packet into the arrays.
+     *
+     * @param row        row of the packet in {@link #getColumns()}
+     * @param longitudes receives the four longitudes
+     * @param latitudes  receives the four latitudes
+     * @return false if the packet is missing any corner, in which case the arrays are unchanged
+     */
+    boolean getCorners(int row, double[] longitudes, double[] latitudes) {
+        if (!columns.isComplete(row)) {
+            return false;
+        }
+        longitudes[0] = columns.get(LONGITUDE_1, row);
+        longitudes[1] = columns.get(LONGITUDE_2, row);
+        longitudes[2] = columns.get(LONGITUDE_3, row);
+        longitudes[3] = columns.get(LONGITUDE_4, row);
+        latitudes[0] = columns.get(LATITUDE_1, row);
+        latitudes[1] = columns.get(LATITUDE_2, row);
+        latitudes[2] = columns.get(LATITUDE_3, row);
+        latitudes[3] = columns.get(LATITUDE_4, row);
+        return true;
+    }
+
+    private Coordinate coordinate(int longitude, int latitude, int row) {
+        return new Coordinate(columns.get(longitude, row), columns.get(latitude, row));
     }
 
     @Override
     public Optional<Attribute> asAttribute() {
 
-        int minimumListSize = map.values()
-                .stream()
-                .min((a, b) -> Integer.compare(a.size(), b.size()))
-                .orElse(Collections.emptyList())
-                .size();
+        int rowCount = columns.getRowCount();
 
         List<String> polygonsWkts = new ArrayList<>();
 
-        for (int i = 0; i < minimumListSize; i++) {
+        for (int row = 0; row < rowCount; row++) {
+            if (!columns.isComplete(row)) {
+                continue;
+            }
             polygonsWkts.add(String.format("POLYGON ((%f %f, %f %f, %f %f, %f %f, %f %f))",
-                    map.get(longitude1)
-                            .get(i),
-                    map.get(latitude1)
-                            .get(i),
-                    map.get(longitude2)
-                            .get(i),
-                    map.get(latitude2)
-                            .get(i),
-                    map.get(longitude3)
-                            .get(i),
-                    map.get(latitude3)
-                            .get(i),
-                    map.get(longitude4)
-                            .get(i),
-                    map.get(latitude4)
-                            .get(i),
-                    map.get(longitude1)
-                            .get(i),
-                    map.get(latitude1)
-                            .get(i)));
+                    columns.get(LONGITUDE_1, row),
+                    columns.get(LATITUDE_1, row),
+                    columns.get(LONGITUDE_2, row),
+                    columns.get(LATITUDE_2, row),
+                    columns.get(LONGITUDE_3, row),
+                    columns.get(LATITUDE_3, row),
+                    columns.get(LONGITUDE_4, row),
+                    columns.get(LATITUDE_4, row),
+                    columns.get(LONGITUDE_1, row),
+                    columns.get(LATITUDE_1, row)));
         }
 
         return asAttribute(polygonsWkts);
@@ -171,12 +299,34 @@ class GeoBoxHandler extends BaseKlvHandler {
 
     @Override
     public void reset() {
-        map.clear();
+        columns.clear();
+        if (coverageGrid != null) {
+            coverageGrid = createCoverageGrid();
+        }
     }
 
+    @Override
+    public void endPacket() {
+        columns.endRow();
+    }
+
+    private void addCoverage(int row) {
+        if (getCorners(row, cornerLongitudes, cornerLatitudes)) {
+            coverageGrid.add(cornerLongitudes, cornerLatitudes, cornerLongitudes.length);
+        }
+    }
+
+    private CoverageGrid createCoverageGrid() {
+        return new CoverageGrid(coverageMaxError, CoverageGrid.DEFAULT_MAX_CELLS_PER_SIDE);
+    }
+
+    /**
+     * @param name  the name of the stanag 4609 field
+     * @param value the value of the field, null if it is missing
+     */
     public void accept(String name, Double value) {
-        map.putIfAbsent(name, new ArrayList<>());
-        map.get(name)
-                .add(value);
+        if (!columns.set(name, value == null ? PacketAlignedColumns.MISSING : value)) {
+            LOGGER.debug("unexpected field was passed to the GeoBoxHandler: name = {}", name);
+        }
     }
 }
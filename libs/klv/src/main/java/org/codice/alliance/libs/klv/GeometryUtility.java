@@ -13,15 +13,23 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import com.vividsolutions.jts.io.WKTWriter;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+import com.vividsolutions.jts.precision.GeometryPrecisionReducer;
 
 import ddf.catalog.data.Attribute;
 
@@ -40,27 +48,59 @@ public class GeometryUtility {
      */
     public static Optional<String> createUnionOfGeometryAttribute(WKTReader wktReader,
             WKTWriter wktWriter, Attribute attribute) {
-        return attribute.getValues()
+        List<Geometry> geometries = attribute.getValues()
                 .stream()
                 .filter(serializable -> serializable instanceof String)
                 .map(s -> (String) s)
                 .map(wkt -> wktToGeometry(wkt, wktReader))
-                .reduce(GeometryUtility::geometryUnion)
-                .orElse(Optional.<Geometry>empty())
-                .map(wktWriter::write);
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+
+        if (geometries.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(wktWriter.write(UnaryUnionOp.union(geometries)));
     }
 
-    private static Optional<Geometry> geometryUnion(Optional<Geometry> geometry1,
-            Optional<Geometry> geometry2) {
-        if (geometry1.isPresent() && geometry2.isPresent()) {
-            return Optional.of(geometry1.get()
-                    .union(geometry2.get()));
-        } else if (geometry1.isPresent()) {
-            return geometry1;
-        } else if (geometry2.isPresent()) {
-            return geometry2;
+    /**
+     * Create the union of the polygons with a cascaded union, which merges nearby polygons
+     * first instead of folding every polygon into one growing result. If the list is empty,
+     * then this method returns {@link Optional#empty()}
+     *
+     * @param polygons non-null
+     * @return optional geometry
+     */
+    public static Optional<Geometry> createUnionOfPolygons(Collection<Polygon> polygons) {
+        if (polygons.isEmpty()) {
+            return Optional.empty();
         }
-        return Optional.empty();
+        return Optional.of(CascadedPolygonUnion.union(polygons));
+    }
+
+    /**
+     * Same as {@link #createUnionOfPolygons(Collection)}, but the polygons are snap-rounded to the
+     * precision model before the union and the result is rounded to it as well. Edges that
+     * nearly coincide are merged, which keeps the footprint small and the union robust.
+     *
+     * @param polygons       non-null
+     * @param precisionModel non-null
+     * @return optional geometry
+     */
+    public static Optional<Geometry> createUnionOfPolygons(Collection<Polygon> polygons,
+            PrecisionModel precisionModel) {
+        List<Geometry> reduced = polygons.stream()
+                .map(polygon -> GeometryPrecisionReducer.reduce(polygon, precisionModel))
+                .filter(geometry -> !geometry.isEmpty())
+                .collect(Collectors.toList());
+
+        if (reduced.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(GeometryPrecisionReducer.reduce(UnaryUnionOp.union(reduced),
+                precisionModel));
     }
 
     public static Optional<Geometry> wktToGeometry(String wkt, WKTReader wktReader) {
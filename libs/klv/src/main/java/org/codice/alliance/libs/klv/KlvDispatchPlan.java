@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+
+/**
+ * Dispatches the data elements of decoded KLV packets to the handlers of one handler map. Each
+ * data element is resolved by its one byte local set tag with an array lookup. The handler for a
+ * tag is looked up by name once, the first time the tag is seen, and is reused for every later
+ * packet. Elements with longer keys (eg. the universal key of the UAS local set) are resolved by
+ * name and cached the same way.
+ * <p>
+ * The data elements of the current packet are kept in a slot array and are exposed to the
+ * {@link PostProcessor} through {@link #getDataElements()}, so dispatching a packet does not
+ * allocate a new map.
+ * <p>
+ * A plan holds per-packet state and is not thread-safe. {@link Stanag4609ProcessorImpl} keeps one
+ * plan per thread and handler map. The plan does not reference the handler map itself, the map is
+ * passed to {@link #dispatch(Map, KlvContext)}, so a cache that is weakly keyed by the handler map
+ * releases the plan with the map.
+ */
+class KlvDispatchPlan {
+
+    private static final int TAG_COUNT = 256;
+
+    private static final int INITIAL_SLOT_COUNT = 64;
+
+    private final KlvHandler defaultHandler;
+
+    private final TagTable rootTable = new TagTable();
+
+    private final Map<String, Integer> slotIndex = new HashMap<>();
+
+    private final DataElementMap dataElements = new DataElementMap();
+
+    private final KlvHandler[] distinctHandlers;
+
+    private KlvDataElement[] slots = new KlvDataElement[INITIAL_SLOT_COUNT];
+
+    /**
+     * @param handlers       the handlers that packets are dispatched to, must be non-null (the
+     *                       map is not kept)
+     * @param defaultHandler must be non-null
+     */
+    KlvDispatchPlan(Map<String, KlvHandler> handlers, KlvHandler defaultHandler) {
+        notNull(handlers, "handlers must be non-null");
+        notNull(defaultHandler, "defaultHandler must be non-null");
+        this.defaultHandler = defaultHandler;
+
+        Set<KlvHandler> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinct.addAll(handlers.values());
+        distinct.add(defaultHandler);
+        this.distinctHandlers = distinct.toArray(new KlvHandler[distinct.size()]);
+    }
+
+    KlvHandler getDefaultHandler() {
+        return defaultHandler;
+    }
+
+    /**
+     * Pass each data element of the packet to its handler. Replaces the data elements of the
+     * previous packet.
+     *
+     * @param handlers   the handler map that the plan was created for, must be non-null
+     * @param klvContext must be non-null
+     */
+    void dispatch(Map<String, KlvHandler> handlers, KlvContext klvContext) {
+        notNull(handlers, "handlers must be non-null");
+        notNull(klvContext, "klvContext must be non-null");
+        Arrays.fill(slots, 0, slotIndex.size(), null);
+        dispatch(handlers, rootTable, klvContext);
+    }
+
+    /**
+     * Call {@link KlvHandler#endPacket(long)} once on each handler.
+     *
+     * @param timestamp the precision time stamp of the packet in milliseconds since the epoch,
+     *                  negative if it has none
+     */
+    void endPacket(long timestamp) {
+        for (KlvHandler klvHandler : distinctHandlers) {
+            klvHandler.endPacket(timestamp);
+        }
+    }
+
+    /**
+     * The returned map is a read-only view of the data elements of the most recent packet and is
+     * only valid until the next call to {@link #dispatch(Map, KlvContext)}.
+     *
+     * @return map of data element names to data elements
+     */
+    Map<String, KlvDataElement> getDataElements() {
+        return dataElements;
+    }
+
+    private void dispatch(Map<String, KlvHandler> handlers, TagTable tagTable,
+            KlvContext klvContext) {
+        for (KlvDataElement klvDataElement : klvContext.getDataElements()
+                .values()) {
+            TagEntry tagEntry = tagTable.lookup(handlers, klvDataElement);
+            if (klvDataElement instanceof KlvLocalSet) {
+                dispatch(handlers,
+                        tagEntry.getChildren(),
+                        ((KlvLocalSet) klvDataElement).getValue());
+            } else {
+                tagEntry.handler.accept(klvDataElement);
+                slots[tagEntry.slot] = klvDataElement;
+            }
+        }
+    }
+
+    private TagEntry createTagEntry(Map<String, KlvHandler> handlers, String name) {
+        return new TagEntry(name, handlers.getOrDefault(name, defaultHandler), slotFor(name));
+    }
+
+    private int slotFor(String name) {
+        Integer slot = slotIndex.get(name);
+        if (slot == null) {
+            slot = slotIndex.size();
+            slotIndex.put(name, slot);
+            if (slot >= slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Resolves the data elements of one local set.
+     */
+    private class TagTable {
+
+        private final TagEntry[] byTag = new TagEntry[TAG_COUNT];
+
+        private final Map<String, TagEntry> byName = new HashMap<>();
+
+        TagEntry lookup(Map<String, KlvHandler> handlers, KlvDataElement klvDataElement) {
+            byte[] key = klvDataElement.getKey();
+            String name = klvDataElement.getName();
+
+            if (key != null && key.length == 1) {
+                int tag = key[0] & 0xFF;
+                TagEntry tagEntry = byTag[tag];
+                if (tagEntry != null && tagEntry.name.equals(name)) {
+                    return tagEntry;
+                }
+                tagEntry = lookupByName(handlers, name);
+                if (byTag[tag] == null) {
+                    byTag[tag] = tagEntry;
+                }
+                return tagEntry;
+            }
+
+            return lookupByName(handlers, name);
+        }
+
+        private TagEntry lookupByName(Map<String, KlvHandler> handlers, String name) {
+            TagEntry tagEntry = byName.get(name);
+            if (tagEntry == null) {
+                tagEntry = createTagEntry(handlers, name);
+                byName.put(name, tagEntry);
+            }
+            return tagEntry;
+        }
+    }
+
+    private class TagEntry {
+
+        private final String name;
+
+        private final KlvHandler handler;
+
+        private final int slot;
+
+        private TagTable children;
+
+        TagEntry(String name, KlvHandler handler, int slot) {
+            this.name = name;
+            this.handler = handler;
+            this.slot = slot;
+        }
+
+        TagTable getChildren() {
+            if (children == null) {
+                children = new TagTable();
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Read-only map view of the slot array. Lookups by name do not allocate.
+     */
+    private class DataElementMap extends AbstractMap<String, KlvDataElement> {
+
+        @Override
+        public KlvDataElement get(Object key) {
+            Integer slot = slotIndex.get(key);
+            return slot == null ? null : slots[slot];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, KlvDataElement>> entrySet() {
+            Set<Entry<String, KlvDataElement>> entries = new HashSet<>();
+            slotIndex.forEach((name, slot) -> {
+                if (slots[slot] != null) {
+                    entries.add(new SimpleImmutableEntry<>(name, slots[slot]));
+                }
+            });
+            return entries;
+        }
+    }
+
+}
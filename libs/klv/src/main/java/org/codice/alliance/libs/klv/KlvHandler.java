@@ -54,4 +54,22 @@ public interface KlvHandler {
      */
     void reset();
 
+    /**
+     * Called after all of the data elements of one KLV packet have been passed to
+     * {@link #accept(KlvDataElement)}. Handlers that keep the fields of a packet together use this
+     * to start a new record. The default implementation does nothing.
+     */
+    default void endPacket() {
+    }
+
+    /**
+     * Same as {@link #endPacket()}, with the precision time stamp of the packet. The default
+     * implementation calls {@link #endPacket()}.
+     *
+     * @param timestamp milliseconds since the epoch, negative if the packet has no time stamp
+     */
+    default void endPacket(long timestamp) {
+        endPacket();
+    }
+
 }
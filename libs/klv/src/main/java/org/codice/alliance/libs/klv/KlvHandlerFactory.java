@@ -17,4 +17,17 @@ import java.util.Map;
 
 public interface KlvHandlerFactory {
     Map<String, KlvHandler> createStanag4609Handlers();
+
+    /**
+     * Same as {@link #createStanag4609Handlers()}, but the location and frame center handlers
+     * only keep a bounded, evenly strided sample of the packets that is large enough for a
+     * subsample of {@code subsampleCount} packets. Memory used by those handlers does not depend
+     * on the length of the input. The default implementation keeps every packet.
+     *
+     * @param subsampleCount must be at least 1
+     * @return map of stanag field names to handlers
+     */
+    default Map<String, KlvHandler> createStanag4609Handlers(int subsampleCount) {
+        return createStanag4609Handlers();
+    }
 }
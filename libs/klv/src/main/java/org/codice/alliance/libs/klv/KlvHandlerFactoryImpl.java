@@ -13,8 +13,11 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
@@ -26,6 +29,16 @@ public class KlvHandlerFactoryImpl implements KlvHandlerFactory {
 
     @Override
     public Map<String, KlvHandler> createStanag4609Handlers() {
+        return createHandlers(Optional.empty());
+    }
+
+    @Override
+    public Map<String, KlvHandler> createStanag4609Handlers(int subsampleCount) {
+        inclusiveBetween(1, Integer.MAX_VALUE, subsampleCount, "subsampleCount must be >=1");
+        return createHandlers(Optional.of(subsampleCount));
+    }
+
+    private Map<String, KlvHandler> createHandlers(Optional<Integer> streamingSubsampleCount) {
         final Map<String, KlvHandler> handlers = new HashMap<>();
 
         handlers.put(Stanag4609TransportStreamParser.MISSION_ID,
@@ -82,6 +95,7 @@ public class KlvHandlerFactoryImpl implements KlvHandlerFactory {
                 Stanag4609TransportStreamParser.CORNER_LONGITUDE_3,
                 Stanag4609TransportStreamParser.CORNER_LATITUDE_4,
                 Stanag4609TransportStreamParser.CORNER_LONGITUDE_4);
+        streamingSubsampleCount.ifPresent(cornerHandler::setStreamingSubsampleCount);
         handlers.put(Stanag4609TransportStreamParser.CORNER_LATITUDE_1, cornerHandler);
         handlers.put(Stanag4609TransportStreamParser.CORNER_LONGITUDE_1, cornerHandler);
         handlers.put(Stanag4609TransportStreamParser.CORNER_LATITUDE_2, cornerHandler);
@@ -150,9 +164,11 @@ public class KlvHandlerFactoryImpl implements KlvHandlerFactory {
                 new ListOfBasicKlvDataTypesHandler<>(AttributeNameConstants.TARGET_LOCATION_ELEVATION,
                         KlvIntegerEncodedFloatingPoint.class));
 
-        KlvHandler frameCenter = new LatitudeLongitudeHandler(AttributeNameConstants.FRAME_CENTER,
-                Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
-                Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE);
+        LatitudeLongitudeHandler frameCenter =
+                new LatitudeLongitudeHandler(AttributeNameConstants.FRAME_CENTER,
+                        Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                        Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE);
+        streamingSubsampleCount.ifPresent(frameCenter::setStreamingSubsampleCount);
         handlers.put(Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE, frameCenter);
         handlers.put(Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE, frameCenter);
 
@@ -173,4 +189,8 @@ public class KlvHandlerFactoryImpl implements KlvHandlerFactory {
 
     }
 
+    @Override
+    public String toString() {
+        return "KlvHandlerFactoryImpl{}";
+    }
 }
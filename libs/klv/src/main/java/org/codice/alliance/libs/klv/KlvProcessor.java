@@ -28,6 +28,38 @@ public interface KlvProcessor {
     class Configuration {
         public static final String SUBSAMPLE_COUNT = "subsample-count";
 
+        /**
+         * Optional scale of a fixed precision model (for example, 1000000 keeps six decimal
+         * places) that the location is snap-rounded to.
+         */
+        public static final String LOCATION_PRECISION_SCALE = "location-precision-scale";
+
+        /**
+         * Optional maximum error in degrees (a Number). If set, the location is computed from the
+         * corners of every packet on a coverage grid with cells of this size instead of the exact
+         * union of a subsample. The subsample count is still required, but it is not used.
+         */
+        public static final String LOCATION_COVERAGE_MAX_ERROR = "location-coverage-max-error";
+
+        /**
+         * Optional maximum number of values (a positive Integer) that a multi-valued KLV attribute
+         * may keep after {@link ListKlvProcessor} has run. Longer attributes are reduced to an
+         * evenly strided sample that keeps the first and last value.
+         */
+        public static final String COMPACTION_MAX_VALUES = "compaction-max-values";
+
+        /**
+         * Optional tolerance in degrees (a positive Number). If set, the WKT values of a KLV
+         * attribute are merged into one geometry that is simplified to this tolerance.
+         */
+        public static final String COMPACTION_GEOMETRY_TOLERANCE = "compaction-geometry-tolerance";
+
+        /**
+         * Optional Boolean. If true, the numeric values of a multi-valued KLV attribute are
+         * summarized as the minimum and maximum value.
+         */
+        public static final String COMPACTION_NUMERIC_RANGES = "compaction-numeric-ranges";
+
         private Map<String, Object> configuration = new HashMap<>();
 
         public void set(String name, Object value) {
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Constants and variable length integer coding shared by {@link KlvTimeSeriesWriter} and
+ * {@link KlvTimeSeriesReader}.
+ * <p>
+ * A time series file is a sequence of blocks followed by a footer:
+ * <pre>
+ * magic (4 bytes) version (1 byte)
+ * block*
+ * footer: column count, (column name, scale)*, block count,
+ *         (min pts, max pts, row count, offset, length)*
+ * footer offset (8 bytes)
+ * </pre>
+ * A block holds up to {@link #BLOCK_SIZE} rows. The presentation timestamps of the rows are stored
+ * as a zig-zag varint delta column. Each column that has a value in the block follows as its
+ * column index, a presence marker (all rows, or a bitmap of the rows that have a value) and the
+ * quantized values of the present rows as a zig-zag varint delta column.
+ */
+final class KlvTimeSeriesFormat {
+
+    static final int MAGIC = 0x4B4C5654;
+
+    static final byte VERSION = 1;
+
+    static final int BLOCK_SIZE = 4096;
+
+    static final byte ALL_PRESENT = 1;
+
+    static final byte SOME_PRESENT = 2;
+
+    /**
+     * Quantization of floating point values, 1e-7 (about 1 cm for latitude and longitude).
+     */
+    static final double DECIMAL_SCALE = 1e7;
+
+    static final double INTEGER_SCALE = 1;
+
+    private KlvTimeSeriesFormat() {
+    }
+
+    static void writeVarLong(DataOutput dataOutput, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            dataOutput.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        dataOutput.writeByte((int) zigZag);
+    }
+
+    static long readVarLong(DataInput dataInput) throws IOException {
+        long zigZag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new IOException("malformed variable length integer");
+            }
+            b = dataInput.readUnsignedByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows of a {@link KlvTimeSeriesReader} time range lookup.
+ */
+public class KlvTimeSeriesRange {
+
+    private final long[] presentationTimestamps;
+
+    private final List<String> columnNames;
+
+    private final double[][] values;
+
+    KlvTimeSeriesRange(long[] presentationTimestamps, List<String> columnNames,
+            double[][] values) {
+        this.presentationTimestamps = presentationTimestamps;
+        this.columnNames = new ArrayList<>(columnNames);
+        this.values = values;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return presentationTimestamps.length;
+    }
+
+    /**
+     * @return the presentation timestamp of each row
+     */
+    public long[] getPresentationTimestamps() {
+        return presentationTimestamps.clone();
+    }
+
+    /**
+     * @return the column names
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * @param columnName name of the column
+     * @return the value of each row, {@link Double#NaN} where the row has no value, or an empty
+     * array if the column does not exist
+     */
+    public double[] getValues(String columnName) {
+        int column = columnNames.indexOf(columnName);
+        if (column < 0) {
+            return new double[0];
+        }
+        return values[column].clone();
+    }
+}
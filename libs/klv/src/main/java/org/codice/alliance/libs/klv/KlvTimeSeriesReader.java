@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a time series written by {@link KlvTimeSeriesWriter}. Only the footer is decoded up
+ * front. A time range lookup decodes the blocks whose timestamps overlap the range and skips the
+ * rest.
+ */
+public class KlvTimeSeriesReader {
+
+    private static final int HEADER_LENGTH = 5;
+
+    private static final int FOOTER_OFFSET_LENGTH = 8;
+
+    private final byte[] bytes;
+
+    private final List<String> columnNames = new ArrayList<>();
+
+    private final double[] scales;
+
+    private final long[] minPresentationTimestamps;
+
+    private final long[] maxPresentationTimestamps;
+
+    private final int[] rowCounts;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private long decodedBlockCount;
+
+    /**
+     * @param bytes the encoded time series, must be non-null
+     * @throws IOException if the bytes are not a time series
+     */
+    public KlvTimeSeriesReader(byte[] bytes) throws IOException {
+        notNull(bytes, "bytes must be non-null");
+
+        if (bytes.length < HEADER_LENGTH + FOOTER_OFFSET_LENGTH) {
+            throw new IOException("time series is truncated");
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        if (byteBuffer.getInt() != KlvTimeSeriesFormat.MAGIC
+                || byteBuffer.get() != KlvTimeSeriesFormat.VERSION) {
+            throw new IOException("not a KLV time series");
+        }
+
+        long footerOffset = byteBuffer.getLong(bytes.length - FOOTER_OFFSET_LENGTH);
+        if (footerOffset < HEADER_LENGTH || footerOffset > bytes.length - FOOTER_OFFSET_LENGTH) {
+            throw new IOException("footer offset is out of range: " + footerOffset);
+        }
+
+        this.bytes = bytes;
+
+        DataInputStream footer = open(footerOffset,
+                bytes.length - FOOTER_OFFSET_LENGTH - (int) footerOffset);
+
+        int columnCount = footer.readInt();
+        scales = new double[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames.add(footer.readUTF());
+            scales[i] = footer.readDouble();
+        }
+
+        int blockCount = footer.readInt();
+        minPresentationTimestamps = new long[blockCount];
+        maxPresentationTimestamps = new long[blockCount];
+        rowCounts = new int[blockCount];
+        offsets = new long[blockCount];
+        lengths = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            minPresentationTimestamps[i] = footer.readLong();
+            maxPresentationTimestamps[i] = footer.readLong();
+            rowCounts[i] = footer.readInt();
+            offsets[i] = footer.readLong();
+            lengths[i] = footer.readInt();
+            if (offsets[i] < HEADER_LENGTH || offsets[i] + lengths[i] > footerOffset) {
+                throw new IOException("block is out of range: " + i);
+            }
+        }
+    }
+
+    /**
+     * @return the column names in the order they were first written
+     */
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * @return total number of rows
+     */
+    public long getRowCount() {
+        long rowCount = 0;
+        for (int count : rowCounts) {
+            rowCount += count;
+        }
+        return rowCount;
+    }
+
+    /**
+     * Read the rows whose presentation timestamp is in the range {@code [startPts, endPts]}.
+     *
+     * @param startPts inclusive start of the range
+     * @param endPts   inclusive end of the range
+     * @return the rows in the range, in the order they were written
+     * @throws IOException if a block cannot be decoded
+     */
+    public KlvTimeSeriesRange read(long startPts, long endPts) throws IOException {
+        int rowCount = 0;
+        for (int i = 0; i < rowCounts.length; i++) {
+            if (overlaps(i, startPts, endPts)) {
+                rowCount += rowCounts[i];
+            }
+        }
+
+        long[] presentationTimestamps = new long[rowCount];
+        double[][] values = new double[columnNames.size()][rowCount];
+        for (double[] column : values) {
+            Arrays.fill(column, Double.NaN);
+        }
+
+        int row = 0;
+        for (int i = 0; i < rowCounts.length; i++) {
+            if (overlaps(i, startPts, endPts)) {
+                decodeBlock(i, presentationTimestamps, values, row);
+                row += rowCounts[i];
+            }
+        }
+
+        return filter(presentationTimestamps, values, startPts, endPts);
+    }
+
+    long getDecodedBlockCount() {
+        return decodedBlockCount;
+    }
+
+    private boolean overlaps(int block, long startPts, long endPts) {
+        return minPresentationTimestamps[block] <= endPts
+                && maxPresentationTimestamps[block] >= startPts;
+    }
+
+    private void decodeBlock(int block, long[] presentationTimestamps, double[][] values,
+            int firstRow) throws IOException {
+        decodedBlockCount++;
+
+        DataInputStream input = open(offsets[block], lengths[block]);
+
+        int rowCount = (int) KlvTimeSeriesFormat.readVarLong(input);
+        if (rowCount != rowCounts[block]) {
+            throw new IOException("row count does not match the block index: " + block);
+        }
+
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            previous += KlvTimeSeriesFormat.readVarLong(input);
+            presentationTimestamps[firstRow + row] = previous;
+        }
+
+        int columnCount = (int) KlvTimeSeriesFormat.readVarLong(input);
+        for (int i = 0; i < columnCount; i++) {
+            int column = (int) KlvTimeSeriesFormat.readVarLong(input);
+            if (column < 0 || column >= scales.length) {
+                throw new IOException("unknown column: " + column);
+            }
+            decodeColumn(input, rowCount, values[column], firstRow, scales[column]);
+        }
+    }
+
+    private void decodeColumn(DataInputStream input, int rowCount, double[] values, int firstRow,
+            double scale) throws IOException {
+        byte presence = input.readByte();
+
+        byte[] bitmap = null;
+        if (presence == KlvTimeSeriesFormat.SOME_PRESENT) {
+            bitmap = new byte[(rowCount + 7) / 8];
+            input.readFully(bitmap);
+        } else if (presence != KlvTimeSeriesFormat.ALL_PRESENT) {
+            throw new IOException("unknown presence marker: " + presence);
+        }
+
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (bitmap == null || (bitmap[row / 8] & (1 << (row % 8))) != 0) {
+                previous += KlvTimeSeriesFormat.readVarLong(input);
+                values[firstRow + row] = previous / scale;
+            }
+        }
+    }
+
+    private KlvTimeSeriesRange filter(long[] presentationTimestamps, double[][] values,
+            long startPts, long endPts) {
+        int count = 0;
+        for (long presentationTimestamp : presentationTimestamps) {
+            if (presentationTimestamp >= startPts && presentationTimestamp <= endPts) {
+                count++;
+            }
+        }
+
+        if (count == presentationTimestamps.length) {
+            return new KlvTimeSeriesRange(presentationTimestamps, columnNames, values);
+        }
+
+        long[] filteredTimestamps = new long[count];
+        double[][] filteredValues = new double[values.length][count];
+        int index = 0;
+        for (int row = 0; row < presentationTimestamps.length; row++) {
+            if (presentationTimestamps[row] >= startPts && presentationTimestamps[row] <= endPts) {
+                filteredTimestamps[index] = presentationTimestamps[row];
+                for (int column = 0; column < values.length; column++) {
+                    filteredValues[column][index] = values[column][row];
+                }
+                index++;
+            }
+        }
+
+        return new KlvTimeSeriesRange(filteredTimestamps, columnNames, filteredValues);
+    }
+
+    private DataInputStream open(long offset, int length) {
+        return new DataInputStream(new ByteArrayInputStream(bytes, (int) offset, length));
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.FileBackedOutputStream;
+
+/**
+ * Records the numeric KLV values of each packet as a compact binary time series keyed by the
+ * presentation timestamp (PTS) of the packet. See {@link KlvTimeSeriesFormat} for the layout and
+ * {@link KlvTimeSeriesReader} for time range lookups.
+ * <p>
+ * Rows are encoded one block at a time, so the writer only keeps one block of raw values in
+ * memory. The encoded blocks are kept in a {@link FileBackedOutputStream}, which moves them to a
+ * temporary file once they exceed {@link #ENCODED_BLOCKS_FILE_THRESHOLD} bytes. Call
+ * {@link #close()} to delete the temporary file. Floating point values are quantized to {@link
+ * KlvTimeSeriesFormat#DECIMAL_SCALE}. Packets without a PTS are keyed by the PTS of the previous
+ * packet of the same stream.
+ */
+public class KlvTimeSeriesWriter implements Closeable {
+
+    private static final int ENCODED_BLOCKS_FILE_THRESHOLD = 1000000;
+
+    private final Map<String, Column> columnsByName = new HashMap<>();
+
+    private final List<Column> columns = new ArrayList<>();
+
+    private final List<BlockInfo> blocks = new ArrayList<>();
+
+    private final FileBackedOutputStream encodedBlocks = new FileBackedOutputStream(
+            ENCODED_BLOCKS_FILE_THRESHOLD,
+            true);
+
+    private final CountingOutputStream encodedBlocksCounter = new CountingOutputStream(
+            encodedBlocks);
+
+    private final DataOutputStream blockOutput = new DataOutputStream(encodedBlocksCounter);
+
+    private final Map<Integer, Long> lastPresentationTimestamps = new HashMap<>();
+
+    private final long[] presentationTimestamps = new long[KlvTimeSeriesFormat.BLOCK_SIZE];
+
+    private int rowCount;
+
+    private long totalRowCount;
+
+    /**
+     * Add the numeric data elements of a decoded packet. A packet without a PTS is keyed by the
+     * PTS of the previous packet with the same {@code packetId}.
+     *
+     * @param packetId the PID of the KLV stream of the packet
+     * @param packet   must be non-null
+     */
+    public void add(int packetId, DecodedKLVMetadataPacket packet) {
+        notNull(packet, "packet must be non-null");
+
+        Map<String, Number> values = new HashMap<>();
+        collectNumbers(packet.getDecodedKLV(), values);
+
+        long presentationTimestamp = packet.getPresentationTimestamp();
+        if (presentationTimestamp < 0) {
+            presentationTimestamp = lastPresentationTimestamps.getOrDefault(packetId, 0L);
+        } else {
+            lastPresentationTimestamps.put(packetId, presentationTimestamp);
+        }
+
+        add(presentationTimestamp, values);
+    }
+
+    /**
+     * Add one row.
+     *
+     * @param presentationTimestamp the key of the row
+     * @param values                map of column names to values, must be non-null
+     */
+    public void add(long presentationTimestamp, Map<String, ? extends Number> values) {
+        notNull(values, "values must be non-null");
+
+        presentationTimestamps[rowCount] = presentationTimestamp;
+
+        for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+            Number value = entry.getValue();
+            if (value == null || Double.isNaN(value.doubleValue())) {
+                continue;
+            }
+            getColumn(entry.getKey(), value).set(rowCount, value.doubleValue());
+        }
+
+        rowCount++;
+        totalRowCount++;
+
+        if (rowCount == KlvTimeSeriesFormat.BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * @return number of rows added
+     */
+    public long getRowCount() {
+        return totalRowCount;
+    }
+
+    /**
+     * Write the time series. Rows can still be added afterwards.
+     *
+     * @param outputStream must be non-null
+     * @throws IOException if the output stream cannot be written
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        notNull(outputStream, "outputStream must be non-null");
+
+        flushBlock();
+
+        DataOutputStream dataOutput = new DataOutputStream(outputStream);
+        dataOutput.writeInt(KlvTimeSeriesFormat.MAGIC);
+        dataOutput.writeByte(KlvTimeSeriesFormat.VERSION);
+        encodedBlocks.asByteSource()
+                .copyTo(dataOutput);
+
+        long footerOffset = 5L + encodedBlocksCounter.getCount();
+
+        dataOutput.writeInt(columns.size());
+        for (Column column : columns) {
+            dataOutput.writeUTF(column.name);
+            dataOutput.writeDouble(column.scale);
+        }
+
+        dataOutput.writeInt(blocks.size());
+        for (BlockInfo block : blocks) {
+            dataOutput.writeLong(block.minPresentationTimestamp);
+            dataOutput.writeLong(block.maxPresentationTimestamp);
+            dataOutput.writeInt(block.rowCount);
+            dataOutput.writeLong(block.offset + 5L);
+            dataOutput.writeInt(block.length);
+        }
+
+        dataOutput.writeLong(footerOffset);
+        dataOutput.flush();
+    }
+
+    /**
+     * @return the encoded time series
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            writeTo(outputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to write to a byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Delete the temporary file of the encoded blocks, if any. Rows cannot be added afterwards.
+     *
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        encodedBlocks.reset();
+    }
+
+    private Column getColumn(String name, Number value) {
+        Column column = columnsByName.get(name);
+        if (column == null) {
+            boolean integral = value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte;
+            double scale = integral ?
+                    KlvTimeSeriesFormat.INTEGER_SCALE :
+                    KlvTimeSeriesFormat.DECIMAL_SCALE;
+            column = new Column(columns.size(), name, scale);
+            columnsByName.put(name, column);
+            columns.add(column);
+        }
+        return column;
+    }
+
+    private void collectNumbers(KlvContext klvContext, Map<String, Number> values) {
+        for (KlvDataElement klvDataElement : klvContext.getDataElements()
+                .values()) {
+            if (klvDataElement instanceof KlvLocalSet) {
+                collectNumbers(((KlvLocalSet) klvDataElement).getValue(), values);
+            } else if (klvDataElement.getValue() instanceof Number) {
+                values.put(klvDataElement.getName(), (Number) klvDataElement.getValue());
+            }
+        }
+    }
+
+    private void flushBlock() {
+        if (rowCount == 0) {
+            return;
+        }
+
+        long offset = encodedBlocksCounter.getCount();
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < rowCount; row++) {
+            min = Math.min(min, presentationTimestamps[row]);
+            max = Math.max(max, presentationTimestamps[row]);
+        }
+
+        try {
+            KlvTimeSeriesFormat.writeVarLong(blockOutput, rowCount);
+            writeDeltas(presentationTimestamps, rowCount);
+
+            List<Column> presentColumns = new ArrayList<>();
+            for (Column column : columns) {
+                if (column.presentCount > 0) {
+                    presentColumns.add(column);
+                }
+            }
+
+            KlvTimeSeriesFormat.writeVarLong(blockOutput, presentColumns.size());
+            for (Column column : presentColumns) {
+                writeColumn(column);
+                column.clear();
+            }
+            blockOutput.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to write the encoded block", e);
+        }
+
+        blocks.add(new BlockInfo(min,
+                max,
+                rowCount,
+                offset,
+                Math.toIntExact(encodedBlocksCounter.getCount() - offset)));
+        rowCount = 0;
+    }
+
+    private void writeColumn(Column column) throws IOException {
+        KlvTimeSeriesFormat.writeVarLong(blockOutput, column.index);
+
+        if (column.presentCount == rowCount) {
+            blockOutput.writeByte(KlvTimeSeriesFormat.ALL_PRESENT);
+        } else {
+            blockOutput.writeByte(KlvTimeSeriesFormat.SOME_PRESENT);
+            byte[] bitmap = new byte[(rowCount + 7) / 8];
+            for (int row = 0; row < rowCount; row++) {
+                if (column.present[row]) {
+                    bitmap[row / 8] |= 1 << (row % 8);
+                }
+            }
+            blockOutput.write(bitmap);
+        }
+
+        long[] presentValues = new long[column.presentCount];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (column.present[row]) {
+                presentValues[count++] = column.values[row];
+            }
+        }
+        writeDeltas(presentValues, count);
+    }
+
+    private void writeDeltas(long[] values, int count) throws IOException {
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            KlvTimeSeriesFormat.writeVarLong(blockOutput, values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    private static class Column {
+
+        private final int index;
+
+        private final String name;
+
+        private final double scale;
+
+        private final long[] values = new long[KlvTimeSeriesFormat.BLOCK_SIZE];
+
+        private final boolean[] present = new boolean[KlvTimeSeriesFormat.BLOCK_SIZE];
+
+        private int presentCount;
+
+        Column(int index, String name, double scale) {
+            this.index = index;
+            this.name = name;
+            this.scale = scale;
+        }
+
+        void set(int row, double value) {
+            values[row] = Math.round(value * scale);
+            if (!present[row]) {
+                present[row] = true;
+                presentCount++;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(present, false);
+            presentCount = 0;
+        }
+    }
+
+    private static class BlockInfo {
+
+        private final long minPresentationTimestamp;
+
+        private final long maxPresentationTimestamp;
+
+        private final int rowCount;
+
+        private final long offset;
+
+        private final int length;
+
+        BlockInfo(long minPresentationTimestamp, long maxPresentationTimestamp, int rowCount,
+                long offset, int length) {
+            this.minPresentationTimestamp = minPresentationTimestamp;
+            this.maxPresentationTimestamp = maxPresentationTimestamp;
+            this.rowCount = rowCount;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
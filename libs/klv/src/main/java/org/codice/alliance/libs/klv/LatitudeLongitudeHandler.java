@@ -14,8 +14,6 @@
 package org.codice.alliance.libs.klv;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -28,13 +26,19 @@ import org.slf4j.LoggerFactory;
 import ddf.catalog.data.Attribute;
 
 /**
- * This handler expects pairs of latitude and longitude values. It generates WKT Points.
+ * This handler expects pairs of latitude and longitude values. It generates WKT Points. The values
+ * are stored in {@link PacketAlignedColumns}, one row per KLV packet, and packets that are missing
+ * either value do not generate a point.
  */
 class LatitudeLongitudeHandler extends BaseKlvHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LatitudeLongitudeHandler.class);
 
-    private Map<String, List<Double>> map = new HashMap<>();
+    private static final int LATITUDE = 0;
+
+    private static final int LONGITUDE = 1;
+
+    private final PacketAlignedColumns columns;
 
     private String latitudeFieldName;
 
@@ -45,6 +49,7 @@ class LatitudeLongitudeHandler extends BaseKlvHandler {
         super(attributeName);
         this.latitudeFieldName = latitudeFieldName;
         this.longitudeFieldName = longitudeFieldName;
+        this.columns = new PacketAlignedColumns(latitudeFieldName, longitudeFieldName);
     }
 
     public String getLongitudeFieldName() {
@@ -55,27 +60,44 @@ class LatitudeLongitudeHandler extends BaseKlvHandler {
         return latitudeFieldName;
     }
 
+    /**
+     * Get a boxed copy of the stored values. Missing values are {@link PacketAlignedColumns#MISSING}.
+     *
+     * @return map of field names to values
+     */
     public Map<String, List<Double>> getRawGeoData() {
-        return map;
+        return columns.toMap();
+    }
+
+    PacketAlignedColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * Keep a bounded, evenly strided sample of the packets instead of every packet. Between
+     * {@code subsampleCount} and {@code 2 * subsampleCount} packets are kept, so a later subsample
+     * of {@code subsampleCount} packets is still spread over the whole input.
+     *
+     * @param subsampleCount must be at least 1
+     */
+    void setStreamingSubsampleCount(int subsampleCount) {
+        columns.setMaxRows((int) Math.min(Integer.MAX_VALUE, 2L * subsampleCount));
     }
 
     @Override
     public Optional<Attribute> asAttribute() {
 
-        int minimumListSize = map.values()
-                .stream()
-                .min((a, b) -> Integer.compare(a.size(), b.size()))
-                .orElse(Collections.emptyList())
-                .size();
+        int rowCount = columns.getRowCount();
 
         List<String> pairs = new ArrayList<>();
 
-        for (int i = 0; i < minimumListSize; i++) {
+        for (int row = 0; row < rowCount; row++) {
+            if (!columns.isComplete(row)) {
+                continue;
+            }
             pairs.add(String.format("POINT (%f %f)",
-                    map.get(longitudeFieldName)
-                            .get(i),
-                    map.get(latitudeFieldName)
-                            .get(i)));
+                    columns.get(LONGITUDE, row),
+                    columns.get(LATITUDE, row)));
         }
 
         return asAttribute(pairs);
@@ -90,14 +112,21 @@ class LatitudeLongitudeHandler extends BaseKlvHandler {
                     klvDataElement);
             return;
         }
-        map.putIfAbsent(klvDataElement.getName(), new ArrayList<>());
-        map.get(klvDataElement.getName())
-                .add(((KlvIntegerEncodedFloatingPoint) klvDataElement).getValue());
+        if (!columns.set(klvDataElement.getName(),
+                ((KlvIntegerEncodedFloatingPoint) klvDataElement).getValue())) {
+            LOGGER.debug("unexpected field was passed to the LatitudeLongitudeHandler: name = {}",
+                    klvDataElement.getName());
+        }
     }
 
     @Override
     public void reset() {
-        map.clear();
+        columns.clear();
+    }
+
+    @Override
+    public void endPacket() {
+        columns.endRow();
     }
 
 }
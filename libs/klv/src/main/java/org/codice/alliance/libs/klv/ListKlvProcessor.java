@@ -13,18 +13,31 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.apache.commons.lang3.Validate.notNull;
+
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ddf.catalog.data.Metacard;
 
 /**
- * This {@link KlvProcessor} delegates to each KlvProcessor in a list of processors.
+ * This {@link KlvProcessor} delegates to each KlvProcessor in a list of processors. If compaction
+ * is configured (see {@link AttributeCompactor}), then the attributes named by the handlers are
+ * compacted after all of the processors have run.
  */
 public class ListKlvProcessor implements KlvProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListKlvProcessor.class);
+
     private final List<KlvProcessor> klvProcessorList;
 
+    private AttributeCompactor attributeCompactor = new AttributeCompactor();
+
     public ListKlvProcessor(List<KlvProcessor> klvProcessorList) {
         this.klvProcessorList = klvProcessorList;
     }
@@ -35,6 +48,47 @@ public class ListKlvProcessor implements KlvProcessor {
         klvProcessorList.forEach(klvProcessor -> klvProcessor.process(handlers,
                 metacard,
                 configuration));
+
+        if (AttributeCompactor.isEnabled(configuration)) {
+            compact(handlers, metacard, configuration);
+        }
+    }
+
+    /**
+     * @param attributeCompactor must be non-null
+     */
+    public void setAttributeCompactor(AttributeCompactor attributeCompactor) {
+        notNull(attributeCompactor, "attributeCompactor must be non-null");
+        this.attributeCompactor = attributeCompactor;
     }
 
+    private void compact(Map<String, KlvHandler> handlers, Metacard metacard,
+            Configuration configuration) {
+        Set<String> attributeNames = handlers.values()
+                .stream()
+                .map(KlvHandler::getAttributeName)
+                .collect(Collectors.toSet());
+
+        long removed = attributeCompactor.compact(metacard, attributeNames, configuration);
+
+        LOGGER.debug("compacted klv attributes: metacardId={} estimatedBytesRemoved={}",
+                metacard.getId(),
+                removed);
+    }
+
+    /**
+     * The processors are configured by the {@link Configuration} passed to
+     * {@link #process(Map, Metacard, Configuration)}, so they are described by their class.
+     */
+    @Override
+    public String toString() {
+        return "ListKlvProcessor{" +
+                "klvProcessorList=" + klvProcessorList.stream()
+                .map(klvProcessor -> klvProcessor.getClass()
+                        .getName())
+                .collect(Collectors.toList()) +
+                ", attributeCompactor=" + attributeCompactor.getClass()
+                .getName() +
+                '}';
+    }
 }
@@ -14,9 +14,11 @@
 package org.codice.alliance.libs.klv;
 
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import org.codice.ddf.libs.klv.KlvDataElement;
 import org.slf4j.Logger;
@@ -27,16 +29,27 @@ import ddf.catalog.data.Attribute;
 /**
  * This handler expects a KlvDataElement that matches the Class passed into
  * {@link #ListOfBasicKlvDataTypesHandler(String, Class)} generates a list of values returned by
- * {@link KlvDataElement#getValue()}.
+ * {@link KlvDataElement#getValue()}. Double values are stored in a primitive column and are only
+ * boxed when the attribute is created. Other values are stored as {@link RunLengthValues}, so a
+ * value that repeats from packet to packet is stored once per run, together with the time span of
+ * the packets that carried it. The attribute lists the value of each run once.
  */
 class ListOfBasicKlvDataTypesHandler<T extends Serializable> extends BaseKlvHandler {
 
     private static final Logger LOGGER =
             LoggerFactory.getLogger(ListOfBasicKlvDataTypesHandler.class);
 
+    private static final String VALUE_COLUMN_NAME = "value";
+
+    private static final int VALUE_COLUMN = 0;
+
     private Class<? extends KlvDataElement<T>> clazz;
 
-    private List<T> list = new LinkedList<>();
+    private final RunLengthValues<T> runs = new RunLengthValues<>();
+
+    private final PacketAlignedColumns doubleValues = new PacketAlignedColumns(VALUE_COLUMN_NAME);
+
+    private boolean valueInPacket = false;
 
     public ListOfBasicKlvDataTypesHandler(String attributeName,
             Class<? extends KlvDataElement<T>> clazz) {
@@ -44,9 +57,67 @@ class ListOfBasicKlvDataTypesHandler<T extends Serializable> extends BaseKlvHand
         this.clazz = clazz;
     }
 
+    /**
+     * Double values are listed per packet, other values are listed once per run.
+     */
     @Override
     public Optional<Attribute> asAttribute() {
-        return asAttribute(list);
+        int rowCount = doubleValues.getRowCount();
+        List<Serializable> values = new ArrayList<>(rowCount + runs.getRunCount());
+        for (int row = 0; row < rowCount; row++) {
+            values.add(doubleValues.get(VALUE_COLUMN, row));
+        }
+        runs.addRunValuesTo(values);
+        return asAttribute(values);
+    }
+
+    /**
+     * Same as {@link #asAttribute()}, but each value is only included once.
+     *
+     * @return optional attribute
+     */
+    public Optional<Attribute> asDistinctAttribute() {
+        return asAttribute(getDistinctValues());
+    }
+
+    /**
+     * The distinct values in the order they were first seen. Values other than doubles are
+     * read from the runs.
+     *
+     * @return list of distinct values
+     */
+    public List<Serializable> getDistinctValues() {
+        Set<Serializable> distinct = new LinkedHashSet<>();
+        int rowCount = doubleValues.getRowCount();
+        for (int row = 0; row < rowCount; row++) {
+            distinct.add(doubleValues.get(VALUE_COLUMN, row));
+        }
+        distinct.addAll(runs.getDistinct());
+        return new ArrayList<>(distinct);
+    }
+
+    public Optional<Serializable> getFirstValue() {
+        if (doubleValues.getRowCount() > 0) {
+            return Optional.of(doubleValues.get(VALUE_COLUMN, 0));
+        }
+        return runs.getFirst()
+                .map(Serializable.class::cast);
+    }
+
+    public Optional<Serializable> getLastValue() {
+        if (!runs.isEmpty()) {
+            return runs.getLast()
+                    .map(Serializable.class::cast);
+        }
+        int rowCount = doubleValues.getRowCount();
+        if (rowCount > 0) {
+            return Optional.of(doubleValues.get(VALUE_COLUMN, rowCount - 1));
+        }
+        return Optional.empty();
+    }
+
+    RunLengthValues<T> getRuns() {
+        return runs;
     }
 
     @Override
@@ -59,13 +130,33 @@ class ListOfBasicKlvDataTypesHandler<T extends Serializable> extends BaseKlvHand
                     klvDataElement);
             return;
         }
-        list.add(clazz.cast(klvDataElement)
-                .getValue());
+        T value = clazz.cast(klvDataElement)
+                .getValue();
+        if (value instanceof Double) {
+            doubleValues.set(VALUE_COLUMN, (Double) value);
+            doubleValues.endRow();
+        } else {
+            runs.add(value);
+            valueInPacket = true;
+        }
+    }
+
+    /**
+     * Extend the time span of the current run if the packet carried a value.
+     */
+    @Override
+    public void endPacket(long timestamp) {
+        if (valueInPacket) {
+            runs.addTimestamp(timestamp);
+        }
+        valueInPacket = false;
     }
 
     @Override
     public void reset() {
-        list.clear();
+        runs.clear();
+        doubleValues.clear();
+        valueInPacket = false;
     }
 
 }
@@ -13,23 +13,37 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
 import com.vividsolutions.jts.io.WKTWriter;
 
-import ddf.catalog.data.Attribute;
 import ddf.catalog.data.Metacard;
 import ddf.catalog.data.impl.AttributeImpl;
 
 /**
  * Generate the location metadata based on the klv corner data. Callers must supply a
  * {@link Configuration} that contains a postive (>0)
- * Integer for {@link Configuration#SUBSAMPLE_COUNT}.
+ * Integer for {@link Configuration#SUBSAMPLE_COUNT}. The corner polygons are built and combined
+ * as JTS geometries and WKT is only written for the final location. If
+ * {@link Configuration#LOCATION_PRECISION_SCALE} is set to a positive number, then the location is
+ * snap-rounded to that precision.
+ * <p>
+ * If {@link Configuration#LOCATION_COVERAGE_MAX_ERROR} is set to a positive number, then every
+ * packet is rasterized onto a {@link CoverageGrid} instead, which costs constant work per packet,
+ * and the covered cells are traced into the location. Callers should pass the same value to
+ * {@link #enableCoverage(Map, double)} before the packets are handled, so that each packet is
+ * added to the grid as it is handled, including the packets that the streaming subsample drops.
  */
 public class LocationKlvProcessor implements KlvProcessor {
 
@@ -37,7 +51,22 @@ public class LocationKlvProcessor implements KlvProcessor {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LocationKlvProcessor.class);
 
-    private Optional<KlvHandler> find(Map<String, KlvHandler> handlers, String name) {
+    /**
+     * Let the corner handler add each packet to a coverage grid as the packet is handled. Must be
+     * called before any packet is handled.
+     *
+     * @param handlers handlers created by {@link KlvHandlerFactory}, must be non-null
+     * @param maxError the value of {@link Configuration#LOCATION_COVERAGE_MAX_ERROR}, must be
+     *                 positive
+     */
+    public static void enableCoverage(Map<String, KlvHandler> handlers, double maxError) {
+        notNull(handlers, "handlers must be non-null");
+        find(handlers, AttributeNameConstants.CORNER).filter(GeoBoxHandler.class::isInstance)
+                .map(GeoBoxHandler.class::cast)
+                .ifPresent(geoBoxHandler -> geoBoxHandler.setCoverageMaxError(maxError));
+    }
+
+    private static Optional<KlvHandler> find(Map<String, KlvHandler> handlers, String name) {
         return handlers.values()
                 .stream()
                 .filter(handler -> handler.getAttributeName()
@@ -59,36 +88,89 @@ public class LocationKlvProcessor implements KlvProcessor {
 
         Integer subsampleCount = (Integer) configuration.get(Configuration.SUBSAMPLE_COUNT);
 
-        find(handlers, AttributeNameConstants.CORNER).ifPresent(cornerHandler -> {
-            if (cornerHandler instanceof GeoBoxHandler) {
-                subsample((GeoBoxHandler) cornerHandler, subsampleCount).asAttribute()
-                        .ifPresent(attribute -> setLocationFromCornerAttribute(metacard,
-                                attribute));
-            }
-        });
+        find(handlers, AttributeNameConstants.CORNER).filter(GeoBoxHandler.class::isInstance)
+                .map(GeoBoxHandler.class::cast)
+                .flatMap(geoBoxHandler -> createLocation(geoBoxHandler,
+                        subsampleCount,
+                        configuration))
+                .ifPresent(location -> setLocation(metacard, location));
 
     }
 
-    private void setLocationFromCornerAttribute(Metacard metacard, Attribute attribute) {
-        WKTReader wktReader = new WKTReader();
-        WKTWriter wktWriter = new WKTWriter();
+    private Optional<Geometry> createLocation(GeoBoxHandler geoBoxHandler,
+            Integer subsampleCount, Configuration configuration) {
+
+        Optional<CoverageGrid> coverageGrid = geoBoxHandler.getCoverageGrid();
 
-        GeometryUtility.createUnionOfGeometryAttribute(wktReader, wktWriter, attribute)
-                .ifPresent(location -> metacard.setAttribute(new AttributeImpl(Metacard.GEOGRAPHY,
-                        location)));
+        if (coverageGrid.isPresent()) {
+            return coverageGrid.get()
+                    .toGeometry(new GeometryFactory());
+        }
+
+        Optional<Double> coverageMaxError = getPositiveNumber(configuration,
+                Configuration.LOCATION_COVERAGE_MAX_ERROR);
+
+        if (coverageMaxError.isPresent()) {
+            return coverage(geoBoxHandler, coverageMaxError.get());
+        }
 
+        List<Polygon> polygons = subsample(geoBoxHandler, subsampleCount).asPolygons(
+                new GeometryFactory());
+
+        return union(polygons, getPrecisionModel(configuration));
     }
 
-    GeoBoxHandler subsample(GeoBoxHandler geoBoxHandler, Integer subsampleCount) {
+    private void setLocation(Metacard metacard, Geometry location) {
+        metacard.setAttribute(new AttributeImpl(Metacard.GEOGRAPHY,
+                new WKTWriter().write(location)));
+    }
 
-        if (geoBoxHandler.getRawGeoData()
-                .isEmpty()) {
-            return geoBoxHandler;
+    private Optional<Geometry> union(List<Polygon> polygons,
+            Optional<PrecisionModel> precisionModel) {
+        if (precisionModel.isPresent()) {
+            return GeometryUtility.createUnionOfPolygons(polygons, precisionModel.get());
+        }
+        return GeometryUtility.createUnionOfPolygons(polygons);
+    }
+
+    private Optional<PrecisionModel> getPrecisionModel(Configuration configuration) {
+        return getPositiveNumber(configuration, Configuration.LOCATION_PRECISION_SCALE)
+                .map(PrecisionModel::new);
+    }
+
+    private Optional<Double> getPositiveNumber(Configuration configuration, String name) {
+        Object value = configuration.get(name);
+        if (value instanceof Number && ((Number) value).doubleValue() > 0) {
+            return Optional.of(((Number) value).doubleValue());
         }
+        return Optional.empty();
+    }
+
+    Optional<Geometry> coverage(GeoBoxHandler geoBoxHandler, double maxError) {
+
+        CoverageGrid coverageGrid = new CoverageGrid(maxError,
+                CoverageGrid.DEFAULT_MAX_CELLS_PER_SIDE);
+
+        double[] longitudes = new double[4];
+        double[] latitudes = new double[4];
 
-        int size = geoBoxHandler.getRawGeoData()
-                .get(geoBoxHandler.getLatitude1())
-                .size();
+        int rowCount = geoBoxHandler.getColumns()
+                .getRowCount();
+
+        for (int row = 0; row < rowCount; row++) {
+            if (geoBoxHandler.getCorners(row, longitudes, latitudes)) {
+                coverageGrid.add(longitudes, latitudes, longitudes.length);
+            }
+        }
+
+        return coverageGrid.toGeometry(new GeometryFactory());
+    }
+
+    GeoBoxHandler subsample(GeoBoxHandler geoBoxHandler, Integer subsampleCount) {
+
+        PacketAlignedColumns columns = geoBoxHandler.getColumns();
+
+        int size = columns.getRowCount();
 
         if (size <= subsampleCount) {
             return geoBoxHandler;
@@ -104,12 +186,15 @@ public class LocationKlvProcessor implements KlvProcessor {
                 geoBoxHandler.getLatitude4(),
                 geoBoxHandler.getLongitude4());
 
-        geoBoxHandler.getRawGeoData()
-                .forEach((key, value) -> {
-                    for (int i = 0; i < subsampleCount; i++) {
-                        out.accept(key, value.get(i * size / subsampleCount));
-                    }
-                });
+        PacketAlignedColumns outColumns = out.getColumns();
+
+        for (int i = 0; i < subsampleCount; i++) {
+            int row = i * size / subsampleCount;
+            for (int column = 0; column < columns.getColumnCount(); column++) {
+                outColumns.set(column, columns.get(column, row));
+            }
+            outColumns.endRow();
+        }
 
         return out;
     }
@@ -15,6 +15,7 @@ package org.codice.alliance.libs.klv;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import ddf.catalog.data.Attribute;
@@ -43,8 +44,19 @@ public abstract class MultipleFieldKlvProcessor implements KlvProcessor {
     private void callFirstHandler(Metacard metacard, List<KlvHandler> stanagHandlers) {
         stanagHandlers.stream()
                 .findFirst()
-                .ifPresent(handler -> handler.asAttribute()
-                        .ifPresent(attribute -> doProcess(attribute, metacard)));
+                .flatMap(this::asAttribute)
+                .ifPresent(attribute -> doProcess(attribute, metacard));
+    }
+
+    /**
+     * Get the attribute from the handler. Subclasses may override this to ask the handler for a
+     * cheaper form of the attribute.
+     *
+     * @param handler the handler of the first stanag field
+     * @return optional attribute
+     */
+    protected Optional<Attribute> asAttribute(KlvHandler handler) {
+        return handler.asAttribute();
     }
 
     private boolean areAllHandlersFound(List<KlvHandler> stanagHandlers) {
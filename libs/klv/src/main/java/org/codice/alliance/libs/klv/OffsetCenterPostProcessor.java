@@ -13,7 +13,11 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.KlvDataElement;
@@ -24,6 +28,18 @@ import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
  */
 public class OffsetCenterPostProcessor implements PostProcessor {
 
+    private static final Set<String> OFFSET_CENTER_ELEMENT_NAMES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                    Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LATITUDE_1,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LONGITUDE_1,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LATITUDE_2,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LONGITUDE_2,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LATITUDE_3,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LONGITUDE_3,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LATITUDE_4,
+                    Stanag4609TransportStreamParser.OFFSET_CORNER_LONGITUDE_4)));
+
     private boolean isCornerLatitude(Map<String, KlvHandler> handlers) {
         return handlers.containsKey(Stanag4609TransportStreamParser.CORNER_LATITUDE_1) &&
                 handlers.containsKey(Stanag4609TransportStreamParser.CORNER_LATITUDE_2) &&
@@ -62,6 +78,17 @@ public class OffsetCenterPostProcessor implements PostProcessor {
                 && dataElements.containsKey(Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE);
     }
 
+    /**
+     * The frame center and offset corners are only needed if the corners are handled.
+     */
+    @Override
+    public Set<String> getElementNames(Map<String, KlvHandler> handlers) {
+        if (isCornerLatitude(handlers) && isCornerLongitude(handlers)) {
+            return OFFSET_CENTER_ELEMENT_NAMES;
+        }
+        return Collections.emptySet();
+    }
+
     @Override
     public void postProcess(Map<String, KlvDataElement> dataElements,
             Map<String, KlvHandler> handlers) {
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.apache.commons.lang3.Validate.inclusiveBetween;
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Stores one primitive double column per KLV field, with one row per KLV packet. Columns grow in
+ * fixed-size chunks, so appending never copies existing values. A field that is not present in a
+ * packet is stored as {@link #MISSING}, which keeps the columns aligned by packet.
+ * <p>
+ * A row is ended by {@link #endRow()} (normally at the end of each packet), or implicitly when a
+ * field is set twice before the row is ended.
+ * <p>
+ * If {@link #setMaxRows(int)} is called, then the columns keep a bounded, evenly strided sample of
+ * the packets instead of every packet. Only packets whose index is a multiple of the stride are
+ * kept. When the maximum number of rows is reached, every other row is dropped and the stride is
+ * doubled, so the kept rows are always spread evenly over the whole input.
+ */
+class PacketAlignedColumns {
+
+    /**
+     * Marker for a field that was not present in a packet.
+     */
+    static final double MISSING = Double.NaN;
+
+    static final int CHUNK_SIZE = 1024;
+
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final String[] columnNames;
+
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+
+    private final List<List<double[]>> chunks = new ArrayList<>();
+
+    private final boolean[] pendingColumns;
+
+    private boolean pendingRow = false;
+
+    private int rowCount = 0;
+
+    private int maxRows = 0;
+
+    private long stride = 1;
+
+    private long packetCount = 0;
+
+    private IntConsumer rowEndListener;
+
+    /**
+     * @param columnNames the names of the fields, must be non-null
+     */
+    PacketAlignedColumns(String... columnNames) {
+        notNull(columnNames, "columnNames must be non-null");
+        this.columnNames = columnNames.clone();
+        this.pendingColumns = new boolean[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnIndex.put(columnNames[i], i);
+            chunks.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @param maxRows must be at least 2
+     */
+    void setMaxRows(int maxRows) {
+        inclusiveBetween(2, Integer.MAX_VALUE, maxRows, "maxRows must be >=2");
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @param rowEndListener called with the index of each row as it ends, before the row is
+     *                       dropped by the stride (if it is), may be null
+     */
+    void setRowEndListener(IntConsumer rowEndListener) {
+        this.rowEndListener = rowEndListener;
+    }
+
+    /**
+     * @return the distance in packets between two kept rows
+     */
+    long getStride() {
+        return stride;
+    }
+
+    int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * @param columnName name of the field
+     * @return the column index or -1 if the field is not stored
+     */
+    int getColumnIndex(String columnName) {
+        Integer index = columnIndex.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param columnName name of the field
+     * @param value      value of the field
+     * @return true if the field is stored by these columns
+     */
+    boolean set(String columnName, double value) {
+        int column = getColumnIndex(columnName);
+        if (column < 0) {
+            return false;
+        }
+        set(column, value);
+        return true;
+    }
+
+    void set(int column, double value) {
+        if (pendingColumns[column]) {
+            endRow();
+        }
+        ensureCapacity(rowCount);
+        chunks.get(column)
+                .get(rowCount / CHUNK_SIZE)[rowCount % CHUNK_SIZE] = value;
+        pendingColumns[column] = true;
+        pendingRow = true;
+    }
+
+    /**
+     * End the current row. Fields that were not set in the row remain {@link #MISSING}. Does
+     * nothing if no field was set since the last row ended. If the packet is not a multiple of
+     * the stride, then the row is dropped.
+     */
+    void endRow() {
+        if (!pendingRow) {
+            return;
+        }
+        Arrays.fill(pendingColumns, false);
+        pendingRow = false;
+        if (rowEndListener != null) {
+            rowEndListener.accept(rowCount);
+        }
+        if (packetCount++ % stride != 0) {
+            clearRow(rowCount);
+            return;
+        }
+        rowCount++;
+        if (maxRows > 0 && rowCount >= maxRows) {
+            dropEveryOtherRow();
+        }
+    }
+
+    /**
+     * @return the number of rows, including a row that has not been ended yet
+     */
+    int getRowCount() {
+        return pendingRow ? rowCount + 1 : rowCount;
+    }
+
+    double get(int column, int row) {
+        return chunks.get(column)
+                .get(row / CHUNK_SIZE)[row % CHUNK_SIZE];
+    }
+
+    /**
+     * @param row row index
+     * @return true if no field is missing in the row
+     */
+    boolean isComplete(int row) {
+        for (int column = 0; column < columnNames.length; column++) {
+            if (isMissing(get(column, row))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isMissing(double value) {
+        return Double.isNaN(value);
+    }
+
+    /**
+     * Release all of the rows.
+     */
+    void clear() {
+        chunks.forEach(List::clear);
+        Arrays.fill(pendingColumns, false);
+        pendingRow = false;
+        rowCount = 0;
+        stride = 1;
+        packetCount = 0;
+    }
+
+    /**
+     * Copy the columns into boxed lists, one list per field. Missing values are copied as
+     * {@link #MISSING}. Returns an empty map if there are no rows.
+     *
+     * @return map of field names to values
+     */
+    Map<String, List<Double>> toMap() {
+        Map<String, List<Double>> map = new LinkedHashMap<>();
+        int rows = getRowCount();
+        if (rows == 0) {
+            return map;
+        }
+        for (int column = 0; column < columnNames.length; column++) {
+            List<Double> values = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                values.add(get(column, row));
+            }
+            map.put(columnNames[column], values);
+        }
+        return map;
+    }
+
+    /**
+     * @return approximate number of bytes used by the column chunks
+     */
+    long estimateHeapBytes() {
+        long chunkBytes = Double.BYTES * (long) CHUNK_SIZE + ARRAY_HEADER_BYTES;
+        return chunks.stream()
+                .mapToLong(List::size)
+                .sum() * chunkBytes;
+    }
+
+    private void dropEveryOtherRow() {
+        int kept = 0;
+        for (int row = 0; row < rowCount; row += 2, kept++) {
+            for (int column = 0; column < columnNames.length; column++) {
+                chunks.get(column)
+                        .get(kept / CHUNK_SIZE)[kept % CHUNK_SIZE] = get(column, row);
+            }
+        }
+        for (int row = kept; row < rowCount; row++) {
+            clearRow(row);
+        }
+        rowCount = kept;
+        stride *= 2;
+    }
+
+    private void clearRow(int row) {
+        for (List<double[]> columnChunks : chunks) {
+            columnChunks.get(row / CHUNK_SIZE)[row % CHUNK_SIZE] = MISSING;
+        }
+    }
+
+    private void ensureCapacity(int row) {
+        int chunk = row / CHUNK_SIZE;
+        for (List<double[]> columnChunks : chunks) {
+            while (columnChunks.size() <= chunk) {
+                double[] values = new double[CHUNK_SIZE];
+                Arrays.fill(values, MISSING);
+                columnChunks.add(values);
+            }
+        }
+    }
+
+}
@@ -13,7 +13,9 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import org.codice.ddf.libs.klv.KlvDataElement;
 
@@ -33,4 +35,16 @@ public interface PostProcessor {
      */
     void postProcess(Map<String, KlvDataElement> dataElements, Map<String, KlvHandler> handlers);
 
+    /**
+     * The names of the klv data elements that this post processor reads, in addition to the ones
+     * that have a handler. Parsers that only decode the elements that are needed must also decode
+     * these.
+     *
+     * @param handlers map of klv data element names to the handlers that process the klv data elements
+     * @return set of klv data element names
+     */
+    default Set<String> getElementNames(Map<String, KlvHandler> handlers) {
+        return Collections.emptySet();
+    }
+
 }
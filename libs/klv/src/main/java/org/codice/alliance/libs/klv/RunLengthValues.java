@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Stores a sequence of values as runs of equal values. Each run keeps the value, the number of
+ * times it was repeated and the time span of the packets that carried it. Fields that rarely
+ * change (mission id, platform designation, security markings, etc.) need one run instead of
+ * one entry per packet, and distinct, first and last queries are O(runs).
+ *
+ * @param <T> type of the values
+ */
+class RunLengthValues<T extends Serializable> {
+
+    private final List<Run<T>> runs = new ArrayList<>();
+
+    private long valueCount = 0;
+
+    /**
+     * Append a value. If the value equals the value of the last run, then the last run is
+     * extended, otherwise a new run is started.
+     *
+     * @param value the value, may be null
+     */
+    void add(T value) {
+        Run<T> last = getLastRun();
+        if (last != null && Objects.equals(last.value, value)) {
+            last.count++;
+        } else {
+            runs.add(new Run<>(value));
+        }
+        valueCount++;
+    }
+
+    /**
+     * Extend the time span of the last run to the timestamp of the packet that carried the last
+     * added value. Negative (unknown) timestamps are ignored.
+     *
+     * @param timestamp milliseconds since the epoch
+     */
+    void addTimestamp(long timestamp) {
+        Run<T> last = getLastRun();
+        if (last == null || timestamp < 0) {
+            return;
+        }
+        if (last.startTimestamp < 0) {
+            last.startTimestamp = timestamp;
+        }
+        last.endTimestamp = timestamp;
+    }
+
+    boolean isEmpty() {
+        return runs.isEmpty();
+    }
+
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return the number of values added, including repeats
+     */
+    long getValueCount() {
+        return valueCount;
+    }
+
+    Run<T> getRun(int index) {
+        return runs.get(index);
+    }
+
+    Optional<T> getFirst() {
+        return runs.isEmpty() ? Optional.empty() : Optional.ofNullable(runs.get(0).value);
+    }
+
+    Optional<T> getLast() {
+        return runs.isEmpty() ?
+                Optional.empty() :
+                Optional.ofNullable(runs.get(runs.size() - 1).value);
+    }
+
+    /**
+     * @return the distinct values in the order they were first seen
+     */
+    List<T> getDistinct() {
+        Set<T> distinct = new LinkedHashSet<>();
+        for (Run<T> run : runs) {
+            distinct.add(run.value);
+        }
+        return new ArrayList<>(distinct);
+    }
+
+    /**
+     * Add the value of each run, so repeated values are only added once per run.
+     *
+     * @param out the values are added to this collection
+     */
+    void addRunValuesTo(List<? super T> out) {
+        for (Run<T> run : runs) {
+            out.add(run.value);
+        }
+    }
+
+    void clear() {
+        runs.clear();
+        valueCount = 0;
+    }
+
+    private Run<T> getLastRun() {
+        return runs.isEmpty() ? null : runs.get(runs.size() - 1);
+    }
+
+    static class Run<T> {
+
+        private final T value;
+
+        private long count = 1;
+
+        private long startTimestamp = -1;
+
+        private long endTimestamp = -1;
+
+        private Run(T value) {
+            this.value = value;
+        }
+
+        T getValue() {
+            return value;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the timestamp (milliseconds since the epoch) of the first packet of the run, or
+         * -1 if no packet of the run had a timestamp
+         */
+        long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        /**
+         * @return the timestamp (milliseconds since the epoch) of the last packet of the run, or
+         * -1 if no packet of the run had a timestamp
+         */
+        long getEndTimestamp() {
+            return endTimestamp;
+        }
+    }
+
+}
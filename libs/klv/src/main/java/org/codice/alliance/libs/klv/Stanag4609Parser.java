@@ -15,9 +15,37 @@ package org.codice.alliance.libs.klv;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
 
 public interface Stanag4609Parser {
+
+    /**
+     * Parse the whole stream and return every decoded packet, grouped by the packet ID of the
+     * metadata stream. The memory needed grows with the length of the stream, so prefer
+     * {@link #parse(BiConsumer)} for long recordings.
+     *
+     * @return decoded packets by metadata stream packet ID
+     * @throws Stanag4609ParseException if the stream cannot be parsed
+     */
     Map<Integer, List<DecodedKLVMetadataPacket>> parse() throws Stanag4609ParseException;
+
+    /**
+     * Parse the stream and pass each decoded packet to the callback as soon as it is decoded.
+     * The callback is called on the parsing thread and the stream is not read any further until it
+     * returns, so a slow callback slows down the parser instead of letting decoded packets pile
+     * up. Implementations must not keep a reference to a packet after the callback has returned,
+     * so the memory used by the parser does not depend on the length of the stream.
+     * <p>
+     * The default implementation calls {@link #parse()} and does not have this guarantee.
+     *
+     * @param callback called with the metadata stream packet ID and the decoded packet
+     * @throws Stanag4609ParseException if the stream cannot be parsed
+     */
+    default void parse(BiConsumer<Integer, DecodedKLVMetadataPacket> callback)
+            throws Stanag4609ParseException {
+        parse().forEach((packetId, packets) -> packets.forEach(packet -> callback.accept(packetId,
+                packet)));
+    }
 }
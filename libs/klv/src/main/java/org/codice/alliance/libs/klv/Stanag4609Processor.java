@@ -13,8 +13,11 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
 import org.codice.ddf.libs.klv.KlvContext;
@@ -29,6 +32,22 @@ public interface Stanag4609Processor {
     void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHander,
             Map<Integer, List<DecodedKLVMetadataPacket>> stanagMetadata);
 
+    /**
+     * Handle a single decoded packet the same way {@link #handle(Map, KlvHandler, Map)} handles
+     * each packet. This lets a streaming parser (see {@link Stanag4609Parser#parse(BiConsumer)})
+     * pass each packet to the handlers as soon as it is decoded.
+     *
+     * @param handlers       map of klv handlers
+     * @param defaultHandler handler for the elements without a handler
+     * @param packet         decoded klv packet
+     */
+    default void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHandler,
+            DecodedKLVMetadataPacket packet) {
+        handle(handlers,
+                defaultHandler,
+                Collections.singletonMap(0, Collections.singletonList(packet)));
+    }
+
     void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHandler, KlvContext klvContext,
             Map<String, KlvDataElement> dataElements);
 
@@ -40,4 +59,16 @@ public interface Stanag4609Processor {
 
     void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHandler,
             KlvLocalSet klvLocalSet, Map<String, KlvDataElement> dataElements);
+
+    /**
+     * The names of the klv data elements that {@link #handle(Map, KlvHandler, Map)} reads for the
+     * given handlers. Elements with other names are only passed to the default handler, so a
+     * parser may skip them.
+     *
+     * @param handlers map of klv handlers
+     * @return set of klv data element names
+     */
+    default Set<String> getElementNames(Map<String, KlvHandler> handlers) {
+        return handlers.keySet();
+    }
 }
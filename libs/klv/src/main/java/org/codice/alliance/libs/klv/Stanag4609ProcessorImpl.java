@@ -13,18 +13,41 @@
  */
 package org.codice.alliance.libs.klv;
 
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.KlvContext;
 import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.numerical.KlvLong;
 import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 public class Stanag4609ProcessorImpl implements Stanag4609Processor {
 
+    /**
+     * Maximum number of handler maps per thread that keep a compiled dispatch plan. A thread
+     * usually serves one stream or one ingest at a time.
+     */
+    private static final int MAX_PLANS_PER_THREAD = 16;
+
+    /**
+     * Dispatch plans are keyed by the identity of the handler map (weak keys use identity) and
+     * are discarded when the handler map is no longer referenced. The plans do not reference the
+     * handler map and do not depend on the processor, so they are shared by every processor.
+     */
+    private static final ThreadLocal<Cache<Map<String, KlvHandler>, KlvDispatchPlan>>
+            DISPATCH_PLANS = ThreadLocal.withInitial(() -> CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(MAX_PLANS_PER_THREAD)
+            .build());
+
     private PostProcessor postProcessor;
 
     public Stanag4609ProcessorImpl(PostProcessor postProcessor) {
@@ -32,8 +55,12 @@ public class Stanag4609ProcessorImpl implements Stanag4609Processor {
     }
 
     /**
-     * Iterate through the STANAG 4609 metadata and pass each {@link DecodedKLVMetadataPacket}
-     * to {@link #handle(Map, KlvHandler, KlvContext, Map)}.
+     * Iterate through the STANAG 4609 metadata and dispatch each {@link DecodedKLVMetadataPacket}
+     * to the handlers. Produces the same handler calls as {@link #handle(Map, KlvHandler, KlvContext, Map)},
+     * but resolves the handlers through a {@link KlvDispatchPlan} that is compiled once per thread
+     * and handler map, so no per-packet map is allocated. After each packet is post-processed,
+     * {@link KlvHandler#endPacket(long)} is called on each handler with the precision time stamp
+     * of the packet.
      *
      * @param handlers       map of klv handers
      * @param stanagMetadata list of klv metadata packets
@@ -42,22 +69,66 @@ public class Stanag4609ProcessorImpl implements Stanag4609Processor {
     public void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHander,
             Map<Integer, List<DecodedKLVMetadataPacket>> stanagMetadata) {
 
-        stanagMetadata.values()
-                .stream()
-                .flatMap(List::stream)
-                .forEach(decodedKLVMetadataPacket -> {
+        KlvDispatchPlan dispatchPlan = getDispatchPlan(handlers, defaultHander);
 
-                    Map<String, KlvDataElement> dataElements = new HashMap<>();
+        for (List<DecodedKLVMetadataPacket> packets : stanagMetadata.values()) {
+            for (DecodedKLVMetadataPacket decodedKLVMetadataPacket : packets) {
+                handle(dispatchPlan, handlers, decodedKLVMetadataPacket);
+            }
+        }
 
-                    handle(handlers,
-                            defaultHander,
-                            decodedKLVMetadataPacket.getDecodedKLV(),
-                            dataElements);
+    }
 
-                    postProcessor.postProcess(dataElements, handlers);
+    /**
+     * The dispatch plan is looked up in the per-thread cache, so streaming one packet at a time
+     * costs the same as handling a list of packets.
+     */
+    @Override
+    public void handle(Map<String, KlvHandler> handlers, KlvHandler defaultHandler,
+            DecodedKLVMetadataPacket packet) {
+        handle(getDispatchPlan(handlers, defaultHandler), handlers, packet);
+    }
 
-                });
+    private void handle(KlvDispatchPlan dispatchPlan, Map<String, KlvHandler> handlers,
+            DecodedKLVMetadataPacket packet) {
+        dispatchPlan.dispatch(handlers, packet.getDecodedKLV());
+        postProcessor.postProcess(dispatchPlan.getDataElements(), handlers);
+        dispatchPlan.endPacket(getTimestamp(dispatchPlan.getDataElements()));
+    }
 
+    /**
+     * @return the precision time stamp of the packet in milliseconds since the epoch, or -1 if
+     * the packet has none
+     */
+    private long getTimestamp(Map<String, KlvDataElement> dataElements) {
+        KlvDataElement timestamp = dataElements.get(Stanag4609TransportStreamParser.TIMESTAMP);
+        if (timestamp instanceof KlvLong) {
+            return TimeUnit.MICROSECONDS.toMillis(((KlvLong) timestamp).getValue());
+        }
+        return -1;
+    }
+
+    /**
+     * The element names of the handlers, the element names that the {@link PostProcessor} reads
+     * and the time stamp that is passed to {@link KlvHandler#endPacket(long)}.
+     */
+    @Override
+    public Set<String> getElementNames(Map<String, KlvHandler> handlers) {
+        Set<String> elementNames = new HashSet<>(handlers.keySet());
+        elementNames.add(Stanag4609TransportStreamParser.TIMESTAMP);
+        elementNames.addAll(postProcessor.getElementNames(handlers));
+        return elementNames;
+    }
+
+    private KlvDispatchPlan getDispatchPlan(Map<String, KlvHandler> handlers,
+            KlvHandler defaultHandler) {
+        Cache<Map<String, KlvHandler>, KlvDispatchPlan> cache = DISPATCH_PLANS.get();
+        KlvDispatchPlan dispatchPlan = cache.getIfPresent(handlers);
+        if (dispatchPlan == null || dispatchPlan.getDefaultHandler() != defaultHandler) {
+            dispatchPlan = new KlvDispatchPlan(handlers, defaultHandler);
+            cache.put(handlers, dispatchPlan);
+        }
+        return dispatchPlan;
     }
 
     /**
@@ -121,4 +192,11 @@ public class Stanag4609ProcessorImpl implements Stanag4609Processor {
         handle(handlers, defaultHandler, klvLocalSet.getValue(), dataElements);
     }
 
+    @Override
+    public String toString() {
+        return "Stanag4609ProcessorImpl{" +
+                "postProcessor=" + postProcessor.getClass()
+                .getName() +
+                '}';
+    }
 }
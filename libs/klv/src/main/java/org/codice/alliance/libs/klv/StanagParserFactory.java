@@ -13,10 +13,49 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.Set;
+
 import com.google.common.io.ByteSource;
 
 public interface StanagParserFactory {
 
     Stanag4609Parser createParser(ByteSource byteSource);
 
+    /**
+     * Create a parser that only needs to decode the klv data elements with the given names. The
+     * default implementation decodes every element.
+     *
+     * @param byteSource   the transport stream bytes
+     * @param elementNames the names of the klv data elements to decode
+     * @return the parser
+     */
+    default Stanag4609Parser createParser(ByteSource byteSource, Set<String> elementNames) {
+        return createParser(byteSource);
+    }
+
+    /**
+     * Create a parser that only decodes the first klv packet of each sampling interval of each
+     * metadata stream, for quick summaries of very large recordings. The default implementation
+     * decodes every packet.
+     *
+     * @param byteSource             the transport stream bytes
+     * @param elementNames           the names of the klv data elements to decode
+     * @param samplingIntervalMillis the length of the sampling interval in milliseconds
+     * @return the parser
+     */
+    default Stanag4609Parser createParser(ByteSource byteSource, Set<String> elementNames,
+            long samplingIntervalMillis) {
+        return createParser(byteSource, elementNames);
+    }
+
+    /**
+     * The default implementation returns false, so the byte source may be opened more than once.
+     *
+     * @return true if the parsers open the byte source once and read it from the start to the
+     * end, so it may be a source that can only be opened once (eg. the branch of a stream tee)
+     */
+    default boolean isSinglePass() {
+        return false;
+    }
+
 }
@@ -13,23 +13,113 @@
  */
 package org.codice.alliance.libs.klv;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import com.google.common.io.ByteSource;
 
 /**
  * This factory returns a {@link Stanag4609Parser} that uses {@link Stanag4609TransportStreamParser}.
+ * The parsers stream the decoded packets when {@link Stanag4609Parser#parse(BiConsumer)} is used.
  */
 public class StanagParserFactoryImpl implements StanagParserFactory {
 
+    private boolean metadataOnlyScan;
+
+    /**
+     * @param metadataOnlyScan true if the parsers should only look at the metadata streams, see
+     *                         {@link Stanag4609TransportStreamParser#setMetadataOnlyScan(boolean)}
+     */
+    public void setMetadataOnlyScan(boolean metadataOnlyScan) {
+        this.metadataOnlyScan = metadataOnlyScan;
+    }
+
     @Override
     public Stanag4609Parser createParser(ByteSource byteSource) {
-        return () -> {
+        return new TransportStreamParser(() -> configure(new Stanag4609TransportStreamParser(
+                byteSource)));
+    }
+
+    /**
+     * The parser skips the klv data elements that are not named without decoding them.
+     */
+    @Override
+    public Stanag4609Parser createParser(ByteSource byteSource, Set<String> elementNames) {
+        return new TransportStreamParser(() -> configure(new Stanag4609TransportStreamParser(
+                byteSource,
+                elementNames)));
+    }
+
+    /**
+     * The parser skips the packets that are not the first of their sampling interval without
+     * decoding them.
+     */
+    @Override
+    public Stanag4609Parser createParser(ByteSource byteSource, Set<String> elementNames,
+            long samplingIntervalMillis) {
+        return new TransportStreamParser(() -> {
+            Stanag4609TransportStreamParser parser = configure(new Stanag4609TransportStreamParser(
+                    byteSource,
+                    elementNames));
+            parser.setSamplingInterval(samplingIntervalMillis);
+            return parser;
+        });
+    }
+
+    /**
+     * The metadata-only scan opens the byte source once, the full scan may open it more than once.
+     */
+    @Override
+    public boolean isSinglePass() {
+        return metadataOnlyScan;
+    }
+
+    private Stanag4609TransportStreamParser configure(Stanag4609TransportStreamParser parser) {
+        parser.setMetadataOnlyScan(metadataOnlyScan);
+        return parser;
+    }
+
+    @Override
+    public String toString() {
+        return "StanagParserFactoryImpl{" +
+                "metadataOnlyScan=" + metadataOnlyScan +
+                '}';
+    }
+
+    private static class TransportStreamParser implements Stanag4609Parser {
+
+        private final Supplier<Stanag4609TransportStreamParser> parserSupplier;
+
+        TransportStreamParser(Supplier<Stanag4609TransportStreamParser> parserSupplier) {
+            this.parserSupplier = parserSupplier;
+        }
+
+        @Override
+        public Map<Integer, List<DecodedKLVMetadataPacket>> parse()
+                throws Stanag4609ParseException {
+            try {
+                return parserSupplier.get()
+                        .parse();
+            } catch (Exception e) {
+                throw new Stanag4609ParseException("unable to parse stanag 4609 data", e);
+            }
+        }
+
+        @Override
+        public void parse(BiConsumer<Integer, DecodedKLVMetadataPacket> callback)
+                throws Stanag4609ParseException {
             try {
-                return new Stanag4609TransportStreamParser(byteSource).parse();
+                parserSupplier.get()
+                        .parse(callback);
             } catch (Exception e) {
                 throw new Stanag4609ParseException("unable to parse stanag 4609 data", e);
             }
-        };
+        }
     }
 
 }
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
+import ddf.catalog.data.impl.AttributeImpl;
+import ddf.catalog.data.impl.MetacardImpl;
+
+public class TestAttributeCompactor {
+
+    private static final String NAME = AttributeNameConstants.GROUND_RANGE;
+
+    private AttributeCompactor attributeCompactor;
+
+    private MetacardImpl metacard;
+
+    private KlvProcessor.Configuration configuration;
+
+    @Before
+    public void setup() {
+        attributeCompactor = new AttributeCompactor();
+        metacard = new MetacardImpl();
+        configuration = new KlvProcessor.Configuration();
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        set(1.0, 1.0, 2.0);
+
+        long removed = compact();
+
+        assertThat(removed, is(0L));
+        assertThat(values(), contains(1.0, 1.0, 2.0));
+        assertThat(AttributeCompactor.isEnabled(configuration), is(false));
+    }
+
+    @Test
+    public void testDropsRepeatedValues() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 10);
+        set("a", "a", "b", "a");
+
+        long removed = compact();
+
+        assertThat(values(), contains("a", "b"));
+        assertThat(removed, is(2L));
+    }
+
+    @Test
+    public void testCapsValues() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 3);
+        set(0, 1, 2, 3, 4, 5, 6, 7, 8);
+
+        compact();
+
+        assertThat(values(), contains(0, 4, 8));
+    }
+
+    @Test
+    public void testCapsToOneValue() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 1);
+        set(5, 6, 7);
+
+        compact();
+
+        assertThat(values(), contains(5));
+    }
+
+    @Test
+    public void testSummarizesNumericRanges() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_NUMERIC_RANGES, true);
+        set(3.0, -1.0, 7.5, 2.0);
+
+        compact();
+
+        assertThat(values(), contains(-1.0, 7.5));
+    }
+
+    @Test
+    public void testNumericRangesIgnoreMixedValues() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_NUMERIC_RANGES, true);
+        set(3.0, "x", 7.5);
+
+        compact();
+
+        assertThat(values(), contains(3.0, "x", 7.5));
+    }
+
+    @Test
+    public void testMergesGeometries() throws ParseException {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_GEOMETRY_TOLERANCE, 0.01);
+        set("POLYGON ((0 0, 1 0, 1 1, 0 1, 0 0))",
+                "POLYGON ((0.5 0, 1.5 0, 1.5 1, 0.5 1, 0.5 0))",
+                "POLYGON ((1 0, 2 0, 2 1, 1 1, 1 0))");
+
+        compact();
+
+        assertThat(values(), hasSize(1));
+        Geometry geometry = new WKTReader().read((String) values().get(0));
+        assertThat(geometry.getArea(), is(2.0));
+        assertThat(geometry.getNumPoints(), is(5));
+    }
+
+    @Test
+    public void testNonGeometryStringsAreNotMerged() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_GEOMETRY_TOLERANCE, 0.01);
+        set("MISSION01", "MISSION02");
+
+        compact();
+
+        assertThat(values(), contains("MISSION01", "MISSION02"));
+    }
+
+    @Test
+    public void testMissingAttributeIsIgnored() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 1);
+
+        assertThat(compact(), is(0L));
+        assertThat(metacard.getAttribute(NAME), is((Object) null));
+    }
+
+    /**
+     * Ten minutes of 30 Hz track segments along a straight line collapse to one short WKT value.
+     */
+    @Test
+    public void testLongTrackReduction() {
+        configuration.set(KlvProcessor.Configuration.COMPACTION_GEOMETRY_TOLERANCE, 0.0001);
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 100);
+
+        List<Serializable> points = new ArrayList<>();
+        for (int i = 0; i < 10 * 60 * 30; i++) {
+            points.add(String.format(Locale.ROOT,
+                    "LINESTRING (%f %f, %f %f)",
+                    i * 1e-5,
+                    i * 1e-5,
+                    (i + 1) * 1e-5,
+                    (i + 1) * 1e-5));
+        }
+        metacard.setAttribute(new AttributeImpl(NAME, points));
+
+        long before = AttributeCompactor.estimateSize(points);
+        long removed = compact();
+
+        assertThat(values(), hasSize(1));
+        assertThat(removed, greaterThan(before * 99 / 100));
+    }
+
+    private void set(Serializable... values) {
+        metacard.setAttribute(new AttributeImpl(NAME, new ArrayList<>(Arrays.asList(values))));
+    }
+
+    private List<Serializable> values() {
+        return metacard.getAttribute(NAME)
+                .getValues();
+    }
+
+    private long compact() {
+        return attributeCompactor.compact(metacard,
+                Collections.singletonList(NAME),
+                configuration);
+    }
+}
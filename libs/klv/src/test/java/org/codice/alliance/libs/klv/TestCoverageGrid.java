@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+public class TestCoverageGrid {
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    @Test
+    public void testEmpty() {
+        CoverageGrid coverageGrid = new CoverageGrid(1, 16);
+
+        assertThat(coverageGrid.toGeometry(geometryFactory)
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testSquare() {
+        CoverageGrid coverageGrid = new CoverageGrid(1, 16);
+
+        coverageGrid.add(new double[] {0, 10, 10, 0}, new double[] {0, 0, 10, 10}, 4);
+
+        assertThat(coverageGrid.getCoveredCellCount(), is(100));
+        assertThat(coverageGrid.toGeometry(geometryFactory)
+                .get()
+                .getArea(), is(closeTo(100, 0.0001)));
+    }
+
+    @Test
+    public void testFootprintSmallerThanCell() {
+        CoverageGrid coverageGrid = new CoverageGrid(1, 16);
+
+        coverageGrid.add(new double[] {0.1, 0.2, 0.2, 0.1}, new double[] {0.1, 0.1, 0.2, 0.2}, 4);
+
+        assertThat(coverageGrid.getCoveredCellCount(), is(1));
+    }
+
+    @Test
+    public void testGridGrows() {
+        CoverageGrid coverageGrid = new CoverageGrid(1, 1024);
+
+        coverageGrid.add(new double[] {0, 2, 2, 0}, new double[] {0, 0, 2, 2}, 4);
+        coverageGrid.add(new double[] {-50, -48, -48, -50}, new double[] {30, 30, 32, 32}, 4);
+        coverageGrid.add(new double[] {90, 92, 92, 90}, new double[] {-40, -40, -38, -38}, 4);
+
+        assertThat(coverageGrid.getCellSize(), is(1.0));
+        assertThat(coverageGrid.getCoveredCellCount(), is(12));
+        assertThat(coverageGrid.toGeometry(geometryFactory)
+                .get()
+                .getNumGeometries(), is(3));
+    }
+
+    @Test
+    public void testGridIsBounded() {
+        int maxCellsPerSide = 16;
+
+        CoverageGrid coverageGrid = new CoverageGrid(1, maxCellsPerSide);
+
+        coverageGrid.add(new double[] {0, 2, 2, 0}, new double[] {0, 0, 2, 2}, 4);
+        coverageGrid.add(new double[] {100, 102, 102, 100}, new double[] {100, 100, 102, 102}, 4);
+
+        assertThat(coverageGrid.getCellSize(), is(greaterThan(1.0)));
+        assertThat(coverageGrid.getCoveredCellCount(),
+                is(lessThanOrEqualTo(maxCellsPerSide * maxCellsPerSide)));
+        assertThat(coverageGrid.toGeometry(geometryFactory)
+                .get()
+                .getNumGeometries(), is(2));
+    }
+
+    /**
+     * Compare the coverage of a track of rotated footprints with the exact union of the same
+     * footprints.
+     */
+    @Test
+    public void testAccuracyAgainstExactUnion() {
+        double maxError = 0.01;
+
+        CoverageGrid coverageGrid = new CoverageGrid(maxError, 2048);
+
+        List<Polygon> polygons = new ArrayList<>();
+
+        double[] xs = new double[4];
+        double[] ys = new double[4];
+
+        for (int i = 0; i < 500; i++) {
+            double centerX = i * 0.01;
+            double centerY = Math.sin(i * 0.01) * 2;
+            for (int corner = 0; corner < 4; corner++) {
+                double angle = Math.toRadians(30 + corner * 90);
+                xs[corner] = centerX + Math.cos(angle) * 0.5;
+                ys[corner] = centerY + Math.sin(angle) * 0.5;
+            }
+            coverageGrid.add(xs, ys, 4);
+            polygons.add(polygon(xs, ys));
+        }
+
+        Geometry exact = GeometryUtility.createUnionOfPolygons(polygons)
+                .get();
+
+        Geometry approximate = coverageGrid.toGeometry(geometryFactory)
+                .get();
+
+        double error = exact.symDifference(approximate)
+                .getArea() / exact.getArea();
+
+        assertThat(error, is(lessThan(0.05)));
+    }
+
+    private Polygon polygon(double[] xs, double[] ys) {
+        Coordinate[] ring = new Coordinate[xs.length + 1];
+        for (int i = 0; i < xs.length; i++) {
+            ring[i] = new Coordinate(xs[i], ys[i]);
+        }
+        ring[xs.length] = ring[0];
+        return geometryFactory.createPolygon(geometryFactory.createLinearRing(ring), null);
+    }
+
+}
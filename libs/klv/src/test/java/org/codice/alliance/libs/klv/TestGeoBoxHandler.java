@@ -14,15 +14,23 @@
 package org.codice.alliance.libs.klv;
 
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 
+import java.util.List;
+
 import org.codice.ddf.libs.klv.KlvDecodingException;
 import org.codice.ddf.libs.klv.data.numerical.KlvInt;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTWriter;
+
 public class TestGeoBoxHandler {
 
     private static final String LAT1 = "lat1";
@@ -140,4 +148,102 @@ public class TestGeoBoxHandler {
                 is("POLYGON ((2.000000 1.000000, 4.000000 3.000000, 6.000000 5.000000, 8.000000 7.000000, 2.000000 1.000000))"));
 
     }
+
+    @Test
+    public void testPacketMissingFieldDoesNotShiftLaterPolygons() {
+
+        acceptPacket(1, true);
+        acceptPacket(10, false);
+        acceptPacket(100, true);
+
+        assertThat(geoBoxHandler.asAttribute()
+                        .get()
+                        .getValues(),
+                contains(
+                        "POLYGON ((2.000000 1.000000, 4.000000 3.000000, 6.000000 5.000000, 8.000000 7.000000, 2.000000 1.000000))",
+                        "POLYGON ((101.000000 100.000000, 103.000000 102.000000, 105.000000 104.000000, 107.000000 106.000000, 101.000000 100.000000))"));
+    }
+
+    @Test
+    public void testRepeatedFieldStartsNewRow() {
+
+        geoBoxHandler.accept(LAT1, 1.0);
+        geoBoxHandler.accept(LAT1, 2.0);
+
+        assertThat(geoBoxHandler.getColumns()
+                .getRowCount(), is(2));
+    }
+
+    @Test
+    public void testReset() {
+
+        acceptPacket(1, true);
+
+        geoBoxHandler.reset();
+
+        assertThat(geoBoxHandler.getRawGeoData()
+                .isEmpty(), is(true));
+    }
+
+    @Test
+    public void testAcceptNullIsMissing() {
+
+        acceptPacket(1, true);
+        geoBoxHandler.accept(LAT1, null);
+        geoBoxHandler.endPacket();
+
+        assertThat(geoBoxHandler.getColumns()
+                .getRowCount(), is(2));
+        assertThat(geoBoxHandler.getColumns()
+                .isComplete(1), is(false));
+        assertThat(geoBoxHandler.asAttribute()
+                .get()
+                .getValues(), hasSize(1));
+    }
+
+    @Test
+    public void testCoverageKeepsCorners() {
+
+        geoBoxHandler.setCoverageMaxError(0.5);
+
+        acceptPacket(1, true);
+        acceptPacket(10, false);
+        acceptPacket(100, true);
+
+        assertThat(geoBoxHandler.asAttribute()
+                .get()
+                .getValues(), hasSize(2));
+        assertThat(geoBoxHandler.getCoverageGrid()
+                .isPresent(), is(true));
+    }
+
+    /**
+     * Accept one packet where field {@code i} has the value {@code start + i}.
+     */
+    private void acceptPacket(double start, boolean includeLon2) {
+        geoBoxHandler.accept(LAT1, start);
+        geoBoxHandler.accept(LON1, start + 1);
+        geoBoxHandler.accept(LAT2, start + 2);
+        if (includeLon2) {
+            geoBoxHandler.accept(LON2, start + 3);
+        }
+        geoBoxHandler.accept(LAT3, start + 4);
+        geoBoxHandler.accept(LON3, start + 5);
+        geoBoxHandler.accept(LAT4, start + 6);
+        geoBoxHandler.accept(LON4, start + 7);
+        geoBoxHandler.endPacket();
+    }
+    @Test
+    public void testAsPolygons() {
+
+        acceptPacket(1, true);
+        acceptPacket(10, false);
+
+        List<Polygon> polygons = geoBoxHandler.asPolygons(new GeometryFactory());
+
+        assertThat(polygons, hasSize(1));
+        assertThat(new WKTWriter().write(polygons.get(0)),
+                is("POLYGON ((2 1, 4 3, 6 5, 8 7, 2 1))"));
+    }
+
 }
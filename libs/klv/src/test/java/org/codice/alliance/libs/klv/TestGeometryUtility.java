@@ -13,17 +13,24 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import com.vividsolutions.jts.io.WKTWriter;
@@ -150,4 +157,80 @@ public class TestGeometryUtility {
 
     }
 
+    @Test
+    public void testUnionOfPolygonsEmpty() {
+        assertThat(GeometryUtility.createUnionOfPolygons(Collections.emptyList())
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testUnionOfPolygons() throws ParseException {
+
+        Optional<Geometry> union = GeometryUtility.createUnionOfPolygons(Arrays.asList(box(0,
+                0,
+                10), box(5, 5, 10)));
+
+        Geometry expected = wktReader.read(
+                "POLYGON (( 0 0, 10 0, 10 5, 15 5, 15 15, 5 15, 5 10, 0 10, 0 0 ))")
+                .norm();
+
+        assertThat(union.get()
+                .norm(), is(expected));
+    }
+
+    @Test
+    public void testUnionOfPolygonsWithPrecision() throws ParseException {
+
+        Optional<Geometry> union = GeometryUtility.createUnionOfPolygons(Arrays.asList(box(0,
+                0,
+                10), box(0.1, 0.1, 10)), new PrecisionModel(1));
+
+        Geometry expected = wktReader.read("POLYGON (( 0 0, 10 0, 10 10, 0 10, 0 0))")
+                .norm();
+
+        assertThat(union.get()
+                .norm(), is(expected));
+    }
+
+    @Test
+    public void testUnionOf50Footprints() {
+        assertTrackUnion(50);
+    }
+
+    @Test
+    public void testUnionOf500Footprints() {
+        assertTrackUnion(500);
+    }
+
+    @Test
+    public void testUnionOf5000Footprints() {
+        assertTrackUnion(5000);
+    }
+
+    /**
+     * Footprints of a sensor moving along the x axis, one unit per packet. The union is a single
+     * rectangle.
+     */
+    private void assertTrackUnion(int count) {
+
+        List<Polygon> polygons = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            polygons.add(box(i, 0, 10));
+        }
+
+        Geometry union = GeometryUtility.createUnionOfPolygons(polygons)
+                .get();
+
+        assertThat(union.getArea(), is(closeTo(10.0 * (count - 1 + 10), 0.0001)));
+        assertThat(union.getNumGeometries(), is(1));
+    }
+
+    private Polygon box(double x, double y, double size) {
+        GeometryFactory geometryFactory = new GeometryFactory();
+        Coordinate[] ring = {new Coordinate(x, y), new Coordinate(x + size, y),
+                new Coordinate(x + size, y + size), new Coordinate(x, y + size),
+                new Coordinate(x, y)};
+        return geometryFactory.createPolygon(geometryFactory.createLinearRing(ring), null);
+    }
+
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.KlvDecodingException;
+import org.codice.ddf.libs.klv.data.Klv;
+import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKlvDispatchPlan {
+
+    private static final String FIELD_A = "fieldA";
+
+    private static final String FIELD_B = "fieldB";
+
+    private static final String LOCAL_SET = "localSet";
+
+    private KlvHandler handlerA;
+
+    private KlvHandler handlerB;
+
+    private KlvHandler defaultKlvHandler;
+
+    private KlvIntegerEncodedFloatingPoint elementA;
+
+    private KlvIntegerEncodedFloatingPoint elementB;
+
+    private Map<String, KlvHandler> handlers;
+
+    private KlvDispatchPlan klvDispatchPlan;
+
+    @Before
+    public void setup() throws KlvDecodingException {
+        handlerA = mock(KlvHandler.class);
+        handlerB = mock(KlvHandler.class);
+        defaultKlvHandler = mock(KlvHandler.class);
+
+        elementA = KlvUtilities.createTestFloat(FIELD_A, 10);
+        elementB = KlvUtilities.createTestFloat(FIELD_B, 20);
+
+        handlers = new HashMap<>();
+        handlers.put(FIELD_A, handlerA);
+        handlers.put(FIELD_B, handlerB);
+
+        klvDispatchPlan = new KlvDispatchPlan(handlers, defaultKlvHandler);
+    }
+
+    @Test
+    public void testDispatchToNamedHandlers() {
+
+        klvDispatchPlan.dispatch(handlers, context(elementA, elementB));
+
+        verify(handlerA).accept(elementA);
+        verify(handlerB).accept(elementB);
+        verify(defaultKlvHandler, never()).accept(elementA);
+        verify(defaultKlvHandler, never()).accept(elementB);
+    }
+
+    @Test
+    public void testDispatchToDefaultHandler() {
+
+        Map<String, KlvHandler> singleHandler = Collections.singletonMap(FIELD_A, handlerA);
+        KlvDispatchPlan plan = new KlvDispatchPlan(singleHandler, defaultKlvHandler);
+
+        plan.dispatch(singleHandler, context(elementA, elementB));
+
+        verify(handlerA).accept(elementA);
+        verify(defaultKlvHandler).accept(elementB);
+    }
+
+    /**
+     * Both test elements use the same tag, so the second name must not be resolved to the handler
+     * that was cached for the first.
+     */
+    @Test
+    public void testSameTagDifferentName() {
+
+        klvDispatchPlan.dispatch(handlers, context(elementA));
+        klvDispatchPlan.dispatch(handlers, context(elementB));
+        klvDispatchPlan.dispatch(handlers, context(elementA));
+
+        verify(handlerA, times(2)).accept(elementA);
+        verify(handlerB).accept(elementB);
+    }
+
+    @Test
+    public void testDispatchLocalSet() {
+
+        KlvLocalSet klvLocalSet = mock(KlvLocalSet.class);
+        when(klvLocalSet.getName()).thenReturn(LOCAL_SET);
+        when(klvLocalSet.getValue()).thenReturn(context(elementA));
+
+        klvDispatchPlan.dispatch(handlers, context(klvLocalSet));
+
+        verify(handlerA).accept(elementA);
+        verify(defaultKlvHandler, never()).accept(klvLocalSet);
+        assertThat(klvDispatchPlan.getDataElements()
+                .get(FIELD_A), is(elementA));
+        assertThat(klvDispatchPlan.getDataElements()
+                .containsKey(LOCAL_SET), is(false));
+    }
+
+    @Test
+    public void testDataElementsOfCurrentPacketOnly() {
+
+        klvDispatchPlan.dispatch(handlers, context(elementA));
+
+        assertThat(klvDispatchPlan.getDataElements()
+                .get(FIELD_A), is(elementA));
+
+        klvDispatchPlan.dispatch(handlers, context(elementB));
+
+        assertThat(klvDispatchPlan.getDataElements()
+                .get(FIELD_A), nullValue());
+        assertThat(klvDispatchPlan.getDataElements()
+                .containsKey(FIELD_A), is(false));
+        assertThat(klvDispatchPlan.getDataElements()
+                .get(FIELD_B), is(elementB));
+        assertThat(klvDispatchPlan.getDataElements(),
+                is(Collections.singletonMap(FIELD_B, elementB)));
+    }
+
+    private KlvContext context(KlvDataElement... klvDataElements) {
+        return new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                new HashSet<>(Arrays.asList(klvDataElements)));
+    }
+
+}
@@ -13,11 +13,13 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
 import java.util.Map;
 
+import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.junit.Test;
 
 public class TestKlvHandlerFactoryImpl {
@@ -33,4 +35,36 @@ public class TestKlvHandlerFactoryImpl {
 
     }
 
+    @Test
+    public void testCreateStanag4609HandlersWithStreamingSubsample() {
+
+        KlvHandlerFactoryImpl klvHandlerFactory = new KlvHandlerFactoryImpl();
+
+        Map<String, KlvHandler> handlers = klvHandlerFactory.createStanag4609Handlers(10);
+
+        GeoBoxHandler cornerHandler =
+                (GeoBoxHandler) handlers.get(Stanag4609TransportStreamParser.CORNER_LATITUDE_1);
+        LatitudeLongitudeHandler frameCenterHandler = (LatitudeLongitudeHandler) handlers.get(
+                Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE);
+
+        for (int i = 0; i < 1000; i++) {
+            cornerHandler.accept(Stanag4609TransportStreamParser.CORNER_LATITUDE_1, (double) i);
+            cornerHandler.endPacket();
+            frameCenterHandler.getColumns()
+                    .set(0, i);
+            frameCenterHandler.endPacket();
+        }
+
+        assertThat(cornerHandler.getColumns()
+                .getRowCount(), is(lessThanOrEqualTo(20)));
+        assertThat(frameCenterHandler.getColumns()
+                .getRowCount(), is(lessThanOrEqualTo(20)));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateStanag4609HandlersWithBadSubsample() {
+        new KlvHandlerFactoryImpl().createStanag4609Handlers(0);
+    }
+
 }
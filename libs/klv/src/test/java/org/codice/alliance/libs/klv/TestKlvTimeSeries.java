@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.data.Klv;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKlvTimeSeries {
+
+    private static final String LATITUDE = "latitude";
+
+    private static final String LONGITUDE = "longitude";
+
+    private static final String HEADING = "heading";
+
+    /**
+     * 90kHz presentation timestamp ticks per frame at 30 frames per second.
+     */
+    private static final long TICKS_PER_FRAME = 3000;
+
+    private KlvTimeSeriesWriter writer;
+
+    @Before
+    public void setup() {
+        writer = new KlvTimeSeriesWriter();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        writer.add(100, row(43.123456789, -71.987654321, 7));
+        writer.add(200, row(43.123457, -71.987655, 8));
+        writer.add(300, row(-10.5, 170.25, -3));
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(writer.toByteArray());
+
+        assertThat(reader.getColumnNames(), containsInAnyOrder(LATITUDE, LONGITUDE, HEADING));
+        assertThat(reader.getRowCount(), is(3L));
+
+        KlvTimeSeriesRange range = reader.read(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertThat(range.getPresentationTimestamps(), is(new long[] {100, 200, 300}));
+        assertThat(range.getValues(LATITUDE), is(new double[] {43.1234568, 43.123457, -10.5}));
+        assertThat(range.getValues(LONGITUDE),
+                is(new double[] {-71.9876543, -71.987655, 170.25}));
+        assertThat(range.getValues(HEADING), is(new double[] {7, 8, -3}));
+    }
+
+    @Test
+    public void testMissingValues() throws IOException {
+        writer.add(1, Collections.singletonMap(LATITUDE, 1.0));
+        writer.add(2, Collections.singletonMap(HEADING, 2));
+        writer.add(3, Collections.singletonMap(LATITUDE, 3.0));
+
+        KlvTimeSeriesRange range = new KlvTimeSeriesReader(writer.toByteArray()).read(0, 10);
+
+        assertThat(range.getValues(LATITUDE), is(new double[] {1, Double.NaN, 3}));
+        assertThat(range.getValues(HEADING), is(new double[] {Double.NaN, 2, Double.NaN}));
+        assertThat(range.getValues("unknown").length, is(0));
+    }
+
+    @Test
+    public void testColumnFirstSeenInLaterBlock() throws IOException {
+        int rows = KlvTimeSeriesFormat.BLOCK_SIZE + 10;
+        for (int i = 0; i < rows; i++) {
+            Map<String, Number> values = new HashMap<>();
+            values.put(LATITUDE, (double) i);
+            if (i >= KlvTimeSeriesFormat.BLOCK_SIZE) {
+                values.put(HEADING, i);
+            }
+            writer.add(i, values);
+        }
+
+        KlvTimeSeriesRange range = new KlvTimeSeriesReader(writer.toByteArray()).read(0, rows);
+
+        assertThat(range.size(), is(rows));
+        assertThat(range.getValues(HEADING)[0], is(Double.NaN));
+        assertThat(range.getValues(HEADING)[rows - 1], is((double) rows - 1));
+        assertThat(range.getValues(LATITUDE)[rows - 1], is((double) rows - 1));
+    }
+
+    @Test
+    public void testReadRange() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            writer.add(i * 10, Collections.singletonMap(HEADING, i));
+        }
+
+        KlvTimeSeriesRange range = new KlvTimeSeriesReader(writer.toByteArray()).read(25, 50);
+
+        assertThat(range.getPresentationTimestamps(), is(new long[] {30, 40, 50}));
+        assertThat(range.getValues(HEADING), is(new double[] {3, 4, 5}));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(writer.toByteArray());
+
+        assertThat(reader.getRowCount(), is(0L));
+        assertThat(reader.read(Long.MIN_VALUE, Long.MAX_VALUE)
+                .size(), is(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotATimeSeries() throws IOException {
+        new KlvTimeSeriesReader(new byte[32]);
+    }
+
+    @Test
+    public void testAddPacket() throws IOException {
+        KlvDataElement latitude = element(LATITUDE, 43.5);
+        KlvDataElement heading = element(HEADING, 90);
+        KlvDataElement name = element("name", "mission");
+
+        KlvLocalSet localSet = mock(KlvLocalSet.class);
+        when(localSet.getName()).thenReturn("localSet");
+        when(localSet.getKey()).thenReturn(new byte[] {0});
+        when(localSet.getValue()).thenReturn(context(latitude, heading, name));
+
+        writer.add(1, packet(1000, context(localSet)));
+        writer.add(1, packet(-1, context(localSet)));
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(writer.toByteArray());
+        KlvTimeSeriesRange range = reader.read(0, 2000);
+
+        assertThat(reader.getColumnNames(), containsInAnyOrder(LATITUDE, HEADING));
+        assertThat(range.getPresentationTimestamps(), is(new long[] {1000, 1000}));
+        assertThat(range.getValues(LATITUDE), is(new double[] {43.5, 43.5}));
+    }
+
+    /**
+     * A packet without a PTS is keyed by the previous packet of its own KLV stream.
+     */
+    @Test
+    public void testMissingTimestampPerStream() throws IOException {
+        KlvContext klvContext = context(element(LATITUDE, 43.5));
+
+        writer.add(1, packet(1000, klvContext));
+        writer.add(2, packet(5000, klvContext));
+        writer.add(1, packet(-1, klvContext));
+        writer.add(2, packet(-1, klvContext));
+
+        KlvTimeSeriesRange range = new KlvTimeSeriesReader(writer.toByteArray()).read(0, 10000);
+
+        assertThat(range.getPresentationTimestamps(), is(new long[] {1000, 5000, 1000, 5000}));
+    }
+
+    /**
+     * The encoded blocks of a large time series are kept in a temporary file.
+     */
+    @Test
+    public void testLargeTimeSeriesIsFileBacked() throws IOException {
+        int rows = 200000;
+        for (int i = 0; i < rows; i++) {
+            Map<String, Number> values = new HashMap<>();
+            values.put(LATITUDE, Math.sin(i));
+            values.put(LONGITUDE, Math.cos(i));
+            writer.add(i, values);
+        }
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(writer.toByteArray());
+        writer.close();
+
+        assertThat(reader.read(0, rows)
+                .size(), is(rows));
+    }
+
+    /**
+     * A three hour recording with one packet per frame at 30 frames per second. The sensor position
+     * drifts slowly, as it does for a real platform, which is what the delta encoding relies on.
+     */
+    @Test
+    public void testMultiHourRecording() throws IOException {
+        int packetCount = 3 * 60 * 60 * 30;
+        for (int i = 0; i < packetCount; i++) {
+            Map<String, Number> values = new HashMap<>();
+            values.put(LATITUDE, 43.0 + i * 1e-6);
+            values.put(LONGITUDE, -71.0 - i * 2e-6);
+            values.put(HEADING, (i / 300) % 360);
+            writer.add(i * TICKS_PER_FRAME, values);
+        }
+
+        byte[] bytes = writer.toByteArray();
+
+        // three 8 byte doubles and an 8 byte timestamp would be 32 bytes per packet
+        assertThat(bytes.length / packetCount, lessThanOrEqualTo(8));
+
+        KlvTimeSeriesReader reader = new KlvTimeSeriesReader(bytes);
+        assertThat(reader.getRowCount(), is((long) packetCount));
+
+        long start = (long) (packetCount / 2) * TICKS_PER_FRAME;
+        long end = start + 10 * 30 * TICKS_PER_FRAME;
+
+        long startTime = System.nanoTime();
+        KlvTimeSeriesRange range = reader.read(start, end);
+        long elapsed = System.nanoTime() - startTime;
+
+        assertThat(range.size(), is(10 * 30 + 1));
+        assertThat(range.getValues(LATITUDE)[0],
+                is(Math.round((43.0 + packetCount / 2 * 1e-6) * 1e7) / 1e7));
+        assertThat(reader.getDecodedBlockCount(), lessThanOrEqualTo(2L));
+        assertThat(elapsed, lessThan(1_000_000_000L));
+    }
+
+    private Map<String, Number> row(double latitude, double longitude, int heading) {
+        Map<String, Number> values = new HashMap<>();
+        values.put(LATITUDE, latitude);
+        values.put(LONGITUDE, longitude);
+        values.put(HEADING, heading);
+        return values;
+    }
+
+    private KlvDataElement element(String name, Object value) {
+        KlvDataElement klvDataElement = mock(KlvDataElement.class);
+        when(klvDataElement.getName()).thenReturn(name);
+        when(klvDataElement.getKey()).thenReturn(name.getBytes(StandardCharsets.UTF_8));
+        when(klvDataElement.getValue()).thenReturn(value);
+        return klvDataElement;
+    }
+
+    private KlvContext context(KlvDataElement... elements) {
+        return new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                Arrays.asList(elements));
+    }
+
+    private DecodedKLVMetadataPacket packet(long presentationTimestamp, KlvContext klvContext) {
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getPresentationTimestamp()).thenReturn(presentationTimestamp);
+        when(packet.getDecodedKLV()).thenReturn(klvContext);
+        return packet;
+    }
+}
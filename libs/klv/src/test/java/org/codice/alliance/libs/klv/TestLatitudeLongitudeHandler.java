@@ -14,6 +14,7 @@
 package org.codice.alliance.libs.klv;
 
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
@@ -99,4 +100,22 @@ public class TestLatitudeLongitudeHandler {
                 .isPresent(), is(false));
 
     }
+
+    @Test
+    public void testPacketMissingFieldDoesNotPairLaterValues() throws KlvDecodingException {
+
+        klvHandler.accept(KlvUtilities.createTestFloat(LAT, 10));
+        klvHandler.endPacket();
+        klvHandler.accept(KlvUtilities.createTestFloat(LAT, 20));
+        klvHandler.accept(KlvUtilities.createTestFloat(LON, 21));
+        klvHandler.endPacket();
+
+        assertThat(klvHandler.asAttribute()
+                .get()
+                .getValues(), hasSize(1));
+        assertThat(klvHandler.getRawGeoData()
+                .get(LON)
+                .get(0)
+                .isNaN(), is(true));
+    }
 }
@@ -15,9 +15,14 @@ package org.codice.alliance.libs.klv;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
@@ -44,4 +49,38 @@ public class TestListKlvProcessor {
 
     }
 
+    @Test
+    public void testCompactsHandlerAttributes() {
+        KlvHandler klvHandler = mock(KlvHandler.class);
+        when(klvHandler.getAttributeName()).thenReturn(AttributeNameConstants.MISSION_ID);
+        Map<String, KlvHandler> handlers = Collections.singletonMap("field", klvHandler);
+
+        MetacardImpl metacard = new MetacardImpl();
+        KlvProcessor.Configuration configuration = new KlvProcessor.Configuration();
+        configuration.set(KlvProcessor.Configuration.COMPACTION_MAX_VALUES, 1);
+
+        AttributeCompactor attributeCompactor = mock(AttributeCompactor.class);
+
+        ListKlvProcessor listKlvProcessor = new ListKlvProcessor(Collections.emptyList());
+        listKlvProcessor.setAttributeCompactor(attributeCompactor);
+        listKlvProcessor.process(handlers, metacard, configuration);
+
+        verify(attributeCompactor).compact(metacard,
+                Collections.singleton(AttributeNameConstants.MISSION_ID),
+                configuration);
+    }
+
+    @Test
+    public void testNoCompactionByDefault() {
+        AttributeCompactor attributeCompactor = mock(AttributeCompactor.class);
+
+        ListKlvProcessor listKlvProcessor = new ListKlvProcessor(Collections.emptyList());
+        listKlvProcessor.setAttributeCompactor(attributeCompactor);
+        listKlvProcessor.process(Collections.emptyMap(),
+                new MetacardImpl(),
+                new KlvProcessor.Configuration());
+
+        verify(attributeCompactor, never()).compact(any(), any(), any());
+    }
+
 }
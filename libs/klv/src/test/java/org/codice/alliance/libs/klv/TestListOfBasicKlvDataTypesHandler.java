@@ -14,13 +14,19 @@
 package org.codice.alliance.libs.klv;
 
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Optional;
 
 import org.codice.ddf.libs.klv.KlvDecodingException;
 import org.codice.ddf.libs.klv.data.numerical.KlvInt;
 import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
+import org.codice.ddf.libs.klv.data.text.KlvString;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -68,4 +74,123 @@ public class TestListOfBasicKlvDataTypesHandler {
 
     }
 
+    @Test
+    public void testRepeatedValuesAreStoredAsRuns() {
+
+        ListOfBasicKlvDataTypesHandler<String> stringHandler = createStringHandler();
+
+        stringHandler.accept(mockString("a"));
+        stringHandler.endPacket(1000);
+        stringHandler.accept(mockString("a"));
+        stringHandler.endPacket(2000);
+        stringHandler.endPacket(3000);
+        stringHandler.accept(mockString("b"));
+        stringHandler.endPacket(4000);
+
+        RunLengthValues<String> runs = stringHandler.getRuns();
+
+        assertThat(runs.getRunCount(), is(2));
+        assertThat(runs.getRun(0)
+                .getCount(), is(2L));
+        assertThat(runs.getRun(0)
+                .getStartTimestamp(), is(1000L));
+        assertThat(runs.getRun(0)
+                .getEndTimestamp(), is(2000L));
+        assertThat(runs.getRun(1)
+                .getStartTimestamp(), is(4000L));
+
+        assertThat(stringHandler.asAttribute()
+                .get()
+                .getValues(), contains("a", "b"));
+        assertThat(stringHandler.getDistinctValues(), contains("a", "b"));
+        assertThat(stringHandler.getFirstValue(), is(Optional.<Serializable>of("a")));
+        assertThat(stringHandler.getLastValue(), is(Optional.<Serializable>of("b")));
+    }
+
+    /**
+     * A packet without the field does not extend the time span of the current run.
+     */
+    @Test
+    public void testPacketWithoutValueDoesNotExtendRun() {
+
+        ListOfBasicKlvDataTypesHandler<String> stringHandler = createStringHandler();
+
+        stringHandler.accept(mockString("a"));
+        stringHandler.endPacket(1000);
+        stringHandler.endPacket(2000);
+
+        assertThat(stringHandler.getRuns()
+                .getRun(0)
+                .getEndTimestamp(), is(1000L));
+    }
+
+    @Test
+    public void testDoubleFirstAndLast() throws KlvDecodingException {
+
+        handler.accept(KlvUtilities.createTestFloat("a", 1));
+        handler.accept(KlvUtilities.createTestFloat("a", 2));
+
+        ListOfBasicKlvDataTypesHandler<?> listHandler =
+                (ListOfBasicKlvDataTypesHandler<?>) handler;
+
+        assertThat(((Double) listHandler.getFirstValue()
+                .get()), is(closeTo(1, 0.001)));
+        assertThat(((Double) listHandler.getLastValue()
+                .get()), is(closeTo(2, 0.001)));
+    }
+
+    @Test
+    public void testReset() {
+
+        ListOfBasicKlvDataTypesHandler<String> stringHandler = createStringHandler();
+
+        stringHandler.accept(mockString("a"));
+        stringHandler.reset();
+
+        assertThat(stringHandler.asAttribute()
+                .isPresent(), is(false));
+        assertThat(stringHandler.getFirstValue()
+                .isPresent(), is(false));
+    }
+
+    /**
+     * A constant field over four hours of 60 Hz packets is stored as a single run that spans the
+     * recording, and the attribute has a single value.
+     */
+    @Test
+    public void testLongRecording() {
+
+        ListOfBasicKlvDataTypesHandler<String> stringHandler = createStringHandler();
+
+        KlvString missionId = mockString("MISSION");
+
+        int packets = 4 * 60 * 60 * 60;
+        for (int i = 0; i < packets; i++) {
+            stringHandler.accept(missionId);
+            stringHandler.endPacket(i * 1000L / 60);
+        }
+
+        RunLengthValues<String> runs = stringHandler.getRuns();
+        assertThat(runs.getRunCount(), is(1));
+        assertThat(runs.getValueCount(), is((long) packets));
+        assertThat(runs.getRun(0)
+                .getStartTimestamp(), is(0L));
+        assertThat(runs.getRun(0)
+                .getEndTimestamp(), is((packets - 1) * 1000L / 60));
+        assertThat(stringHandler.asAttribute()
+                .get()
+                .getValues(), contains("MISSION"));
+        assertThat(stringHandler.getDistinctValues(), contains("MISSION"));
+    }
+
+    private ListOfBasicKlvDataTypesHandler<String> createStringHandler() {
+        return new ListOfBasicKlvDataTypesHandler<>("field", KlvString.class);
+    }
+
+    private KlvString mockString(String value) {
+        KlvString klvString = mock(KlvString.class);
+        when(klvString.getValue()).thenReturn(value);
+        return klvString;
+    }
+
 }
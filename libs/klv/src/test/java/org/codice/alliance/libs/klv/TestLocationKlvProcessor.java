@@ -13,30 +13,48 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
 
-import ddf.catalog.data.Attribute;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+
 import ddf.catalog.data.Metacard;
 import ddf.catalog.data.impl.BasicTypes;
 import ddf.catalog.data.impl.MetacardImpl;
 
 public class TestLocationKlvProcessor {
 
+    private static final String LAT1 = "lat1";
+
+    private static final String LON1 = "lon1";
+
+    private static final String LAT2 = "lat2";
+
+    private static final String LON2 = "lon2";
+
+    private static final String LAT3 = "lat3";
+
+    private static final String LON3 = "lon3";
+
+    private static final String LAT4 = "lat4";
+
+    private static final String LON4 = "lon4";
+
+    private static final List<String> FIELDS =
+            Arrays.asList(LAT1, LON1, LAT2, LON2, LAT3, LON3, LAT4, LON4);
+
     private String wkt;
 
     private LocationKlvProcessor locationKlvProcessor;
@@ -53,27 +71,142 @@ public class TestLocationKlvProcessor {
     public void setup() {
         wkt = "POLYGON ((0 0, 5 0, 5 5, 0 5, 0 0))";
         locationKlvProcessor = new LocationKlvProcessor();
-        klvHandler = mock(GeoBoxHandler.class);
-        Attribute attribute = mock(Attribute.class);
-        when(attribute.getValues()).thenReturn(Collections.singletonList(wkt));
-        when(klvHandler.asAttribute()).thenReturn(Optional.of(attribute));
-        when(klvHandler.getAttributeName()).thenReturn(AttributeNameConstants.CORNER);
+        klvHandler = createGeoBoxHandler();
+        klvHandler.accept(LAT1, 0.0);
+        klvHandler.accept(LON1, 0.0);
+        klvHandler.accept(LAT2, 0.0);
+        klvHandler.accept(LON2, 5.0);
+        klvHandler.accept(LAT3, 5.0);
+        klvHandler.accept(LON3, 5.0);
+        klvHandler.accept(LAT4, 5.0);
+        klvHandler.accept(LON4, 0.0);
+        klvHandler.endPacket();
         metacard = new MetacardImpl(BasicTypes.BASIC_METACARD);
         klvConfiguration = new KlvProcessor.Configuration();
         handlers = Collections.singletonMap(AttributeNameConstants.CORNER, klvHandler);
     }
 
     @Test
-    public void testProcess() {
+    public void testProcess() throws ParseException {
+
+        klvConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, 50);
+
+        locationKlvProcessor.process(handlers, metacard, klvConfiguration);
+
+        assertLocation(wkt);
+
+    }
+
+    @Test
+    public void testProcessWithPrecision() throws ParseException {
+
+        klvHandler.accept(LAT1, 0.4);
+        klvHandler.accept(LON1, 0.4);
+        klvHandler.accept(LAT2, 0.4);
+        klvHandler.accept(LON2, 5.4);
+        klvHandler.accept(LAT3, 5.4);
+        klvHandler.accept(LON3, 5.4);
+        klvHandler.accept(LAT4, 5.4);
+        klvHandler.accept(LON4, 0.4);
+        klvHandler.endPacket();
 
         klvConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, 50);
+        klvConfiguration.set(KlvProcessor.Configuration.LOCATION_PRECISION_SCALE, 1.0);
 
         locationKlvProcessor.process(handlers, metacard, klvConfiguration);
 
-        assertThat(metacard.getLocation(), is(wkt));
+        assertLocation(wkt);
+
+    }
+
+    @Test
+    public void testProcessWithCoverageGrid() throws ParseException {
+
+        klvConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, 50);
+        klvConfiguration.set(KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR, 0.5);
+
+        locationKlvProcessor.process(handlers, metacard, klvConfiguration);
+
+        assertLocation(wkt);
 
     }
 
+    /**
+     * The coverage grid uses every packet, not only the subsample.
+     */
+    @Test
+    public void testCoverageUsesEveryPacket() {
+
+        GeoBoxHandler geoBoxHandler = createGeoBoxHandler();
+
+        for (int i = 0; i < 100; i++) {
+            geoBoxHandler.accept(LAT1, 0.0);
+            geoBoxHandler.accept(LON1, (double) i);
+            geoBoxHandler.accept(LAT2, 0.0);
+            geoBoxHandler.accept(LON2, i + 1.0);
+            geoBoxHandler.accept(LAT3, 1.0);
+            geoBoxHandler.accept(LON3, i + 1.0);
+            geoBoxHandler.accept(LAT4, 1.0);
+            geoBoxHandler.accept(LON4, (double) i);
+            geoBoxHandler.endPacket();
+        }
+
+        assertThat(locationKlvProcessor.coverage(geoBoxHandler, 0.25)
+                .get()
+                .getArea(), is(closeTo(100, 0.0001)));
+    }
+
+    /**
+     * With coverage enabled on the handlers, each packet is added to the grid as it is handled, so
+     * the streaming subsample of the rows does not reduce the coverage.
+     */
+    @Test
+    public void testEnableCoverageAddsEachPacketAsItIsHandled() throws ParseException {
+
+        GeoBoxHandler geoBoxHandler = createGeoBoxHandler();
+        geoBoxHandler.setStreamingSubsampleCount(1);
+        Map<String, KlvHandler> coverageHandlers = Collections.singletonMap(
+                AttributeNameConstants.CORNER,
+                geoBoxHandler);
+
+        LocationKlvProcessor.enableCoverage(coverageHandlers, 0.25);
+
+        for (int i = 0; i < 100; i++) {
+            geoBoxHandler.accept(LAT1, 0.0);
+            geoBoxHandler.accept(LON1, (double) i);
+            geoBoxHandler.accept(LAT2, 0.0);
+            geoBoxHandler.accept(LON2, i + 1.0);
+            geoBoxHandler.accept(LAT3, 1.0);
+            geoBoxHandler.accept(LON3, i + 1.0);
+            geoBoxHandler.accept(LAT4, 1.0);
+            geoBoxHandler.accept(LON4, (double) i);
+            geoBoxHandler.endPacket();
+
+            assertThat(geoBoxHandler.getColumns()
+                    .getRowCount(), is(1));
+        }
+
+        klvConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, 50);
+        klvConfiguration.set(KlvProcessor.Configuration.LOCATION_COVERAGE_MAX_ERROR, 0.25);
+
+        locationKlvProcessor.process(coverageHandlers, metacard, klvConfiguration);
+
+        assertThat(new WKTReader().read(metacard.getLocation())
+                .getArea(), is(closeTo(100, 0.0001)));
+    }
+
+    @Test
+    public void testResetClearsCoverage() {
+
+        LocationKlvProcessor.enableCoverage(handlers, 0.5);
+        klvHandler.reset();
+
+        klvConfiguration.set(KlvProcessor.Configuration.SUBSAMPLE_COUNT, 50);
+        locationKlvProcessor.process(handlers, metacard, klvConfiguration);
+
+        assertThat(metacard.getLocation(), nullValue());
+    }
+
     /**
      * Test where the subsample count is missing from the configuration.
      */
@@ -110,73 +243,80 @@ public class TestLocationKlvProcessor {
 
         int subsampleCount = 50;
 
-        String lat1 = "lat1";
-        String lon1 = "lon1";
-        String lat2 = "lat2";
-        String lon2 = "lon2";
-        String lat3 = "lat3";
-        String lon3 = "lon3";
-        String lat4 = "lat4";
-        String lon4 = "lon4";
-
         int start = subsampleCount + 1;
         int end = subsampleCount * 10;
 
-        when(klvHandler.getLatitude1()).thenReturn(lat1);
-        when(klvHandler.getLongitude1()).thenReturn(lon1);
-        when(klvHandler.getLatitude2()).thenReturn(lat2);
-        when(klvHandler.getLongitude2()).thenReturn(lon2);
-        when(klvHandler.getLatitude3()).thenReturn(lat3);
-        when(klvHandler.getLongitude3()).thenReturn(lon3);
-        when(klvHandler.getLatitude4()).thenReturn(lat4);
-        when(klvHandler.getLongitude4()).thenReturn(lon4);
-
         for (int originalSize = start; originalSize < end; originalSize++) {
 
-            Map<String, List<Double>> rawData = new HashMap<>();
-
-            when(klvHandler.getRawGeoData()).thenReturn(rawData);
-
-            rawData.put(lat1, new ArrayList<>());
-            rawData.put(lon1, new ArrayList<>());
-            rawData.put(lat2, new ArrayList<>());
-            rawData.put(lon2, new ArrayList<>());
-            rawData.put(lat3, new ArrayList<>());
-            rawData.put(lon3, new ArrayList<>());
-            rawData.put(lat4, new ArrayList<>());
-            rawData.put(lon4, new ArrayList<>());
+            GeoBoxHandler geoBoxHandler = createGeoBoxHandler();
 
             for (int i = 0; i < originalSize; i++) {
-                add(rawData, lat1, i);
-                add(rawData, lon1, i);
-                add(rawData, lat2, i);
-                add(rawData, lon2, i);
-                add(rawData, lat3, i);
-                add(rawData, lon3, i);
-                add(rawData, lat4, i);
-                add(rawData, lon4, i);
+                for (String field : FIELDS) {
+                    geoBoxHandler.accept(field, (double) i);
+                }
+                geoBoxHandler.endPacket();
             }
 
-            GeoBoxHandler subsampledGeoBoxHandler = locationKlvProcessor.subsample(klvHandler,
+            GeoBoxHandler subsampledGeoBoxHandler = locationKlvProcessor.subsample(geoBoxHandler,
                     subsampleCount);
 
             Map<String, List<Double>> newRawData = subsampledGeoBoxHandler.getRawGeoData();
 
-            assertThatCount(newRawData, lat1, subsampleCount);
-            assertThatCount(newRawData, lon1, subsampleCount);
-            assertThatCount(newRawData, lat2, subsampleCount);
-            assertThatCount(newRawData, lon2, subsampleCount);
-            assertThatCount(newRawData, lat3, subsampleCount);
-            assertThatCount(newRawData, lon3, subsampleCount);
-            assertThatCount(newRawData, lat4, subsampleCount);
-            assertThatCount(newRawData, lon4, subsampleCount);
+            for (String field : FIELDS) {
+                assertThatCount(newRawData, field, subsampleCount);
+            }
+
+        }
+    }
+
+    /**
+     * Missing values must stay with their packet when subsampling.
+     */
+    @Test
+    public void testSubsampleKeepsMissingValuesAligned() {
+
+        int subsampleCount = 2;
 
+        GeoBoxHandler geoBoxHandler = createGeoBoxHandler();
+
+        for (int i = 0; i < 4; i++) {
+            for (String field : FIELDS) {
+                if (!(i == 2 && field.equals(LAT2))) {
+                    geoBoxHandler.accept(field, (double) i);
+                }
+            }
+            geoBoxHandler.endPacket();
         }
+
+        Map<String, List<Double>> newRawData = locationKlvProcessor.subsample(geoBoxHandler,
+                subsampleCount)
+                .getRawGeoData();
+
+        assertThat(newRawData.get(LAT1), is(Arrays.asList(0.0, 2.0)));
+        assertThat(newRawData.get(LAT2)
+                .get(0), is(0.0));
+        assertThat(newRawData.get(LAT2)
+                .get(1)
+                .isNaN(), is(true));
+    }
+
+    private void assertLocation(String expected) throws ParseException {
+        WKTReader wktReader = new WKTReader();
+        assertThat(wktReader.read(metacard.getLocation())
+                .norm(), is(wktReader.read(expected)
+                .norm()));
     }
 
-    private void add(Map<String, List<Double>> rawData, String name, int value) {
-        rawData.get(name)
-                .add((double) value);
+    private GeoBoxHandler createGeoBoxHandler() {
+        return new GeoBoxHandler(AttributeNameConstants.CORNER,
+                LAT1,
+                LON1,
+                LAT2,
+                LON2,
+                LAT3,
+                LON3,
+                LAT4,
+                LON4);
     }
 
     private void assertThatCount(Map<String, List<Double>> rawData, String name, int count) {
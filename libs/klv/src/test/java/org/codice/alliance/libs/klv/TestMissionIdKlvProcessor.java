@@ -13,17 +13,24 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
+import java.util.Collections;
 
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
+import org.codice.ddf.libs.klv.data.text.KlvString;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import ddf.catalog.data.Attribute;
+import ddf.catalog.data.Metacard;
 
 public class TestMissionIdKlvProcessor {
 
@@ -48,4 +55,32 @@ public class TestMissionIdKlvProcessor {
 
     }
 
+    @Test
+    public void testDistinctFromRuns() {
+
+        ListOfBasicKlvDataTypesHandler<String> handler =
+                new ListOfBasicKlvDataTypesHandler<>(AttributeNameConstants.MISSION_ID,
+                        KlvString.class);
+
+        for (String id : Arrays.asList("ID1", "ID1", "ID2", "ID1")) {
+            KlvString klvString = mock(KlvString.class);
+            when(klvString.getValue()).thenReturn(id);
+            handler.accept(klvString);
+            handler.endPacket();
+        }
+
+        Metacard metacard = mock(Metacard.class);
+
+        new MissionIdKlvProcessor().process(Collections.singletonMap(
+                Stanag4609TransportStreamParser.MISSION_ID,
+                handler), metacard, new KlvProcessor.Configuration());
+
+        ArgumentCaptor<Attribute> argumentCaptor = ArgumentCaptor.forClass(Attribute.class);
+
+        verify(metacard).setAttribute(argumentCaptor.capture());
+
+        assertThat(argumentCaptor.getValue()
+                .getValues(), contains("ID1", "ID2"));
+    }
+
 }
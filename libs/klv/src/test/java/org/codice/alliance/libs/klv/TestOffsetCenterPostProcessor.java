@@ -14,13 +14,18 @@
 package org.codice.alliance.libs.klv;
 
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.doubleThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.KlvDataElement;
@@ -109,4 +114,35 @@ public class TestOffsetCenterPostProcessor {
         dataElements.put(name, KlvUtilities.createTestFloat(name, value));
     }
 
+    @Test
+    public void testGetElementNamesWithoutCornerHandlers() {
+        assertThat(new OffsetCenterPostProcessor().getElementNames(new HashMap<>())
+                .isEmpty(), is(true));
+    }
+
+    @Test
+    public void testGetElementNamesWithCornerHandlers() {
+        Map<String, KlvHandler> handlers = new HashMap<>();
+        GeoBoxHandler cornerHandler = mock(GeoBoxHandler.class);
+        for (String name : Arrays.asList(Stanag4609TransportStreamParser.CORNER_LATITUDE_1,
+                Stanag4609TransportStreamParser.CORNER_LONGITUDE_1,
+                Stanag4609TransportStreamParser.CORNER_LATITUDE_2,
+                Stanag4609TransportStreamParser.CORNER_LONGITUDE_2,
+                Stanag4609TransportStreamParser.CORNER_LATITUDE_3,
+                Stanag4609TransportStreamParser.CORNER_LONGITUDE_3,
+                Stanag4609TransportStreamParser.CORNER_LATITUDE_4,
+                Stanag4609TransportStreamParser.CORNER_LONGITUDE_4)) {
+            handlers.put(name, cornerHandler);
+        }
+
+        Set<String> elementNames = new OffsetCenterPostProcessor().getElementNames(handlers);
+
+        assertThat(elementNames,
+                hasItems(Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                        Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE,
+                        Stanag4609TransportStreamParser.OFFSET_CORNER_LATITUDE_1,
+                        Stanag4609TransportStreamParser.OFFSET_CORNER_LONGITUDE_4));
+        assertThat(elementNames.size(), is(10));
+    }
+
 }
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+public class TestPacketAlignedColumns {
+
+    private static final String A = "a";
+
+    private static final String B = "b";
+
+    private PacketAlignedColumns columns;
+
+    @Before
+    public void setup() {
+        columns = new PacketAlignedColumns(A, B);
+    }
+
+    @Test
+    public void testSetAndGet() {
+        columns.set(A, 1.0);
+        columns.set(B, 2.0);
+        columns.endRow();
+        columns.set(A, 3.0);
+        columns.set(B, 4.0);
+        columns.endRow();
+
+        assertThat(columns.getRowCount(), is(2));
+        assertThat(columns.get(0, 0), is(1.0));
+        assertThat(columns.get(1, 0), is(2.0));
+        assertThat(columns.get(0, 1), is(3.0));
+        assertThat(columns.get(1, 1), is(4.0));
+    }
+
+    @Test
+    public void testUnknownColumn() {
+        assertThat(columns.set("c", 1.0), is(false));
+        assertThat(columns.getColumnIndex("c"), is(-1));
+        assertThat(columns.getRowCount(), is(0));
+    }
+
+    @Test
+    public void testMissingValue() {
+        columns.set(A, 1.0);
+        columns.endRow();
+
+        assertThat(PacketAlignedColumns.isMissing(columns.get(1, 0)), is(true));
+        assertThat(columns.isComplete(0), is(false));
+    }
+
+    @Test
+    public void testRepeatedColumnStartsNewRow() {
+        columns.set(A, 1.0);
+        columns.set(B, 2.0);
+        columns.set(A, 3.0);
+
+        assertThat(columns.getRowCount(), is(2));
+        assertThat(columns.isComplete(0), is(true));
+        assertThat(columns.isComplete(1), is(false));
+    }
+
+    @Test
+    public void testEndRowWithoutValues() {
+        columns.endRow();
+        columns.endRow();
+
+        assertThat(columns.getRowCount(), is(0));
+    }
+
+    @Test
+    public void testRowsSpanChunks() {
+        int chunkSize = PacketAlignedColumns.CHUNK_SIZE;
+        int rows = chunkSize * 2 + 1;
+        for (int row = 0; row < rows; row++) {
+            columns.set(A, row);
+            columns.set(B, -row);
+            columns.endRow();
+        }
+
+        assertThat(columns.getRowCount(), is(rows));
+        assertThat(columns.get(0, chunkSize), is((double) chunkSize));
+        assertThat(columns.get(1, rows - 1), is((double) -(rows - 1)));
+    }
+
+    @Test
+    public void testClear() {
+        columns.set(A, 1.0);
+        columns.endRow();
+        columns.set(B, 2.0);
+
+        columns.clear();
+
+        assertThat(columns.getRowCount(), is(0));
+        assertThat(columns.toMap()
+                .isEmpty(), is(true));
+        assertThat(columns.estimateHeapBytes(), is(0L));
+    }
+
+    @Test
+    public void testRowEndListenerSeesDroppedRows() {
+        List<Double> ended = new ArrayList<>();
+        columns.setMaxRows(2);
+        columns.setRowEndListener(row -> ended.add(columns.get(0, row)));
+
+        for (int packet = 0; packet < 5; packet++) {
+            columns.set(A, (double) packet);
+            columns.endRow();
+        }
+        columns.set(A, 5.0);
+        columns.set(A, 6.0);
+
+        assertThat(ended, contains(0.0, 1.0, 2.0, 3.0, 4.0, 5.0));
+        assertThat(columns.getStride(), is(8L));
+    }
+
+    @Test
+    public void testToMap() {
+        columns.set(A, 1.0);
+        columns.set(B, 2.0);
+        columns.endRow();
+        columns.set(A, 3.0);
+
+        Map<String, List<Double>> map = columns.toMap();
+
+        assertThat(map.get(A), contains(1.0, 3.0));
+        assertThat(map.get(B)
+                .get(0), is(2.0));
+        assertThat(map.get(B)
+                .get(1)
+                .isNaN(), is(true));
+    }
+
+    /**
+     * Four hours of 60 Hz corner coordinates (eight fields per packet) should cost close to eight
+     * bytes per value. The bytes allocated while filling the columns are measured, so the
+     * assertion does not depend on the columns' own estimate.
+     */
+    @Test
+    public void testHeapFootprint() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread()
+                .getId();
+
+        // warm up first, so the interpreter's own allocations are not measured
+        for (int run = 0; run < 3; run++) {
+            fill(new PacketAlignedColumns(A, B), 200000);
+        }
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        PacketAlignedColumns corners = new PacketAlignedColumns("lat1",
+                "lon1",
+                "lat2",
+                "lon2",
+                "lat3",
+                "lon3",
+                "lat4",
+                "lon4");
+
+        int rows = 4 * 60 * 60 * 60;
+        fill(corners, rows);
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        long values = (long) rows * corners.getColumnCount();
+        long chunksPerColumn = (rows + PacketAlignedColumns.CHUNK_SIZE - 1)
+                / PacketAlignedColumns.CHUNK_SIZE;
+        long chunkArrayBytes = corners.getColumnCount() * chunksPerColumn * Double.BYTES
+                * PacketAlignedColumns.CHUNK_SIZE;
+
+        assertThat(corners.getRowCount(), is(rows));
+        assertThat((double) allocated / values, lessThan(8.1));
+        assertThat(allocated, greaterThanOrEqualTo(chunkArrayBytes));
+        assertThat(corners.estimateHeapBytes(), greaterThanOrEqualTo(chunkArrayBytes));
+        assertThat(corners.estimateHeapBytes(), lessThan(allocated + 1));
+    }
+
+    @Test
+    public void testMaxRowsKeepsStridedSample() {
+        columns.setMaxRows(100);
+
+        int packets = 1000000;
+        for (int packet = 0; packet < packets; packet++) {
+            columns.set(A, packet);
+            columns.set(B, -packet);
+            columns.endRow();
+        }
+
+        long stride = columns.getStride();
+
+        assertThat(Long.bitCount(stride), is(1));
+        assertThat(columns.getRowCount(), is(lessThan(100)));
+        assertThat(columns.getRowCount(), is(greaterThanOrEqualTo(50)));
+        assertThat(columns.getRowCount(), is((int) ((packets + stride - 1) / stride)));
+        for (int row = 0; row < columns.getRowCount(); row++) {
+            assertThat(columns.get(0, row), is((double) (row * stride)));
+            assertThat(columns.get(1, row), is((double) -(row * stride)));
+        }
+        assertThat(columns.estimateHeapBytes(),
+                is((long) (Double.BYTES * PacketAlignedColumns.CHUNK_SIZE + 16) * 2));
+    }
+
+    @Test
+    public void testMaxRowsDroppedRowsAreMissing() {
+        columns.setMaxRows(2);
+
+        columns.set(A, 0);
+        columns.endRow();
+        columns.set(A, 1);
+        columns.endRow();
+        columns.set(A, 2);
+        columns.set(B, 2);
+        columns.endRow();
+        columns.set(A, 3);
+        columns.endRow();
+
+        assertThat(columns.getStride(), is(8L));
+        assertThat(columns.getRowCount(), is(1));
+        assertThat(PacketAlignedColumns.isMissing(columns.get(0, 1)), is(true));
+        assertThat(PacketAlignedColumns.isMissing(columns.get(1, 1)), is(true));
+    }
+
+    private void fill(PacketAlignedColumns packetAlignedColumns, int rows) {
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < packetAlignedColumns.getColumnCount(); column++) {
+                packetAlignedColumns.set(column, row);
+            }
+            packetAlignedColumns.endRow();
+        }
+    }
+}
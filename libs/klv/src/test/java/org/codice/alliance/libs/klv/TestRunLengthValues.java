@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.klv;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRunLengthValues {
+
+    private RunLengthValues<String> values;
+
+    @Before
+    public void setup() {
+        values = new RunLengthValues<>();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertThat(values.isEmpty(), is(true));
+        assertThat(values.getFirst(), is(Optional.empty()));
+        assertThat(values.getLast(), is(Optional.empty()));
+        assertThat(values.getDistinct()
+                .isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRepeatedValuesShareRun() {
+        values.add("a");
+        values.addTimestamp(1000);
+        values.add("a");
+        values.addTimestamp(2000);
+        values.add("a");
+        values.addTimestamp(3000);
+
+        assertThat(values.getRunCount(), is(1));
+        assertThat(values.getValueCount(), is(3L));
+        assertThat(values.getRun(0)
+                .getCount(), is(3L));
+        assertThat(values.getRun(0)
+                .getStartTimestamp(), is(1000L));
+        assertThat(values.getRun(0)
+                .getEndTimestamp(), is(3000L));
+    }
+
+    @Test
+    public void testChangedValueStartsRun() {
+        values.add("a");
+        values.add("b");
+        values.add("a");
+
+        assertThat(values.getRunCount(), is(3));
+        assertThat(values.getDistinct(), contains("a", "b"));
+        assertThat(values.getFirst(), is(Optional.of("a")));
+        assertThat(values.getLast(), is(Optional.of("a")));
+    }
+
+    @Test
+    public void testTimestampsOfRuns() {
+        values.add("a");
+        values.addTimestamp(1000);
+        values.add("b");
+        values.addTimestamp(2000);
+        values.add("b");
+        values.addTimestamp(-1);
+
+        assertThat(values.getRun(0)
+                .getStartTimestamp(), is(1000L));
+        assertThat(values.getRun(0)
+                .getEndTimestamp(), is(1000L));
+        assertThat(values.getRun(1)
+                .getStartTimestamp(), is(2000L));
+        assertThat(values.getRun(1)
+                .getEndTimestamp(), is(2000L));
+    }
+
+    @Test
+    public void testRunWithoutTimestamps() {
+        values.add("a");
+
+        assertThat(values.getRun(0)
+                .getStartTimestamp(), is(-1L));
+        assertThat(values.getRun(0)
+                .getEndTimestamp(), is(-1L));
+    }
+
+    @Test
+    public void testNullValues() {
+        values.add(null);
+        values.add(null);
+
+        assertThat(values.getRunCount(), is(1));
+        assertThat(values.getFirst(), is(Optional.empty()));
+    }
+
+    @Test
+    public void testRunValues() {
+        values.add("a");
+        values.add("a");
+        values.add("b");
+        values.add("a");
+
+        List<String> runValues = new ArrayList<>();
+        values.addRunValuesTo(runValues);
+
+        assertThat(runValues, contains("a", "b", "a"));
+    }
+
+    @Test
+    public void testClear() {
+        values.add("a");
+
+        values.clear();
+
+        assertThat(values.isEmpty(), is(true));
+        assertThat(values.getValueCount(), is(0L));
+    }
+
+}
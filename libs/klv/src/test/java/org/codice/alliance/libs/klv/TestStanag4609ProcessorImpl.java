@@ -13,22 +13,33 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
 import org.codice.alliance.libs.stanag4609.DecodedKLVMetadataPacket;
+import org.codice.alliance.libs.stanag4609.Stanag4609TransportStreamParser;
 import org.codice.ddf.libs.klv.KlvContext;
 import org.codice.ddf.libs.klv.KlvDataElement;
 import org.codice.ddf.libs.klv.KlvDecodingException;
 import org.codice.ddf.libs.klv.data.Klv;
 import org.codice.ddf.libs.klv.data.numerical.KlvIntegerEncodedFloatingPoint;
+import org.codice.ddf.libs.klv.data.numerical.KlvLong;
 import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
 import org.junit.Before;
 import org.junit.Test;
@@ -144,4 +155,123 @@ public class TestStanag4609ProcessorImpl {
 
     }
 
+    @Test
+    public void testHandleSinglePacket() throws KlvDecodingException {
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getDecodedKLV()).thenReturn(new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                Collections.singleton(klvIntegerEncodedFloatingPoint)));
+
+        stanag4609Processor.handle(Collections.singletonMap(FIELD_NAME, klvHandler),
+                defaultKlvHandler,
+                packet);
+
+        verify(klvHandler).accept(klvIntegerEncodedFloatingPoint);
+        verify(klvHandler).endPacket(-1L);
+
+    }
+
+    @Test
+    public void testEndPacketWithTimestamp() throws KlvDecodingException {
+
+        KlvLong timestamp = mock(KlvLong.class);
+        when(timestamp.getName()).thenReturn(Stanag4609TransportStreamParser.TIMESTAMP);
+        when(timestamp.getValue()).thenReturn(5_000_000L);
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getDecodedKLV()).thenReturn(new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                new HashSet<>(Arrays.asList(klvIntegerEncodedFloatingPoint, timestamp))));
+
+        stanag4609Processor.handle(Collections.singletonMap(FIELD_NAME, klvHandler),
+                defaultKlvHandler,
+                packet);
+
+        verify(klvHandler).endPacket(5000L);
+
+    }
+
+    /**
+     * The dispatch plan used for stanag metadata must pass the same data elements to the post
+     * processor as the name based handle methods.
+     */
+    @Test
+    public void testHandleWithStanagMetadataMatchesContextHandling() throws KlvDecodingException {
+
+        KlvIntegerEncodedFloatingPoint otherKlvIntegerEncodedFloatingPoint =
+                KlvUtilities.createTestFloat("someOtherField", 50);
+
+        KlvContext klvContext = new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                new HashSet<>(Arrays.asList(klvIntegerEncodedFloatingPoint,
+                        otherKlvIntegerEncodedFloatingPoint)));
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getDecodedKLV()).thenReturn(klvContext);
+
+        List<Map<String, KlvDataElement>> postProcessed = new ArrayList<>();
+        PostProcessor postProcessor = mock(PostProcessor.class);
+        doAnswer(invocation -> {
+            Map<String, KlvDataElement> elements =
+                    (Map<String, KlvDataElement>) invocation.getArguments()[0];
+            postProcessed.add(new HashMap<>(elements));
+            return null;
+        }).when(postProcessor).postProcess(any(), any());
+
+        Map<String, KlvHandler> handlers = Collections.singletonMap(FIELD_NAME, klvHandler);
+
+        new Stanag4609ProcessorImpl(postProcessor).handle(handlers,
+                defaultKlvHandler,
+                Collections.singletonMap(1, Arrays.asList(packet, packet)));
+
+        stanag4609Processor.handle(handlers, defaultKlvHandler, klvContext, dataElements);
+
+        assertThat(postProcessed.size(), is(2));
+        assertThat(postProcessed.get(0), is(dataElements));
+        assertThat(postProcessed.get(1), is(dataElements));
+        verify(klvHandler, times(3)).accept(klvIntegerEncodedFloatingPoint);
+        verify(defaultKlvHandler, times(3)).accept(otherKlvIntegerEncodedFloatingPoint);
+    }
+
+    /**
+     * The cached dispatch plan must not keep the handler map alive once the caller drops it.
+     */
+    @Test
+    public void testDispatchPlanDoesNotKeepHandlers() throws InterruptedException {
+
+        DecodedKLVMetadataPacket packet = mock(DecodedKLVMetadataPacket.class);
+        when(packet.getDecodedKLV()).thenReturn(new KlvContext(Klv.KeyLength.OneByte,
+                Klv.LengthEncoding.OneByte,
+                Collections.singleton(klvIntegerEncodedFloatingPoint)));
+
+        Map<String, KlvHandler> handlers = new HashMap<>();
+        handlers.put(FIELD_NAME, new LoggingKlvHandler());
+        WeakReference<Map<String, KlvHandler>> handlersReference = new WeakReference<>(handlers);
+
+        new Stanag4609ProcessorImpl((elements, postProcessHandlers) -> {
+        }).handle(handlers, new LoggingKlvHandler(), packet);
+        handlers = null;
+
+        for (int i = 0; i < 20 && handlersReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertThat(handlersReference.get() == null, is(true));
+    }
+
+    @Test
+    public void testGetElementNames() {
+        PostProcessor postProcessor = mock(PostProcessor.class);
+        when(postProcessor.getElementNames(any())).thenReturn(Collections.singleton("other"));
+
+        Map<String, KlvHandler> handlers = Collections.singletonMap(FIELD_NAME, klvHandler);
+
+        assertThat(new Stanag4609ProcessorImpl(postProcessor).getElementNames(handlers),
+                is(new HashSet<>(Arrays.asList(FIELD_NAME,
+                        "other",
+                        Stanag4609TransportStreamParser.TIMESTAMP))));
+    }
+
 }
@@ -13,10 +13,13 @@
  */
 package org.codice.alliance.libs.klv;
 
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 
+import java.util.Collections;
+
 import org.junit.Test;
 
 import com.google.common.io.ByteSource;
@@ -32,4 +35,51 @@ public class TestStanagParserFactoryImpl {
 
     }
 
+    @Test
+    public void testCreateSamplingParser() {
+
+        StanagParserFactoryImpl stanagParserFactory = new StanagParserFactoryImpl();
+
+        assertThat(stanagParserFactory.createParser(mock(ByteSource.class),
+                Collections.emptySet(),
+                10000), notNullValue());
+
+    }
+
+    @Test
+    public void testSinglePass() {
+
+        StanagParserFactoryImpl stanagParserFactory = new StanagParserFactoryImpl();
+
+        assertThat(stanagParserFactory.isSinglePass(), is(false));
+
+        stanagParserFactory.setMetadataOnlyScan(true);
+
+        assertThat(stanagParserFactory.isSinglePass(), is(true));
+
+    }
+
+    @Test(expected = Stanag4609ParseException.class)
+    public void testStreamingParseError() throws Stanag4609ParseException {
+
+        StanagParserFactoryImpl stanagParserFactory = new StanagParserFactoryImpl();
+
+        stanagParserFactory.createParser(mock(ByteSource.class))
+                .parse((klvStreamPid, packet) -> {
+                });
+
+    }
+
+    @Test(expected = Stanag4609ParseException.class)
+    public void testMetadataOnlyScanParseError() throws Stanag4609ParseException {
+
+        StanagParserFactoryImpl stanagParserFactory = new StanagParserFactoryImpl();
+        stanagParserFactory.setMetadataOnlyScan(true);
+
+        stanagParserFactory.createParser(mock(ByteSource.class))
+                .parse((klvStreamPid, packet) -> {
+                });
+
+    }
+
 }
@@ -13,13 +13,9 @@
  */
 package org.codice.alliance.libs.stanag4609;
 
-import java.util.Arrays;
-
 import org.codice.ddf.libs.klv.KlvContext;
 import org.codice.ddf.libs.klv.KlvDecoder;
 import org.codice.ddf.libs.klv.KlvDecodingException;
-import org.codice.ddf.libs.klv.data.numerical.KlvUnsignedShort;
-import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
 import org.jcodec.containers.mps.MPSDemuxer.PESPacket;
 
 abstract class AbstractMetadataPacket {
@@ -27,61 +23,63 @@ abstract class AbstractMetadataPacket {
 
     protected final PESPacket pesHeader;
 
-    protected final KlvDecoder decoder;
+    protected final KlvPayloadDecoder decoder;
+
+    protected final KlvPacketValidator validator;
 
     protected AbstractMetadataPacket(final byte[] pesPacketBytes, final PESPacket pesHeader,
             final KlvDecoder decoder) {
+        this(pesPacketBytes, pesHeader, KlvPayloadDecoder.of(decoder), new KlvPacketValidator());
+    }
+
+    protected AbstractMetadataPacket(final byte[] pesPacketBytes, final PESPacket pesHeader,
+            final KlvPayloadDecoder decoder, final KlvPacketValidator validator) {
         this.pesPacketBytes = pesPacketBytes;
         this.pesHeader = pesHeader;
         this.decoder = decoder;
+        this.validator = validator;
     }
 
-    private boolean validateChecksum(final KlvContext klvContext, final byte[] klvBytes)
-            throws KlvDecodingException {
-        if (!klvContext.hasDataElement(Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET)) {
-            throw new KlvDecodingException("KLV did not contain the UAS Datalink Local Set");
-        }
-
-        final KlvContext localSetContext = ((KlvLocalSet) klvContext.getDataElementByName(
-                Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET)).getValue();
-
-        if (localSetContext.hasDataElement(Stanag4609TransportStreamParser.CHECKSUM)) {
-            final int packetChecksum = ((KlvUnsignedShort) localSetContext.getDataElementByName(
-                    Stanag4609TransportStreamParser.CHECKSUM)).getValue();
-
-            short calculatedChecksum = 0;
-            // Checksum is calculated by a 16-bit sum from the beginning of the KLV set to the 1-byte
-            // checksum length (the checksum value is 2 bytes, which is why we subtract 2).
-            for (int i = 0; i < klvBytes.length - 2; ++i) {
-                calculatedChecksum += (klvBytes[i] & 0xFF) << (8 * ((i + 1) % 2));
-            }
-
-            return (calculatedChecksum & 0xFFFF) == packetChecksum;
-        }
-
-        throw new KlvDecodingException(
-                "Decoded KLV packet didn't contain checksum (which is required).");
-    }
-
-    protected final byte[] getPESPacketPayload(final int packetLength,
+    /**
+     * @return the number of payload bytes that follow the header, limited to the bytes that are
+     * actually in the packet
+     */
+    protected final int getPESPacketPayloadLength(final int packetLength,
             final int expectedHeaderLength) {
         final int payloadEnd = Math.min(pesPacketBytes.length, expectedHeaderLength + packetLength);
-        return Arrays.copyOfRange(pesPacketBytes, expectedHeaderLength, payloadEnd);
+        return Math.max(0, payloadEnd - expectedHeaderLength);
     }
 
-    protected abstract byte[] getKLVBytes();
+    /**
+     * @return the offset of the KLV bytes in {@link #pesPacketBytes}
+     */
+    protected abstract int getKLVOffset();
 
+    /**
+     * @return the number of KLV bytes in {@link #pesPacketBytes}, or 0 if there are none
+     */
+    protected abstract int getKLVLength();
+
+    /**
+     * The KLV bytes are validated in place, so corrupt packets are rejected before they are
+     * copied or decoded. The decoder is handed the slice of the PES packet that holds the KLV.
+     */
     final DecodedKLVMetadataPacket decodeKLV() throws KlvDecodingException {
-        final byte[] klvBytes = getKLVBytes();
+        final int klvLength = getKLVLength();
+
+        if (klvLength > 0) {
+            final int klvOffset = getKLVOffset();
 
-        if (klvBytes != null && klvBytes.length > 0) {
-            final KlvContext decodedKLV = decoder.decode(klvBytes);
+            validator.validate(pesPacketBytes, klvOffset, klvLength);
 
-            if (validateChecksum(decodedKLV, klvBytes)) {
-                return new DecodedKLVMetadataPacket(pesHeader.pts, decodedKLV);
-            } else {
-                throw new KlvDecodingException("KLV packet checksum does not match.");
+            final KlvContext decodedKLV = decoder.decode(pesPacketBytes, klvOffset, klvLength);
+
+            if (!decodedKLV.hasDataElement(
+                    Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET)) {
+                throw new KlvDecodingException("KLV did not contain the UAS Datalink Local Set");
             }
+
+            return new DecodedKLVMetadataPacket(pesHeader.pts, decodedKLV);
         }
 
         return null;
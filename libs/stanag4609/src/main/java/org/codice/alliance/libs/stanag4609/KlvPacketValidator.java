@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codice.ddf.libs.klv.KlvDecodingException;
+
+/**
+ * Checks the framing and the checksum of a UAS Datalink Local Set (MISB ST 0601) directly on the
+ * raw packet bytes, so that corrupt packets are rejected before they are copied or decoded. The
+ * packet must start with the UAS Datalink Local Set key, the BER length must match the number of
+ * bytes in the packet, and the packet must end with the 16-bit running checksum (tag 1), which
+ * must match the sum of the preceding bytes. Rejected packets are counted.
+ */
+public class KlvPacketValidator {
+
+    private static final byte[] UAS_DATALINK_LOCAL_SET_KEY =
+            {0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03, 0x01, 0x01, 0x00,
+                    0x00, 0x00};
+
+    private static final int CHECKSUM_TAG = 1;
+
+    private static final int CHECKSUM_LENGTH = 2;
+
+    /**
+     * Tag, length and value of the checksum element.
+     */
+    private static final int CHECKSUM_ELEMENT_LENGTH = 2 + CHECKSUM_LENGTH;
+
+    private static final int MAX_BER_LENGTH_BYTES = 4;
+
+    private final AtomicLong rejectedPacketCount = new AtomicLong();
+
+    /**
+     * @param bytes  the bytes that contain the packet
+     * @param offset the offset of the first byte of the packet
+     * @param length the number of bytes in the packet
+     * @throws KlvDecodingException if the packet is not valid
+     */
+    public void validate(final byte[] bytes, final int offset, final int length)
+            throws KlvDecodingException {
+        final String problem = findProblem(bytes, offset, length);
+        if (problem != null) {
+            rejectedPacketCount.incrementAndGet();
+            throw new KlvDecodingException(problem);
+        }
+    }
+
+    /**
+     * @return the number of packets that failed {@link #validate(byte[], int, int)}
+     */
+    public long getRejectedPacketCount() {
+        return rejectedPacketCount.get();
+    }
+
+    private String findProblem(final byte[] bytes, final int offset, final int length) {
+        final int keyLength = UAS_DATALINK_LOCAL_SET_KEY.length;
+
+        if (offset < 0 || length < keyLength + 1 + CHECKSUM_ELEMENT_LENGTH
+                || offset + length > bytes.length) {
+            return "KLV packet is too short.";
+        }
+
+        for (int i = 0; i < keyLength; ++i) {
+            if (bytes[offset + i] != UAS_DATALINK_LOCAL_SET_KEY[i]) {
+                return "KLV did not contain the UAS Datalink Local Set";
+            }
+        }
+
+        int position = offset + keyLength;
+        long valueLength = bytes[position++] & 0xFF;
+        if (valueLength >= 0x80) {
+            final int lengthBytes = (int) (valueLength & 0x7F);
+            if (lengthBytes == 0 || lengthBytes > MAX_BER_LENGTH_BYTES
+                    || position + lengthBytes > offset + length) {
+                return "KLV packet has an invalid BER length.";
+            }
+            valueLength = 0;
+            for (int i = 0; i < lengthBytes; ++i) {
+                valueLength = (valueLength << 8) | (bytes[position++] & 0xFF);
+            }
+        }
+
+        if (position + valueLength != offset + length) {
+            return "KLV packet length does not match the BER length.";
+        }
+
+        final int checksumElement = offset + length - CHECKSUM_ELEMENT_LENGTH;
+        if (checksumElement < position || bytes[checksumElement] != CHECKSUM_TAG
+                || bytes[checksumElement + 1] != CHECKSUM_LENGTH) {
+            return "KLV packet didn't end with a checksum (which is required).";
+        }
+
+        final int packetChecksum = ((bytes[offset + length - 2] & 0xFF) << 8) | (
+                bytes[offset + length - 1] & 0xFF);
+
+        if (calculateChecksum(bytes, offset, length - CHECKSUM_LENGTH) != packetChecksum) {
+            return "KLV packet checksum does not match.";
+        }
+
+        return null;
+    }
+
+    /**
+     * The checksum is a 16-bit sum from the beginning of the KLV set to the 1-byte checksum
+     * length, where the bytes at even positions are the high bytes.
+     */
+    private static int calculateChecksum(final byte[] bytes, final int offset, final int length) {
+        int checksum = 0;
+        for (int i = 0; i < length; ++i) {
+            checksum += (bytes[offset + i] & 0xFF) << (8 * ((i + 1) % 2));
+        }
+        return checksum & 0xFFFF;
+    }
+}
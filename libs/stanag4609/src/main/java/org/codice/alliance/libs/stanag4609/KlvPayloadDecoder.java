@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import java.util.Arrays;
+
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDecoder;
+import org.codice.ddf.libs.klv.KlvDecodingException;
+
+/**
+ * Decodes the KLV bytes of a metadata packet, which are a slice of the PES packet bytes.
+ */
+@FunctionalInterface
+public interface KlvPayloadDecoder {
+
+    /**
+     * Wrap a {@link KlvDecoder} that decodes every element of its context.
+     *
+     * @param decoder the decoder
+     * @return a payload decoder that copies the slice and passes it to the decoder
+     */
+    static KlvPayloadDecoder of(final KlvDecoder decoder) {
+        return (bytes, offset, length) -> decoder.decode(Arrays.copyOfRange(bytes,
+                offset,
+                offset + length));
+    }
+
+    /**
+     * @param bytes  the bytes that contain the KLV
+     * @param offset the offset of the first KLV byte
+     * @param length the number of KLV bytes
+     * @return the decoded KLV
+     * @throws KlvDecodingException if the KLV cannot be decoded
+     */
+    KlvContext decode(byte[] bytes, int offset, int length) throws KlvDecodingException;
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.codice.alliance.libs.stanag4609.TransportStreamPackets.TS_PACKET_SIZE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Extracts the PES packets of the KLV metadata streams of a transport stream. The PAT and PMTs are
+ * read first to find the metadata streams, after that only the 4-byte header of each transport
+ * stream packet is read, apart from the PMT packets. Packets that do not belong to a metadata
+ * stream (ie. the video and audio, which are most of the bytes) are skipped in the read buffer,
+ * without being copied and without creating any objects.
+ * <p>
+ * When a PMT changes version, the metadata streams it lists replace those of its program and the
+ * PES packets of the streams that are no longer listed are dropped.
+ * <p>
+ * A packet that repeats the continuity counter of the previous packet of its stream is treated as
+ * a duplicate and skipped. A gap in the continuity counters drops the PES packet that is being
+ * assembled.
+ * <p>
+ * The callback may ask the scanner to {@link #skip(long)} forward. The PES packets that are being
+ * assembled are dropped and the scanner synchronizes on the packets that follow the skipped bytes.
+ */
+class MetadataOnlyScanner {
+
+    private static final int BUFFER_PACKETS = 1024;
+
+    private final ByteSource byteSource;
+
+    private long position;
+
+    private long pendingSkip;
+
+    MetadataOnlyScanner(final ByteSource byteSource) {
+        this.byteSource = byteSource;
+    }
+
+    /**
+     * @return the position in the transport stream of the packet that is being scanned
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Skip forward once the callback returns.
+     *
+     * @param byteCount the number of bytes to skip after the packet that is being scanned
+     */
+    void skip(final long byteCount) {
+        pendingSkip = Math.max(0, byteCount);
+    }
+
+    /**
+     * @param callback called with the packet ID of the metadata stream and the bytes of each PES
+     *                 packet, in stream order
+     * @throws IOException if the transport stream cannot be read
+     */
+    void getMetadata(final BiConsumer<Integer, byte[]> callback) throws IOException {
+        final MetadataStreamTable metadataStreamTable = new MetadataStreamTable();
+        final Map<Integer, PesAssembler> assemblers = new HashMap<>();
+        final byte[] buffer = new byte[BUFFER_PACKETS * TS_PACKET_SIZE];
+
+        try (InputStream inputStream = byteSource.openStream()) {
+            long bufferPosition = 0;
+            int start = 0;
+            int end = 0;
+            boolean inSync = false;
+
+            while (true) {
+                if (end - start < TS_PACKET_SIZE) {
+                    bufferPosition += start;
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    end += ByteStreams.read(inputStream, buffer, end, buffer.length - end);
+                    if (end < TS_PACKET_SIZE) {
+                        break;
+                    }
+                }
+
+                if (!isSynchronized(buffer, start, end, inSync)) {
+                    inSync = false;
+                    start++;
+                    continue;
+                }
+                inSync = true;
+
+                position = bufferPosition + start;
+
+                final int pid = TransportStreamPackets.getPid(buffer, start);
+                if (metadataStreamTable.isMetadataPid(pid)) {
+                    assemblers.computeIfAbsent(pid, PesAssembler::new)
+                            .add(buffer, start, callback);
+                } else if (metadataStreamTable.update(buffer, start)) {
+                    assemblers.keySet()
+                            .retainAll(metadataStreamTable.getMetadataPids());
+                }
+
+                start += TS_PACKET_SIZE;
+
+                if (pendingSkip > 0) {
+                    final int bufferedSkip = (int) Math.min(pendingSkip, end - start);
+                    start += bufferedSkip;
+                    if (pendingSkip > bufferedSkip) {
+                        bufferPosition += end + skip(inputStream, pendingSkip - bufferedSkip);
+                        start = 0;
+                        end = 0;
+                    }
+                    pendingSkip = 0;
+                    inSync = false;
+                    assemblers.values()
+                            .forEach(PesAssembler::drop);
+                }
+            }
+        }
+
+        for (final PesAssembler assembler : assemblers.values()) {
+            assembler.flush(callback);
+        }
+    }
+
+    private static long skip(final InputStream inputStream, final long byteCount)
+            throws IOException {
+        long skipped = 0;
+        while (skipped < byteCount) {
+            final long count = inputStream.skip(byteCount - skipped);
+            if (count <= 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    /**
+     * Until the scanner is synchronized, the packet that follows must also start with the sync
+     * byte, so that a sync byte value inside a packet is not mistaken for the start of a packet.
+     */
+    private static boolean isSynchronized(final byte[] buffer, final int start, final int end,
+            final boolean inSync) {
+        if (!TransportStreamPackets.isSynchronized(buffer, start)) {
+            return false;
+        }
+        return inSync || end - start < 2 * TS_PACKET_SIZE
+                || TransportStreamPackets.isSynchronized(buffer, start + TS_PACKET_SIZE);
+    }
+
+    private static class PesAssembler {
+
+        private final int pid;
+
+        private final ByteArrayOutputStream pesPacket = new ByteArrayOutputStream();
+
+        private boolean open;
+
+        private int lastContinuityCounter = -1;
+
+        PesAssembler(final int pid) {
+            this.pid = pid;
+        }
+
+        void add(final byte[] bytes, final int offset,
+                final BiConsumer<Integer, byte[]> callback) {
+            final int payloadOffset = TransportStreamPackets.getPayloadOffset(bytes, offset);
+            if (payloadOffset < 0) {
+                return;
+            }
+
+            final int continuityCounter = TransportStreamPackets.getContinuityCounter(bytes,
+                    offset);
+            if (continuityCounter == lastContinuityCounter) {
+                return;
+            }
+            if (lastContinuityCounter >= 0
+                    && continuityCounter != ((lastContinuityCounter + 1) & 0x0F)) {
+                open = false;
+            }
+            lastContinuityCounter = continuityCounter;
+
+            if (TransportStreamPackets.isPayloadUnitStart(bytes, offset)) {
+                flush(callback);
+                open = true;
+            }
+
+            if (open) {
+                pesPacket.write(bytes, offset + payloadOffset, TS_PACKET_SIZE - payloadOffset);
+            }
+        }
+
+        void flush(final BiConsumer<Integer, byte[]> callback) {
+            if (open) {
+                callback.accept(pid, pesPacket.toByteArray());
+            }
+            drop();
+        }
+
+        void drop() {
+            pesPacket.reset();
+            open = false;
+            lastContinuityCounter = -1;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.codice.alliance.libs.stanag4609.TransportStreamPackets.TS_PACKET_SIZE;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the KLV metadata streams of a transport stream from its PAT and PMTs. Streams with the
+ * stream type of synchronous KLV metadata (0x15) are metadata streams. Streams with the stream
+ * type of private data (0x06) are only metadata streams if they carry a registration descriptor
+ * with the KLVA format identifier, which is how asynchronous KLV metadata is signalled. Each
+ * section is expected to fit in one transport stream packet, which is the case for the PAT and PMT
+ * of the streams produced by STANAG 4609 encoders.
+ * <p>
+ * A PMT is read again when its version number changes, and replaces the metadata streams of its
+ * program.
+ */
+class MetadataStreamTable {
+
+    private static final int PAT_PID = 0;
+
+    private static final int PAT_TABLE_ID = 0x00;
+
+    private static final int PMT_TABLE_ID = 0x02;
+
+    private static final int METADATA_STREAM_TYPE = 0x15;
+
+    private static final int PRIVATE_DATA_STREAM_TYPE = 0x06;
+
+    private static final int CRC_LENGTH = 4;
+
+    private static final int REGISTRATION_DESCRIPTOR_TAG = 0x05;
+
+    /**
+     * The format identifier "KLVA" of the registration descriptor.
+     */
+    private static final int KLVA_FORMAT_IDENTIFIER = 0x4B4C5641;
+
+    private Set<Integer> pmtPids;
+
+    private final Map<Integer, Integer> pmtVersions = new HashMap<>();
+
+    private final Map<Integer, Set<Integer>> programMetadataPids = new HashMap<>();
+
+    private final Set<Integer> metadataPids = new HashSet<>();
+
+    /**
+     * Reads the PAT or PMT section carried by the packet, if any.
+     *
+     * @param bytes  the bytes that contain the packet
+     * @param offset the offset of the first byte of the packet
+     * @return true if the packet changed the metadata streams
+     */
+    boolean update(final byte[] bytes, final int offset) {
+        if (!TransportStreamPackets.isPayloadUnitStart(bytes, offset)) {
+            return false;
+        }
+
+        final int pid = TransportStreamPackets.getPid(bytes, offset);
+        final boolean isPat = pid == PAT_PID && pmtPids == null;
+        final boolean isPmt = pmtPids != null && pmtPids.contains(pid);
+        if (!isPat && !isPmt) {
+            return false;
+        }
+
+        final int payloadOffset = TransportStreamPackets.getPayloadOffset(bytes, offset);
+        if (payloadOffset < 0) {
+            return false;
+        }
+
+        final int end = offset + TS_PACKET_SIZE;
+        final int section = offset + payloadOffset + 1 + (bytes[offset + payloadOffset] & 0xFF);
+        if (section + 3 > end) {
+            return false;
+        }
+        final int sectionLength = ((bytes[section + 1] & 0x0F) << 8) | (bytes[section + 2] & 0xFF);
+        final int sectionEnd = Math.min(end, section + 3 + sectionLength - CRC_LENGTH);
+
+        if (isPat && bytes[section] == PAT_TABLE_ID) {
+            readPat(bytes, section, sectionEnd);
+        } else if (isPmt && bytes[section] == PMT_TABLE_ID && section + 12 <= sectionEnd) {
+            return readPmt(pid, bytes, section, sectionEnd);
+        }
+        return false;
+    }
+
+    /**
+     * @return true once the PAT and all of the PMTs it references have been read
+     */
+    boolean isComplete() {
+        return pmtPids != null && pmtVersions.keySet()
+                .containsAll(pmtPids);
+    }
+
+    boolean isMetadataPid(final int pid) {
+        return metadataPids.contains(pid);
+    }
+
+    Set<Integer> getMetadataPids() {
+        return Collections.unmodifiableSet(metadataPids);
+    }
+
+    private void readPat(final byte[] bytes, final int section, final int sectionEnd) {
+        pmtPids = new HashSet<>();
+        for (int i = section + 8; i + 4 <= sectionEnd; i += 4) {
+            final int programNumber = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+            if (programNumber != 0) {
+                pmtPids.add(((bytes[i + 2] & 0x1F) << 8) | (bytes[i + 3] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * @return true if the PMT changed the metadata streams
+     */
+    private boolean readPmt(final int pmtPid, final byte[] bytes, final int section,
+            final int sectionEnd) {
+        final int version = (bytes[section + 5] >> 1) & 0x1F;
+        final boolean currentNext = (bytes[section + 5] & 0x01) != 0;
+        final Integer lastVersion = pmtVersions.get(pmtPid);
+        if (!currentNext || (lastVersion != null && lastVersion == version)) {
+            return false;
+        }
+        pmtVersions.put(pmtPid, version);
+
+        final Set<Integer> pids = new HashSet<>();
+        final int programInfoLength = ((bytes[section + 10] & 0x0F) << 8)
+                | (bytes[section + 11] & 0xFF);
+        int i = section + 12 + programInfoLength;
+        while (i + 5 <= sectionEnd) {
+            final int streamType = bytes[i] & 0xFF;
+            final int streamPid = ((bytes[i + 1] & 0x1F) << 8) | (bytes[i + 2] & 0xFF);
+            final int esInfoLength = ((bytes[i + 3] & 0x0F) << 8) | (bytes[i + 4] & 0xFF);
+            final int esInfoEnd = Math.min(sectionEnd, i + 5 + esInfoLength);
+            if (streamType == METADATA_STREAM_TYPE || (streamType == PRIVATE_DATA_STREAM_TYPE
+                    && hasKlvaRegistration(bytes, i + 5, esInfoEnd))) {
+                pids.add(streamPid);
+            }
+            i += 5 + esInfoLength;
+        }
+
+        if (pids.equals(programMetadataPids.put(pmtPid, pids))) {
+            return false;
+        }
+        metadataPids.clear();
+        programMetadataPids.values()
+                .forEach(metadataPids::addAll);
+        return true;
+    }
+
+    private static boolean hasKlvaRegistration(final byte[] bytes, final int start,
+            final int end) {
+        int i = start;
+        while (i + 2 <= end) {
+            final int tag = bytes[i] & 0xFF;
+            final int length = bytes[i + 1] & 0xFF;
+            if (tag == REGISTRATION_DESCRIPTOR_TAG && length >= 4 && i + 6 <= end
+                    && readInt(bytes, i + 2) == KLVA_FORMAT_IDENTIFIER) {
+                return true;
+            }
+            i += 2 + length;
+        }
+        return false;
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -30,15 +30,41 @@ public class PESUtilities {
 
     private static final int PRIVATE_STREAM_ID = 0xBD;
 
+    private static final KlvPacketValidator DEFAULT_VALIDATOR = new KlvPacketValidator();
+
     public static DecodedKLVMetadataPacket handlePESPacketBytes(final byte[] pesPacketBytes,
             KlvDecoder decoder) throws KlvDecodingException {
+        return handlePESPacketBytes(pesPacketBytes, decoder, DEFAULT_VALIDATOR);
+    }
+
+    /**
+     * The KLV payload is checked by the validator before it is copied or decoded, so corrupt
+     * packets are rejected (and counted by the validator) without paying for decoding.
+     */
+    public static DecodedKLVMetadataPacket handlePESPacketBytes(final byte[] pesPacketBytes,
+            KlvDecoder decoder, KlvPacketValidator validator) throws KlvDecodingException {
+        return handlePESPacketBytes(pesPacketBytes, KlvPayloadDecoder.of(decoder), validator);
+    }
+
+    /**
+     * Same as {@link #handlePESPacketBytes(byte[], KlvDecoder, KlvPacketValidator)}, but the KLV
+     * is decoded by a {@link KlvPayloadDecoder} (eg. a {@link SelectiveLocalSetDecoder}).
+     */
+    public static DecodedKLVMetadataPacket handlePESPacketBytes(final byte[] pesPacketBytes,
+            KlvPayloadDecoder decoder, KlvPacketValidator validator) throws KlvDecodingException {
         final MPSDemuxer.PESPacket pesHeader =
                 MPSUtils.readPESHeader(ByteBuffer.wrap(pesPacketBytes), 0);
 
         if (pesHeader.streamId == METADATA_STREAM_ID) {
-            return new SynchronousMetadataPacket(pesPacketBytes, pesHeader, decoder).decodeKLV();
+            return new SynchronousMetadataPacket(pesPacketBytes,
+                    pesHeader,
+                    decoder,
+                    validator).decodeKLV();
         } else if (pesHeader.streamId == PRIVATE_STREAM_ID) {
-            return new AsynchronousMetadataPacket(pesPacketBytes, pesHeader, decoder).decodeKLV();
+            return new AsynchronousMetadataPacket(pesPacketBytes,
+                    pesHeader,
+                    decoder,
+                    validator).decodeKLV();
         } else {
             LOGGER.debug("Unknown stream type {}. Skipping this packet.", pesHeader.streamId);
         }
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the first metadata packet of each time bucket of each metadata stream, so that only those
+ * packets need to be decoded. The time of a packet is read in place from the PES packet: the
+ * presentation timestamp when the PES header carries one (synchronous metadata), otherwise the
+ * precision time stamp of the UAS Datalink Local Set when it is the first element of the local set
+ * (asynchronous metadata, see MISB ST 0601). Packets whose time cannot be read are always picked.
+ * <p>
+ * After a packet is picked, {@link #getSeekDistance()} estimates how far the scan can skip
+ * forward: half of the number of bytes the previous bucket of the stream took, but no more than
+ * {@link #MAX_SEEK_DISTANCE}, so that the first packet of the next bucket is rarely skipped.
+ */
+class PacketSampler {
+
+    static final long MAX_SEEK_DISTANCE = 16L * 1024 * 1024;
+
+    private static final int METADATA_STREAM_ID = 0xFC;
+
+    private static final int PRIVATE_STREAM_ID = 0xBD;
+
+    private static final int PES_HEADER_LENGTH = 9;
+
+    private static final int PTS_FLAG = 0x80;
+
+    private static final int PTS_LENGTH = 5;
+
+    private static final long MICROSECONDS_PER_SECOND = 1_000_000L;
+
+    private static final long PTS_CLOCK_RATE = 90_000L;
+
+    private static final byte[] UAS_DATALINK_LOCAL_SET_KEY =
+            {0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03, 0x01, 0x01, 0x00,
+                    0x00, 0x00};
+
+    private static final int PRECISION_TIME_STAMP_TAG = 2;
+
+    private static final int PRECISION_TIME_STAMP_LENGTH = 8;
+
+    private static final int MAX_BER_LENGTH_BYTES = 4;
+
+    private final long bucketMicros;
+
+    private final Map<Integer, Bucket> lastBuckets = new HashMap<>();
+
+    private long seekDistance;
+
+    /**
+     * @param bucketMicros the length of a bucket in microseconds, must be positive
+     */
+    PacketSampler(final long bucketMicros) {
+        this.bucketMicros = bucketMicros;
+    }
+
+    /**
+     * @param pid            the packet ID of the metadata stream
+     * @param pesPacketBytes the PES packet
+     * @param position       the position of the packet in the transport stream
+     * @return true if the packet is the first packet of its bucket and should be decoded
+     */
+    boolean sample(final int pid, final byte[] pesPacketBytes, final long position) {
+        seekDistance = 0;
+
+        final long timeMicros = getTimeMicros(pesPacketBytes);
+        if (timeMicros < 0) {
+            return true;
+        }
+
+        final long bucket = timeMicros / bucketMicros;
+        final Bucket lastBucket = lastBuckets.get(pid);
+
+        if (lastBucket != null && lastBucket.bucket == bucket) {
+            return false;
+        }
+
+        if (lastBucket != null && bucket > lastBucket.bucket && position > lastBucket.position) {
+            final long bytesPerBucket =
+                    (position - lastBucket.position) / (bucket - lastBucket.bucket);
+            seekDistance = Math.min(MAX_SEEK_DISTANCE, bytesPerBucket / 2);
+        }
+
+        lastBuckets.put(pid, new Bucket(bucket, position));
+        return true;
+    }
+
+    /**
+     * @return the number of bytes the scan may skip after the last packet that was picked
+     */
+    long getSeekDistance() {
+        return seekDistance;
+    }
+
+    /**
+     * @return the time of the packet in microseconds, or -1 if it cannot be read
+     */
+    static long getTimeMicros(final byte[] pesPacketBytes) {
+        if (pesPacketBytes.length < PES_HEADER_LENGTH || pesPacketBytes[0] != 0
+                || pesPacketBytes[1] != 0 || pesPacketBytes[2] != 1) {
+            return -1;
+        }
+
+        final int streamId = pesPacketBytes[3] & 0xFF;
+
+        if (streamId == METADATA_STREAM_ID
+                && (pesPacketBytes[7] & PTS_FLAG) != 0
+                && pesPacketBytes.length >= PES_HEADER_LENGTH + PTS_LENGTH) {
+            return readPts(pesPacketBytes, PES_HEADER_LENGTH) * MICROSECONDS_PER_SECOND
+                    / PTS_CLOCK_RATE;
+        }
+
+        if (streamId == PRIVATE_STREAM_ID) {
+            return readPrecisionTimeStamp(pesPacketBytes, PES_HEADER_LENGTH);
+        }
+
+        return -1;
+    }
+
+    private static long readPts(final byte[] bytes, final int offset) {
+        return (((long) bytes[offset] & 0x0E) << 29) | ((bytes[offset + 1] & 0xFF) << 22)
+                | ((bytes[offset + 2] & 0xFE) << 14) | ((bytes[offset + 3] & 0xFF) << 7)
+                | ((bytes[offset + 4] & 0xFE) >> 1);
+    }
+
+    private static long readPrecisionTimeStamp(final byte[] bytes, final int offset) {
+        final int keyLength = UAS_DATALINK_LOCAL_SET_KEY.length;
+        if (bytes.length < offset + keyLength + 1) {
+            return -1;
+        }
+        for (int i = 0; i < keyLength; ++i) {
+            if (bytes[offset + i] != UAS_DATALINK_LOCAL_SET_KEY[i]) {
+                return -1;
+            }
+        }
+
+        int index = offset + keyLength;
+        final int firstLengthByte = bytes[index] & 0xFF;
+        index += 1;
+        if ((firstLengthByte & 0x80) != 0) {
+            final int lengthBytes = firstLengthByte & 0x7F;
+            if (lengthBytes > MAX_BER_LENGTH_BYTES) {
+                return -1;
+            }
+            index += lengthBytes;
+        }
+
+        if (bytes.length < index + 2 + PRECISION_TIME_STAMP_LENGTH
+                || bytes[index] != PRECISION_TIME_STAMP_TAG
+                || bytes[index + 1] != PRECISION_TIME_STAMP_LENGTH) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < PRECISION_TIME_STAMP_LENGTH; ++i) {
+            value = (value << 8) | (bytes[index + 2 + i] & 0xFF);
+        }
+        return value < 0 ? -1 : value;
+    }
+
+    private static class Bucket {
+
+        private final long bucket;
+
+        private final long position;
+
+        Bucket(final long bucket, final long position) {
+            this.bucket = bucket;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.codice.ddf.libs.klv.data.Klv.KeyLength;
+import static org.codice.ddf.libs.klv.data.Klv.LengthEncoding;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.KlvDecoder;
+import org.codice.ddf.libs.klv.KlvDecodingException;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+
+/**
+ * Decodes only the elements of the UAS Datalink Local Set (MISB ST 0601) that somebody is going
+ * to read. The tag/length structure of the local set is scanned in place and the elements whose
+ * names were not requested are skipped by their length without being decoded or copied. Nested
+ * local sets (eg. the security local set, tag 48) are scanned the same way and are dropped if
+ * none of their elements were requested. Each requested element is decoded on its own with a
+ * {@link KlvDecoder} whose context only contains the requested elements, so the decoded values
+ * are the same as those of {@link Stanag4609TransportStreamParser#UAS_DATALINK_LOCAL_SET_CONTEXT}.
+ * <p>
+ * The KLV is expected to have passed {@link KlvPacketValidator} already. Tags are read as BER-OID,
+ * so multi-byte tags (which are not in the context) are skipped as well.
+ */
+public class SelectiveLocalSetDecoder implements KlvPayloadDecoder {
+
+    private static final int TAG_COUNT = 256;
+
+    private static final int UAS_DATALINK_LOCAL_SET_KEY_LENGTH = 16;
+
+    private static final int MAX_BER_LENGTH_BYTES = 4;
+
+    private final boolean[] selectedTags = new boolean[TAG_COUNT];
+
+    /**
+     * The selected tags of the nested local sets, indexed by the tag of the nested local set. Null
+     * for tags that are not a selected local set.
+     */
+    private final boolean[][] selectedNestedTags = new boolean[TAG_COUNT][];
+
+    /**
+     * The definitions of the selected nested local sets, indexed by tag.
+     */
+    private final KlvLocalSet[] nestedLocalSets = new KlvLocalSet[TAG_COUNT];
+
+    /**
+     * The decoders of the selected elements of the nested local sets, indexed by the tag of the
+     * nested local set.
+     */
+    private final KlvDecoder[] nestedDecoders = new KlvDecoder[TAG_COUNT];
+
+    private final KlvLocalSet uasLocalSet;
+
+    private final KlvDecoder decoder;
+
+    /**
+     * @param elementNames the names of the elements to decode (eg.
+     *                     {@link Stanag4609TransportStreamParser#FRAME_CENTER_LATITUDE}), must be
+     *                     non-null
+     */
+    public SelectiveLocalSetDecoder(final Set<String> elementNames) {
+        checkNotNull(elementNames, "elementNames must be non-null");
+
+        final KlvContext uasContext =
+                Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET_CONTEXT;
+        uasLocalSet = (KlvLocalSet) uasContext.getDataElementByName(
+                Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET);
+
+        final KlvContext localSetContext = selectElements(uasLocalSet.getValue(),
+                elementNames,
+                selectedTags);
+
+        for (KlvDataElement klvDataElement : uasLocalSet.getValue()
+                .getDataElements()
+                .values()) {
+            if (klvDataElement instanceof KlvLocalSet) {
+                final int tag = klvDataElement.getKey()[0] & 0xFF;
+                final KlvLocalSet nestedLocalSet = (KlvLocalSet) klvDataElement;
+                final boolean[] nestedTags = new boolean[TAG_COUNT];
+                final KlvContext nestedContext = selectElements(nestedLocalSet.getValue(),
+                        elementNames,
+                        nestedTags);
+                if (!nestedContext.getDataElements()
+                        .isEmpty()) {
+                    selectedNestedTags[tag] = nestedTags;
+                    nestedLocalSets[tag] = nestedLocalSet;
+                    nestedDecoders[tag] = new KlvDecoder(nestedContext);
+                }
+            }
+        }
+
+        decoder = new KlvDecoder(localSetContext);
+    }
+
+    @Override
+    public KlvContext decode(final byte[] bytes, final int offset, final int length)
+            throws KlvDecodingException {
+        final int end = offset + length;
+
+        final KlvContext rootContext = new KlvContext(KeyLength.SixteenBytes,
+                LengthEncoding.BER);
+
+        checkAvailable(offset, UAS_DATALINK_LOCAL_SET_KEY_LENGTH, end);
+        if (!hasKey(bytes, offset, uasLocalSet.getKey())) {
+            return rootContext;
+        }
+
+        int position = offset + UAS_DATALINK_LOCAL_SET_KEY_LENGTH;
+        checkAvailable(position, 1, end);
+        final int valueLength = readBerLength(bytes, position, end);
+        position += berLengthSize(bytes[position]);
+        checkAvailable(position, valueLength, end);
+
+        rootContext.addDataElement(new KlvLocalSet(uasLocalSet.getKey(),
+                uasLocalSet.getName(),
+                decodeLocalSet(bytes,
+                        position,
+                        position + valueLength,
+                        selectedTags,
+                        decoder,
+                        true)));
+
+        return rootContext;
+    }
+
+    /**
+     * Decode the elements of a local set whose tags are selected.
+     *
+     * @param nested true if the selected nested local sets are decoded as well
+     */
+    private KlvContext decodeLocalSet(final byte[] bytes, final int start, final int end,
+            final boolean[] tags, final KlvDecoder elementDecoder, final boolean nested)
+            throws KlvDecodingException {
+        final KlvContext decoded = new KlvContext(KeyLength.OneByte, LengthEncoding.BER);
+
+        int position = start;
+
+        while (position < end) {
+            final int elementStart = position;
+
+            int tag = 0;
+            int tagBytes = 0;
+            do {
+                checkAvailable(position, 1, end);
+                tag = (tag << 7) | (bytes[position] & 0x7F);
+                tagBytes++;
+            } while ((bytes[position++] & 0x80) != 0);
+
+            checkAvailable(position, 1, end);
+            final int valueLength = readBerLength(bytes, position, end);
+            position += berLengthSize(bytes[position]);
+            checkAvailable(position, valueLength, end);
+
+            final boolean singleByteTag = tagBytes == 1;
+
+            if (singleByteTag && nested && nestedDecoders[tag] != null) {
+                final KlvContext nestedContext = decodeLocalSet(bytes,
+                        position,
+                        position + valueLength,
+                        selectedNestedTags[tag],
+                        nestedDecoders[tag],
+                        false);
+                if (!nestedContext.getDataElements()
+                        .isEmpty()) {
+                    decoded.addDataElement(new KlvLocalSet(nestedLocalSets[tag].getKey(),
+                            nestedLocalSets[tag].getName(),
+                            nestedContext));
+                }
+            } else if (singleByteTag && tags[tag]) {
+                // the klv library only decodes whole arrays, so only the element is copied
+                final KlvContext element = elementDecoder.decode(Arrays.copyOfRange(bytes,
+                        elementStart,
+                        position + valueLength));
+                for (KlvDataElement klvDataElement : element.getDataElements()
+                        .values()) {
+                    decoded.addDataElement(klvDataElement);
+                }
+            }
+
+            position += valueLength;
+        }
+
+        return decoded;
+    }
+
+    private static boolean hasKey(final byte[] bytes, final int offset, final byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (bytes[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a context of the elements (not the local sets) of {@code klvContext} whose names are
+     * in {@code elementNames}
+     */
+    private static KlvContext selectElements(final KlvContext klvContext,
+            final Set<String> elementNames, final boolean[] tags) {
+        final KlvContext selectedContext = new KlvContext(KeyLength.OneByte,
+                LengthEncoding.BER);
+
+        for (KlvDataElement klvDataElement : klvContext.getDataElements()
+                .values()) {
+            if (!(klvDataElement instanceof KlvLocalSet) && elementNames.contains(
+                    klvDataElement.getName())) {
+                tags[klvDataElement.getKey()[0] & 0xFF] = true;
+                selectedContext.addDataElement(klvDataElement);
+            }
+        }
+
+        return selectedContext;
+    }
+
+    private static void checkAvailable(final int position, final int count, final int end)
+            throws KlvDecodingException {
+        if (count < 0 || position + count > end) {
+            throw new KlvDecodingException("KLV local set element exceeds the packet.");
+        }
+    }
+
+    private static int berLengthSize(final byte firstByte) {
+        return (firstByte & 0x80) == 0 ? 1 : 1 + (firstByte & 0x7F);
+    }
+
+    private static int readBerLength(final byte[] bytes, final int position, final int end)
+            throws KlvDecodingException {
+        final int firstByte = bytes[position] & 0xFF;
+        if ((firstByte & 0x80) == 0) {
+            return firstByte;
+        }
+
+        final int lengthBytes = firstByte & 0x7F;
+        if (lengthBytes == 0 || lengthBytes > MAX_BER_LENGTH_BYTES) {
+            throw new KlvDecodingException("KLV local set element has an invalid BER length.");
+        }
+        checkAvailable(position + 1, lengthBytes, end);
+
+        long length = 0;
+        for (int i = 1; i <= lengthBytes; i++) {
+            length = (length << 8) | (bytes[position + i] & 0xFF);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new KlvDecodingException("KLV local set element has an invalid BER length.");
+        }
+        return (int) length;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 import org.codice.ddf.libs.klv.KlvContext;
@@ -293,9 +295,15 @@ public class Stanag4609TransportStreamParser {
         UAS_DATALINK_LOCAL_SET_CONTEXT.addDataElement(outerSet);
     }
 
-    private final MpegTransportStreamMetadataExtractor extractor;
+    private final ByteSource byteSource;
 
-    private final KlvDecoder decoder;
+    private final KlvPayloadDecoder decoder;
+
+    private final KlvPacketValidator validator = new KlvPacketValidator();
+
+    private boolean metadataOnlyScan;
+
+    private long samplingIntervalMillis;
 
     /**
      * Constructs a {@code Stanag4609TransportStreamParser} with the given {@link ByteSource} as the
@@ -304,14 +312,58 @@ public class Stanag4609TransportStreamParser {
      * @param byteSource the {@code ByteSource} providing the transport stream bytes
      */
     public Stanag4609TransportStreamParser(final ByteSource byteSource) {
-        extractor = new MpegTransportStreamMetadataExtractor(byteSource);
-        decoder = new KlvDecoder(UAS_DATALINK_LOCAL_SET_CONTEXT);
+        this.byteSource = byteSource;
+        decoder = KlvPayloadDecoder.of(new KlvDecoder(UAS_DATALINK_LOCAL_SET_CONTEXT));
+    }
+
+    /**
+     * Constructs a {@code Stanag4609TransportStreamParser} that only decodes the given elements of
+     * the UAS Datalink Local Set. The other elements are skipped without being decoded and are
+     * missing from the decoded metadata packets.
+     *
+     * @param byteSource   the {@code ByteSource} providing the transport stream bytes
+     * @param elementNames the names of the elements to decode (eg. {@link #FRAME_CENTER_LATITUDE})
+     */
+    public Stanag4609TransportStreamParser(final ByteSource byteSource,
+            final Set<String> elementNames) {
+        this.byteSource = byteSource;
+        decoder = new SelectiveLocalSetDecoder(elementNames);
+    }
+
+    /**
+     * When the metadata-only scan is enabled, the transport stream is scanned by reading the PAT
+     * and PMT and then only the header of each transport stream packet, and the packets that do
+     * not belong to a metadata stream are skipped without being copied. Otherwise every packet is
+     * handed to the {@link MpegTransportStreamMetadataExtractor}. The default is false.
+     *
+     * @param metadataOnlyScan true to enable the metadata-only scan
+     */
+    public void setMetadataOnlyScan(final boolean metadataOnlyScan) {
+        this.metadataOnlyScan = metadataOnlyScan;
+    }
+
+    /**
+     * When the sampling interval is positive, only the first metadata packet of each interval of
+     * each metadata stream is decoded, see {@link PacketSampler}. This is meant for quick summaries
+     * (eg. footprint and time range) of very large recordings. With the metadata-only scan, the
+     * scan also skips forward (a bounded distance) after each decoded packet. The default is 0,
+     * which decodes every packet.
+     *
+     * @param samplingIntervalMillis the length of the sampling interval in milliseconds
+     */
+    public void setSamplingInterval(final long samplingIntervalMillis) {
+        this.samplingIntervalMillis = samplingIntervalMillis;
     }
 
     /**
      * Parses the transport stream and calls the given callback for each decoded KLV metadata packet
      * in each metadata stream found in the transport stream. The callback is called immediately
      * upon finding a complete KLV metadata packet.
+     * <p>
+     * The callback is called on the thread that reads the transport stream, and reading does not
+     * continue until the callback returns. The parser does not keep decoded packets, so the memory
+     * it needs is bounded by the largest PES packet and does not grow with the length of the
+     * stream. Exceptions thrown by the callback stop the parse.
      *
      * @param callback a callback that will be called for each decoded KLV metadata packet in each
      *                 metadata stream found in the transport stream, where the first parameter is
@@ -321,19 +373,55 @@ public class Stanag4609TransportStreamParser {
      */
     public void parse(final BiConsumer<Integer, DecodedKLVMetadataPacket> callback)
             throws Exception {
-        extractor.getMetadata((klvStreamPid, pesPacketBytes) -> {
-            try {
-                final DecodedKLVMetadataPacket decodedKLVMetadataPacket = handlePESPacketBytes(
-                        pesPacketBytes);
-                if (decodedKLVMetadataPacket != null) {
-                    callback.accept(klvStreamPid, decodedKLVMetadataPacket);
+        final BiConsumer<Integer, byte[]> pesPacketConsumer = (klvStreamPid, pesPacketBytes) -> {
+            final DecodedKLVMetadataPacket decodedKLVMetadataPacket = decode(pesPacketBytes);
+            if (decodedKLVMetadataPacket != null) {
+                callback.accept(klvStreamPid, decodedKLVMetadataPacket);
+            }
+        };
+
+        if (metadataOnlyScan) {
+            final MetadataOnlyScanner scanner = new MetadataOnlyScanner(byteSource);
+            scanner.getMetadata(sample(pesPacketConsumer, scanner));
+        } else {
+            new MpegTransportStreamMetadataExtractor(byteSource).getMetadata(sample(
+                    pesPacketConsumer,
+                    null));
+        }
+    }
+
+    /**
+     * @param scanner the scanner that is asked to skip forward after each sampled packet, or null
+     */
+    private BiConsumer<Integer, byte[]> sample(final BiConsumer<Integer, byte[]> pesPacketConsumer,
+            final MetadataOnlyScanner scanner) {
+        if (samplingIntervalMillis <= 0) {
+            return pesPacketConsumer;
+        }
+
+        final PacketSampler sampler =
+                new PacketSampler(TimeUnit.MILLISECONDS.toMicros(samplingIntervalMillis));
+
+        return (klvStreamPid, pesPacketBytes) -> {
+            final long position = scanner != null ? scanner.getPosition() : 0;
+            if (sampler.sample(klvStreamPid, pesPacketBytes, position)) {
+                pesPacketConsumer.accept(klvStreamPid, pesPacketBytes);
+                if (scanner != null) {
+                    scanner.skip(sampler.getSeekDistance());
                 }
-            } catch (KlvDecodingException e) {
-                LOGGER.debug("The KLV could not be decoded.", e);
-            } catch (RuntimeException e) {
-                LOGGER.debug("An error occurred while handling the metadata packet bytes.", e);
             }
-        });
+        };
+    }
+
+    private DecodedKLVMetadataPacket decode(final byte[] pesPacketBytes) {
+        try {
+            return handlePESPacketBytes(pesPacketBytes);
+        } catch (KlvDecodingException e) {
+            LOGGER.debug("The KLV could not be decoded.", e);
+        } catch (RuntimeException e) {
+            LOGGER.debug("An error occurred while handling the metadata packet bytes.", e);
+        }
+        return null;
     }
 
     /**
@@ -359,8 +447,16 @@ public class Stanag4609TransportStreamParser {
         return decodedStreams;
     }
 
+    /**
+     * @return the number of metadata packets that were rejected because their framing or checksum
+     * was invalid
+     */
+    public long getRejectedPacketCount() {
+        return validator.getRejectedPacketCount();
+    }
+
     private DecodedKLVMetadataPacket handlePESPacketBytes(final byte[] pesPacketBytes)
             throws KlvDecodingException {
-        return PESUtilities.handlePESPacketBytes(pesPacketBytes, decoder);
+        return PESUtilities.handlePESPacketBytes(pesPacketBytes, decoder, validator);
     }
 }
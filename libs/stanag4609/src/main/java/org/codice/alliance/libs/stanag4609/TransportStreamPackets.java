@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+/**
+ * Reads the fields of the 4-byte header (and the adaptation field length) of MPEG-2 transport
+ * stream packets in place, so that packets can be filtered without being copied.
+ */
+final class TransportStreamPackets {
+
+    static final int TS_PACKET_SIZE = 188;
+
+    static final int SYNC_BYTE = 0x47;
+
+    private TransportStreamPackets() {
+    }
+
+    static boolean isSynchronized(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF) == SYNC_BYTE;
+    }
+
+    static int getPid(final byte[] bytes, final int offset) {
+        return ((bytes[offset + 1] & 0x1F) << 8) | (bytes[offset + 2] & 0xFF);
+    }
+
+    static boolean isPayloadUnitStart(final byte[] bytes, final int offset) {
+        return (bytes[offset + 1] & 0x40) != 0;
+    }
+
+    static int getContinuityCounter(final byte[] bytes, final int offset) {
+        return bytes[offset + 3] & 0x0F;
+    }
+
+    /**
+     * @return the offset of the payload relative to the start of the packet, or -1 if the packet
+     * is not synchronized, has the transport error indicator set or has no payload
+     */
+    static int getPayloadOffset(final byte[] bytes, final int offset) {
+        if (!isSynchronized(bytes, offset) || (bytes[offset + 1] & 0x80) != 0) {
+            return -1;
+        }
+        final int adaptationFieldControl = (bytes[offset + 3] >> 4) & 0x03;
+        if ((adaptationFieldControl & 0x01) == 0) {
+            return -1;
+        }
+        int payloadOffset = 4;
+        if ((adaptationFieldControl & 0x02) != 0) {
+            payloadOffset += 1 + (bytes[offset + 4] & 0xFF);
+        }
+        return payloadOffset < TS_PACKET_SIZE ? payloadOffset : -1;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.codice.ddf.libs.klv.KlvDecoder;
+import org.codice.ddf.libs.klv.KlvDecodingException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KlvPacketValidatorTest {
+
+    private static final byte[] VALID_PACKET =
+            new byte[] {0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03, 0x01,
+                    0x01, 0x00, 0x00, 0x00, 0x04, 0x01, 0x02, 0x4C, 0x51};
+
+    private static final int FUZZ_ITERATIONS = 10000;
+
+    private KlvPacketValidator validator;
+
+    @Before
+    public void setup() {
+        validator = new KlvPacketValidator();
+    }
+
+    @Test
+    public void testValidPacket() throws Exception {
+        validator.validate(VALID_PACKET, 0, VALID_PACKET.length);
+
+        assertThat(validator.getRejectedPacketCount(), is(0L));
+    }
+
+    @Test
+    public void testValidPacketAtOffset() throws Exception {
+        final byte[] bytes = new byte[VALID_PACKET.length + 10];
+        System.arraycopy(VALID_PACKET, 0, bytes, 7, VALID_PACKET.length);
+
+        validator.validate(bytes, 7, VALID_PACKET.length);
+
+        assertThat(validator.getRejectedPacketCount(), is(0L));
+    }
+
+    @Test
+    public void testValidPacketWithLongFormBerLength() throws Exception {
+        final byte[] bytes = new byte[VALID_PACKET.length + 1];
+        System.arraycopy(VALID_PACKET, 0, bytes, 0, 16);
+        bytes[16] = (byte) 0x81;
+        bytes[17] = 0x04;
+        bytes[18] = 0x01;
+        bytes[19] = 0x02;
+        setChecksum(bytes);
+
+        validator.validate(bytes, 0, bytes.length);
+
+        assertThat(validator.getRejectedPacketCount(), is(0L));
+    }
+
+    @Test
+    public void testWrongKey() {
+        final byte[] bytes = VALID_PACKET.clone();
+        bytes[15] = 0x01;
+        setChecksum(bytes);
+
+        assertRejected(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testBerLengthTooLong() {
+        final byte[] bytes = VALID_PACKET.clone();
+        bytes[16] = 0x05;
+        setChecksum(bytes);
+
+        assertRejected(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testBerLengthTooManyBytes() {
+        final byte[] bytes = VALID_PACKET.clone();
+        bytes[16] = (byte) 0x85;
+        setChecksum(bytes);
+
+        assertRejected(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testMissingChecksum() {
+        final byte[] bytes = VALID_PACKET.clone();
+        bytes[17] = 0x06;
+
+        assertRejected(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testWrongChecksum() {
+        final byte[] bytes = VALID_PACKET.clone();
+        bytes[20] = 0x52;
+
+        assertRejected(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testPacketLongerThanArray() {
+        assertRejected(VALID_PACKET, 1, VALID_PACKET.length);
+    }
+
+    @Test
+    public void testTruncatedPackets() {
+        for (int length = 0; length < VALID_PACKET.length; length++) {
+            assertRejected(Arrays.copyOf(VALID_PACKET, length), 0, length);
+        }
+
+        assertThat(validator.getRejectedPacketCount(), is((long) VALID_PACKET.length));
+    }
+
+    @Test
+    public void testEverySingleBitFlipIsRejected() {
+        final int bitCount = VALID_PACKET.length * 8;
+        for (int bit = 0; bit < bitCount; bit++) {
+            final byte[] bytes = VALID_PACKET.clone();
+            bytes[bit / 8] ^= 1 << (bit % 8);
+
+            assertRejected(bytes, 0, bytes.length);
+        }
+
+        assertThat(validator.getRejectedPacketCount(), is((long) bitCount));
+    }
+
+    @Test
+    public void testRandomBytesAreRejected() {
+        final Random random = new Random(4609);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            final byte[] bytes = new byte[random.nextInt(64)];
+            random.nextBytes(bytes);
+
+            assertRejected(bytes, 0, bytes.length);
+        }
+
+        assertThat(validator.getRejectedPacketCount(), is((long) FUZZ_ITERATIONS));
+    }
+
+    @Test
+    public void testRandomCorruptionAfterKey() {
+        final Random random = new Random(4609);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            final byte[] bytes = new byte[16 + random.nextInt(48)];
+            random.nextBytes(bytes);
+            System.arraycopy(VALID_PACKET, 0, bytes, 0, 16);
+
+            assertRejected(bytes, 0, bytes.length);
+        }
+
+        assertThat(validator.getRejectedPacketCount(), is((long) FUZZ_ITERATIONS));
+    }
+
+    @Test
+    public void testCorruptPesPacketIsRejectedBeforeDecoding() throws Exception {
+        final byte[] pesPacketBytes =
+                new byte[] {0x00, 0x00, 0x01, (byte) 0xBD, 0x00, 0x18, (byte) 0x85, (byte) 0x00,
+                        0x00, 0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03,
+                        0x01, 0x01, 0x00, 0x00, 0x00, 0x04, 0x01, 0x02, 0x4C, 0x52};
+
+        try {
+            PESUtilities.handlePESPacketBytes(pesPacketBytes, (KlvDecoder) null, validator);
+            fail("expected the corrupt packet to be rejected");
+        } catch (KlvDecodingException e) {
+            assertThat(validator.getRejectedPacketCount(), is(1L));
+        }
+    }
+
+    /**
+     * Random input may happen to be a valid packet, but with the sizes and seeds used here it is
+     * not.
+     */
+    private void assertRejected(final byte[] bytes, final int offset, final int length) {
+        try {
+            validator.validate(bytes, offset, length);
+            fail("expected the packet to be rejected: " + Arrays.toString(bytes));
+        } catch (KlvDecodingException e) {
+            // expected
+        }
+    }
+
+    private void setChecksum(final byte[] bytes) {
+        int checksum = 0;
+        for (int i = 0; i < bytes.length - 2; ++i) {
+            checksum += (bytes[i] & 0xFF) << (8 * ((i + 1) % 2));
+        }
+        bytes[bytes.length - 2] = (byte) (checksum >> 8);
+        bytes[bytes.length - 1] = (byte) checksum;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetadataStreamTableTest {
+
+    private static final int TS_PACKET_SIZE = 188;
+
+    private static final int PMT_PID = 0x1000;
+
+    private static final int KLV_PID = 0x1F1;
+
+    private static final int OTHER_KLV_PID = 0x1F2;
+
+    private static final byte[] KLVA_REGISTRATION = {0x05, 0x04, 'K', 'L', 'V', 'A'};
+
+    private MetadataStreamTable metadataStreamTable;
+
+    @Before
+    public void setUp() {
+        metadataStreamTable = new MetadataStreamTable();
+        metadataStreamTable.update(createPat(), 0);
+    }
+
+    @Test
+    public void testSynchronousMetadataStream() {
+        final boolean changed = metadataStreamTable.update(createPmt(0,
+                createStream(0x15, KLV_PID)), 0);
+
+        assertThat(changed, is(true));
+        assertThat(metadataStreamTable.isComplete(), is(true));
+        assertThat(metadataStreamTable.getMetadataPids(), contains(KLV_PID));
+    }
+
+    @Test
+    public void testPrivateDataStreamWithKlvaRegistration() {
+        metadataStreamTable.update(createPmt(0, createStream(0x06, KLV_PID, KLVA_REGISTRATION)),
+                0);
+
+        assertThat(metadataStreamTable.isMetadataPid(KLV_PID), is(true));
+    }
+
+    @Test
+    public void testPrivateDataStreamWithoutKlvaRegistration() {
+        final byte[] otherRegistration = {0x05, 0x04, 'A', 'C', '-', '3'};
+
+        metadataStreamTable.update(createPmt(0,
+                createStream(0x06, KLV_PID),
+                createStream(0x06, OTHER_KLV_PID, otherRegistration)), 0);
+
+        assertThat(metadataStreamTable.isComplete(), is(true));
+        assertThat(metadataStreamTable.getMetadataPids(), is(empty()));
+    }
+
+    @Test
+    public void testPmtVersionChange() {
+        metadataStreamTable.update(createPmt(0, createStream(0x15, KLV_PID)), 0);
+
+        final boolean sameVersionChanged = metadataStreamTable.update(createPmt(0,
+                createStream(0x15, OTHER_KLV_PID)), 0);
+
+        assertThat(sameVersionChanged, is(false));
+        assertThat(metadataStreamTable.getMetadataPids(), contains(KLV_PID));
+
+        final boolean newVersionChanged = metadataStreamTable.update(createPmt(1,
+                createStream(0x15, OTHER_KLV_PID)), 0);
+
+        assertThat(newVersionChanged, is(true));
+        assertThat(metadataStreamTable.getMetadataPids(), contains(OTHER_KLV_PID));
+    }
+
+    private static byte[] createPat() {
+        return createPacket(0,
+                new byte[] {0x00, (byte) 0xB0, 13, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00, 0x00,
+                        0x01, (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID});
+    }
+
+    private static byte[] createPmt(final int version, final byte[]... streams) {
+        final ByteArrayOutputStream section = new ByteArrayOutputStream();
+        section.write(0x02);
+        section.write(0xB0);
+        section.write(0);
+        section.write(0x00);
+        section.write(0x01);
+        section.write(0xC1 | (version << 1));
+        section.write(0x00);
+        section.write(0x00);
+        section.write(0xFF);
+        section.write(0xFF);
+        section.write(0xF0);
+        section.write(0x00);
+        for (final byte[] stream : streams) {
+            section.write(stream, 0, stream.length);
+        }
+
+        final byte[] bytes = section.toByteArray();
+        // the section length counts the CRC, which is not checked
+        bytes[2] = (byte) (bytes.length - 3 + 4);
+        return createPacket(PMT_PID, bytes);
+    }
+
+    private static byte[] createStream(final int streamType, final int pid,
+            final byte[]... descriptors) {
+        final ByteArrayOutputStream esInfo = new ByteArrayOutputStream();
+        for (final byte[] descriptor : descriptors) {
+            esInfo.write(descriptor, 0, descriptor.length);
+        }
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(streamType);
+        stream.write(0xE0 | (pid >> 8));
+        stream.write(pid);
+        stream.write(0xF0);
+        stream.write(esInfo.size());
+        stream.write(esInfo.toByteArray(), 0, esInfo.size());
+        return stream.toByteArray();
+    }
+
+    private static byte[] createPacket(final int pid, final byte[] section) {
+        final byte[] packet = new byte[TS_PACKET_SIZE];
+        Arrays.fill(packet, (byte) 0xFF);
+        packet[0] = 0x47;
+        packet[1] = (byte) (0x40 | (pid >> 8));
+        packet[2] = (byte) pid;
+        packet[3] = 0x10;
+        packet[4] = 0;
+        System.arraycopy(section, 0, packet, 5, section.length);
+        return packet;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PacketSamplerTest {
+
+    private static final long TIMESTAMP = 1245257585099653L;
+
+    @Test
+    public void testTimeOfAsynchronousPacket() {
+        assertThat(PacketSampler.getTimeMicros(asynchronousPacket(TIMESTAMP)), is(TIMESTAMP));
+    }
+
+    @Test
+    public void testTimeOfSynchronousPacket() {
+        // 90000 ticks of the 90 kHz clock
+        final byte[] pesPacket = {0, 0, 1, (byte) 0xFC, 0, 0, (byte) 0x84, (byte) 0x80, 5, 0x21,
+                0x00, 0x05, (byte) 0xBF, 0x21};
+        assertThat(PacketSampler.getTimeMicros(pesPacket), is(1_000_000L));
+    }
+
+    @Test
+    public void testTimeOfUnknownPacket() {
+        assertThat(PacketSampler.getTimeMicros(new byte[] {0, 0, 1, (byte) 0xE0, 0, 0, 0, 0, 0}),
+                is(-1L));
+        assertThat(PacketSampler.getTimeMicros(new byte[] {0, 0, 1}), is(-1L));
+    }
+
+    @Test
+    public void testFirstPacketOfEachBucket() {
+        final PacketSampler sampler = new PacketSampler(1_000_000);
+
+        assertThat(sampler.sample(1, asynchronousPacket(TIMESTAMP), 0), is(true));
+        assertThat(sampler.sample(1, asynchronousPacket(TIMESTAMP + 100_000), 1000), is(false));
+        assertThat(sampler.sample(2, asynchronousPacket(TIMESTAMP + 100_000), 1000), is(true));
+        assertThat(sampler.sample(1, asynchronousPacket(TIMESTAMP + 1_000_000), 10000), is(true));
+    }
+
+    @Test
+    public void testSeekDistance() {
+        final PacketSampler sampler = new PacketSampler(1_000_000);
+
+        sampler.sample(1, asynchronousPacket(TIMESTAMP), 0);
+        assertThat(sampler.getSeekDistance(), is(0L));
+
+        sampler.sample(1, asynchronousPacket(TIMESTAMP + 2_000_000), 10000);
+        assertThat(sampler.getSeekDistance(), is(2500L));
+
+        sampler.sample(1, asynchronousPacket(TIMESTAMP + 3_000_000), 10000 + 1_000_000_000);
+        assertThat(sampler.getSeekDistance(), is(PacketSampler.MAX_SEEK_DISTANCE));
+    }
+
+    @Test
+    public void testPacketWithoutTimeIsAlwaysSampled() {
+        final PacketSampler sampler = new PacketSampler(1_000_000);
+        final byte[] pesPacket = {0, 0, 1, (byte) 0xBD, 0, 3, (byte) 0x80, 0, 0};
+
+        assertThat(sampler.sample(1, pesPacket, 0), is(true));
+        assertThat(sampler.sample(1, pesPacket, 188), is(true));
+    }
+
+    private byte[] asynchronousPacket(final long timestamp) {
+        final byte[] klv = SyntheticTransportStream.createKlvPacket(timestamp, 0, 0);
+        final byte[] pesPacket = new byte[9 + klv.length];
+        pesPacket[2] = 1;
+        pesPacket[3] = (byte) 0xBD;
+        pesPacket[5] = (byte) (3 + klv.length);
+        pesPacket[6] = (byte) 0x80;
+        System.arraycopy(klv, 0, pesPacket, 9, klv.length);
+        return pesPacket;
+    }
+}
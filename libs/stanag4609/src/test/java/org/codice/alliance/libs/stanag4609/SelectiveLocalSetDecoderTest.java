@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codice.ddf.libs.klv.KlvContext;
+import org.codice.ddf.libs.klv.KlvDataElement;
+import org.codice.ddf.libs.klv.KlvDecoder;
+import org.codice.ddf.libs.klv.data.set.KlvLocalSet;
+import org.junit.Test;
+
+public class SelectiveLocalSetDecoderTest {
+
+    private static final byte[] UAS_DATALINK_LOCAL_SET_KEY =
+            {0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03, 0x01, 0x01, 0x00,
+                    0x00, 0x00};
+
+    private static final List<Set<String>> ELEMENT_NAME_SETS = Arrays.asList(Collections.emptySet(),
+            names(Stanag4609TransportStreamParser.MISSION_ID),
+            names(Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                    Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE),
+            names(Stanag4609TransportStreamParser.CORNER_LATITUDE_1,
+                    Stanag4609TransportStreamParser.CORNER_LONGITUDE_1,
+                    Stanag4609TransportStreamParser.TIMESTAMP),
+            names(Stanag4609TransportStreamParser.SECURITY_CLASSIFICATION),
+            names(Stanag4609TransportStreamParser.CLASSIFYING_COUNTRY,
+                    Stanag4609TransportStreamParser.OBJECT_COUNTRY_CODES,
+                    Stanag4609TransportStreamParser.SENSOR_LATITUDE),
+            names(Stanag4609TransportStreamParser.TIMESTAMP,
+                    Stanag4609TransportStreamParser.MISSION_ID,
+                    Stanag4609TransportStreamParser.SENSOR_LATITUDE,
+                    Stanag4609TransportStreamParser.SENSOR_LONGITUDE,
+                    Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                    Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE,
+                    Stanag4609TransportStreamParser.CORNER_LATITUDE_1,
+                    Stanag4609TransportStreamParser.CORNER_LONGITUDE_1,
+                    Stanag4609TransportStreamParser.SECURITY_CLASSIFICATION,
+                    Stanag4609TransportStreamParser.CLASSIFYING_COUNTRY_CODING_METHOD,
+                    Stanag4609TransportStreamParser.CLASSIFYING_COUNTRY,
+                    Stanag4609TransportStreamParser.OBJECT_COUNTRY_CODING_METHOD,
+                    Stanag4609TransportStreamParser.OBJECT_COUNTRY_CODES,
+                    Stanag4609TransportStreamParser.CHECKSUM));
+
+    @Test
+    public void testSelectedElementsMatchFullDecoder() throws Exception {
+        final byte[] packet = createPacket(false);
+
+        final Map<String, Object> allValues = flatten(new KlvDecoder(
+                Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET_CONTEXT).decode(packet));
+
+        for (Set<String> elementNames : ELEMENT_NAME_SETS) {
+            final Map<String, Object> expectedValues = new HashMap<>(allValues);
+            expectedValues.keySet()
+                    .retainAll(elementNames);
+
+            final KlvContext decoded = new SelectiveLocalSetDecoder(elementNames).decode(packet,
+                    0,
+                    packet.length);
+
+            assertThat(elementNames.toString(), flatten(decoded), is(expectedValues));
+        }
+    }
+
+    @Test
+    public void testSelectedElementsAtOffset() throws Exception {
+        final byte[] packet = createPacket(false);
+        final byte[] bytes = new byte[packet.length + 12];
+        System.arraycopy(packet, 0, bytes, 5, packet.length);
+
+        final Set<String> elementNames = names(Stanag4609TransportStreamParser.MISSION_ID);
+
+        final KlvContext decoded = new SelectiveLocalSetDecoder(elementNames).decode(bytes,
+                5,
+                packet.length);
+
+        assertThat(flatten(decoded),
+                is(Collections.singletonMap(Stanag4609TransportStreamParser.MISSION_ID,
+                        "MISSION01")));
+    }
+
+    @Test
+    public void testUnknownTagsAreSkipped() throws Exception {
+        final byte[] packet = createPacket(true);
+
+        final Set<String> elementNames = names(Stanag4609TransportStreamParser.MISSION_ID,
+                Stanag4609TransportStreamParser.SECURITY_CLASSIFICATION);
+
+        final KlvContext decoded = new SelectiveLocalSetDecoder(elementNames).decode(packet,
+                0,
+                packet.length);
+
+        final Map<String, Object> values = flatten(decoded);
+
+        assertThat(values.keySet(), is(elementNames));
+        assertThat(values.get(Stanag4609TransportStreamParser.MISSION_ID), is("MISSION01"));
+    }
+
+    @Test
+    public void testDecodedPacketContainsUasDatalinkLocalSet() throws Exception {
+        final byte[] packet = createPacket(false);
+
+        final KlvContext decoded = new SelectiveLocalSetDecoder(Collections.emptySet()).decode(
+                packet,
+                0,
+                packet.length);
+
+        assertThat(decoded.hasDataElement(Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET),
+                is(true));
+    }
+
+    @Test
+    public void testOtherKeyIsNotDecoded() throws Exception {
+        final byte[] packet = createPacket(false);
+        packet[UAS_DATALINK_LOCAL_SET_KEY.length - 1] ^= 0x01;
+
+        final KlvContext decoded = new SelectiveLocalSetDecoder(names(
+                Stanag4609TransportStreamParser.MISSION_ID)).decode(packet, 0, packet.length);
+
+        assertThat(decoded.getDataElements()
+                .isEmpty(), is(true));
+    }
+
+    private static Set<String> names(final String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private static Map<String, Object> flatten(final KlvContext klvContext) {
+        final Map<String, Object> values = new HashMap<>();
+        flatten(klvContext, values);
+        return values;
+    }
+
+    private static void flatten(final KlvContext klvContext, final Map<String, Object> values) {
+        for (KlvDataElement klvDataElement : klvContext.getDataElements()
+                .values()) {
+            if (klvDataElement instanceof KlvLocalSet) {
+                flatten(((KlvLocalSet) klvDataElement).getValue(), values);
+            } else {
+                values.put(klvDataElement.getName(), klvDataElement.getValue());
+            }
+        }
+    }
+
+    /**
+     * A local set with a representative mix of elements, including the security local set and
+     * the checksum. Optionally includes tags that are not in the UAS Datalink Local Set context.
+     */
+    private static byte[] createPacket(final boolean includeUnknownTags) {
+        final ByteArrayOutputStream localSet = new ByteArrayOutputStream();
+        writeElement(localSet,
+                2,
+                new byte[] {0x00, 0x04, 0x59, (byte) 0xF4, (byte) 0xA6, (byte) 0xAA, 0x4A,
+                        (byte) 0xA8});
+        writeElement(localSet, 3, "MISSION01".getBytes(StandardCharsets.US_ASCII));
+        if (includeUnknownTags) {
+            writeElement(localSet, 65, new byte[] {0x06});
+            localSet.write(0x81);
+            writeElement(localSet, 0x01, new byte[] {0x11, 0x22, 0x33});
+        }
+        writeElement(localSet, 13, new byte[] {0x55, (byte) 0x95, (byte) 0xB6, 0x6D});
+        writeElement(localSet, 14, new byte[] {0x5B, 0x53, 0x60, (byte) 0xC4});
+        writeElement(localSet, 23, new byte[] {(byte) 0xF1, 0x01, (byte) 0xA2, 0x29});
+        writeElement(localSet, 24, new byte[] {0x14, (byte) 0xBC, 0x08, 0x2B});
+        writeElement(localSet, 82, new byte[] {0x26, 0x00, 0x00, 0x00});
+        writeElement(localSet, 83, new byte[] {(byte) 0xD9, 0x00, 0x00, 0x00});
+
+        final ByteArrayOutputStream securityLocalSet = new ByteArrayOutputStream();
+        writeElement(securityLocalSet, 1, new byte[] {0x01});
+        writeElement(securityLocalSet, 2, new byte[] {0x01});
+        writeElement(securityLocalSet, 3, "US".getBytes(StandardCharsets.US_ASCII));
+        writeElement(securityLocalSet, 12, new byte[] {0x01});
+        writeElement(securityLocalSet, 13, "US".getBytes(StandardCharsets.US_ASCII));
+        writeElement(localSet, 48, securityLocalSet.toByteArray());
+
+        localSet.write(1);
+        localSet.write(2);
+
+        final byte[] value = localSet.toByteArray();
+        final byte[] packet = new byte[UAS_DATALINK_LOCAL_SET_KEY.length + 1 + value.length + 2];
+        final int keyLength = UAS_DATALINK_LOCAL_SET_KEY.length;
+        System.arraycopy(UAS_DATALINK_LOCAL_SET_KEY, 0, packet, 0, keyLength);
+        packet[keyLength] = (byte) (value.length + 2);
+        System.arraycopy(value, 0, packet, keyLength + 1, value.length);
+
+        int checksum = 0;
+        for (int i = 0; i < packet.length - 2; ++i) {
+            checksum += (packet[i] & 0xFF) << (8 * ((i + 1) % 2));
+        }
+        packet[packet.length - 2] = (byte) (checksum >> 8);
+        packet[packet.length - 1] = (byte) checksum;
+
+        return packet;
+    }
+
+    private static void writeElement(final ByteArrayOutputStream outputStream, final int tag,
+            final byte[] value) {
+        outputStream.write(tag);
+        outputStream.write(value.length);
+        outputStream.write(value, 0, value.length);
+    }
+}
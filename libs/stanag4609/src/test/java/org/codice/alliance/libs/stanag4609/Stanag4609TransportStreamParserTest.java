@@ -14,8 +14,13 @@
 package org.codice.alliance.libs.stanag4609;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.spy;
@@ -23,9 +28,15 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 import org.apache.commons.io.IOUtils;
@@ -37,8 +48,11 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import com.google.common.io.ByteSource;
+import com.google.common.io.CountingInputStream;
 
 public class Stanag4609TransportStreamParserTest {
+    private static final int TS_PACKET_SIZE = 188;
+
     private static final Map<String, Object> EXPECTED_VALUES = new HashMap<>();
 
     @BeforeClass
@@ -66,11 +80,12 @@ public class Stanag4609TransportStreamParserTest {
     }
 
     private Stanag4609TransportStreamParser getParser() throws IOException {
-        final ByteSource byteSource =
-                ByteSource.wrap(IOUtils.toByteArray(getClass().getClassLoader()
-                        .getResourceAsStream("dayflight.mpg")));
+        return new Stanag4609TransportStreamParser(getByteSource());
+    }
 
-        return new Stanag4609TransportStreamParser(byteSource);
+    private ByteSource getByteSource() throws IOException {
+        return ByteSource.wrap(IOUtils.toByteArray(getClass().getClassLoader()
+                .getResourceAsStream("dayflight.mpg")));
     }
 
     @Test
@@ -110,6 +125,206 @@ public class Stanag4609TransportStreamParserTest {
         verifyDecodedMetadataPacket(decodedPackets.get(0));
     }
 
+    @Test
+    public void testParseTransportStreamWithSelectedElements() throws Exception {
+        final Set<String> elementNames =
+                new HashSet<>(Arrays.asList(Stanag4609TransportStreamParser.SENSOR_LATITUDE,
+                        Stanag4609TransportStreamParser.FRAME_CENTER_LATITUDE,
+                        Stanag4609TransportStreamParser.FRAME_CENTER_LONGITUDE,
+                        Stanag4609TransportStreamParser.TARGET_WIDTH));
+
+        final Stanag4609TransportStreamParser parser = new Stanag4609TransportStreamParser(
+                getByteSource(),
+                elementNames);
+
+        final List<DecodedKLVMetadataPacket> decodedPackets = parser.parse()
+                .get(497);
+        assertThat(decodedPackets.size(), is(1));
+
+        final KlvContext localSetContext = ((KlvLocalSet) decodedPackets.get(0)
+                .getDecodedKLV()
+                .getDataElementByName(Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET)).getValue();
+
+        assertThat(localSetContext.getDataElements()
+                .keySet(), is(elementNames));
+        verifyDataElements(localSetContext.getDataElements());
+    }
+
+    @Test
+    public void testMetadataOnlyScan() throws Exception {
+        final Stanag4609TransportStreamParser parser = getParser();
+        parser.setMetadataOnlyScan(true);
+
+        final Map<Integer, List<DecodedKLVMetadataPacket>> decodedStreams = parser.parse();
+
+        assertThat(decodedStreams.size(), is(1));
+        assertThat(decodedStreams, hasKey(497));
+        final List<DecodedKLVMetadataPacket> decodedPackets = decodedStreams.get(497);
+        assertThat(decodedPackets.size(), is(1));
+        verifyDecodedMetadataPacket(decodedPackets.get(0));
+    }
+
+    /**
+     * Each PES packet spans two transport stream packets. The scan decodes every packet, including
+     * the last one, in stream order.
+     */
+    @Test
+    public void testMetadataOnlyScanOfSyntheticStream() throws Exception {
+        final int packetCount = 2500;
+        final AtomicLong decodedCount = new AtomicLong();
+        final AtomicLong lastTimestamp = new AtomicLong();
+
+        final Stanag4609TransportStreamParser parser = new Stanag4609TransportStreamParser(
+                SyntheticTransportStream.create(packetCount, true));
+        parser.setMetadataOnlyScan(true);
+
+        parser.parse((klvStreamPid, packet) -> {
+            assertThat(klvStreamPid, is(SyntheticTransportStream.METADATA_PID));
+            final long timestamp = (Long) getLocalSet(packet).getDataElementByName(
+                    Stanag4609TransportStreamParser.TIMESTAMP)
+                    .getValue();
+            assertThat(timestamp, greaterThan(lastTimestamp.get()));
+            lastTimestamp.set(timestamp);
+            decodedCount.incrementAndGet();
+        });
+
+        assertThat(decodedCount.get(), is((long) packetCount));
+        assertThat(parser.getRejectedPacketCount(), is(0L));
+    }
+
+    /**
+     * Samples a 1000 second stream every 10 seconds and compares the summary (time range and
+     * latitude range) with the summary of a full parse.
+     */
+    @Test
+    public void testSamplingSummaryMatchesFullParse() throws Exception {
+        final int packetCount = 30000;
+        final ByteSource byteSource = SyntheticTransportStream.create(packetCount);
+
+        final Stanag4609TransportStreamParser fullParser =
+                new Stanag4609TransportStreamParser(byteSource);
+        fullParser.setMetadataOnlyScan(true);
+        final double[] full = summarize(fullParser);
+
+        final Stanag4609TransportStreamParser sampledParser =
+                new Stanag4609TransportStreamParser(byteSource);
+        sampledParser.setMetadataOnlyScan(true);
+        sampledParser.setSamplingInterval(10000);
+        final double[] sampled = summarize(sampledParser);
+
+        assertThat(full[0], is((double) packetCount));
+        assertThat(sampled[0], is(both(greaterThanOrEqualTo(100.0)).and(lessThanOrEqualTo(102.0))));
+
+        // time range, in microseconds
+        assertThat(sampled[1], is(full[1]));
+        assertThat(sampled[2], is(both(greaterThan(full[2] - 10_000_000)).and(lessThanOrEqualTo(
+                full[2]))));
+
+        // the sampled latitude range covers at least 90% of the full latitude range
+        assertThat(sampled[3], greaterThanOrEqualTo(full[3]));
+        assertThat(sampled[4], lessThanOrEqualTo(full[4]));
+        assertThat(sampled[4] - sampled[3], greaterThanOrEqualTo(0.9 * (full[4] - full[3])));
+    }
+
+    @Test
+    public void testStreamingParseOfSyntheticStream() throws Exception {
+        final int packetCount = 2500;
+        final AtomicLong decodedCount = new AtomicLong();
+        final AtomicLong lastTimestamp = new AtomicLong();
+
+        new Stanag4609TransportStreamParser(SyntheticTransportStream.create(packetCount)).parse(
+                (klvStreamPid, packet) -> {
+                    assertThat(klvStreamPid, is(SyntheticTransportStream.METADATA_PID));
+                    final KlvContext localSetContext = getLocalSet(packet);
+                    final long timestamp = (Long) localSetContext.getDataElementByName(
+                            Stanag4609TransportStreamParser.TIMESTAMP)
+                            .getValue();
+                    assertThat(timestamp, greaterThan(lastTimestamp.get()));
+                    lastTimestamp.set(timestamp);
+                    decodedCount.incrementAndGet();
+                });
+
+        // the extractor may only hand over the last PES packet once the next one starts
+        assertThat(decodedCount.get(),
+                is(both(greaterThanOrEqualTo(packetCount - 1L)).and(lessThanOrEqualTo(
+                        (long) packetCount))));
+    }
+
+    /**
+     * The packets are handed to the callback while the stream is read, instead of after the whole
+     * stream was read. The stream that has been read but not handed over yet is all that the parser
+     * can be holding on to, so it must stay far below the size of the stream.
+     */
+    @Test
+    public void testStreamingParseReadAheadIsBounded() throws Exception {
+        final int packetCount = 20_000;
+        final long maxReadAhead = 1024 * 1024;
+
+        final ByteSource stream = SyntheticTransportStream.create(packetCount);
+        final List<CountingInputStream> openedStreams = new CopyOnWriteArrayList<>();
+        final ByteSource countingStream = new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                final CountingInputStream inputStream =
+                        new CountingInputStream(stream.openStream());
+                openedStreams.add(inputStream);
+                return inputStream;
+            }
+        };
+
+        final AtomicLong decodedCount = new AtomicLong();
+        final AtomicLong readAhead = new AtomicLong();
+
+        new Stanag4609TransportStreamParser(countingStream).parse((klvStreamPid, packet) -> {
+            final long read = openedStreams.get(openedStreams.size() - 1)
+                    .getCount();
+            final long handedOver = decodedCount.incrementAndGet() * TS_PACKET_SIZE;
+            readAhead.accumulateAndGet(read - handedOver, Math::max);
+        });
+
+        assertThat(decodedCount.get(), greaterThanOrEqualTo(packetCount - 1L));
+        assertThat(stream.size(), greaterThan(3 * maxReadAhead));
+        assertThat(readAhead.get(), lessThan(maxReadAhead));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCallbackExceptionStopsParse() throws Exception {
+        new Stanag4609TransportStreamParser(SyntheticTransportStream.create(10)).parse(
+                (klvStreamPid, packet) -> {
+                    throw new IllegalStateException();
+                });
+    }
+
+    /**
+     * @return the packet count, the first and last timestamps and the minimum and maximum sensor
+     * latitudes
+     */
+    private double[] summarize(final Stanag4609TransportStreamParser parser) throws Exception {
+        final double[] summary = {0, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE};
+        parser.parse((klvStreamPid, packet) -> {
+            final KlvContext localSet = getLocalSet(packet);
+            final double timestamp = (Long) localSet.getDataElementByName(
+                    Stanag4609TransportStreamParser.TIMESTAMP)
+                    .getValue();
+            final double latitude = (Double) localSet.getDataElementByName(
+                    Stanag4609TransportStreamParser.SENSOR_LATITUDE)
+                    .getValue();
+            summary[0]++;
+            summary[1] = Math.min(summary[1], timestamp);
+            summary[2] = Math.max(summary[2], timestamp);
+            summary[3] = Math.min(summary[3], latitude);
+            summary[4] = Math.max(summary[4], latitude);
+        });
+        return summary;
+    }
+
+    private KlvContext getLocalSet(final DecodedKLVMetadataPacket packet) {
+        final KlvDataElement localSet = packet.getDecodedKLV()
+                .getDataElementByName(Stanag4609TransportStreamParser.UAS_DATALINK_LOCAL_SET);
+        return ((KlvLocalSet) localSet).getValue();
+    }
+
     private void verifyDecodedMetadataPacket(final DecodedKLVMetadataPacket packet) {
         final KlvContext outerContext = packet.getDecodedKLV();
         assertThat(outerContext.getDataElements()
@@ -123,6 +338,10 @@ public class Stanag4609TransportStreamParserTest {
 
         assertThat(localSetDataElements.size(), is(EXPECTED_VALUES.size()));
 
+        verifyDataElements(localSetDataElements);
+    }
+
+    private void verifyDataElements(final Map<String, KlvDataElement> localSetDataElements) {
         localSetDataElements.forEach((name, dataElement) -> {
             final Object expectedValue = EXPECTED_VALUES.get(name);
             final Object actualValue = dataElement.getValue();
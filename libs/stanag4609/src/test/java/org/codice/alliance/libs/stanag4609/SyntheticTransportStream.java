@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.stanag4609;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * Generates an MPEG-2 transport stream with one asynchronous KLV metadata stream on the fly, so
+ * tests can parse streams that are much larger than the heap. Each KLV packet is a UAS Datalink
+ * Local Set with a timestamp, the sensor latitude and longitude and a checksum, and is carried in
+ * its own PES packet. Each PES packet fits in one transport stream packet, unless the stream is
+ * created with split PES packets, in which case each PES packet is split across two transport
+ * stream packets.
+ */
+class SyntheticTransportStream {
+
+    static final int METADATA_PID = 0x1F1;
+
+    private static final int TS_PACKET_SIZE = 188;
+
+    private static final int PMT_PID = 0x1000;
+
+    private static final int PSI_INTERVAL = 1000;
+
+    private static final byte[] UAS_DATALINK_LOCAL_SET_KEY =
+            {0x06, 0x0E, 0x2B, 0x34, 0x02, 0x0B, 0x01, 0x01, 0x0E, 0x01, 0x03, 0x01, 0x01, 0x00,
+                    0x00, 0x00};
+
+    private SyntheticTransportStream() {
+    }
+
+    /**
+     * @param klvPacketCount number of KLV packets in the stream
+     * @return a byte source that generates the stream each time it is opened
+     */
+    static ByteSource create(final long klvPacketCount) {
+        return create(klvPacketCount, false);
+    }
+
+    /**
+     * @param klvPacketCount number of KLV packets in the stream
+     * @param splitPes       true if each PES packet is split across two transport stream packets
+     * @return a byte source that generates the stream each time it is opened
+     */
+    static ByteSource create(final long klvPacketCount, final boolean splitPes) {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                return new GeneratingInputStream(klvPacketCount, splitPes);
+            }
+        };
+    }
+
+    /**
+     * @return a KLV packet with a valid checksum
+     */
+    static byte[] createKlvPacket(final long timestamp, final int latitude, final int longitude) {
+        final ByteBuffer value = ByteBuffer.allocate(26);
+        value.put((byte) 2)
+                .put((byte) 8)
+                .putLong(timestamp);
+        value.put((byte) 13)
+                .put((byte) 4)
+                .putInt(latitude);
+        value.put((byte) 14)
+                .put((byte) 4)
+                .putInt(longitude);
+        value.put((byte) 1)
+                .put((byte) 2);
+
+        final byte[] packet = new byte[UAS_DATALINK_LOCAL_SET_KEY.length + 1 + value.capacity()];
+        System.arraycopy(UAS_DATALINK_LOCAL_SET_KEY,
+                0,
+                packet,
+                0,
+                UAS_DATALINK_LOCAL_SET_KEY.length);
+        packet[UAS_DATALINK_LOCAL_SET_KEY.length] = (byte) value.capacity();
+        System.arraycopy(value.array(),
+                0,
+                packet,
+                UAS_DATALINK_LOCAL_SET_KEY.length + 1,
+                value.capacity());
+
+        int checksum = 0;
+        for (int i = 0; i < packet.length - 2; ++i) {
+            checksum += (packet[i] & 0xFF) << (8 * ((i + 1) % 2));
+        }
+        packet[packet.length - 2] = (byte) (checksum >> 8);
+        packet[packet.length - 1] = (byte) checksum;
+
+        return packet;
+    }
+
+    private static class GeneratingInputStream extends InputStream {
+
+        private final long klvPacketCount;
+
+        private final boolean splitPes;
+
+        private final byte[] tsPacket = new byte[TS_PACKET_SIZE];
+
+        private long klvPacketIndex;
+
+        private int position = TS_PACKET_SIZE;
+
+        private int pendingPsiPackets;
+
+        private long psiPacketIndex = -1;
+
+        private int patContinuityCounter;
+
+        private int pmtContinuityCounter;
+
+        private int metadataContinuityCounter;
+
+        /**
+         * The second half of a split PES packet, or null.
+         */
+        private byte[] pendingPes;
+
+        GeneratingInputStream(final long klvPacketCount, final boolean splitPes) {
+            this.klvPacketCount = klvPacketCount;
+            this.splitPes = splitPes;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return tsPacket[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(length, TS_PACKET_SIZE - position);
+            System.arraycopy(tsPacket, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            if (position < TS_PACKET_SIZE) {
+                return true;
+            }
+
+            if (pendingPes != null) {
+                writeMetadata(false, pendingPes);
+                pendingPes = null;
+                position = 0;
+                return true;
+            }
+
+            if (klvPacketIndex < klvPacketCount && klvPacketIndex % PSI_INTERVAL == 0
+                    && psiPacketIndex != klvPacketIndex) {
+                psiPacketIndex = klvPacketIndex;
+                pendingPsiPackets = 2;
+            }
+
+            if (pendingPsiPackets == 2) {
+                writePat();
+            } else if (pendingPsiPackets == 1) {
+                writePmt();
+            } else if (klvPacketIndex < klvPacketCount) {
+                writeMetadata(klvPacketIndex++);
+            } else {
+                return false;
+            }
+
+            if (pendingPsiPackets > 0) {
+                pendingPsiPackets--;
+            }
+
+            position = 0;
+            return true;
+        }
+
+        private void writePat() {
+            final byte[] section = {0x00, (byte) 0xB0, 13, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                    0x00, 0x01, (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID};
+            writePsi(0, patContinuityCounter++, section);
+        }
+
+        private void writePmt() {
+            final byte[] section = {0x02, (byte) 0xB0, 24, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                    (byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0x00, 0x06,
+                    (byte) (0xE0 | (METADATA_PID >> 8)), (byte) METADATA_PID, (byte) 0xF0, 0x06,
+                    0x05, 0x04, 'K', 'L', 'V', 'A'};
+            writePsi(PMT_PID, pmtContinuityCounter++, section);
+        }
+
+        private void writePsi(final int pid, final int continuityCounter, final byte[] section) {
+            Arrays.fill(tsPacket, (byte) 0xFF);
+            writeHeader(pid, true, continuityCounter, false);
+            tsPacket[4] = 0;
+            System.arraycopy(section, 0, tsPacket, 5, section.length);
+            final int crc = crc32(section);
+            tsPacket[5 + section.length] = (byte) (crc >> 24);
+            tsPacket[6 + section.length] = (byte) (crc >> 16);
+            tsPacket[7 + section.length] = (byte) (crc >> 8);
+            tsPacket[8 + section.length] = (byte) crc;
+        }
+
+        private void writeMetadata(final long index) {
+            final byte[] klv = createKlvPacket(1245257585099653L + index * 33333L,
+                    (int) (index % 1000) * 1000,
+                    (int) (index % 2000) * -1000);
+
+            final byte[] pes = new byte[9 + klv.length];
+            pes[0] = 0;
+            pes[1] = 0;
+            pes[2] = 1;
+            pes[3] = (byte) 0xBD;
+            pes[4] = (byte) ((3 + klv.length) >> 8);
+            pes[5] = (byte) (3 + klv.length);
+            pes[6] = (byte) 0x80;
+            pes[7] = 0;
+            pes[8] = 0;
+            System.arraycopy(klv, 0, pes, 9, klv.length);
+
+            if (splitPes) {
+                final int half = pes.length / 2;
+                writeMetadata(true, Arrays.copyOfRange(pes, 0, half));
+                pendingPes = Arrays.copyOfRange(pes, half, pes.length);
+            } else {
+                writeMetadata(true, pes);
+            }
+        }
+
+        private void writeMetadata(final boolean payloadUnitStart, final byte[] payload) {
+            final int adaptationFieldLength = TS_PACKET_SIZE - 4 - 1 - payload.length;
+
+            writeHeader(METADATA_PID, payloadUnitStart, metadataContinuityCounter++, true);
+            tsPacket[4] = (byte) adaptationFieldLength;
+            tsPacket[5] = 0;
+            Arrays.fill(tsPacket, 6, 5 + adaptationFieldLength, (byte) 0xFF);
+            System.arraycopy(payload, 0, tsPacket, 5 + adaptationFieldLength, payload.length);
+        }
+
+        private void writeHeader(final int pid, final boolean payloadUnitStart,
+                final int continuityCounter, final boolean adaptationField) {
+            tsPacket[0] = 0x47;
+            tsPacket[1] = (byte) ((payloadUnitStart ? 0x40 : 0) | (pid >> 8));
+            tsPacket[2] = (byte) pid;
+            tsPacket[3] = (byte) ((adaptationField ? 0x30 : 0x10) | (continuityCounter & 0x0F));
+        }
+
+        /**
+         * CRC-32/MPEG-2 as used by the PSI sections.
+         */
+        private int crc32(final byte[] bytes) {
+            int crc = 0xFFFFFFFF;
+            for (final byte b : bytes) {
+                crc ^= (b & 0xFF) << 24;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+                }
+            }
+            return crc;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Computes the content digests and the keys used by a {@link TransformationCache}.
+ */
+public class ContentDigests {
+
+    private static final HashFunction DIGEST_FUNCTION = Hashing.sha256();
+
+    private ContentDigests() {
+    }
+
+    /**
+     * Copy the input stream to the output stream and compute the digest of the bytes while they
+     * are copied.
+     *
+     * @return the digest of the copied bytes
+     */
+    public static HashCode copy(InputStream inputStream, OutputStream outputStream)
+            throws IOException {
+        HashingInputStream hashingInputStream = new HashingInputStream(DIGEST_FUNCTION,
+                inputStream);
+        ByteStreams.copy(hashingInputStream, outputStream);
+        return hashingInputStream.hash();
+    }
+
+    /**
+     * @return the digest of the bytes of the byte source
+     */
+    public static HashCode digest(ByteSource byteSource) throws IOException {
+        return byteSource.hash(DIGEST_FUNCTION);
+    }
+
+    /**
+     * @param contentDigest digest of the content that is transformed
+     * @param configuration every setting of the transformer that changes its result, and the name
+     *                      and a version of the transformer
+     * @return the key of the transformation result
+     */
+    public static String createKey(HashCode contentDigest, String configuration) {
+        return DIGEST_FUNCTION.newHasher()
+                .putBytes(contentDigest.asBytes())
+                .putString(configuration, StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.cache;
+
+import java.util.Optional;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.MetacardType;
+import ddf.catalog.data.impl.MetacardImpl;
+
+/**
+ * Caches the metacard attributes produced by an input transformer, so that a transformer that is
+ * given the same content again (eg. a retry, a re-harvest or a duplicate delivery) can skip the
+ * parse. Entries are looked up by a key created with {@link ContentDigests#createKey}, which
+ * combines the digest of the content with the configuration of the transformer. A change to the
+ * configuration therefore changes the keys, and the entries created with the old configuration
+ * are never returned again and are evicted once they expire or the cache is full.
+ */
+public interface TransformationCache {
+
+    /**
+     * @return true if transformers should use the cache
+     */
+    boolean isEnabled();
+
+    /**
+     * @param key          must be non-null
+     * @param metacardType the metacard type of the returned metacard (must be non-null)
+     * @return the cached attributes (except the id), or empty if the key is not cached
+     */
+    Optional<MetacardImpl> get(String key, MetacardType metacardType);
+
+    /**
+     * Cache the attributes of the metacard type of the metacard, except the id. A failure to
+     * write the entry is logged and otherwise ignored.
+     *
+     * @param key      must be non-null
+     * @param metacard must be non-null
+     */
+    void put(String key, Metacard metacard);
+}
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.cache;
+
+import static org.apache.commons.lang3.Validate.notNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ddf.catalog.data.Attribute;
+import ddf.catalog.data.AttributeDescriptor;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.MetacardType;
+import ddf.catalog.data.impl.AttributeImpl;
+import ddf.catalog.data.impl.MetacardImpl;
+
+/**
+ * Stores each entry as a serialized map of attribute names to values in its own file. An entry
+ * expires once its file is older than the time to live. When the files take more space than the
+ * maximum size, then the least recently used entries are removed. The size and the use of the
+ * entries are tracked in memory; the directory is only listed the first time it is used. Entries
+ * are written to a temporary file and then moved into place, so that concurrent transformations
+ * never read a partial entry. Only the attribute value types in {@link #VALUE_CLASSES} (and the
+ * collections that hold them) are written to and read back from the files.
+ */
+public class TransformationCacheImpl implements TransformationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransformationCacheImpl.class);
+
+    private static final String ENTRY_SUFFIX = ".entry";
+
+    private static final String TEMPORARY_PREFIX = "entry";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /**
+     * The attribute value types that are cached. Metacards with other values are not cached.
+     */
+    private static final Set<Class<?>> VALUE_CLASSES = new HashSet<>(Arrays.asList(String.class,
+            Boolean.class,
+            Byte.class,
+            Short.class,
+            Integer.class,
+            Long.class,
+            Float.class,
+            Double.class,
+            Date.class,
+            byte[].class));
+
+    /**
+     * The classes that may be read from an entry: the value types, their super classes and the
+     * collections of an entry.
+     */
+    private static final Set<String> ENTRY_CLASS_NAMES = Stream.concat(VALUE_CLASSES.stream(),
+            Stream.of(Number.class, LinkedHashMap.class, HashMap.class, ArrayList.class))
+            .map(Class::getName)
+            .collect(Collectors.toSet());
+
+    private volatile boolean enabled = false;
+
+    private volatile File directory = new File("data/transformation-cache");
+
+    private volatile long maxSizeBytes = 1024 * BYTES_PER_MEGABYTE;
+
+    private volatile long timeToLiveMillis = TimeUnit.DAYS.toMillis(1);
+
+    private LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * The size of each entry file in the order of use, least recently used first. Null until the
+     * directory is first used.
+     */
+    private LinkedHashMap<String, Long> entrySizes;
+
+    private long totalSize;
+
+    /**
+     * @param enabled must be non-null
+     */
+    public void setEnabled(Boolean enabled) {
+        notNull(enabled, "enabled must be non-null");
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param directory the directory of the cache entries (must be non-null)
+     */
+    public synchronized void setDirectory(String directory) {
+        notNull(directory, "directory must be non-null");
+        this.directory = new File(directory);
+        this.entrySizes = null;
+    }
+
+    /**
+     * @param maxSizeMegabytes maximum size of the cache entries (must be non-null)
+     */
+    public void setMaxSizeMegabytes(Integer maxSizeMegabytes) {
+        notNull(maxSizeMegabytes, "maxSizeMegabytes must be non-null");
+        this.maxSizeBytes = maxSizeMegabytes * BYTES_PER_MEGABYTE;
+    }
+
+    /**
+     * @param timeToLiveMinutes number of minutes after an entry is written that it expires (must
+     *                          be non-null)
+     */
+    public void setTimeToLiveMinutes(Integer timeToLiveMinutes) {
+        notNull(timeToLiveMinutes, "timeToLiveMinutes must be non-null");
+        this.timeToLiveMillis = TimeUnit.MINUTES.toMillis(timeToLiveMinutes);
+    }
+
+    void setMaxSizeBytes(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Optional<MetacardImpl> get(String key, MetacardType metacardType) {
+        notNull(key, "key must be non-null");
+        notNull(metacardType, "metacardType must be non-null");
+
+        File entry = getEntryFile(key);
+
+        if (!entry.isFile()) {
+            return Optional.empty();
+        }
+
+        if (isExpired(entry)) {
+            remove(key, entry);
+            return Optional.empty();
+        }
+
+        try (ObjectInputStream inputStream = new EntryObjectInputStream(new FileInputStream(
+                entry))) {
+            @SuppressWarnings("unchecked")
+            Map<String, List<Serializable>> attributes =
+                    (Map<String, List<Serializable>>) inputStream.readObject();
+
+            MetacardImpl metacard = new MetacardImpl(metacardType);
+            attributes.forEach((name, values) -> metacard.setAttribute(new AttributeImpl(name,
+                    values)));
+            touch(key);
+            return Optional.of(metacard);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOGGER.debug("unable to read cache entry {}, removing it", entry, e);
+            remove(key, entry);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(String key, Metacard metacard) {
+        notNull(key, "key must be non-null");
+        notNull(metacard, "metacard must be non-null");
+
+        LinkedHashMap<String, ArrayList<Serializable>> attributes = new LinkedHashMap<>();
+        for (AttributeDescriptor descriptor : metacard.getMetacardType()
+                .getAttributeDescriptors()) {
+            Attribute attribute = metacard.getAttribute(descriptor.getName());
+            if (attribute != null && attribute.getValues() != null && !Metacard.ID.equals(
+                    descriptor.getName())) {
+                attributes.put(descriptor.getName(), new ArrayList<>(attribute.getValues()));
+            }
+        }
+
+        for (Map.Entry<String, ArrayList<Serializable>> attribute : attributes.entrySet()) {
+            for (Serializable value : attribute.getValue()) {
+                if (value == null || !VALUE_CLASSES.contains(value.getClass())) {
+                    LOGGER.debug("not caching {}, attribute {} has a value of an unsupported type",
+                            key,
+                            attribute.getKey());
+                    return;
+                }
+            }
+        }
+
+        File entryDirectory = directory;
+        File entry = new File(entryDirectory, key + ENTRY_SUFFIX);
+        File temporary = null;
+        try {
+            Files.createDirectories(entryDirectory.toPath());
+            temporary = File.createTempFile(TEMPORARY_PREFIX, TEMPORARY_SUFFIX, entryDirectory);
+            try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(
+                    temporary))) {
+                outputStream.writeObject(attributes);
+            }
+            long size = temporary.length();
+            Files.move(temporary.toPath(),
+                    entry.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            added(entryDirectory, key, size);
+        } catch (IOException e) {
+            LOGGER.debug("unable to write cache entry {}", key, e);
+            if (temporary != null) {
+                delete(temporary);
+            }
+        }
+    }
+
+    /**
+     * Record the new entry as the most recently used one, and then remove the least recently used
+     * entries until the remaining entries fit in the maximum size.
+     */
+    private synchronized void added(File entryDirectory, String key, long size) {
+        if (entryDirectory != directory) {
+            return;
+        }
+        Map<String, Long> sizes = getEntrySizes();
+
+        Long replaced = sizes.remove(key);
+        totalSize += size - (replaced == null ? 0 : replaced);
+        sizes.put(key, size);
+
+        Iterator<Map.Entry<String, Long>> leastRecentlyUsed = sizes.entrySet()
+                .iterator();
+        while (totalSize > maxSizeBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, Long> evicted = leastRecentlyUsed.next();
+            if (!evicted.getKey()
+                    .equals(key)) {
+                totalSize -= evicted.getValue();
+                leastRecentlyUsed.remove();
+                delete(getEntryFile(evicted.getKey()));
+            }
+        }
+    }
+
+    private synchronized void touch(String key) {
+        getEntrySizes().get(key);
+    }
+
+    private synchronized void remove(String key, File entry) {
+        Long size = getEntrySizes().remove(key);
+        if (size != null) {
+            totalSize -= size;
+        }
+        delete(entry);
+    }
+
+    /**
+     * List the entries of the directory the first time it is used, oldest first.
+     */
+    private LinkedHashMap<String, Long> getEntrySizes() {
+        if (entrySizes == null) {
+            entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+            totalSize = 0;
+            File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+            if (entries != null) {
+                Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+                for (File entry : entries) {
+                    String name = entry.getName();
+                    entrySizes.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()),
+                            entry.length());
+                    totalSize += entry.length();
+                }
+            }
+        }
+        return entrySizes;
+    }
+
+    private boolean isExpired(File entry) {
+        return entry.lastModified() + timeToLiveMillis <= clock.getAsLong();
+    }
+
+    private File getEntryFile(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    private void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            LOGGER.debug("unable to delete {}", file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransformationCacheImpl{" +
+                "enabled=" + enabled +
+                ", directory=" + directory +
+                ", maxSizeBytes=" + maxSizeBytes +
+                ", timeToLiveMillis=" + timeToLiveMillis +
+                '}';
+    }
+
+    /**
+     * Only resolves the classes that {@link #put(String, Metacard)} writes, so a cache entry
+     * cannot instantiate any other class.
+     */
+    private static class EntryObjectInputStream extends ObjectInputStream {
+
+        EntryObjectInputStream(InputStream inputStream) throws IOException {
+            super(inputStream);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            if (!ENTRY_CLASS_NAMES.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not a cached class");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
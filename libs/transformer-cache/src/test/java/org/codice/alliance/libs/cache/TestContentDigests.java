@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.cache;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
+
+public class TestContentDigests {
+
+    @Test
+    public void testCopyComputesDigestOfCopiedBytes() throws IOException {
+        byte[] bytes = new byte[100000];
+        new Random(1).nextBytes(bytes);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        HashCode digest = ContentDigests.copy(new ByteArrayInputStream(bytes), outputStream);
+
+        assertThat(outputStream.toByteArray(), is(bytes));
+        assertThat(digest, is(ContentDigests.digest(ByteSource.wrap(bytes))));
+    }
+
+    @Test
+    public void testKeyDependsOnContentAndConfiguration() throws IOException {
+        HashCode first = ContentDigests.digest(ByteSource.wrap(new byte[] {1}));
+        HashCode second = ContentDigests.digest(ByteSource.wrap(new byte[] {2}));
+
+        assertThat(ContentDigests.createKey(first, "a"), is(ContentDigests.createKey(first, "a")));
+        assertThat(ContentDigests.createKey(first, "a"),
+                not(ContentDigests.createKey(second, "a")));
+        assertThat(ContentDigests.createKey(first, "a"),
+                not(ContentDigests.createKey(first, "b")));
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) Codice Foundation
+ * <p/>
+ * This is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. A copy of the GNU Lesser General Public License
+ * is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.alliance.libs.cache;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.BasicTypes;
+import ddf.catalog.data.impl.MetacardImpl;
+
+public class TestTransformationCacheImpl {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TransformationCacheImpl transformationCache;
+
+    private File directory;
+
+    private AtomicLong now;
+
+    @Before
+    public void setup() throws IOException {
+        directory = temporaryFolder.newFolder();
+        now = new AtomicLong(System.currentTimeMillis());
+        transformationCache = new TransformationCacheImpl();
+        transformationCache.setEnabled(true);
+        transformationCache.setDirectory(directory.getPath());
+        transformationCache.setTimeToLiveMinutes(60);
+        transformationCache.setClock(now::get);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertThat(new TransformationCacheImpl().isEnabled(), is(false));
+    }
+
+    @Test
+    public void testMiss() {
+        assertThat(transformationCache.get("key", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+    }
+
+    @Test
+    public void testHit() {
+        Date created = new Date();
+        MetacardImpl metacard = new MetacardImpl(BasicTypes.BASIC_METACARD);
+        metacard.setId("id");
+        metacard.setTitle("title");
+        metacard.setCreatedDate(created);
+        metacard.setAttribute(Metacard.THUMBNAIL, new byte[] {1, 2, 3});
+
+        transformationCache.put("key", metacard);
+
+        Optional<MetacardImpl> cached = transformationCache.get("key", BasicTypes.BASIC_METACARD);
+
+        assertThat(cached.isPresent(), is(true));
+        assertThat(cached.get()
+                .getId(), nullValue());
+        assertThat(cached.get()
+                .getTitle(), is("title"));
+        assertThat(cached.get()
+                .getCreatedDate(), is(created));
+        assertThat(Arrays.equals(cached.get()
+                .getThumbnail(), new byte[] {1, 2, 3}), is(true));
+    }
+
+    @Test
+    public void testEntryExpires() {
+        transformationCache.put("key", createMetacard("title"));
+
+        now.addAndGet(TimeUnit.MINUTES.toMillis(59));
+        assertThat(transformationCache.get("key", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(true));
+
+        now.addAndGet(TimeUnit.MINUTES.toMillis(2));
+        assertThat(transformationCache.get("key", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+        assertThat(directory.list().length, is(0));
+    }
+
+    @Test
+    public void testOldestEntriesAreEvictedWhenFull() {
+        transformationCache.put("first", createMetacard("first"));
+        transformationCache.setMaxSizeBytes(2 * getEntrySize() + getEntrySize() / 2);
+
+        transformationCache.put("second", createMetacard("first"));
+        transformationCache.put("third", createMetacard("first"));
+
+        assertThat(transformationCache.get("first", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+        assertThat(transformationCache.get("second", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(true));
+        assertThat(transformationCache.get("third", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(true));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvictedWhenFull() {
+        transformationCache.put("first", createMetacard("first"));
+        transformationCache.setMaxSizeBytes(2 * getEntrySize() + getEntrySize() / 2);
+        transformationCache.put("second", createMetacard("first"));
+
+        transformationCache.get("first", BasicTypes.BASIC_METACARD);
+        transformationCache.put("third", createMetacard("first"));
+
+        assertThat(transformationCache.get("first", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(true));
+        assertThat(transformationCache.get("second", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+        assertThat(new File(directory, "second.entry").exists(), is(false));
+    }
+
+    @Test
+    public void testExistingEntriesAreEvictedWhenFull() {
+        transformationCache.put("first", createMetacard("first"));
+        long entrySize = getEntrySize();
+
+        transformationCache = new TransformationCacheImpl();
+        transformationCache.setDirectory(directory.getPath());
+        transformationCache.setClock(now::get);
+        transformationCache.setMaxSizeBytes(entrySize + entrySize / 2);
+        transformationCache.put("second", createMetacard("first"));
+
+        assertThat(new File(directory, "first.entry").exists(), is(false));
+        assertThat(new File(directory, "second.entry").exists(), is(true));
+    }
+
+    @Test
+    public void testUnsupportedValueIsNotCached() {
+        MetacardImpl metacard = createMetacard("title");
+        metacard.setAttribute(Metacard.DESCRIPTION, new AtomicInteger(1));
+
+        transformationCache.put("key", metacard);
+
+        assertThat(directory.list().length, is(0));
+    }
+
+    @Test
+    public void testEntryWithUnsupportedClassIsAMiss() throws IOException {
+        LinkedHashMap<String, ArrayList<Serializable>> attributes = new LinkedHashMap<>();
+        attributes.put(Metacard.TITLE, new ArrayList<>(Collections.singletonList(new AtomicInteger(
+                1))));
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new FileOutputStream(new File(
+                directory,
+                "key.entry")))) {
+            outputStream.writeObject(attributes);
+        }
+
+        assertThat(transformationCache.get("key", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+        assertThat(directory.list().length, is(0));
+    }
+
+    @Test
+    public void testUnreadableEntryIsAMiss() throws IOException {
+        Files.write(new File(directory, "key.entry").toPath(), new byte[] {1, 2, 3});
+
+        assertThat(transformationCache.get("key", BasicTypes.BASIC_METACARD)
+                .isPresent(), is(false));
+        assertThat(directory.list().length, is(0));
+    }
+
+    private long getEntrySize() {
+        return new File(directory, "first.entry").length();
+    }
+
+    private MetacardImpl createMetacard(String title) {
+        MetacardImpl metacard = new MetacardImpl(BasicTypes.BASIC_METACARD);
+        metacard.setTitle(title);
+        return metacard;
+    }
+}